@@ -0,0 +1,99 @@
+package com.jtk.bonds.issuance.cordapp.client.orderbook;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders per second an order book takes, and the latency of matching an order that crosses the spread.
+ * Orders come from a pre-generated stream of bids and asks spread over {@code priceLevels} prices around a mid price,
+ * so about half of them trade against the book and the rest of them rest on it.
+ */
+@State(Scope.Thread)
+public class OrderBookBenchmark {
+    private static final int STREAM_SIZE = 1 << 16;
+    private static final int MID_PRICE = 1000;
+    private static final String[] SELLERS = {"HSBC", "CITI", "Goldman Sachs"};
+
+    @Param({"10", "100"})
+    public int priceLevels;
+
+    private OrderBook book;
+    private boolean[] bids;
+    private int[] prices;
+    private int[] units;
+    private String[] owners;
+    private int nextOrder;
+    private boolean nextCrossingBid;
+    private Blackhole sink;
+    private final OrderBook.TradeListener consumeTrades = (bidId, askId, buyer, seller, price, tradeUnits) ->
+            sink.consume(tradeUnits);
+    private final OrderBook.TradeListener ignoreTrades = (bidId, askId, buyer, seller, price, tradeUnits) -> { };
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        bids = new boolean[STREAM_SIZE];
+        prices = new int[STREAM_SIZE];
+        units = new int[STREAM_SIZE];
+        owners = new String[STREAM_SIZE];
+        for (int i = 0; i < STREAM_SIZE; i++) {
+            bids[i] = random.nextBoolean();
+            prices[i] = MID_PRICE + random.nextInt(priceLevels) - priceLevels / 2;
+            units[i] = 1 + random.nextInt(100);
+            owners[i] = bids[i] ? "DBS" : SELLERS[random.nextInt(SELLERS.length)];
+        }
+        book = new OrderBook("benchmark-term");
+        // a resting book on both sides of the spread before anything is measured
+        for (int level = 1; level <= priceLevels; level++) {
+            for (int order = 0; order < 10; order++) {
+                book.place(OrderBook.Side.BID, MID_PRICE - level, 100, "DBS", ignoreTrades);
+                book.place(OrderBook.Side.ASK, MID_PRICE + level, 100, "HSBC", ignoreTrades);
+            }
+        }
+        nextOrder = 0;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long placeOrder(Blackhole blackhole) {
+        sink = blackhole;
+        int i = nextOrder++ & (STREAM_SIZE - 1);
+        return book.place(bids[i] ? OrderBook.Side.BID : OrderBook.Side.ASK, prices[i], units[i], owners[i],
+                consumeTrades);
+    }
+
+    /**
+     * An order at the best price of the other side, followed by the passive order that restocks what it took.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long matchOrder(Blackhole blackhole) {
+        sink = blackhole;
+        int i = nextOrder++ & (STREAM_SIZE - 1);
+        nextCrossingBid = !nextCrossingBid;
+        long orderId;
+        if (nextCrossingBid) {
+            int price = book.bestAsk() == 0 ? MID_PRICE + 1 : book.bestAsk();
+            orderId = book.place(OrderBook.Side.BID, price, units[i], "DBS", consumeTrades);
+            book.place(OrderBook.Side.ASK, price, units[i], "HSBC", ignoreTrades);
+        } else {
+            int price = book.bestBid() == 0 ? MID_PRICE - 1 : book.bestBid();
+            orderId = book.place(OrderBook.Side.ASK, price, units[i], "HSBC", consumeTrades);
+            book.place(OrderBook.Side.BID, price, units[i], "DBS", ignoreTrades);
+        }
+        return orderId;
+    }
+}
@@ -0,0 +1,69 @@
+package com.jtk.corda.benchmarks;
+
+import com.jtk.corda.contants.BondStatus;
+import com.jtk.corda.states.bond.issuance.BondState;
+import com.jtk.corda.states.bond.issuance.TermState;
+import com.jtk.corda.states.cash.issuance.CashState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.testing.core.TestIdentity;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.SplittableRandom;
+
+/**
+ * Parties and synthetic bond, term and cash states shared by the benchmarks, spread over the currencies, credit
+ * ratings and maturities the query benchmarks filter on. Generated from a fixed seed so every run measures the same
+ * data.
+ */
+final class BenchmarkStates {
+    static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyyMMdd");
+    static final String[] CURRENCIES = {"SGD", "USD", "PHP", "THB", "GBP"};
+    static final String[] RATINGS = {"AAA", "AA+", "AA", "BBB", "B-"};
+    static final String[] BOND_TYPES = {"TB", "GB", "CB"};
+
+    static final TestIdentity NOTARY = new TestIdentity(
+            new CordaX500Name("SGX Notary", "Notary", "SGX", "Singapore", null, "SG"));
+    static final TestIdentity CENTRAL_BANK = new TestIdentity(
+            new CordaX500Name("Central Bank", "CBDC", "Central Bank", "Singapore", null, "SG"));
+    static final TestIdentity ISSUER = new TestIdentity(
+            new CordaX500Name("Goldman Sachs", "Bank", "Goldman Sachs", "New York", null, "US"));
+    static final TestIdentity INVESTOR = new TestIdentity(
+            new CordaX500Name("HSBC", "Bank", "HSBC", "London", null, "GB"));
+
+    private BenchmarkStates() {
+    }
+
+    static String maturityDate(int years) {
+        return dateFormatter.format(LocalDate.now().plusYears(years));
+    }
+
+    /**
+     * A term of 1000 units of which unitsSold have been bought.
+     */
+    static TermState term(int i, int unitsSold, SplittableRandom random) {
+        int unitsAvailable = 1000 - unitsSold;
+        return new TermState(ISSUER.getParty(), new HashSet<>(Arrays.asList(INVESTOR.getParty())),
+                "BENCH-BOND-" + i, BondStatus.ACTIVE.name(), 1 + random.nextInt(500) / 100.0,
+                100 * (1 + random.nextInt(10)), unitsAvailable, unitsSold, new UniqueIdentifier(),
+                maturityDate(1 + random.nextInt(10)), BOND_TYPES[random.nextInt(BOND_TYPES.length)],
+                CURRENCIES[random.nextInt(CURRENCIES.length)], RATINGS[random.nextInt(RATINGS.length)],
+                1 + random.nextInt(12));
+    }
+
+    static BondState bond(TermState term, Party investor, SplittableRandom random) {
+        return new BondState(term.getIssuer(), investor, term.getInterestRate(), term.getParValue(),
+                term.getMaturityDate(), term.getCreditRating(), 1 + random.nextInt(20), term.getBondStatus(),
+                term.getBondType(), term.getCurrency(), term.getBondName(), term.getLinearId(), new UniqueIdentifier(),
+                term.getPaymentFrequencyInMonths(), dateFormatter.format(LocalDate.now()),
+                dateFormatter.format(LocalDate.now().plusDays(random.nextInt(365))));
+    }
+
+    static CashState cash(String currencyCode) {
+        return new CashState(currencyCode, 1.35, CENTRAL_BANK.getParty(), new UniqueIdentifier());
+    }
+}
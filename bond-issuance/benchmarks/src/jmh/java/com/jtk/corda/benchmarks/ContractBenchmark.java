@@ -0,0 +1,115 @@
+package com.jtk.corda.benchmarks;
+
+import com.jtk.corda.contracts.bond.issuance.BondContract;
+import com.jtk.corda.contracts.bond.issuance.TermContract;
+import com.jtk.corda.contracts.cash.issuance.CashStateContract;
+import com.jtk.corda.states.bond.issuance.BondState;
+import com.jtk.corda.states.bond.issuance.TermState;
+import com.r3.corda.lib.tokens.contracts.commands.Create;
+import com.r3.corda.lib.tokens.contracts.commands.Update;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.testing.node.MockServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.jtk.corda.benchmarks.BenchmarkStates.CENTRAL_BANK;
+import static com.jtk.corda.benchmarks.BenchmarkStates.INVESTOR;
+import static com.jtk.corda.benchmarks.BenchmarkStates.ISSUER;
+import static com.jtk.corda.benchmarks.BenchmarkStates.NOTARY;
+
+/**
+ * Contract verification of the transactions the flows build: creating a term, a bond and a cash state, and the term
+ * update a bond request makes. The ledger transactions are resolved once, so only the contract code is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ContractBenchmark {
+    private final BondContract bondContract = new BondContract();
+    private final TermContract termContract = new TermContract();
+    private final CashStateContract cashContract = new CashStateContract();
+
+    private LedgerTransaction createBondTx;
+    private LedgerTransaction createTermTx;
+    private LedgerTransaction updateTermTx;
+    private LedgerTransaction createCashTx;
+
+    @Setup
+    public void setUp() {
+        MockServices services = new MockServices(
+                Arrays.asList("com.jtk.corda.contracts", "com.r3.corda.lib.tokens.contracts"), ISSUER);
+        SplittableRandom random = new SplittableRandom(42);
+
+        TermState term = BenchmarkStates.term(0, 0, random);
+        SignedTransaction createTerm = services.signInitialTransaction(new TransactionBuilder(NOTARY.getParty())
+                .addOutputState(term)
+                .addCommand(new Create(), ISSUER.getPublicKey()));
+        services.recordTransactions(createTerm);
+        createTermTx = createTerm.toLedgerTransaction(services, false);
+
+        int units = 10;
+        TermState updatedTerm = new TermState(term.getIssuer(), term.getInvestors(), term.getBondName(),
+                term.getBondStatus(), term.getInterestRate(), term.getParValue(), term.getUnitsAvailable() - units,
+                term.getRedemptionAvailable() + units, term.getLinearId(), term.getMaturityDate(), term.getBondType(),
+                term.getCurrency(), term.getCreditRating(), term.getPaymentFrequencyInMonths());
+        StateAndRef<TermState> termRef = createTerm.getTx().outRef(0);
+        updateTermTx = new TransactionBuilder(NOTARY.getParty())
+                .addInputState(termRef)
+                .addOutputState(updatedTerm)
+                .addCommand(new Update(), ISSUER.getPublicKey())
+                .toLedgerTransaction(services);
+
+        BondState bond = BenchmarkStates.bond(updatedTerm, INVESTOR.getParty(), random);
+        createBondTx = new TransactionBuilder(NOTARY.getParty())
+                .addOutputState(bond)
+                .addCommand(new Create(), ISSUER.getPublicKey(), INVESTOR.getPublicKey())
+                .toLedgerTransaction(services);
+
+        createCashTx = new TransactionBuilder(NOTARY.getParty())
+                .addOutputState(BenchmarkStates.cash("SGD"))
+                .addCommand(new Create(), CENTRAL_BANK.getPublicKey())
+                .toLedgerTransaction(services);
+    }
+
+    @Benchmark
+    public LedgerTransaction bondContractVerify() {
+        bondContract.verify(createBondTx);
+        return createBondTx;
+    }
+
+    @Benchmark
+    public LedgerTransaction bondContractAdditionalCreateChecks() {
+        bondContract.additionalCreateChecks(createBondTx);
+        return createBondTx;
+    }
+
+    @Benchmark
+    public LedgerTransaction termContractVerifyCreate() {
+        termContract.verify(createTermTx);
+        return createTermTx;
+    }
+
+    @Benchmark
+    public LedgerTransaction termContractVerifyUpdate() {
+        termContract.verify(updateTermTx);
+        return updateTermTx;
+    }
+
+    @Benchmark
+    public LedgerTransaction cashStateContractVerify() {
+        cashContract.verify(createCashTx);
+        return createCashTx;
+    }
+}
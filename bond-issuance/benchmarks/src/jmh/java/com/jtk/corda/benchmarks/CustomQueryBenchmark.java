@@ -0,0 +1,152 @@
+package com.jtk.corda.benchmarks;
+
+import com.jtk.corda.states.bond.issuance.BondState;
+import com.jtk.corda.states.bond.issuance.TermState;
+import com.jtk.corda.states.cash.issuance.CashState;
+import com.jtk.corda.workflows.utils.CustomQuery;
+import com.jtk.corda.workflows.utils.QueryPage;
+import com.r3.corda.lib.tokens.contracts.commands.Create;
+import kotlin.Pair;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.LinearPointer;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.node.StatesToRecord;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.nodeapi.internal.persistence.CordaPersistence;
+import net.corda.testing.node.MockServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.jtk.corda.benchmarks.BenchmarkStates.CENTRAL_BANK;
+import static com.jtk.corda.benchmarks.BenchmarkStates.INVESTOR;
+import static com.jtk.corda.benchmarks.BenchmarkStates.ISSUER;
+import static com.jtk.corda.benchmarks.BenchmarkStates.NOTARY;
+import static net.corda.testing.node.MockServicesKt.makeTestIdentityService;
+
+/**
+ * CustomQuery against the vault of MockServices on an in-memory H2 test database holding vaultSize terms, bonds and
+ * cash states, recorded once per trial. Every query runs its criteria as SQL over the vault and the state schemas, as
+ * a flow's would, in a database transaction of its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CustomQueryBenchmark {
+    private static final int STATES_PER_TRANSACTION = 500;
+
+    @Param({"1000", "10000"})
+    public int vaultSize;
+
+    private CordaPersistence database;
+    private MockServices services;
+    private List<UniqueIdentifier> bondIds;
+    private List<LinearPointer<TermState>> termPointers;
+
+    @Setup
+    public void setUp() {
+        Pair<CordaPersistence, MockServices> databaseAndServices = MockServices.makeTestDatabaseAndMockServices(
+                Arrays.asList("com.jtk.corda.contracts", "com.r3.corda.lib.tokens.contracts"),
+                makeTestIdentityService(NOTARY.getIdentity(), CENTRAL_BANK.getIdentity(), ISSUER.getIdentity(),
+                        INVESTOR.getIdentity()),
+                ISSUER);
+        database = databaseAndServices.getFirst();
+        services = databaseAndServices.getSecond();
+
+        SplittableRandom random = new SplittableRandom(42);
+        List<TermState> terms = new ArrayList<>(vaultSize);
+        List<BondState> bonds = new ArrayList<>(vaultSize);
+        List<CashState> cash = new ArrayList<>(vaultSize);
+        for (int i = 0; i < vaultSize; i++) {
+            TermState term = BenchmarkStates.term(i, random.nextInt(1000), random);
+            terms.add(term);
+            bonds.add(BenchmarkStates.bond(term, INVESTOR.getParty(), random));
+            cash.add(BenchmarkStates.cash(term.getCurrency()));
+        }
+        record(terms);
+        record(bonds);
+        record(cash);
+
+        // every bond id in random order, as a coupon run resolves them, and a query page's worth of term pointers
+        bondIds = bonds.stream().map(BondState::getLinearId).collect(Collectors.toList());
+        Collections.shuffle(bondIds, new Random(42));
+        termPointers = terms.stream()
+                .limit(Math.min(vaultSize, 200))
+                .map(term -> new LinearPointer<>(term.getLinearId(), TermState.class))
+                .collect(Collectors.toList());
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public List<TermState> queryTermsPointerByCurrency() {
+        return database.transaction(tx -> CustomQuery.queryTermsPointerByCurrency("SGD", services));
+    }
+
+    @Benchmark
+    public List<StateAndRef<BondState>> queryBondRefsDueForCoupon() {
+        return database.transaction(tx -> CustomQuery.queryBondRefsDueForCoupon(BenchmarkStates.maturityDate(0),
+                ISSUER.getParty(), services));
+    }
+
+    @Benchmark
+    public List<StateAndRef<BondState>> queryBondRefsByLinearIds() {
+        return database.transaction(tx -> CustomQuery.queryBondRefsByLinearIds(bondIds, services));
+    }
+
+    @Benchmark
+    public Map<UniqueIdentifier, StateAndRef<TermState>> resolveLinearPointers() {
+        return database.transaction(tx -> CustomQuery.resolveLinearPointers(termPointers, TermState.class, services));
+    }
+
+    @Benchmark
+    public QueryPage<BondState> queryBondsPage() {
+        return database.transaction(tx -> CustomQuery.queryBondsPage(
+                CustomQuery.bondQueryCriteria("byCurrency", "SGD"), null, 1, 200, services));
+    }
+
+    @Benchmark
+    public List<CashState> queryCashStateByCurrency() {
+        return database.transaction(tx -> CustomQuery.queryCashStateByCurrency("SGD", services));
+    }
+
+    /**
+     * Records the states as outputs of transactions of STATES_PER_TRANSACTION states each. The vault keeps every
+     * state, whoever its participants are, so the cash of the central bank is queried like the terms and bonds.
+     */
+    private void record(List<? extends ContractState> states) {
+        List<SignedTransaction> transactions = new ArrayList<>();
+        for (int from = 0; from < states.size(); from += STATES_PER_TRANSACTION) {
+            TransactionBuilder builder = new TransactionBuilder(NOTARY.getParty())
+                    .addCommand(new Create(), ISSUER.getPublicKey());
+            states.subList(from, Math.min(from + STATES_PER_TRANSACTION, states.size()))
+                    .forEach(builder::addOutputState);
+            transactions.add(services.signInitialTransaction(builder));
+        }
+        database.transaction(tx -> {
+            services.recordTransactions(StatesToRecord.ALL_VISIBLE, transactions);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,97 @@
+package com.jtk.corda.benchmarks;
+
+import com.jtk.corda.contants.BondCreditRating;
+import com.jtk.corda.contants.BondType;
+import com.jtk.corda.states.bond.issuance.BondState;
+import com.jtk.corda.states.bond.issuance.TermState;
+import com.jtk.corda.workflows.utils.CouponPaymentUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.LocalDate;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.jtk.corda.benchmarks.BenchmarkStates.INVESTOR;
+
+/**
+ * The per-state work the query flows and the client do for every row: json rendering of bonds and terms, coupon
+ * schedule arithmetic and the rating and bond type lookups the contracts validate with.
+ * Each call takes the next of a pre-generated set of inputs, so the lookups see every rating and bond type.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StateBenchmark {
+    private static final int INPUTS = 256;
+
+    private TermState[] terms;
+    private BondState[] bonds;
+    private LocalDate[] maturityDates;
+    private String[] ratings;
+    private String[] bondTypes;
+    private LocalDate today;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        today = LocalDate.now();
+        terms = new TermState[INPUTS];
+        bonds = new BondState[INPUTS];
+        maturityDates = new LocalDate[INPUTS];
+        ratings = new String[INPUTS];
+        bondTypes = new String[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            terms[i] = BenchmarkStates.term(i, random.nextInt(1000), random);
+            bonds[i] = BenchmarkStates.bond(terms[i], INVESTOR.getParty(), random);
+            maturityDates[i] = LocalDate.parse(terms[i].getMaturityDate(), BenchmarkStates.dateFormatter);
+            ratings[i] = terms[i].getCreditRating();
+            // unknown values take the miss path of the lookups
+            bondTypes[i] = i % 8 == 0 ? "XB" : terms[i].getBondType();
+        }
+    }
+
+    private int nextInput() {
+        return next++ & (INPUTS - 1);
+    }
+
+    @Benchmark
+    public String bondStateToJson() {
+        return bonds[nextInput()].toJson();
+    }
+
+    @Benchmark
+    public String termStateToJson() {
+        return terms[nextInput()].toJson();
+    }
+
+    @Benchmark
+    public long getCouponPayments() {
+        int i = nextInput();
+        return CouponPaymentUtil.getCouponPayments(terms[i].getPaymentFrequencyInMonths(), 30, maturityDates[i],
+                today);
+    }
+
+    @Benchmark
+    public LocalDate getNextCouponPaymentDate() {
+        int i = nextInput();
+        return CouponPaymentUtil.getNextCouponPaymentDate(maturityDates[i], 30, terms[i].getPaymentFrequencyInMonths());
+    }
+
+    @Benchmark
+    public Optional<BondCreditRating> lookupRating() {
+        return BondCreditRating.lookupRating(ratings[nextInput()]);
+    }
+
+    @Benchmark
+    public Optional<BondType> lookupBondType() {
+        return BondType.lookup(bondTypes[nextInput()]);
+    }
+}
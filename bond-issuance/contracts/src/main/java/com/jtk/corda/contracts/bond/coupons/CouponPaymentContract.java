@@ -1,16 +1,45 @@
 package com.jtk.corda.contracts.bond.coupons;
 
+import com.jtk.corda.states.bond.coupons.CouponPaymentState;
 import net.corda.core.contracts.CommandData;
+import net.corda.core.contracts.CommandWithParties;
 import net.corda.core.contracts.Contract;
 import net.corda.core.transactions.LedgerTransaction;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.List;
+
+import static net.corda.core.contracts.ContractsDSL.requireSingleCommand;
+import static net.corda.core.contracts.ContractsDSL.requireThat;
+
 public class CouponPaymentContract implements Contract {
     public final static String contractID = "com.jtk.corda.contracts.bond.coupons.CouponPaymentContract";
+
+    /**
+     * PayCoupons either starts a schedule, with no input, or moves it on to its next run, replacing the one input
+     * schedule with one for the same issuer at a later time.
+     */
     @Override
     public void verify(@NotNull LedgerTransaction tx) throws IllegalArgumentException {
-
+        CommandWithParties<Commands.PayCoupons> command = requireSingleCommand(tx.getCommands(), Commands.PayCoupons.class);
+        List<CouponPaymentState> inputs = tx.inputsOfType(CouponPaymentState.class);
+        List<CouponPaymentState> outputs = tx.outputsOfType(CouponPaymentState.class);
+        requireThat(req -> {
+            req.using("PayCoupons consumes at most one coupon schedule", inputs.size() <= 1);
+            req.using("PayCoupons must produce exactly one coupon schedule", outputs.size() == 1);
+            CouponPaymentState output = outputs.get(0);
+            req.using("Coupon schedule period must be greater than zero", output.getDurationInSecs() > 0);
+            req.using("Issuer signature is required", command.getSigners().contains(output.getIssuer().getOwningKey()));
+            if (!inputs.isEmpty()) {
+                CouponPaymentState input = inputs.get(0);
+                req.using("Coupon schedule issuer cannot be changed", input.getIssuer().equals(output.getIssuer()));
+                req.using("Coupon schedule must move to a later run",
+                        output.getNextActivityTime().isAfter(input.getNextActivityTime()));
+            }
+            return null;
+        });
     }
+
     public interface Commands extends CommandData {
         class PayCoupons implements Commands {}
     }
@@ -1,10 +1,14 @@
 package com.jtk.corda.contracts.bond.issuance;
 
 import com.jtk.corda.contants.BondCreditRating;
+import com.jtk.corda.contants.BondStatus;
 import com.jtk.corda.contants.BondType;
 import com.jtk.corda.states.bond.issuance.BondState;
 import com.r3.corda.lib.tokens.contracts.EvolvableTokenContract;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.contracts.CommandWithParties;
 import net.corda.core.contracts.Contract;
+import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.transactions.LedgerTransaction;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
@@ -12,6 +16,10 @@ import org.slf4j.LoggerFactory;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static net.corda.core.contracts.ContractsDSL.requireThat;
 
@@ -23,6 +31,16 @@ public class BondContract extends EvolvableTokenContract implements Contract {
     @Override
     public void verify(@NotNull LedgerTransaction tx) {
         log.info("BondContract Verifying... ");
+        List<CommandWithParties<Commands.PayCoupon>> payCouponCommands = tx.commandsOfType(Commands.PayCoupon.class);
+        if(!payCouponCommands.isEmpty()){
+            verifyPayCoupon(tx, payCouponCommands.get(0));
+            return;
+        }
+        List<CommandWithParties<Commands.Redeem>> redeemCommands = tx.commandsOfType(Commands.Redeem.class);
+        if(!redeemCommands.isEmpty()){
+            verifyRedeem(tx, redeemCommands.get(0));
+            return;
+        }
         BondState outputState = (BondState)tx.getOutput(0);
         if(!tx.getCommand(0).getSigners().contains(outputState.getInvestor().getOwningKey())){
             throw new IllegalArgumentException("Investor signature is required");
@@ -95,4 +113,82 @@ public class BondContract extends EvolvableTokenContract implements Contract {
         });
 
     }
+
+    /**
+     * A coupon run evolves many BondStates in one transaction, which the single input/output
+     * Update command of the token SDK does not allow. Each input must have exactly one output with
+     * the same linearId, one coupon consumed and nothing else but the next coupon date changed.
+     */
+    private void verifyPayCoupon(LedgerTransaction tx, CommandWithParties<Commands.PayCoupon> command) {
+        List<BondState> inputs = tx.inputsOfType(BondState.class);
+        List<BondState> outputs = tx.outputsOfType(BondState.class);
+        requireThat(req -> {
+            req.using("Only one PayCoupon command is allowed", tx.commandsOfType(Commands.PayCoupon.class).size() == 1);
+            req.using("PayCoupon requires at least one BondState", !inputs.isEmpty());
+            req.using("PayCoupon must have one output for every input BondState", inputs.size() == outputs.size());
+            Map<UniqueIdentifier, BondState> outputsById = outputs.stream()
+                    .collect(Collectors.toMap(BondState::getLinearId, Function.identity(), (a, b) -> a));
+            req.using("PayCoupon output BondStates must have distinct linearIds", outputsById.size() == outputs.size());
+            for (BondState input : inputs) {
+                BondState output = outputsById.get(input.getLinearId());
+                req.using("PayCoupon output missing for bond " + input.getLinearId(), output != null);
+                req.using("Bond Issuer cannot be changed", input.getIssuer().equals(output.getIssuer()));
+                req.using("Bond Investor cannot be changed", input.getInvestor().equals(output.getInvestor()));
+                req.using("Bond Currency must not be changed.", input.getCurrency().equals(output.getCurrency()));
+                req.using("Bond Status must not be changed.", input.getBondStatus().equals(output.getBondStatus()));
+                req.using("Bond Term must not be changed.", input.getTermStateLinearID().equals(output.getTermStateLinearID()));
+                req.using("Bond interest rate must not be changed.", input.getInterestRate() == output.getInterestRate());
+                req.using("Bond par value must not be changed.", input.getParValue() == output.getParValue());
+                req.using("Bond payment frequency must not be changed.",
+                        input.getPaymentFrequencyInMonths() == output.getPaymentFrequencyInMonths());
+                req.using("Bond maturity date must not be changed.", input.getMaturityDate().equals(output.getMaturityDate()));
+                req.using("Bond issue date must not be changed.", input.getIssueDate().equals(output.getIssueDate()));
+                req.using("Bond Name must not be changed.", input.getBondName().equals(output.getBondName()));
+                req.using("Bond must have a coupon left to pay", input.getCouponPaymentLeft() > 0);
+                req.using("PayCoupon must consume exactly one coupon",
+                        output.getCouponPaymentLeft() == input.getCouponPaymentLeft() - 1);
+                req.using("Issuer signature is required", command.getSigners().contains(input.getIssuer().getOwningKey()));
+                req.using("Investor signature is required", command.getSigners().contains(input.getInvestor().getOwningKey()));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * A batched redemption matures many BondStates in one transaction. Each input must be an active bond with exactly
+     * one output with the same linearId, MATURED with no coupon left and otherwise unchanged.
+     */
+    private void verifyRedeem(LedgerTransaction tx, CommandWithParties<Commands.Redeem> command) {
+        List<BondState> inputs = tx.inputsOfType(BondState.class);
+        List<BondState> outputs = tx.outputsOfType(BondState.class);
+        requireThat(req -> {
+            req.using("Only one Redeem command is allowed", tx.commandsOfType(Commands.Redeem.class).size() == 1);
+            req.using("Redeem requires at least one BondState", !inputs.isEmpty());
+            req.using("Redeem must have one output for every input BondState", inputs.size() == outputs.size());
+            Map<UniqueIdentifier, BondState> outputsById = outputs.stream()
+                    .collect(Collectors.toMap(BondState::getLinearId, Function.identity(), (a, b) -> a));
+            req.using("Redeem output BondStates must have distinct linearIds", outputsById.size() == outputs.size());
+            for (BondState input : inputs) {
+                BondState output = outputsById.get(input.getLinearId());
+                req.using("Redeem output missing for bond " + input.getLinearId(), output != null);
+                req.using("Only an active bond can be redeemed", BondStatus.ACTIVE.name().equals(input.getBondStatus()));
+                req.using("Redeemed bond must be MATURED", BondStatus.MATURED.name().equals(output.getBondStatus()));
+                req.using("Redeemed bond must have no coupon left", output.getCouponPaymentLeft() == 0);
+                req.using("Bond Issuer cannot be changed", input.getIssuer().equals(output.getIssuer()));
+                req.using("Bond Investor cannot be changed", input.getInvestor().equals(output.getInvestor()));
+                req.using("Bond Currency must not be changed.", input.getCurrency().equals(output.getCurrency()));
+                req.using("Bond Term must not be changed.", input.getTermStateLinearID().equals(output.getTermStateLinearID()));
+                req.using("Bond par value must not be changed.", input.getParValue() == output.getParValue());
+                req.using("Bond maturity date must not be changed.", input.getMaturityDate().equals(output.getMaturityDate()));
+                req.using("Issuer signature is required", command.getSigners().contains(input.getIssuer().getOwningKey()));
+                req.using("Investor signature is required", command.getSigners().contains(input.getInvestor().getOwningKey()));
+            }
+            return null;
+        });
+    }
+
+    public interface Commands extends CommandData {
+        class PayCoupon implements Commands {}
+        class Redeem implements Commands {}
+    }
 }
@@ -0,0 +1,113 @@
+package com.jtk.corda.schemas.bond.issuance;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * Columns of {@link com.jtk.corda.states.bond.issuance.BondState} that the vault queries filter on.
+ * Dates are kept in the same yyyyMMdd form as the state so range predicates can be pushed into SQL.
+ */
+public class BondSchemaV1 extends MappedSchema {
+
+    public BondSchemaV1() {
+        super(BondSchema.class, 1, ImmutableList.of(PersistentBond.class));
+    }
+
+    @Override
+    public String getMigrationResource() {
+        return "bond-schema-v1.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "bond_states", indexes = {
+            @Index(name = "bond_term_linear_id_idx", columnList = "term_state_linear_id"),
+            @Index(name = "bond_investor_idx", columnList = "investor"),
+            @Index(name = "bond_issuer_idx", columnList = "issuer"),
+            @Index(name = "bond_status_idx", columnList = "bond_status"),
+            @Index(name = "bond_currency_idx", columnList = "currency"),
+            @Index(name = "bond_credit_rating_idx", columnList = "credit_rating"),
+            @Index(name = "bond_maturity_date_idx", columnList = "maturity_date"),
+            @Index(name = "bond_next_coupon_date_idx", columnList = "next_coupon_date")
+    })
+    public static class PersistentBond extends PersistentState {
+        @Column(name = "linear_id", length = 36)
+        private final String linearId;
+        @Column(name = "term_state_linear_id", length = 36)
+        private final String termStateLinearID;
+        @Column(name = "issuer")
+        private final String issuer;
+        @Column(name = "investor")
+        private final String investor;
+        @Column(name = "bond_status", length = 16)
+        private final String bondStatus;
+        @Column(name = "currency", length = 3)
+        private final String currency;
+        @Column(name = "credit_rating", length = 8)
+        private final String creditRating;
+        @Column(name = "maturity_date", length = 8)
+        private final String maturityDate;
+        @Column(name = "next_coupon_date", length = 8)
+        private final String nextCouponDate;
+
+        public PersistentBond(String linearId, String termStateLinearID, String issuer, String investor,
+                              String bondStatus, String currency, String creditRating, String maturityDate,
+                              String nextCouponDate) {
+            this.linearId = linearId;
+            this.termStateLinearID = termStateLinearID;
+            this.issuer = issuer;
+            this.investor = investor;
+            this.bondStatus = bondStatus;
+            this.currency = currency;
+            this.creditRating = creditRating;
+            this.maturityDate = maturityDate;
+            this.nextCouponDate = nextCouponDate;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentBond() {
+            this(null, null, null, null, null, null, null, null, null);
+        }
+
+        public String getLinearId() {
+            return linearId;
+        }
+
+        public String getTermStateLinearID() {
+            return termStateLinearID;
+        }
+
+        public String getIssuer() {
+            return issuer;
+        }
+
+        public String getInvestor() {
+            return investor;
+        }
+
+        public String getBondStatus() {
+            return bondStatus;
+        }
+
+        public String getCurrency() {
+            return currency;
+        }
+
+        public String getCreditRating() {
+            return creditRating;
+        }
+
+        public String getMaturityDate() {
+            return maturityDate;
+        }
+
+        public String getNextCouponDate() {
+            return nextCouponDate;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.jtk.corda.schemas.bond.issuance;
+
+/**
+ * Schema family for {@link com.jtk.corda.states.bond.issuance.TermState}.
+ */
+public class TermSchema {
+}
@@ -0,0 +1,81 @@
+package com.jtk.corda.schemas.bond.issuance;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * Columns of {@link com.jtk.corda.states.bond.issuance.TermState} used by the term lookups.
+ * Maturity dates are stored as yyyyMMdd strings, matching the state.
+ */
+public class TermSchemaV1 extends MappedSchema {
+
+    public TermSchemaV1() {
+        super(TermSchema.class, 1, ImmutableList.of(PersistentTerm.class));
+    }
+
+    @Override
+    public String getMigrationResource() {
+        return "term-schema-v1.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "term_states", indexes = {
+            @Index(name = "term_linear_id_idx", columnList = "linear_id"),
+            @Index(name = "term_status_idx", columnList = "bond_status"),
+            @Index(name = "term_currency_idx", columnList = "currency"),
+            @Index(name = "term_credit_rating_idx", columnList = "credit_rating"),
+            @Index(name = "term_maturity_date_idx", columnList = "maturity_date")
+    })
+    public static class PersistentTerm extends PersistentState {
+        @Column(name = "linear_id", length = 36)
+        private final String linearId;
+        @Column(name = "bond_status", length = 16)
+        private final String bondStatus;
+        @Column(name = "currency", length = 3)
+        private final String currency;
+        @Column(name = "credit_rating", length = 8)
+        private final String creditRating;
+        @Column(name = "maturity_date", length = 8)
+        private final String maturityDate;
+
+        public PersistentTerm(String linearId, String bondStatus, String currency, String creditRating,
+                              String maturityDate) {
+            this.linearId = linearId;
+            this.bondStatus = bondStatus;
+            this.currency = currency;
+            this.creditRating = creditRating;
+            this.maturityDate = maturityDate;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentTerm() {
+            this(null, null, null, null, null);
+        }
+
+        public String getLinearId() {
+            return linearId;
+        }
+
+        public String getBondStatus() {
+            return bondStatus;
+        }
+
+        public String getCurrency() {
+            return currency;
+        }
+
+        public String getCreditRating() {
+            return creditRating;
+        }
+
+        public String getMaturityDate() {
+            return maturityDate;
+        }
+    }
+}
@@ -9,30 +9,42 @@ import net.corda.core.flows.FlowLogicRefFactory;
 import net.corda.core.identity.AbstractParty;
 import net.corda.core.identity.Party;
 import net.corda.core.serialization.ConstructorForDeserialization;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * Coupon schedule of an issuer. Every durationInSecs the node starts ScheduledCouponPaymentFlow on the state, which
+ * pays the coupons due by then and replaces the state with the next one, carrying the last coupon date it paid.
+ */
 @BelongsToContract(CouponPaymentContract.class)
 public class CouponPaymentState implements SchedulableState {
-    private static final Logger log = LoggerFactory.getLogger(CouponPaymentState.class);
-    private Party issuer;
-    private int durationInSecs;
+    private static final String SCHEDULED_FLOW = "com.jtk.corda.workflows.bond.coupons.ScheduledCouponPaymentFlow";
+
+    private final Party issuer;
+    private final int durationInSecs;
     private final Instant nextActivityTime;
+    private final String lastCouponDate;
+
     public CouponPaymentState(Party issuer, int durationInSecs) {
-        this.issuer = issuer;
-        this.durationInSecs = durationInSecs;
-        this.nextActivityTime = Instant.now().plusSeconds(durationInSecs);
+        this(issuer, durationInSecs, Instant.now().plusSeconds(durationInSecs), "");
     }
 
     @ConstructorForDeserialization
-    public CouponPaymentState(Party issuer , int durationInSecs, Instant nextActivityTime) {
+    public CouponPaymentState(Party issuer, int durationInSecs, Instant nextActivityTime, String lastCouponDate) {
         this.issuer = issuer;
         this.durationInSecs = durationInSecs;
         this.nextActivityTime = nextActivityTime;
+        this.lastCouponDate = lastCouponDate;
+    }
+
+    /**
+     * The state that replaces this one once a run has paid the coupons up to lastCouponDate (yyyyMMdd).
+     */
+    public CouponPaymentState next(String lastCouponDate) {
+        return new CouponPaymentState(issuer, durationInSecs, Instant.now().plusSeconds(durationInSecs),
+                lastCouponDate);
     }
 
     @Override
@@ -52,10 +64,15 @@ public class CouponPaymentState implements SchedulableState {
         return nextActivityTime;
     }
 
+    /**
+     * Last coupon date paid by the schedule, empty until the first payment.
+     */
+    public String getLastCouponDate() {
+        return lastCouponDate;
+    }
+
     @Override
     public ScheduledActivity nextScheduledActivity(StateRef thisStateRef, FlowLogicRefFactory flowLogicRefFactory) {
-        log.info("");
-        return new ScheduledActivity(flowLogicRefFactory.
-                create("com.jtk.corda.workflows.bond.coupons.CouponPaymentFlow", thisStateRef), nextActivityTime);
+        return new ScheduledActivity(flowLogicRefFactory.create(SCHEDULED_FLOW, thisStateRef), nextActivityTime);
     }
 }
@@ -2,12 +2,16 @@ package com.jtk.corda.states.bond.issuance;
 
 import com.google.common.collect.ImmutableList;
 import com.jtk.corda.contracts.bond.issuance.BondContract;
+import com.jtk.corda.schemas.bond.issuance.BondSchemaV1;
 import com.r3.corda.lib.tokens.contracts.states.EvolvableTokenType;
 import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
 import net.corda.core.contracts.BelongsToContract;
 import net.corda.core.contracts.LinearPointer;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.identity.Party;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.schemas.QueryableState;
 import net.corda.core.schemas.StatePersistable;
 import net.corda.core.serialization.CordaSerializable;
 
@@ -15,7 +19,7 @@ import java.util.List;
 
 @CordaSerializable
 @BelongsToContract(BondContract.class)
-public class BondState extends EvolvableTokenType implements StatePersistable  {
+public class BondState extends EvolvableTokenType implements StatePersistable, QueryableState {
 
     private final int fractionDigits = 0;
     private final Party issuer;
@@ -136,6 +140,29 @@ public class BondState extends EvolvableTokenType implements StatePersistable  {
         return new TokenPointer<>(new LinearPointer<>(linearId, BondState.class), fractionDigits);
     }
 
+    @Override
+    public PersistentState generateMappedObject(MappedSchema schema) {
+        if (schema instanceof BondSchemaV1) {
+            return new BondSchemaV1.PersistentBond(
+                    linearId.getId().toString(),
+                    termStateLinearID.getId().toString(),
+                    issuer.getName().toString(),
+                    investor.getName().toString(),
+                    bondStatus,
+                    currency,
+                    creditRating,
+                    maturityDate,
+                    nextCouponDate);
+        } else {
+            throw new IllegalArgumentException("Unrecognised schema " + schema);
+        }
+    }
+
+    @Override
+    public Iterable<MappedSchema> supportedSchemas() {
+        return ImmutableList.of(new BondSchemaV1());
+    }
+
 
     @Override
     public boolean equals(Object o) {
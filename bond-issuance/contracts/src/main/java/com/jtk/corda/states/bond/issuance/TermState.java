@@ -2,12 +2,16 @@ package com.jtk.corda.states.bond.issuance;
 
 import com.google.common.collect.ImmutableList;
 import com.jtk.corda.contracts.bond.issuance.TermContract;
+import com.jtk.corda.schemas.bond.issuance.TermSchemaV1;
 import com.r3.corda.lib.tokens.contracts.states.EvolvableTokenType;
 import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
 import net.corda.core.contracts.BelongsToContract;
 import net.corda.core.contracts.LinearPointer;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.identity.Party;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.schemas.QueryableState;
 import net.corda.core.schemas.StatePersistable;
 import net.corda.core.serialization.CordaSerializable;
 
@@ -24,7 +28,7 @@ import java.util.stream.Collectors;
  */
 @CordaSerializable
 @BelongsToContract(TermContract.class)
-public class TermState extends EvolvableTokenType implements StatePersistable {
+public class TermState extends EvolvableTokenType implements StatePersistable, QueryableState {
     private final int fractionDigits = 0;
     private final Party issuer; // Issuer of the bond
     private final Set<Party> investors; // the investors who brought the bond
@@ -144,6 +148,25 @@ public class TermState extends EvolvableTokenType implements StatePersistable {
         return new TokenPointer<>(new LinearPointer<>(linearId, TermState.class), fractionDigits);
     }
 
+    @Override
+    public PersistentState generateMappedObject(MappedSchema schema) {
+        if (schema instanceof TermSchemaV1) {
+            return new TermSchemaV1.PersistentTerm(
+                    linearId.getId().toString(),
+                    bondStatus,
+                    currency,
+                    creditRating,
+                    maturityDate);
+        } else {
+            throw new IllegalArgumentException("Unrecognised schema " + schema);
+        }
+    }
+
+    @Override
+    public Iterable<MappedSchema> supportedSchemas() {
+        return ImmutableList.of(new TermSchemaV1());
+    }
+
 
     @Override
     public boolean equals(Object o) {
@@ -0,0 +1,178 @@
+package com.jtk.bonds.issuance.cordapp.client.utils;
+
+import com.google.common.collect.ImmutableList;
+import com.jtk.corda.CordaParties;
+import com.jtk.corda.workflows.bond.issuance.CreateAndIssueTermFlow;
+import com.jtk.corda.workflows.bond.issuance.QueryBondTermsFlow;
+import com.jtk.corda.workflows.bond.issuance.QueryBondsFlow;
+import com.jtk.corda.workflows.bond.issuance.RequestForBondInitiatorFlow;
+import com.jtk.corda.workflows.cash.issuance.CreateCashFlow;
+import com.jtk.corda.workflows.cash.issuance.TransferTokenFlow;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+import net.corda.testing.driver.VerifierType;
+import net.corda.testing.node.NotarySpec;
+import net.corda.testing.node.TestCordapp;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static net.corda.testing.driver.Driver.driver;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Every query type of query-bonds and query-bond-terms answered by {@link VaultRpcQueries} and by the query flow the
+ * client starts in flow mode, on driver nodes, must give the same bonds and terms.
+ */
+public class VaultRpcQueriesIntegrationTest {
+    private static final CordaX500Name GS = CordaX500Name.parse("CN=Goldman Sachs,OU=Bank,O=Goldman Sachs,L=New York,C=US");
+    private static final CordaX500Name HSBC = CordaX500Name.parse("CN=HSBC,OU=Bank,O=HSBC,L=London,C=GB");
+
+    @Test
+    public void rpcQueriesAnswerAsTheQueryFlows() {
+        driver(new DriverParameters()
+                .withIsDebug(false)
+                .withStartNodesInProcess(false)
+                .withNotarySpecs(ImmutableList.of(new NotarySpec(CordaParties.NOTARY.getCordaX500Name(), true,
+                        Collections.emptyList(), VerifierType.InMemory, null)))
+                .withCordappsForAllNodes(ImmutableList.of(
+                        TestCordapp.findCordapp("com.jtk.corda.contracts"),
+                        TestCordapp.findCordapp("com.jtk.corda.workflows"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.tokens.contracts"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.tokens.workflows"))), dsl -> {
+            try {
+                NodeHandle cbNode = dsl.startNode(new NodeParameters()
+                        .withProvidedName(CordaParties.CENTRAL_BANK.getCordaX500Name())).get();
+                NodeHandle gsNode = dsl.startNode(new NodeParameters().withProvidedName(GS)).get();
+                NodeHandle hsbcNode = dsl.startNode(new NodeParameters().withProvidedName(HSBC)).get();
+                CordaRPCOps cb = cbNode.getRpc();
+                CordaRPCOps gs = gsNode.getRpc();
+                CordaRPCOps hsbc = hsbcNode.getRpc();
+                Party hsbcParty = hsbcNode.getNodeInfo().getLegalIdentities().get(0);
+
+                cb.startFlowDynamic(CreateCashFlow.class, "10000000", "USD", 1.0).getReturnValue().get();
+                cb.startFlowDynamic(TransferTokenFlow.TransferTokenInitiator.class, "1000000", "USD", hsbcParty)
+                        .getReturnValue().get();
+                List<String> termIds = new ArrayList<>();
+                String[][] terms = {{"20300806", "AAA"}, {"20350806", "AA"}, {"20400806", "AAA"}};
+                for (int i = 0; i < terms.length; i++) {
+                    String response = gs.startFlowDynamic(CreateAndIssueTermFlow.class, "RPC-" + i, 3.2, 100, 1000,
+                            terms[i][0], "CB", "USD", terms[i][1], 6).getReturnValue().get();
+                    termIds.add(new JsonObject(response.split(">")[1]).getString("linearId"));
+                }
+                for (String termId : termIds.subList(0, 2)) {
+                    hsbc.startFlowDynamic(RequestForBondInitiatorFlow.class,
+                            UniqueIdentifier.Companion.fromString(termId), 10).getReturnValue().get();
+                }
+
+                for (CordaRPCOps proxy : ImmutableList.of(gs, hsbc)) {
+                    VaultRpcQueries queries = new VaultRpcQueries(() -> proxy);
+                    assertFalse(new JsonArray(queries.queryTerms("byCurrency", "USD")).isEmpty());
+                    assertFalse(new JsonArray(queries.queryBonds("byCurrency", "USD")).isEmpty());
+                    for (String[] query : queries(termIds.get(0))) {
+                        assertEquals(
+                                canonical(flow(proxy, termFlow(query[0]), query[0], query[1])),
+                                canonical(queries.queryTerms(query[0], query[1])),
+                                "query-bond-terms " + query[0]);
+                        assertEquals(
+                                canonical(flow(proxy, bondFlow(query[0]), query[0], query[1])),
+                                canonical(queries.queryBonds(query[0], query[1])),
+                                "query-bonds " + query[0]);
+                    }
+                }
+            } catch (Exception e) {
+                throw new RuntimeException("Caught exception during test: ", e);
+            }
+            return null;
+        });
+    }
+
+    private static String[][] queries(String termId) {
+        return new String[][]{
+                {"byCurrency", "USD"},
+                {"byCurrency", "SGD"},
+                {"byRating", "AAA"},
+                {"lessThanMaturityDate", "20360101"},
+                {"greaterThanMaturityDate", "20360101"},
+                {"byTermStateLinearID", termId},
+                {"notActiveBonds", null}};
+    }
+
+    /**
+     * The query flow the client starts for the query-bond-terms queryType.
+     */
+    private static Class<? extends FlowLogic<String>> termFlow(String queryType) {
+        switch (queryType) {
+            case "byCurrency":
+                return QueryBondTermsFlow.GetBondTermsByCurrency.class;
+            case "byRating":
+                return QueryBondTermsFlow.GetBondTermsByRating.class;
+            case "lessThanMaturityDate":
+                return QueryBondTermsFlow.GetBondTermsLessThanMaturityDate.class;
+            case "greaterThanMaturityDate":
+                return QueryBondTermsFlow.GetBondTermsGreaterThanMaturityDate.class;
+            case "byTermStateLinearID":
+                return QueryBondTermsFlow.GetActiveBondTermByTermStateLinearID.class;
+            default:
+                return QueryBondTermsFlow.GetNotActiveBondTerm.class;
+        }
+    }
+
+    /**
+     * The query flow the client starts for the query-bonds queryType.
+     */
+    private static Class<? extends FlowLogic<String>> bondFlow(String queryType) {
+        switch (queryType) {
+            case "byCurrency":
+                return QueryBondsFlow.GetBondsByCurrency.class;
+            case "byRating":
+                return QueryBondsFlow.GetBondsByRating.class;
+            case "lessThanMaturityDate":
+                return QueryBondsFlow.GetBondLessThanMaturityDate.class;
+            case "greaterThanMaturityDate":
+                return QueryBondsFlow.GetBondGreaterThanMaturityDate.class;
+            case "byTermStateLinearID":
+                return QueryBondsFlow.GetBondByTermStateLinearID.class;
+            default:
+                return QueryBondsFlow.GetNotActiveBonds.class;
+        }
+    }
+
+    private static String flow(CordaRPCOps proxy, Class<? extends FlowLogic<String>> flow, String queryType,
+                               String queryValue) throws Exception {
+        if ("notActiveBonds".equals(queryType)) {
+            return proxy.startFlowDynamic(flow).getReturnValue().get();
+        }
+        Object arg = "byTermStateLinearID".equals(queryType)
+                ? UniqueIdentifier.Companion.fromString(queryValue)
+                : queryValue;
+        return proxy.startFlowDynamic(flow, arg).getReturnValue().get();
+    }
+
+    /**
+     * A single answer as is, a list of answers in an order that does not depend on the order the vault returned
+     * them in.
+     */
+    private static String canonical(String answer) {
+        if (!answer.trim().startsWith("[")) {
+            return new JsonObject(answer).encode();
+        }
+        List<String> states = new ArrayList<>();
+        for (Object state : new JsonArray(answer)) {
+            states.add(((JsonObject) state).encode());
+        }
+        Collections.sort(states);
+        return states.toString();
+    }
+}
@@ -1,6 +1,7 @@
 package com.jtk.bonds.issuance.cordapp.client;
 
 import com.google.common.collect.ImmutableList;
+import com.jtk.bonds.issuance.cordapp.client.metrics.ClientMetrics;
 import com.jtk.bonds.issuance.cordapp.client.verticle.CordaVerticle;
 import com.jtk.bonds.issuance.cordapp.client.verticle.OpenAPIVerticle;
 import io.vertx.config.ConfigRetriever;
@@ -43,7 +44,8 @@ public class MainVerticle extends AbstractVerticle {
     configRetriever.getConfig(rs -> {
       if (rs.succeeded()) {
         JsonObject json = rs.result();
-        VertxOptions options = new VertxOptions(json);
+        VertxOptions options = new VertxOptions(json)
+                .setMetricsOptions(ClientMetrics.options(json));
         vertx = Vertx.vertx(options);
         deploymentOptions = new DeploymentOptions();
         deploymentOptions.setConfig(json);
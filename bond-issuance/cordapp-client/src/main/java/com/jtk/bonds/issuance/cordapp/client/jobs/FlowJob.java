@@ -0,0 +1,103 @@
+package com.jtk.bonds.issuance.cordapp.client.jobs;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A flow started in async mode, identified by the flow's run id, with the progress tracker steps it went through and
+ * its result once it has finished. Updated from the RPC client's threads, read from the verticles.
+ */
+public class FlowJob {
+    public enum Status {RUNNING, COMPLETED, FAILED}
+
+    private final String jobId;
+    private final String flow;
+    private final Instant startedAt = Instant.now();
+    private final List<String> steps = new ArrayList<>();
+    private Status status = Status.RUNNING;
+    private String result;
+    private String error;
+    private Instant finishedAt;
+
+    public FlowJob(String jobId, String flow) {
+        this.jobId = jobId;
+        this.flow = flow;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public synchronized Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * Records the step the flow moved to, false when the flow had already finished or was in that step.
+     */
+    synchronized boolean step(String step) {
+        if (status != Status.RUNNING || (!steps.isEmpty() && steps.get(steps.size() - 1).equals(step))) {
+            return false;
+        }
+        steps.add(step);
+        return true;
+    }
+
+    /**
+     * Records the result, false when the job had already finished.
+     */
+    synchronized boolean complete(String result) {
+        if (status != Status.RUNNING) {
+            return false;
+        }
+        this.status = Status.COMPLETED;
+        this.result = result;
+        this.finishedAt = Instant.now();
+        return true;
+    }
+
+    /**
+     * Records the error, false when the job had already finished.
+     */
+    synchronized boolean fail(String error) {
+        if (status != Status.RUNNING) {
+            return false;
+        }
+        this.status = Status.FAILED;
+        this.error = error;
+        this.finishedAt = Instant.now();
+        return true;
+    }
+
+    public synchronized JsonObject toJson() {
+        JsonObject json = new JsonObject()
+                .put("jobId", jobId)
+                .put("flow", flow)
+                .put("status", status.name())
+                .put("step", steps.isEmpty() ? null : steps.get(steps.size() - 1))
+                .put("steps", new JsonArray(new ArrayList<>(steps)))
+                .put("startedAt", startedAt.toString());
+        if (finishedAt != null) {
+            json.put("finishedAt", finishedAt.toString());
+        }
+        if (result != null) {
+            json.put("result", result);
+        }
+        if (error != null) {
+            json.put("error", error);
+        }
+        return json;
+    }
+}
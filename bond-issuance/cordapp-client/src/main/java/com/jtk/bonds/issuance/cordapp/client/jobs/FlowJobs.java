@@ -0,0 +1,85 @@
+package com.jtk.bonds.issuance.cordapp.client.jobs;
+
+import io.vertx.core.eventbus.EventBus;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Flows started in async mode by job id. Every change of a job, a new step or its result, is published as the job's
+ * json on the event bus address of the job, which the job event streams subscribe to. Finished jobs are kept until
+ * evicted, so clients polling for the result do not miss it; jobs are in memory only and lost on restart. A job whose
+ * flow has not finished within a max age, e.g. because its result was lost with the RPC connection, is failed so it
+ * can be evicted like any other, and an outcome arriving after that is ignored.
+ */
+public class FlowJobs {
+    private static final String ADDRESS_PREFIX = "CORDA-JOB.";
+
+    private final Map<String, FlowJob> jobs = new ConcurrentHashMap<>();
+    private final EventBus eventBus;
+
+    public FlowJobs(EventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    public static String address(String jobId) {
+        return ADDRESS_PREFIX + jobId;
+    }
+
+    public FlowJob start(String jobId, String flow) {
+        FlowJob job = new FlowJob(jobId, flow);
+        jobs.put(jobId, job);
+        return job;
+    }
+
+    public FlowJob get(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    public void step(FlowJob job, String step) {
+        if (job.step(step)) {
+            publish(job);
+        }
+    }
+
+    public void complete(FlowJob job, String result) {
+        if (job.complete(result)) {
+            publish(job);
+        }
+    }
+
+    public void fail(FlowJob job, String error) {
+        if (job.fail(error)) {
+            publish(job);
+        }
+    }
+
+    /**
+     * Fails the jobs still running that started before the given instant, returns how many were failed.
+     */
+    public int failRunningStartedBefore(Instant instant) {
+        int failed = 0;
+        for (FlowJob job : jobs.values()) {
+            if (job.getStatus() == FlowJob.Status.RUNNING && job.getStartedAt().isBefore(instant)
+                    && job.fail("No result since " + job.getStartedAt() + ", the flow may still finish on the node")) {
+                publish(job);
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Drops the jobs that finished before the given instant, returns how many were dropped.
+     */
+    public int evictFinishedBefore(Instant instant) {
+        int before = jobs.size();
+        jobs.values().removeIf(job -> job.getFinishedAt() != null && job.getFinishedAt().isBefore(instant));
+        return before - jobs.size();
+    }
+
+    private void publish(FlowJob job) {
+        eventBus.publish(address(job.getJobId()), job.toJson());
+    }
+}
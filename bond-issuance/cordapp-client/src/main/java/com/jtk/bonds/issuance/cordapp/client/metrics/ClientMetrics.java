@@ -0,0 +1,116 @@
+package com.jtk.bonds.issuance.cordapp.client.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.micrometer.Label;
+import io.vertx.micrometer.MicrometerMetricsOptions;
+import io.vertx.micrometer.PrometheusScrapingHandler;
+import io.vertx.micrometer.VertxPrometheusOptions;
+import io.vertx.micrometer.backends.BackendRegistries;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of the client, scraped in Prometheus format from /metrics.
+ * Vert.x reports its own HTTP server, event bus (pending messages per address) and worker pool (queued and in use
+ * tasks per pool, corda-rpc-pool among them) metrics. On top of those the client times every OpenAPI operation,
+ * every CORDA-API request until its reply, and counts the flows it starts over RPC by flow class.
+ * With vertx.metrics.enabled false nothing is recorded and /metrics is not mounted.
+ */
+public final class ClientMetrics {
+    public static final String METRICS_PATH = "/metrics";
+    // records nothing, used when metrics are disabled
+    private static final MeterRegistry NO_METRICS = new CompositeMeterRegistry();
+
+    private ClientMetrics() {
+    }
+
+    public static MicrometerMetricsOptions options(JsonObject config) {
+        return new MicrometerMetricsOptions()
+                .setEnabled(isEnabled(config))
+                .setJvmMetricsEnabled(true)
+                .setPrometheusOptions(new VertxPrometheusOptions().setEnabled(true))
+                .setLabels(EnumSet.of(Label.HTTP_METHOD, Label.HTTP_CODE, Label.EB_ADDRESS, Label.EB_SIDE,
+                        Label.EB_FAILURE, Label.POOL_TYPE, Label.POOL_NAME));
+    }
+
+    public static boolean isEnabled(JsonObject config) {
+        return config.getBoolean("vertx.metrics.enabled", true);
+    }
+
+    public static Handler<RoutingContext> scrapeHandler() {
+        return PrometheusScrapingHandler.create();
+    }
+
+    /**
+     * Times the request from this handler until its response has been written, by operationId and status code.
+     */
+    public static Handler<RoutingContext> timeOperation(String operationId) {
+        return routingContext -> {
+            long start = System.nanoTime();
+            routingContext.addEndHandler(end -> Timer.builder("client.http.operation")
+                    .description("OpenAPI operations, from routing until the response is written")
+                    .tag("operationId", operationId)
+                    .tag("status", String.valueOf(routingContext.response().getStatusCode()))
+                    .register(registry())
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+            routingContext.next();
+        };
+    }
+
+    /**
+     * Wraps the reply handler of an event bus request sent now, timing the request until its reply or failure.
+     */
+    public static <T> Handler<AsyncResult<T>> timeRequest(String address, Handler<AsyncResult<T>> replyHandler) {
+        long start = System.nanoTime();
+        return reply -> {
+            Timer.builder("client.eventbus.request")
+                    .description("Event bus requests, from sending until the reply arrives")
+                    .tag("address", address)
+                    .tag("outcome", reply.succeeded() ? "reply" : "failure")
+                    .register(registry())
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            replyHandler.handle(reply);
+        };
+    }
+
+    /**
+     * Counts a flow started over RPC, and whether it completed or failed, by flow class. A flow that could not be
+     * started counts as started and failed.
+     */
+    public static <T> Future<T> countFlow(Class<?> flowClass, Supplier<Future<T>> start) {
+        MeterRegistry registry = registry();
+        String flow = flowClass.getName();
+        registry.counter("client.rpc.flows.started", "flow", flow).increment();
+        long startNanos = System.nanoTime();
+        Future<T> result;
+        try {
+            result = start.get();
+        } catch (RuntimeException e) {
+            result = Future.failedFuture(e);
+        }
+        return result.onComplete(done -> {
+            registry.counter(done.succeeded() ? "client.rpc.flows.completed" : "client.rpc.flows.failed",
+                    "flow", flow).increment();
+            Timer.builder("client.rpc.flow.duration")
+                    .description("Flows started over RPC, from starting until their result arrives")
+                    .tag("flow", flow)
+                    .tag("outcome", done.succeeded() ? "completed" : "failed")
+                    .register(registry)
+                    .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        });
+    }
+
+    private static MeterRegistry registry() {
+        MeterRegistry registry = BackendRegistries.getDefaultNow();
+        return registry == null ? NO_METRICS : registry;
+    }
+}
@@ -0,0 +1,144 @@
+package com.jtk.bonds.issuance.cordapp.client.orderbook;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Order books by TermState linearId, and the trades they matched that still have to be settled.
+ * Trades are netted as they happen per term, buyer and seller, so a settlement run starts one delivery versus payment
+ * flow per pair instead of one per trade. A pair whose netted cost would no longer fit the flow's int cost is closed
+ * and a new one is started. A settlement that fails is queued for the next run until it has been tried
+ * maxAttempts times, after which it is kept as failed, with the book of its term, to be reconciled by hand.
+ * Not thread safe, like the books themselves.
+ */
+public class BondOrderBooks {
+    private final Map<String, OrderBook> books = new HashMap<>();
+    private final Map<String, OrderBook.TradeListener> listeners = new HashMap<>();
+    private final Map<String, long[]> pending = new LinkedHashMap<>();
+    private final List<Settlement> closed = new ArrayList<>();
+    private final Map<String, List<Settlement>> failed = new HashMap<>();
+    private int pendingTrades;
+
+    public long place(String termId, OrderBook.Side side, int price, int units, String owner) {
+        if ((long) price * units > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Order value is too large to be settled");
+        }
+        OrderBook book = books.computeIfAbsent(termId, OrderBook::new);
+        OrderBook.TradeListener listener = listeners.computeIfAbsent(termId, this::netTrades);
+        return book.place(side, price, units, owner, listener);
+    }
+
+    public boolean cancel(String termId, long orderId) {
+        OrderBook book = books.get(termId);
+        return book != null && book.cancel(orderId);
+    }
+
+    public OrderBook book(String termId) {
+        return books.get(termId);
+    }
+
+    public int pendingTrades() {
+        return pendingTrades;
+    }
+
+    /**
+     * Whether a settlement run has anything to settle, matched trades or failed settlements to try again.
+     */
+    public boolean hasSettlements() {
+        return pendingTrades > 0 || !closed.isEmpty();
+    }
+
+    /**
+     * Takes back a settlement that failed, to be settled by the next run, or keeps it as failed once it has failed
+     * maxAttempts times. Returns false when it was given up.
+     */
+    public boolean retry(Settlement settlement, int maxAttempts) {
+        Settlement attempt = settlement.failedAttempt();
+        if (attempt.getAttempts() >= maxAttempts) {
+            failed.computeIfAbsent(attempt.getTermId(), termId -> new ArrayList<>()).add(attempt);
+            return false;
+        }
+        closed.add(attempt);
+        return true;
+    }
+
+    /**
+     * Settlements of the term that were given up, oldest first.
+     */
+    public List<Settlement> failedSettlements(String termId) {
+        return failed.getOrDefault(termId, new ArrayList<>());
+    }
+
+    /**
+     * Netted settlements of every trade matched since the last call.
+     */
+    public List<Settlement> drainSettlements() {
+        List<Settlement> settlements = new ArrayList<>(closed);
+        for (Map.Entry<String, long[]> pair : pending.entrySet()) {
+            settlements.add(toSettlement(pair.getKey(), pair.getValue()));
+        }
+        closed.clear();
+        pending.clear();
+        pendingTrades = 0;
+        return settlements;
+    }
+
+    /**
+     * Book of a term as json, its best prices and up to maxLevels levels per side.
+     */
+    public String toJson(String termId, int maxLevels) {
+        OrderBook book = books.get(termId);
+        if (book == null) {
+            return String.format("{\"termId\":\"%s\",\"failedSettlements\":%s,\"bids\":[],\"asks\":[]}",
+                    termId, failedSettlements(termId));
+        }
+        int[] levelPrices = new int[maxLevels];
+        long[] levelUnits = new long[maxLevels];
+        StringBuilder json = new StringBuilder()
+                .append("{\"termId\":\"").append(termId).append("\",")
+                .append("\"bestBid\":").append(book.bestBid()).append(',')
+                .append("\"bestAsk\":").append(book.bestAsk()).append(',')
+                .append("\"restingOrders\":").append(book.restingOrders()).append(',')
+                .append("\"pendingTrades\":").append(pendingTrades).append(',')
+                .append("\"failedSettlements\":").append(failedSettlements(termId)).append(',');
+        for (OrderBook.Side side : OrderBook.Side.values()) {
+            int count = book.depth(side, levelPrices, levelUnits);
+            json.append('"').append(side == OrderBook.Side.BID ? "bids" : "asks").append("\":[");
+            for (int i = 0; i < count; i++) {
+                json.append(i == 0 ? "" : ",")
+                        .append("{\"price\":").append(levelPrices[i])
+                        .append(",\"units\":").append(levelUnits[i]).append('}');
+            }
+            json.append(side == OrderBook.Side.BID ? "]," : "]");
+        }
+        return json.append('}').toString();
+    }
+
+    private OrderBook.TradeListener netTrades(String termId) {
+        return (bidId, askId, buyer, seller, price, units) -> {
+            String key = termId + '\n' + buyer + '\n' + seller;
+            long cost = (long) price * units;
+            long[] netted = pending.get(key);
+            if (netted != null && netted[1] + cost > Integer.MAX_VALUE) {
+                closed.add(toSettlement(key, pending.remove(key)));
+                netted = null;
+            }
+            if (netted == null) {
+                netted = new long[3];
+                pending.put(key, netted);
+            }
+            netted[0] += units;
+            netted[1] += cost;
+            netted[2]++;
+            pendingTrades++;
+        };
+    }
+
+    private static Settlement toSettlement(String key, long[] netted) {
+        String[] pair = key.split("\n", 3);
+        return new Settlement(pair[0], pair[1], pair[2], (int) netted[0], (int) netted[1], (int) netted[2]);
+    }
+}
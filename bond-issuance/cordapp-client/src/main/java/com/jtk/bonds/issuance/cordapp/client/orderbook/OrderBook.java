@@ -0,0 +1,261 @@
+package com.jtk.bonds.issuance.cordapp.client.orderbook;
+
+import java.util.Arrays;
+
+/**
+ * Limit order book of one bond term with price-time priority.
+ * An incoming order first trades against the best resting prices of the other side, oldest order first, at the
+ * resting order's price. What is left of it then rests at its own price behind the orders already there.
+ * An owner never trades with itself: a resting order of the incoming order's owner that it would trade against is
+ * cancelled instead.
+ * Orders live in parallel primitive arrays indexed by a slot that is reused once the order is gone, so placing and
+ * matching do not allocate. An order id carries its slot and the slot's generation, which makes stale ids harmless.
+ * Not thread safe, a book is meant to be used from a single thread.
+ */
+public final class OrderBook {
+    private static final int NIL = PriceLevels.NIL;
+
+    public enum Side { BID, ASK }
+
+    /**
+     * Receives every trade while an order is matched.
+     */
+    public interface TradeListener {
+        void onTrade(long bidId, long askId, String buyer, String seller, int price, int units);
+    }
+
+    private final String termId;
+    private final PriceLevels bids;
+    private final PriceLevels asks;
+
+    private int[] generations;
+    private int[] prices;
+    private int[] remaining;
+    private boolean[] bidOrders;
+    private int[] next;
+    private int[] prev;
+    private String[] owners;
+    private int[] freeSlots;
+    private int freeCount;
+    private int usedSlots;
+
+    public OrderBook(String termId) {
+        this(termId, 64, 1024);
+    }
+
+    public OrderBook(String termId, int levelCapacity, int orderCapacity) {
+        this.termId = termId;
+        this.bids = new PriceLevels(true, levelCapacity);
+        this.asks = new PriceLevels(false, levelCapacity);
+        this.generations = new int[orderCapacity];
+        this.prices = new int[orderCapacity];
+        this.remaining = new int[orderCapacity];
+        this.bidOrders = new boolean[orderCapacity];
+        this.next = new int[orderCapacity];
+        this.prev = new int[orderCapacity];
+        this.owners = new String[orderCapacity];
+        this.freeSlots = new int[orderCapacity];
+    }
+
+    public String getTermId() {
+        return termId;
+    }
+
+    /**
+     * Matches a limit order and rests what is left of it. Returns the order id, whose {@link #remaining(long)} tells
+     * how much of it rests on the book.
+     */
+    public long place(Side side, int price, int units, String owner, TradeListener listener) {
+        if (price <= 0 || units <= 0) {
+            throw new IllegalArgumentException("Order price and units must be positive");
+        }
+        if (owner == null) {
+            throw new IllegalArgumentException("Order owner is missing");
+        }
+        boolean bid = side == Side.BID;
+        int slot = allocate();
+        long orderId = orderId(slot);
+        PriceLevels opposite = bid ? asks : bids;
+        int left = units;
+        while (left > 0 && opposite.size() > 0 && opposite.crosses(opposite.best(), price)) {
+            int level = opposite.best();
+            int levelPrice = opposite.price(level);
+            int resting = opposite.head(level);
+            while (left > 0 && resting != NIL) {
+                if (owner.equals(owners[resting])) {
+                    // self-trade prevention, the owner's resting order is cancelled rather than traded against
+                    int following = next[resting];
+                    opposite.addUnits(level, -remaining[resting]);
+                    release(resting);
+                    resting = following;
+                    opposite.setHead(level, resting);
+                    if (resting != NIL) {
+                        prev[resting] = NIL;
+                    }
+                    continue;
+                }
+                int fill = Math.min(left, remaining[resting]);
+                long restingId = orderId(resting);
+                if (bid) {
+                    listener.onTrade(orderId, restingId, owner, owners[resting], levelPrice, fill);
+                } else {
+                    listener.onTrade(restingId, orderId, owners[resting], owner, levelPrice, fill);
+                }
+                left -= fill;
+                remaining[resting] -= fill;
+                opposite.addUnits(level, -fill);
+                if (remaining[resting] == 0) {
+                    int following = next[resting];
+                    release(resting);
+                    resting = following;
+                    opposite.setHead(level, resting);
+                    if (resting != NIL) {
+                        prev[resting] = NIL;
+                    }
+                }
+            }
+            if (resting == NIL) {
+                opposite.remove(level);
+            }
+        }
+
+        prices[slot] = price;
+        remaining[slot] = left;
+        bidOrders[slot] = bid;
+        owners[slot] = owner;
+        if (left == 0) {
+            release(slot);
+            return orderId;
+        }
+        PriceLevels own = bid ? bids : asks;
+        int level = own.findOrInsert(price);
+        int tail = own.tail(level);
+        prev[slot] = tail;
+        next[slot] = NIL;
+        if (tail == NIL) {
+            own.setHead(level, slot);
+        } else {
+            next[tail] = slot;
+        }
+        own.setTail(level, slot);
+        own.addUnits(level, left);
+        return orderId;
+    }
+
+    /**
+     * Takes a resting order off the book. Returns false when it is not resting, e.g. already filled.
+     */
+    public boolean cancel(long orderId) {
+        int slot = slotOf(orderId);
+        if (slot == NIL) {
+            return false;
+        }
+        PriceLevels own = bidOrders[slot] ? bids : asks;
+        int level = own.find(prices[slot]);
+        if (prev[slot] == NIL) {
+            own.setHead(level, next[slot]);
+        } else {
+            next[prev[slot]] = next[slot];
+        }
+        if (next[slot] == NIL) {
+            own.setTail(level, prev[slot]);
+        } else {
+            prev[next[slot]] = prev[slot];
+        }
+        own.addUnits(level, -remaining[slot]);
+        if (own.head(level) == NIL) {
+            own.remove(level);
+        }
+        release(slot);
+        return true;
+    }
+
+    /**
+     * Units of the order still resting on the book, 0 once it is filled or cancelled.
+     */
+    public int remaining(long orderId) {
+        int slot = slotOf(orderId);
+        return slot == NIL ? 0 : remaining[slot];
+    }
+
+    /**
+     * Owner of a resting order, null once it is filled or cancelled.
+     */
+    public String owner(long orderId) {
+        int slot = slotOf(orderId);
+        return slot == NIL ? null : owners[slot];
+    }
+
+    /**
+     * Best bid price, 0 when there is no bid.
+     */
+    public int bestBid() {
+        return bids.size() == 0 ? 0 : bids.price(bids.best());
+    }
+
+    /**
+     * Best ask price, 0 when there is no ask.
+     */
+    public int bestAsk() {
+        return asks.size() == 0 ? 0 : asks.price(asks.best());
+    }
+
+    public int levels(Side side) {
+        return (side == Side.BID ? bids : asks).size();
+    }
+
+    public int restingOrders() {
+        return usedSlots - freeCount;
+    }
+
+    /**
+     * Copies up to {@code levelPrices.length} levels of a side, best first, and returns how many were copied.
+     */
+    public int depth(Side side, int[] levelPrices, long[] levelUnits) {
+        PriceLevels levels = side == Side.BID ? bids : asks;
+        int count = Math.min(levels.size(), Math.min(levelPrices.length, levelUnits.length));
+        for (int i = 0; i < count; i++) {
+            int level = levels.best() - i;
+            levelPrices[i] = levels.price(level);
+            levelUnits[i] = levels.units(level);
+        }
+        return count;
+    }
+
+    private long orderId(int slot) {
+        return ((long) generations[slot] << 32) | slot;
+    }
+
+    private int slotOf(long orderId) {
+        int slot = (int) orderId;
+        if (slot < 0 || slot >= usedSlots || generations[slot] != (int) (orderId >>> 32) || remaining[slot] == 0) {
+            return NIL;
+        }
+        return slot;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (usedSlots == generations.length) {
+            int capacity = generations.length * 2;
+            generations = Arrays.copyOf(generations, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            remaining = Arrays.copyOf(remaining, capacity);
+            bidOrders = Arrays.copyOf(bidOrders, capacity);
+            next = Arrays.copyOf(next, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+            owners = Arrays.copyOf(owners, capacity);
+            freeSlots = Arrays.copyOf(freeSlots, capacity);
+        }
+        return usedSlots++;
+    }
+
+    private void release(int slot) {
+        generations[slot]++;
+        remaining[slot] = 0;
+        owners[slot] = null;
+        freeSlots[freeCount++] = slot;
+    }
+}
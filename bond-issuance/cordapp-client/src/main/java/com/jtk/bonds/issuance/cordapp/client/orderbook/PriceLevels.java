@@ -0,0 +1,120 @@
+package com.jtk.bonds.issuance.cordapp.client.orderbook;
+
+import java.util.Arrays;
+
+/**
+ * One side of an order book as parallel primitive arrays, one entry per price level.
+ * Levels are kept sorted from worst to best price, so the best level is always the last one and is removed without
+ * shifting. Each level points at the first and last order slot of its FIFO queue and holds the units resting on it.
+ */
+final class PriceLevels {
+    static final int NIL = -1;
+
+    private final boolean bids;
+    // sort key of a level, the price for bids and the negated price for asks, ascending
+    private int[] keys;
+    private int[] heads;
+    private int[] tails;
+    private long[] units;
+    private int size;
+
+    PriceLevels(boolean bids, int capacity) {
+        this.bids = bids;
+        this.keys = new int[capacity];
+        this.heads = new int[capacity];
+        this.tails = new int[capacity];
+        this.units = new long[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int best() {
+        return size - 1;
+    }
+
+    int price(int level) {
+        return bids ? keys[level] : -keys[level];
+    }
+
+    int head(int level) {
+        return heads[level];
+    }
+
+    int tail(int level) {
+        return tails[level];
+    }
+
+    long units(int level) {
+        return units[level];
+    }
+
+    void setHead(int level, int slot) {
+        heads[level] = slot;
+    }
+
+    void setTail(int level, int slot) {
+        tails[level] = slot;
+    }
+
+    void addUnits(int level, long delta) {
+        units[level] += delta;
+    }
+
+    /**
+     * True when an order of the other side at {@code price} crosses this level.
+     */
+    boolean crosses(int level, int price) {
+        return bids ? keys[level] >= price : -keys[level] <= price;
+    }
+
+    /**
+     * Index of the level at {@code price}, or {@code -(insertion point) - 1} when there is none.
+     */
+    int find(int price) {
+        return Arrays.binarySearch(keys, 0, size, bids ? price : -price);
+    }
+
+    /**
+     * Index of the level at {@code price}, adding an empty one when there is none.
+     */
+    int findOrInsert(int price) {
+        int level = find(price);
+        if (level >= 0) {
+            return level;
+        }
+        level = -level - 1;
+        if (size == keys.length) {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            heads = Arrays.copyOf(heads, capacity);
+            tails = Arrays.copyOf(tails, capacity);
+            units = Arrays.copyOf(units, capacity);
+        }
+        int moved = size - level;
+        if (moved > 0) {
+            System.arraycopy(keys, level, keys, level + 1, moved);
+            System.arraycopy(heads, level, heads, level + 1, moved);
+            System.arraycopy(tails, level, tails, level + 1, moved);
+            System.arraycopy(units, level, units, level + 1, moved);
+        }
+        keys[level] = bids ? price : -price;
+        heads[level] = NIL;
+        tails[level] = NIL;
+        units[level] = 0;
+        size++;
+        return level;
+    }
+
+    void remove(int level) {
+        int moved = size - level - 1;
+        if (moved > 0) {
+            System.arraycopy(keys, level + 1, keys, level, moved);
+            System.arraycopy(heads, level + 1, heads, level, moved);
+            System.arraycopy(tails, level + 1, tails, level, moved);
+            System.arraycopy(units, level + 1, units, level, moved);
+        }
+        size--;
+    }
+}
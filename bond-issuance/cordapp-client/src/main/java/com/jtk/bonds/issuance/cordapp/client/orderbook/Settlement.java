@@ -0,0 +1,72 @@
+package com.jtk.bonds.issuance.cordapp.client.orderbook;
+
+/**
+ * Matched trades of one term between one buyer and one seller, netted into a single delivery versus payment.
+ */
+public class Settlement {
+    private final String termId;
+    private final String buyer;
+    private final String seller;
+    private final int units;
+    private final int cost;
+    private final int trades;
+    private final int attempts;
+
+    public Settlement(String termId, String buyer, String seller, int units, int cost, int trades) {
+        this(termId, buyer, seller, units, cost, trades, 0);
+    }
+
+    public Settlement(String termId, String buyer, String seller, int units, int cost, int trades, int attempts) {
+        this.termId = termId;
+        this.buyer = buyer;
+        this.seller = seller;
+        this.units = units;
+        this.cost = cost;
+        this.trades = trades;
+        this.attempts = attempts;
+    }
+
+    public String getTermId() {
+        return termId;
+    }
+
+    public String getBuyer() {
+        return buyer;
+    }
+
+    public String getSeller() {
+        return seller;
+    }
+
+    public int getUnits() {
+        return units;
+    }
+
+    public int getCost() {
+        return cost;
+    }
+
+    public int getTrades() {
+        return trades;
+    }
+
+    /**
+     * How many times settling it has failed.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * The same settlement after one more failed attempt.
+     */
+    public Settlement failedAttempt() {
+        return new Settlement(termId, buyer, seller, units, cost, trades, attempts + 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{\"termId\":\"%s\",\"buyer\":\"%s\",\"seller\":\"%s\",\"units\":%d,\"cost\":%d,\"trades\":%d,\"attempts\":%d}",
+                termId, buyer, seller, units, cost, trades, attempts);
+    }
+}
@@ -0,0 +1,157 @@
+package com.jtk.bonds.issuance.cordapp.client.readmodel;
+
+import net.corda.core.contracts.LinearState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.UniqueIdentifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+/**
+ * In-memory copy of the unconsumed states of one type, keyed by linearId, with a sorted secondary index per
+ * attribute so both equality and range lookups avoid scanning every state.
+ * Writers are serialised on the index; readers never lock and re-check the attribute against the current state, so
+ * an update that is half applied can never leak a stale match.
+ */
+class LinearStateIndex<T extends LinearState> {
+    private final ConcurrentHashMap<UniqueIdentifier, StateAndRef<T>> byLinearId = new ConcurrentHashMap<>();
+    private final Map<String, Function<T, String>> attributes = new HashMap<>();
+    private final Map<String, ConcurrentSkipListMap<String, Set<UniqueIdentifier>>> indexes = new HashMap<>();
+    // refs consumed while the index was being seeded, a seed page read before the consumption must not revive them
+    private final Set<StateRef> consumedWhileSeeding = new HashSet<>();
+    private boolean seeding = true;
+
+    LinearStateIndex<T> withAttribute(String name, Function<T, String> attribute) {
+        attributes.put(name, attribute);
+        indexes.put(name, new ConcurrentSkipListMap<>());
+        return this;
+    }
+
+    synchronized void seed(Collection<StateAndRef<T>> states) {
+        for (StateAndRef<T> state : states) {
+            if (!consumedWhileSeeding.contains(state.getRef())) {
+                add(state);
+            }
+        }
+    }
+
+    synchronized void seeded() {
+        seeding = false;
+        consumedWhileSeeding.clear();
+    }
+
+    synchronized void update(Collection<StateAndRef<T>> consumed, Collection<StateAndRef<T>> produced) {
+        for (StateAndRef<T> state : consumed) {
+            if (seeding) {
+                consumedWhileSeeding.add(state.getRef());
+            }
+            StateAndRef<T> current = byLinearId.get(state.getState().getData().getLinearId());
+            if (current != null && current.getRef().equals(state.getRef())) {
+                remove(current);
+            }
+        }
+        produced.forEach(this::add);
+    }
+
+    T get(UniqueIdentifier linearId) {
+        StateAndRef<T> state = byLinearId.get(linearId);
+        return state == null ? null : state.getState().getData();
+    }
+
+    int size() {
+        return byLinearId.size();
+    }
+
+    List<T> equalTo(String attribute, String value) {
+        Set<UniqueIdentifier> ids = indexes.get(attribute).get(requireValue(attribute, value));
+        return ids == null ? Collections.emptyList() : resolve(ids, attribute, value);
+    }
+
+    List<T> notEqualTo(String attribute, String value) {
+        List<T> states = new ArrayList<>();
+        for (Map.Entry<String, Set<UniqueIdentifier>> entry : indexes.get(attribute).entrySet()) {
+            if (!entry.getKey().equals(value)) {
+                states.addAll(resolve(entry.getValue(), attribute, entry.getKey()));
+            }
+        }
+        return states;
+    }
+
+    List<T> lessThan(String attribute, String value, boolean inclusive) {
+        return resolveAll(indexes.get(attribute).headMap(requireValue(attribute, value), inclusive), attribute);
+    }
+
+    List<T> greaterThan(String attribute, String value, boolean inclusive) {
+        return resolveAll(indexes.get(attribute).tailMap(requireValue(attribute, value), inclusive), attribute);
+    }
+
+    // the sorted indexes cannot look up null, a query without a value is a malformed query
+    private static String requireValue(String attribute, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("A value is required to query " + attribute);
+        }
+        return value;
+    }
+
+    private List<T> resolveAll(NavigableMap<String, Set<UniqueIdentifier>> range, String attribute) {
+        List<T> states = new ArrayList<>();
+        range.forEach((value, ids) -> states.addAll(resolve(ids, attribute, value)));
+        return states;
+    }
+
+    private List<T> resolve(Set<UniqueIdentifier> ids, String attribute, String value) {
+        Function<T, String> extractor = attributes.get(attribute);
+        List<T> states = new ArrayList<>(ids.size());
+        for (UniqueIdentifier id : ids) {
+            T state = get(id);
+            if (state != null && Objects.equals(extractor.apply(state), value)) {
+                states.add(state);
+            }
+        }
+        return states;
+    }
+
+    private void add(StateAndRef<T> state) {
+        StateAndRef<T> previous = byLinearId.get(state.getState().getData().getLinearId());
+        if (previous != null) {
+            remove(previous);
+        }
+        T data = state.getState().getData();
+        byLinearId.put(data.getLinearId(), state);
+        attributes.forEach((name, extractor) -> {
+            String value = extractor.apply(data);
+            if (value != null) {
+                indexes.get(name).computeIfAbsent(value, key -> ConcurrentHashMap.newKeySet()).add(data.getLinearId());
+            }
+        });
+    }
+
+    private void remove(StateAndRef<T> state) {
+        T data = state.getState().getData();
+        byLinearId.remove(data.getLinearId());
+        attributes.forEach((name, extractor) -> {
+            String value = extractor.apply(data);
+            if (value != null) {
+                Set<UniqueIdentifier> ids = indexes.get(name).get(value);
+                if (ids != null) {
+                    ids.remove(data.getLinearId());
+                    if (ids.isEmpty()) {
+                        indexes.get(name).remove(value, ids);
+                    }
+                }
+            }
+        });
+    }
+}
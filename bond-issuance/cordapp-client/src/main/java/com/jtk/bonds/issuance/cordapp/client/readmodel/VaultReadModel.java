@@ -0,0 +1,313 @@
+package com.jtk.bonds.issuance.cordapp.client.readmodel;
+
+import com.jtk.corda.contants.BondStatus;
+import com.jtk.corda.states.bond.issuance.BondState;
+import com.jtk.corda.states.bond.issuance.TermState;
+import com.jtk.corda.states.cash.issuance.CashState;
+import com.jtk.corda.workflows.utils.QueryPage;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Subscription;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
+/**
+ * Client side read model of the node's bonds, terms and cash, so the query APIs are answered from memory instead of
+ * starting a checkpointed query flow per read.
+ * Each state type is tracked with vaultTrackBy before its snapshot is read with paged vaultQueryBy, so no update is
+ * lost between the two. Answers are built the same way as by the QueryBondsFlow, QueryBondTermsFlow and
+ * QueryCashTokenFlow flows they replace. When a feed fails or the RPC connection is lost the model stops serving and
+ * callers fall back to the flows. Feeds resume after a reconnect without the updates missed meanwhile, so the model is
+ * then seeded again from scratch by calling {@link #start()}.
+ */
+public class VaultReadModel implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(VaultReadModel.class);
+    private static final DateTimeFormatter locateDateformat = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final BigDecimal ZERO = new BigDecimal("0.0");
+    public static final String MISSING_QUERY_VALUE = "{\"errorMsg\":\"queryValue is required\"}";
+
+    private final CordaRPCOps proxy;
+    // replaced as a whole on every seeding, queries only read it while ready
+    private volatile Indexes indexes = new Indexes();
+    private final List<Subscription> subscriptions = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean ready = false;
+    // bumped on every lost connection, a seeding that overlapped one must not make the model ready
+    private final AtomicLong disconnects = new AtomicLong();
+
+    public VaultReadModel(CordaRPCOps proxy) {
+        this.proxy = proxy;
+    }
+
+    /**
+     * Subscribes to the vault and loads its current content. Blocks until the model is seeded. Called again, it drops
+     * the feeds and the content of the previous call and seeds the model anew.
+     */
+    public synchronized void start() {
+        long start = System.currentTimeMillis();
+        long disconnectsAtStart = disconnects.get();
+        close();
+        Indexes seeding = new Indexes();
+        track(BondState.class, seeding.bonds::update, seeding.bonds::seed, seeding.bonds::seeded);
+        track(TermState.class, seeding.terms::update, seeding.terms::seed, seeding.terms::seeded);
+        track(CashState.class, seeding.cash::update, seeding.cash::seed, seeding.cash::seeded);
+        track(FungibleToken.class, seeding.tokens::update, seeding.tokens::seed, seeding.tokens::seeded);
+        indexes = seeding;
+        if (disconnects.get() != disconnectsAtStart) {
+            log.warn("RPC connection lost while seeding the read model, waiting for the reconnect to seed it again");
+            return;
+        }
+        ready = true;
+        log.info("Read model seeded with {} bonds, {} terms and {} cash states in {}ms",
+                seeding.bonds.size(), seeding.terms.size(), seeding.cash.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Stops serving until the model has been seeded again, the feeds miss the updates made while disconnected.
+     */
+    public void disconnected() {
+        disconnects.incrementAndGet();
+        ready = false;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Same answer as the QueryBondsFlow flow of the query-bonds queryType, null for a queryType the model does not
+     * serve.
+     */
+    public String queryBonds(String queryType, String queryValue) {
+        if (queryValue == null && !"notActiveBonds".equalsIgnoreCase(queryType)) {
+            return MISSING_QUERY_VALUE;
+        }
+        LinearStateIndex<BondState> bonds = indexes.bonds;
+        List<BondState> result;
+        try {
+            if ("byCurrency".equalsIgnoreCase(queryType)) {
+                result = active(bonds.equalTo("currency", queryValue), BondState::getBondStatus);
+            } else if ("byRating".equalsIgnoreCase(queryType)) {
+                result = active(bonds.equalTo("creditRating", queryValue), BondState::getBondStatus);
+            } else if ("lessThanMaturityDate".equalsIgnoreCase(queryType)) {
+                result = active(bonds.lessThan("maturityDate", toQueryDate(queryValue), false),
+                        BondState::getBondStatus);
+            } else if ("greaterThanMaturityDate".equalsIgnoreCase(queryType)) {
+                result = active(bonds.greaterThan("maturityDate", toQueryDate(queryValue), false),
+                        BondState::getBondStatus);
+            } else if ("byTermStateLinearID".equalsIgnoreCase(queryType)) {
+                String termId = UniqueIdentifier.Companion.fromString(queryValue).getId().toString();
+                result = active(bonds.equalTo("termStateLinearID", termId), BondState::getBondStatus);
+            } else if ("notActiveBonds".equalsIgnoreCase(queryType)) {
+                result = bonds.notEqualTo("bondStatus", BondStatus.ACTIVE.name());
+            } else {
+                return null;
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            // the flows fail on a malformed value and the query APIs answer those with an empty msg
+            return "";
+        }
+        return result.stream().map(BondState::toJson).collect(Collectors.toList()).toString();
+    }
+
+    /**
+     * Same answer as the QueryBondTermsFlow flow of the query-bond-terms queryType, null for a queryType the model
+     * does not serve.
+     */
+    public String queryTerms(String queryType, String queryValue) {
+        if (queryValue == null && !"notActiveBonds".equalsIgnoreCase(queryType)) {
+            return MISSING_QUERY_VALUE;
+        }
+        LinearStateIndex<TermState> terms = indexes.terms;
+        List<TermState> result;
+        try {
+            if ("byCurrency".equalsIgnoreCase(queryType)) {
+                result = active(terms.equalTo("currency", queryValue), TermState::getBondStatus);
+            } else if ("byRating".equalsIgnoreCase(queryType)) {
+                result = active(terms.equalTo("creditRating", queryValue), TermState::getBondStatus);
+            } else if ("lessThanMaturityDate".equalsIgnoreCase(queryType)) {
+                result = active(terms.lessThan("maturityDate", toQueryDate(queryValue), true),
+                        TermState::getBondStatus);
+            } else if ("greaterThanMaturityDate".equalsIgnoreCase(queryType)) {
+                result = active(terms.greaterThan("maturityDate", toQueryDate(queryValue), true),
+                        TermState::getBondStatus);
+            } else if ("byTermStateLinearID".equalsIgnoreCase(queryType)) {
+                TermState term = terms.get(UniqueIdentifier.Companion.fromString(queryValue));
+                return term != null && BondStatus.ACTIVE.name().equals(term.getBondStatus()) ? term.toJson() : "{}";
+            } else if ("notActiveBonds".equalsIgnoreCase(queryType)) {
+                List<TermState> notActive = terms.notEqualTo("bondStatus", BondStatus.ACTIVE.name());
+                return notActive.isEmpty() ? "{}" : notActive.get(0).toJson();
+            } else {
+                return null;
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return "";
+        }
+        return result.stream().map(TermState::toJson).collect(Collectors.toList()).toString();
+    }
+
+    /**
+     * Balance of the cash tokens of a currency, as QueryCashTokenFlow.GetTokenBalance computes it. Null when the
+     * vault holds more than one CashState for the currency, which the flow rejects.
+     */
+    public BigDecimal cashBalance(String currencyCode) {
+        Indexes current = indexes;
+        List<CashState> cashStates = current.cash.equalTo("currencyCode", currencyCode);
+        if (cashStates.isEmpty()) {
+            return ZERO;
+        }
+        if (cashStates.size() != 1) {
+            return null;
+        }
+        return current.tokens.balance(cashStates.get(0).toPointer().getTokenIdentifier());
+    }
+
+    @Override
+    public void close() {
+        ready = false;
+        synchronized (subscriptions) {
+            subscriptions.forEach(Subscription::unsubscribe);
+            subscriptions.clear();
+        }
+    }
+
+    private <T extends ContractState> void track(Class<T> type,
+                                                 BiConsumer<Collection<StateAndRef<T>>, Collection<StateAndRef<T>>> onUpdate,
+                                                 Consumer<List<StateAndRef<T>>> onPage,
+                                                 Runnable onSeeded) {
+        QueryCriteria unconsumed = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+        Sort unsorted = new Sort(Collections.emptySet());
+        // only the updates of the feed are used, its snapshot is kept to a single state
+        DataFeed<Vault.Page<T>, Vault.Update<T>> feed = proxy.vaultTrackBy(unconsumed,
+                new PageSpecification(DEFAULT_PAGE_NUM, 1), unsorted, type);
+        subscriptions.add(feed.getUpdates().subscribe(
+                update -> onUpdate.accept(update.getConsumed(), update.getProduced()),
+                e -> {
+                    ready = false;
+                    log.error("Vault feed of {} failed, read model disabled", type.getSimpleName(), e);
+                }));
+
+        int page = DEFAULT_PAGE_NUM;
+        long read = 0;
+        Vault.Page<T> result;
+        do {
+            result = proxy.vaultQueryBy(unconsumed, new PageSpecification(page++, QueryPage.MAX_PAGE_SIZE),
+                    unsorted, type);
+            onPage.accept(result.getStates());
+            read += result.getStates().size();
+        } while (!result.getStates().isEmpty() && read < result.getTotalStatesAvailable());
+        onSeeded.run();
+    }
+
+    private static <T> List<T> active(List<T> states, Function<T, String> status) {
+        return states.stream()
+                .filter(state -> BondStatus.ACTIVE.name().equals(status.apply(state)))
+                .collect(Collectors.toList());
+    }
+
+    // same normalisation as CustomQuery applies to the date query values
+    private static String toQueryDate(String date) {
+        return locateDateformat.format(LocalDate.parse(date, locateDateformat));
+    }
+
+    private static class Indexes {
+        private final LinearStateIndex<BondState> bonds = new LinearStateIndex<BondState>()
+                .withAttribute("bondStatus", BondState::getBondStatus)
+                .withAttribute("currency", BondState::getCurrency)
+                .withAttribute("creditRating", BondState::getCreditRating)
+                .withAttribute("maturityDate", BondState::getMaturityDate)
+                .withAttribute("termStateLinearID", bond -> bond.getTermStateLinearID().getId().toString());
+        private final LinearStateIndex<TermState> terms = new LinearStateIndex<TermState>()
+                .withAttribute("bondStatus", TermState::getBondStatus)
+                .withAttribute("currency", TermState::getCurrency)
+                .withAttribute("creditRating", TermState::getCreditRating)
+                .withAttribute("maturityDate", TermState::getMaturityDate);
+        private final LinearStateIndex<CashState> cash = new LinearStateIndex<CashState>()
+                .withAttribute("currencyCode", CashState::getCurrencyCode);
+        private final TokenBalances tokens = new TokenBalances();
+    }
+
+    /**
+     * Running quantity of the fungible tokens per token identifier.
+     */
+    private static class TokenBalances {
+        private final Map<StateRef, FungibleToken> tokens = new HashMap<>();
+        private final Map<String, Long> quantities = new HashMap<>();
+        private final Map<String, BigDecimal> displayTokenSizes = new HashMap<>();
+        private final Set<StateRef> consumedWhileSeeding = new HashSet<>();
+        private boolean seeding = true;
+
+        synchronized void seed(List<StateAndRef<FungibleToken>> states) {
+            for (StateAndRef<FungibleToken> state : states) {
+                if (!consumedWhileSeeding.contains(state.getRef())) {
+                    add(state);
+                }
+            }
+        }
+
+        synchronized void seeded() {
+            seeding = false;
+            consumedWhileSeeding.clear();
+        }
+
+        synchronized void update(Collection<StateAndRef<FungibleToken>> consumed,
+                                 Collection<StateAndRef<FungibleToken>> produced) {
+            for (StateAndRef<FungibleToken> state : consumed) {
+                if (seeding) {
+                    consumedWhileSeeding.add(state.getRef());
+                }
+                FungibleToken token = tokens.remove(state.getRef());
+                if (token != null) {
+                    quantities.merge(token.getTokenType().getTokenIdentifier(),
+                            -token.getAmount().getQuantity(), Long::sum);
+                }
+            }
+            produced.forEach(this::add);
+        }
+
+        synchronized BigDecimal balance(String tokenIdentifier) {
+            Long quantity = quantities.get(tokenIdentifier);
+            if (quantity == null) {
+                return ZERO;
+            }
+            return BigDecimal.valueOf(quantity * displayTokenSizes.get(tokenIdentifier).doubleValue());
+        }
+
+        private void add(StateAndRef<FungibleToken> state) {
+            FungibleToken token = state.getState().getData();
+            if (tokens.put(state.getRef(), token) == null) {
+                String tokenIdentifier = token.getTokenType().getTokenIdentifier();
+                quantities.merge(tokenIdentifier, token.getAmount().getQuantity(), Long::sum);
+                displayTokenSizes.putIfAbsent(tokenIdentifier, token.getAmount().getDisplayTokenSize());
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.jtk.bonds.issuance.cordapp.client.route.handler;
 
+import com.jtk.bonds.issuance.cordapp.client.metrics.ClientMetrics;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
@@ -8,6 +9,7 @@ import io.vertx.core.eventbus.Message;
 import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.openapi.Operation;
 import io.vertx.ext.web.openapi.RouterBuilder;
 import io.vertx.ext.web.validation.RequestParameters;
 import org.jetbrains.annotations.NotNull;
@@ -16,63 +18,74 @@ import org.slf4j.LoggerFactory;
 
 public class HandlerFactory {
     private static final Logger log = LoggerFactory.getLogger(HandlerFactory.class);
+    private static final String CORDA_API = "CORDA-API";
     public static void buildRoutes(Vertx vertx, RouterBuilder routerBuilder) {
-        routerBuilder
-                .operation("get-corda-details")
+        operation(routerBuilder, "get-corda-details")
                 .handler(routingContext -> {
                     RequestParameters params = routingContext.get("parsedParameters");
                     String apiId = params.pathParameter("apiId").getString();
                    JsonObject msg = new JsonObject();
                    msg.put("url",apiId);
                    vertx.eventBus()
-                           .request("CORDA-API",msg, handleCordaAPI(routingContext));
+                           .request(CORDA_API, msg, handleCordaAPI(routingContext));
                 });
-        routerBuilder
-                .operation("issue-bond-terms")
+        operation(routerBuilder, "issue-bond-terms")
                 .handler(routingContext -> {
                     RequestParameters params = routingContext.get("parsedParameters");
                     JsonObject createBT = params.body().getJsonObject();
                     createBT.put("url","issue-bond-terms");
                     vertx.eventBus()
-                            .request("CORDA-API",createBT, handleCordaAPI(routingContext));
+                            .request(CORDA_API, createBT, handleCordaAPI(routingContext));
                 });
-        routerBuilder
-                .operation("query-bond-terms")
+        operation(routerBuilder, "query-bond-terms")
                 .handler(routingContext -> {
                     RequestParameters params = routingContext.get("parsedParameters");
                     JsonObject createBT = params.body().getJsonObject();
                     createBT.put("url","query-bond-terms");
                     vertx.eventBus()
-                            .request("CORDA-API",createBT, handleCordaAPI(routingContext));
+                            .request(CORDA_API, createBT, handleCordaAPI(routingContext));
                 });
-        routerBuilder
-                .operation("query-bonds")
+        operation(routerBuilder, "query-bonds")
                 .handler(routingContext -> {
                     RequestParameters params = routingContext.get("parsedParameters");
                     JsonObject createBT = params.body().getJsonObject();
                     createBT.put("url","query-bonds");
                     vertx.eventBus()
-                            .request("CORDA-API",createBT, handleCordaAPI(routingContext));
+                            .request(CORDA_API, createBT, handleCordaAPI(routingContext));
                 });
-        routerBuilder
-                .operation("query-cash")
+        operation(routerBuilder, "query-cash")
                 .handler(routingContext -> {
                     RequestParameters params = routingContext.get("parsedParameters");
                     JsonObject queryCash = params.body().getJsonObject();
                     queryCash.put("url","query-cash");
                     vertx.eventBus()
-                            .request("CORDA-API",queryCash, handleCordaAPI(routingContext));
+                            .request(CORDA_API, queryCash, handleCordaAPI(routingContext));
                 });
-        routerBuilder
-                .operation("issue-bond")
+        operation(routerBuilder, "issue-bond")
                 .handler(routingContext -> {
                     RequestParameters params = routingContext.get("parsedParameters");
                     JsonObject createBT = params.body().getJsonObject();
                     createBT.put("url","issue-bond");
                     vertx.eventBus()
-                            .request("CORDA-API",createBT, handleCordaAPI(routingContext));
+                            .request(CORDA_API, createBT, handleCordaAPI(routingContext));
                 });
-        routerBuilder.operation("get-bond-tokens")
+        operation(routerBuilder, "issue-bonds-bulk")
+                .handler(routingContext -> {
+                    RequestParameters params = routingContext.get("parsedParameters");
+                    JsonObject bulkRequest = params.body().getJsonObject();
+                    bulkRequest.put("url","issue-bonds-bulk");
+                    vertx.eventBus()
+                            .request(CORDA_API, bulkRequest, handleCordaAPI(routingContext));
+                });
+        operation(routerBuilder, "bond-allocation-mode")
+                .handler(routingContext -> {
+                    RequestParameters params = routingContext.get("parsedParameters");
+                    JsonObject allocationMode = params.body().getJsonObject();
+                    allocationMode.put("url","bond-allocation-mode");
+                    vertx.eventBus()
+                            .request(CORDA_API, allocationMode, handleCordaAPI(routingContext));
+                });
+        operation(routerBuilder, "get-bond-tokens")
                 .handler(routingContext -> {
                     RequestParameters params = routingContext.get("parsedParameters");
                     String bondId = params.pathParameter("termId").getString();
@@ -80,71 +93,138 @@ public class HandlerFactory {
                     msg.put("url","get-bond-tokens");
                     msg.put("termId",bondId);
                     vertx.eventBus()
-                            .request("CORDA-API",msg, handleCordaAPI(routingContext));
+                            .request(CORDA_API, msg, handleCordaAPI(routingContext));
                 });
-        routerBuilder.operation("bond-coupon")
+        operation(routerBuilder, "bond-coupon")
                 .handler(routingContext -> {
                     RequestParameters params = routingContext.get("parsedParameters");
                     JsonObject couponsJson = params.body().getJsonObject();
                     couponsJson.put("url","bond-coupon");
                     vertx.eventBus()
-                            .request("CORDA-API",couponsJson, handleCordaAPI(routingContext));
+                            .request(CORDA_API, couponsJson, handleCordaAPI(routingContext));
                 });
-        routerBuilder.operation("issue-cash")
+        operation(routerBuilder, "bond-coupon-schedule")
+                .handler(routingContext -> {
+                    RequestParameters params = routingContext.get("parsedParameters");
+                    JsonObject scheduleJson = params.body().getJsonObject();
+                    scheduleJson.put("url","bond-coupon-schedule");
+                    vertx.eventBus()
+                            .request(CORDA_API, scheduleJson, handleCordaAPI(routingContext));
+                });
+        operation(routerBuilder, "bond-coupon-due")
+                .handler(routingContext -> {
+                    RequestParameters params = routingContext.get("parsedParameters");
+                    JsonObject msg = new JsonObject();
+                    msg.put("url","bond-coupon-due");
+                    msg.put("days",params.pathParameter("days").getInteger());
+                    vertx.eventBus()
+                            .request(CORDA_API, msg, handleCordaAPI(routingContext));
+                });
+        operation(routerBuilder, "issue-cash")
                 .handler(routingContext -> {
                     RequestParameters params = routingContext.get("parsedParameters");
                     JsonObject cashJson = params.body().getJsonObject();
                     cashJson.put("url","issue-cash");
                     vertx.eventBus()
-                            .request("CORDA-API",cashJson, handleCordaAPI(routingContext));
+                            .request(CORDA_API, cashJson, handleCordaAPI(routingContext));
                 });
-        routerBuilder.operation("transfer-cash")
+        operation(routerBuilder, "transfer-cash")
                 .handler(routingContext -> {
                     RequestParameters params = routingContext.get("parsedParameters");
                     JsonObject cashJson = params.body().getJsonObject();
                     cashJson.put("url","transfer-cash");
                     vertx.eventBus()
-                            .request("CORDA-API",cashJson, handleCordaAPI(routingContext));
+                            .request(CORDA_API, cashJson, handleCordaAPI(routingContext));
                 });
-        routerBuilder.operation("get-cash-tokens")
+        operation(routerBuilder, "get-cash-tokens")
                 .handler(routingContext -> {
                     JsonObject msg = new JsonObject();
                     msg.put("url","get-cash-tokens");
                     vertx.eventBus()
-                            .request("CORDA-API",msg, handleCordaAPI(routingContext));
+                            .request(CORDA_API, msg, handleCordaAPI(routingContext));
                 });
-        routerBuilder.operation("bond-early-redemption")
+        operation(routerBuilder, "bond-early-redemption")
                 .handler(routingContext -> {
                     RequestParameters params = routingContext.get("parsedParameters");
                     JsonObject redeemEarlyJson = params.body().getJsonObject();
                     redeemEarlyJson.put("url","bond-early-redemption");
                     vertx.eventBus()
-                            .request("CORDA-API",redeemEarlyJson, handleCordaAPI(routingContext));
+                            .request(CORDA_API, redeemEarlyJson, handleCordaAPI(routingContext));
                 });
-        routerBuilder.operation("bond-redemption")
+        operation(routerBuilder, "bond-redemption")
                 .handler(routingContext -> {
                     RequestParameters params = routingContext.get("parsedParameters");
                     JsonObject redeemJson = params.body().getJsonObject();
                     redeemJson.put("url","bond-redemption");
                     vertx.eventBus()
-                            .request("CORDA-API",redeemJson, handleCordaAPI(routingContext));
+                            .request(CORDA_API, redeemJson, handleCordaAPI(routingContext));
+                });
+        operation(routerBuilder, "place-bond-order")
+                .handler(routingContext -> {
+                    RequestParameters params = routingContext.get("parsedParameters");
+                    JsonObject orderJson = params.body().getJsonObject();
+                    orderJson.put("url","place-bond-order");
+                    vertx.eventBus()
+                            .request(CORDA_API, orderJson, handleCordaAPI(routingContext));
                 });
+        operation(routerBuilder, "cancel-bond-order")
+                .handler(routingContext -> {
+                    RequestParameters params = routingContext.get("parsedParameters");
+                    JsonObject orderJson = params.body().getJsonObject();
+                    orderJson.put("url","cancel-bond-order");
+                    vertx.eventBus()
+                            .request(CORDA_API, orderJson, handleCordaAPI(routingContext));
+                });
+        operation(routerBuilder, "post-bond-ask")
+                .handler(routingContext -> {
+                    RequestParameters params = routingContext.get("parsedParameters");
+                    JsonObject askJson = params.body().getJsonObject();
+                    askJson.put("url","post-bond-ask");
+                    vertx.eventBus()
+                            .request(CORDA_API, askJson, handleCordaAPI(routingContext));
+                });
+        operation(routerBuilder, "get-bond-order-book")
+                .handler(routingContext -> {
+                    RequestParameters params = routingContext.get("parsedParameters");
+                    JsonObject msg = new JsonObject();
+                    msg.put("url","get-bond-order-book");
+                    msg.put("termId",params.pathParameter("termId").getString());
+                    vertx.eventBus()
+                            .request(CORDA_API, msg, handleCordaAPI(routingContext));
+                });
+        operation(routerBuilder, "get-job")
+                .handler(routingContext -> {
+                    RequestParameters params = routingContext.get("parsedParameters");
+                    JsonObject msg = new JsonObject();
+                    msg.put("url","get-job");
+                    msg.put("jobId",params.pathParameter("jobId").getString());
+                    vertx.eventBus()
+                            .request(CORDA_API, msg, handleCordaAPI(routingContext));
+                });
+        operation(routerBuilder, "get-job-events")
+                .handler(new JobEventsHandler(vertx, CORDA_API));
 
 
     }
 
+    // every operation is timed from routing until its response is written
+    private static Operation operation(RouterBuilder routerBuilder, String operationId) {
+        return routerBuilder.operation(operationId).handler(ClientMetrics.timeOperation(operationId));
+    }
+
     @NotNull
     private static Handler<AsyncResult<Message<JsonObject>>> handleCordaAPI(RoutingContext routingContext) {
-        return event -> {
+        return ClientMetrics.timeRequest(CORDA_API, event -> {
             if (event.succeeded()) {
                 JsonObject json = event.result().body();
                 String response = json.encodePrettily();
                 if(json.containsKey("msg")){
                     response = json.getString("msg");
                 }
+                // async flows are answered with a 202, unknown jobs with a 404
                 routingContext
                         .response()
-                        .setStatusCode(HttpResponseStatus.OK.code())
+                        .setStatusCode(json.getInteger("statusCode", HttpResponseStatus.OK.code()))
                         .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
                         .end(response);
 
@@ -156,6 +236,6 @@ public class HandlerFactory {
                         .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
                         .end("{'msg':'Record not found','code':" + HttpResponseStatus.INTERNAL_SERVER_ERROR.code() + "}");
             }
-        };
+        });
     }
 }
@@ -0,0 +1,84 @@
+package com.jtk.bonds.issuance.cordapp.client.route.handler;
+
+import com.jtk.bonds.issuance.cordapp.client.jobs.FlowJob;
+import com.jtk.bonds.issuance.cordapp.client.jobs.FlowJobs;
+import com.jtk.bonds.issuance.cordapp.client.metrics.ClientMetrics;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.validation.RequestParameters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams a job as server-sent events: the job as it is now, then a progress event each time its flow moves to a
+ * new step and a result event once it has completed or failed, after which the stream ends. Every event carries the
+ * whole job json. Closing the connection stops the stream, not the flow.
+ */
+public class JobEventsHandler implements Handler<RoutingContext> {
+    private final Vertx vertx;
+    private final String cordaApi;
+
+    public JobEventsHandler(Vertx vertx, String cordaApi) {
+        this.vertx = vertx;
+        this.cordaApi = cordaApi;
+    }
+
+    @Override
+    public void handle(RoutingContext routingContext) {
+        RequestParameters params = routingContext.get("parsedParameters");
+        String jobId = params.pathParameter("jobId").getString();
+        HttpServerResponse response = routingContext.response();
+        // changes published before the job itself has been written are held back, they are never older than it
+        List<JsonObject> pending = new ArrayList<>();
+        MessageConsumer<JsonObject> consumer = vertx.eventBus().consumer(FlowJobs.address(jobId));
+        consumer.handler(event -> {
+            if (response.headWritten()) {
+                write(response, event.body(), consumer);
+            } else {
+                pending.add(event.body());
+            }
+        });
+        response.closeHandler(closed -> consumer.unregister());
+        // the job is fetched once the consumer is registered, so no change falls between the two
+        consumer.completionHandler(registered -> vertx.eventBus().<JsonObject>request(cordaApi,
+                new JsonObject().put("url", "get-job").put("jobId", jobId),
+                ClientMetrics.timeRequest(cordaApi, reply -> {
+                    if (reply.failed() || reply.result().body().containsKey("statusCode")) {
+                        consumer.unregister();
+                        response.setStatusCode(reply.failed()
+                                        ? HttpResponseStatus.INTERNAL_SERVER_ERROR.code()
+                                        : reply.result().body().getInteger("statusCode"))
+                                .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
+                                .end(reply.failed()
+                                        ? "{\"errorMsg\":\"Could not fetch job " + jobId + "\"}"
+                                        : reply.result().body().getString("msg"));
+                        return;
+                    }
+                    response.setChunked(true)
+                            .putHeader(HttpHeaders.CONTENT_TYPE, "text/event-stream")
+                            .putHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+                    write(response, new JsonObject(reply.result().body().getString("msg")), consumer);
+                    pending.forEach(job -> write(response, job, consumer));
+                    pending.clear();
+                })));
+    }
+
+    private void write(HttpServerResponse response, JsonObject job, MessageConsumer<JsonObject> consumer) {
+        if (response.ended() || response.closed()) {
+            return;
+        }
+        boolean finished = !FlowJob.Status.RUNNING.name().equals(job.getString("status"));
+        response.write("event: " + (finished ? "result" : "progress") + "\ndata: " + job.encode() + "\n\n");
+        if (finished) {
+            consumer.unregister();
+            response.end();
+        }
+    }
+}
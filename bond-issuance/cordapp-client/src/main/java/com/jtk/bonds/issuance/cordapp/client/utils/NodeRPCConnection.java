@@ -3,10 +3,31 @@ package com.jtk.bonds.issuance.cordapp.client.utils;
 import io.vertx.core.json.JsonObject;
 import net.corda.client.rpc.CordaRPCClient;
 import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.client.rpc.GracefulReconnect;
 import net.corda.core.messaging.CordaRPCOps;
 import net.corda.core.utilities.NetworkHostAndPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of RPC connections to the node.
+ * Every connection reconnects on its own through {@link GracefulReconnect} and is pinged periodically, and
+ * {@link #proxy()} hands out the healthy connections round-robin.
+ */
 public class NodeRPCConnection implements AutoCloseable{
+    private static final Logger log = LoggerFactory.getLogger(NodeRPCConnection.class);
+    private static final int DEFAULT_POOL_SIZE = 2;
+    private static final int DEFAULT_RECONNECT_MAX_ATTEMPTS = -1; // retry forever
+    private static final long DEFAULT_HEALTH_CHECK_MS = 10000;
 
     // The RPC port of the node we are connecting to.
     private String host;
@@ -19,34 +40,153 @@ public class NodeRPCConnection implements AutoCloseable{
 
     private int rpcPort;
 
-    private CordaRPCConnection rpcConnection;
+    private final List<PooledConnection> pool = new ArrayList<>();
+
+    private final AtomicInteger nextConnection = new AtomicInteger();
 
-    private CordaRPCOps proxy;
+    private ScheduledExecutorService healthCheck;
 
     synchronized public static NodeRPCConnection getInstance(JsonObject config){
         if(instance == null){
-            instance = new NodeRPCConnection();
-            instance.host = config.getString("vertx.corda.rpc.host");
-            instance.rpcPort = config.getInteger("vertx.corda.rpc.port");
-            instance.username = config.getString("vertx.corda.rpc.username");
-            instance.password = config.getString("vertx.corda.rpc.password").toCharArray();
-            NetworkHostAndPort rpcAddress = new NetworkHostAndPort(instance.host, instance.rpcPort);
+            NodeRPCConnection connection = new NodeRPCConnection();
+            connection.host = config.getString("vertx.corda.rpc.host");
+            connection.rpcPort = config.getInteger("vertx.corda.rpc.port");
+            connection.username = config.getString("vertx.corda.rpc.username");
+            connection.password = config.getString("vertx.corda.rpc.password").toCharArray();
+            int poolSize = Math.max(1, config.getInteger("vertx.corda.rpc.pool.size", DEFAULT_POOL_SIZE));
+            int maxAttempts = config.getInteger("vertx.corda.rpc.reconnect.maxAttempts", DEFAULT_RECONNECT_MAX_ATTEMPTS);
+            long healthCheckMs = config.getLong("vertx.corda.rpc.healthcheck.ms", DEFAULT_HEALTH_CHECK_MS);
+
+            NetworkHostAndPort rpcAddress = new NetworkHostAndPort(connection.host, connection.rpcPort);
             CordaRPCClient rpcClient = new CordaRPCClient(rpcAddress);
-            instance.rpcConnection = rpcClient.start(instance.username, new String(instance.password));
-            instance.proxy = instance.rpcConnection.getProxy();
+            for (int i = 0; i < poolSize; i++) {
+                connection.pool.add(new PooledConnection(i, rpcClient, connection.username,
+                        new String(connection.password), maxAttempts));
+            }
+            connection.startHealthCheck(healthCheckMs);
+            log.info("Opened {} RPC connections to {}", poolSize, rpcAddress);
+            instance = connection;
         }
         return instance;
     }
 
     private static NodeRPCConnection instance;
 
+    /**
+     * Next healthy connection of the pool. When none is healthy the proxy of the next connection is returned anyway,
+     * its calls wait for the reconnect to finish.
+     */
     public CordaRPCOps proxy() {
-        return proxy;
+        int size = pool.size();
+        int start = Math.floorMod(nextConnection.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            PooledConnection connection = pool.get((start + i) % size);
+            if (connection.isHealthy()) {
+                return connection.proxy();
+            }
+        }
+        return pool.get(start).proxy();
+    }
+
+    /**
+     * Calls onDisconnect when the connection of the proxy is lost and onReconnect once it is back. Feeds started on
+     * the proxy carry on after a reconnect without the updates missed meanwhile, state built from them has to be
+     * reloaded. The callbacks run on the RPC client's threads and must not block.
+     */
+    public void addReconnectListener(CordaRPCOps proxy, Runnable onDisconnect, Runnable onReconnect) {
+        PooledConnection connection = pool.stream()
+                .filter(pooled -> pooled.proxy() == proxy)
+                .findAny()
+                .orElseThrow(() -> new IllegalArgumentException("The proxy is not one of the pool's connections"));
+        connection.onDisconnect.add(onDisconnect);
+        connection.onReconnect.add(onReconnect);
+    }
+
+    public int getHealthyConnections() {
+        return (int) pool.stream().filter(PooledConnection::isHealthy).count();
+    }
+
+    public int getPoolSize() {
+        return pool.size();
+    }
+
+    private void startHealthCheck(long healthCheckMs) {
+        if (healthCheckMs <= 0) {
+            return;
+        }
+        // one thread per connection so a connection waiting on a reconnect does not hold up the others
+        healthCheck = Executors.newScheduledThreadPool(pool.size(), runnable -> {
+            Thread thread = new Thread(runnable, "corda-rpc-healthcheck");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (PooledConnection connection : pool) {
+            healthCheck.scheduleWithFixedDelay(connection::checkHealth, healthCheckMs, healthCheckMs,
+                    TimeUnit.MILLISECONDS);
+        }
     }
 
     @Override
     public void close() throws Exception {
-        rpcConnection.notifyServerAndClose();
+        if (healthCheck != null) {
+            healthCheck.shutdownNow();
+        }
+        for (PooledConnection connection : pool) {
+            connection.close();
+        }
         instance = null;
     }
+
+    private static class PooledConnection {
+        private final int id;
+        private final AtomicBoolean healthy = new AtomicBoolean(true);
+        private final CordaRPCConnection rpcConnection;
+        private final List<Runnable> onDisconnect = new CopyOnWriteArrayList<>();
+        private final List<Runnable> onReconnect = new CopyOnWriteArrayList<>();
+
+        PooledConnection(int id, CordaRPCClient rpcClient, String username, String password, int maxAttempts) {
+            this.id = id;
+            Runnable disconnected = () -> {
+                healthy.set(false);
+                log.warn("RPC connection {} lost, reconnecting...", id);
+                onDisconnect.forEach(Runnable::run);
+            };
+            Runnable reconnected = () -> {
+                healthy.set(true);
+                log.info("RPC connection {} reconnected", id);
+                onReconnect.forEach(Runnable::run);
+            };
+            this.rpcConnection = rpcClient.start(username, password,
+                    new GracefulReconnect(disconnected, reconnected, maxAttempts));
+        }
+
+        CordaRPCOps proxy() {
+            return rpcConnection.getProxy();
+        }
+
+        boolean isHealthy() {
+            return healthy.get();
+        }
+
+        void checkHealth() {
+            try {
+                rpcConnection.getProxy().currentNodeTime();
+                if (!healthy.getAndSet(true)) {
+                    log.info("RPC connection {} passed its health check", id);
+                }
+            } catch (Exception e) {
+                if (healthy.getAndSet(false)) {
+                    log.warn("RPC connection {} failed its health check", id, e);
+                }
+            }
+        }
+
+        void close() {
+            try {
+                rpcConnection.notifyServerAndClose();
+            } catch (Exception e) {
+                log.warn("Failed to close RPC connection {}", id, e);
+            }
+        }
+    }
 }
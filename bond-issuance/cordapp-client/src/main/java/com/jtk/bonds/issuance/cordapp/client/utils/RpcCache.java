@@ -0,0 +1,74 @@
+package com.jtk.bonds.issuance.cordapp.client.utils;
+
+import io.vertx.core.Future;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Answers of RPC calls that rarely change, by key, kept for a time to live. Concurrent misses of a key share the one
+ * call in flight instead of making a call each, and failed calls are not kept. An answer loaded while the cache was
+ * invalidated is handed to its callers but not kept, it may predate the change. Not thread safe, it is only used from
+ * the verticle's context.
+ */
+public class RpcCache<T> {
+    private final long ttlMs;
+    private final LongSupplier clock;
+    private final Map<String, Entry<T>> entries = new HashMap<>();
+    private final Map<String, Future<T>> inFlight = new HashMap<>();
+    private long generation;
+
+    public RpcCache(long ttlMs) {
+        this(ttlMs, System::currentTimeMillis);
+    }
+
+    /**
+     * A cache whose time to live is measured with the given clock of epoch millis.
+     */
+    public RpcCache(long ttlMs, LongSupplier clock) {
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+    }
+
+    /**
+     * The kept answer of the key, else the call in flight for it, else the answer of a new call made with load.
+     */
+    public Future<T> get(String key, Supplier<Future<T>> load) {
+        Entry<T> entry = entries.get(key);
+        if (entry != null && entry.expiresAt > clock.getAsLong()) {
+            return Future.succeededFuture(entry.value);
+        }
+        Future<T> pending = inFlight.get(key);
+        if (pending != null) {
+            return pending;
+        }
+        long loadGeneration = generation;
+        Future<T> loading = load.get();
+        inFlight.put(key, loading);
+        loading.onComplete(result -> {
+            inFlight.remove(key, loading);
+            if (result.succeeded() && loadGeneration == generation) {
+                entries.put(key, new Entry<>(result.result(), clock.getAsLong() + ttlMs));
+            }
+        });
+        return loading;
+    }
+
+    public void invalidateAll() {
+        generation++;
+        entries.clear();
+        inFlight.clear();
+    }
+
+    private static class Entry<T> {
+        private final T value;
+        private final long expiresAt;
+
+        private Entry(T value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
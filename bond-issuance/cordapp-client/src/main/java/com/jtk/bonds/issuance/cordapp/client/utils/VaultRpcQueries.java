@@ -0,0 +1,121 @@
+package com.jtk.bonds.issuance.cordapp.client.utils;
+
+import com.jtk.corda.states.bond.issuance.BondState;
+import com.jtk.corda.states.bond.issuance.TermState;
+import com.jtk.corda.states.cash.issuance.CashState;
+import com.jtk.corda.workflows.utils.CustomQuery;
+import com.jtk.corda.workflows.utils.QueryPage;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import com.r3.corda.lib.tokens.workflows.utilities.QueryUtilities;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
+/**
+ * The bond, term and cash queries run as plain RPC vault queries, with the criteria the query flows use, so a read
+ * does not pay for a flow start, a checkpoint and a progress tracker. Answers are the same JSON the flows return.
+ */
+public class VaultRpcQueries {
+    private static final BigDecimal ZERO = new BigDecimal("0.0");
+    private static final List<String> QUERY_TYPES = Arrays.asList("byCurrency", "byRating", "lessThanMaturityDate",
+            "greaterThanMaturityDate", "byTermStateLinearID", "notActiveBonds");
+
+    private final Supplier<CordaRPCOps> proxies;
+
+    public VaultRpcQueries(NodeRPCConnection nodeRPC) {
+        this(nodeRPC::proxy);
+    }
+
+    /**
+     * Queries through the proxy handed out by proxies on each call.
+     */
+    public VaultRpcQueries(Supplier<CordaRPCOps> proxies) {
+        this.proxies = proxies;
+    }
+
+    /**
+     * Whether queryType is one of the query-bonds / query-bond-terms query types.
+     */
+    public static boolean isQueryType(String queryType) {
+        return QUERY_TYPES.stream().anyMatch(type -> type.equalsIgnoreCase(queryType));
+    }
+
+    /**
+     * Same answer as the QueryBondsFlow flow of the query-bonds queryType.
+     */
+    public String queryBonds(String queryType, String queryValue) {
+        return queryAll(CustomQuery.bondQueryCriteria(queryType, queryValue), BondState.class).stream()
+                .map(BondState::toJson)
+                .collect(Collectors.toList())
+                .toString();
+    }
+
+    /**
+     * Same answer as the QueryBondTermsFlow flow of the query-bond-terms queryType.
+     */
+    public String queryTerms(String queryType, String queryValue) {
+        List<TermState> terms = queryAll(CustomQuery.termQueryCriteria(queryType, queryValue), TermState.class);
+        if ("byTermStateLinearID".equalsIgnoreCase(queryType) || "notActiveBonds".equalsIgnoreCase(queryType)) {
+            // these two answer a single term
+            return terms.isEmpty() ? "{}" : terms.get(0).toJson();
+        }
+        return terms.stream()
+                .map(TermState::toJson)
+                .collect(Collectors.toList())
+                .toString();
+    }
+
+    /**
+     * Same balance as QueryCashTokenFlow.GetTokenBalance, summed by the vault rather than in the client.
+     */
+    public BigDecimal cashBalance(String currencyCode) {
+        CordaRPCOps proxy = proxies.get();
+        List<CashState> cashStates = proxy.vaultQuery(CashState.class).getStates().stream()
+                .map(sr -> sr.getState().getData())
+                .filter(cashState -> cashState.getCurrencyCode().equals(currencyCode))
+                .collect(Collectors.toList());
+        if (cashStates.isEmpty()) {
+            return ZERO;
+        }
+        if (cashStates.size() != 1) {
+            throw new IllegalStateException("There cannot be more than one cashflow state for the same currency");
+        }
+        TokenPointer<CashState> cashPointer = cashStates.get(0).toPointer();
+        QueryCriteria sumOfTokens = QueryUtilities.tokenAmountCriteria(cashPointer)
+                .and(QueryUtilities.sumTokenCriteria());
+        List<Object> sums = proxy.vaultQueryByCriteria(sumOfTokens, FungibleToken.class).getOtherResults();
+        long quantity = sums.isEmpty() || sums.get(0) == null ? 0L : (Long) sums.get(0);
+        return BigDecimal.valueOf(quantity * cashPointer.getDisplayTokenSize().doubleValue());
+    }
+
+    private <T extends ContractState> List<T> queryAll(QueryCriteria criteria, Class<T> type) {
+        CordaRPCOps proxy = proxies.get();
+        Sort unsorted = new Sort(Collections.emptySet());
+        List<T> states = new ArrayList<>();
+        int page = DEFAULT_PAGE_NUM;
+        Vault.Page<T> result;
+        do {
+            result = proxy.vaultQueryBy(criteria, new PageSpecification(page++, QueryPage.MAX_PAGE_SIZE), unsorted,
+                    type);
+            for (StateAndRef<T> stateAndRef : result.getStates()) {
+                states.add(stateAndRef.getState().getData());
+            }
+        } while (!result.getStates().isEmpty() && states.size() < result.getTotalStatesAvailable());
+        return states;
+    }
+}
@@ -1,8 +1,18 @@
 package com.jtk.bonds.issuance.cordapp.client.verticle;
 
+import com.jtk.bonds.issuance.cordapp.client.jobs.FlowJob;
+import com.jtk.bonds.issuance.cordapp.client.jobs.FlowJobs;
+import com.jtk.bonds.issuance.cordapp.client.metrics.ClientMetrics;
+import com.jtk.bonds.issuance.cordapp.client.orderbook.BondOrderBooks;
+import com.jtk.bonds.issuance.cordapp.client.orderbook.OrderBook;
+import com.jtk.bonds.issuance.cordapp.client.orderbook.Settlement;
+import com.jtk.bonds.issuance.cordapp.client.readmodel.VaultReadModel;
 import com.jtk.bonds.issuance.cordapp.client.utils.NodeRPCConnection;
-import com.jtk.corda.states.cash.issuance.CashState;
+import com.jtk.bonds.issuance.cordapp.client.utils.RpcCache;
+import com.jtk.bonds.issuance.cordapp.client.utils.VaultRpcQueries;
+import com.jtk.corda.workflows.bond.coupons.BatchCouponPaymentFlow;
 import com.jtk.corda.workflows.bond.coupons.CouponPaymentFlow;
+import com.jtk.corda.workflows.bond.coupons.QueryCouponScheduleFlow;
 import com.jtk.corda.workflows.bond.coupons.RedeemCouponPaymentFlow;
 import com.jtk.corda.workflows.bond.coupons.StartCouponPaymentFlow;
 import com.jtk.corda.workflows.bond.issuance.*;
@@ -11,41 +21,101 @@ import com.jtk.corda.workflows.cash.issuance.QueryCashTokenFlow;
 import com.jtk.corda.workflows.cash.issuance.TransferTokenFlow;
 import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Promise;
 import io.vertx.core.WorkerExecutor;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonObject;
 import net.corda.core.contracts.ContractState;
-import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowLogic;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.messaging.FlowProgressHandle;
 import net.corda.core.node.NodeInfo;
-import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.node.services.NetworkMapCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rx.Subscription;
 
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class CordaVerticle extends AbstractVerticle {
 
     private static final Logger log = LoggerFactory.getLogger(CordaVerticle.class);
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int DEFAULT_RPC_WORKER_POOL_SIZE = 5;
+    private static final int DEFAULT_SETTLEMENT_INTERVAL_MS = 1000;
+    private static final int DEFAULT_SETTLEMENT_BATCH_SIZE = 50;
+    private static final int MAX_SETTLEMENT_ATTEMPTS = 3;
+    private static final int ORDER_BOOK_LEVELS = 20;
+    private static final int DEFAULT_JOB_TTL_MS = 600_000;
+    private static final int DEFAULT_JOB_MAX_RUNNING_MS = 3_600_000;
+    private static final int DEFAULT_DETAILS_CACHE_TTL_MS = 60_000;
+    // get-corda-details answers built from the node's info, the network map and the registered flows
+    private static final Set<String> CACHED_DETAILS = new HashSet<>(Arrays.asList(
+            "addresses", "identities", "platformversion", "peers", "notaries", "flows", "me"));
     private NodeRPCConnection nodeRPC;
     private CordaX500Name me;
     private WorkerExecutor cordaWorkerPool;
+    private VaultReadModel readModel;
+    // set when vertx.corda.query.mode is rpc, the query APIs then skip the query flows
+    private VaultRpcQueries rpcQueries;
+    // order books are only touched from this verticle's context, matched trades are settled in batches
+    private final BondOrderBooks orderBooks = new BondOrderBooks();
+    private int settlementBatchSize;
+    private long settlementTimer;
+    // flows started in async mode, kept for vertx.corda.jobs.ttl.ms once finished, failed once running for longer
+    // than vertx.corda.jobs.max.running.ms
+    private FlowJobs jobs;
+    private long jobEvictionTimer;
+    // null when vertx.corda.details.cache.ttl.ms is 0, emptied on every change of the network map
+    private RpcCache<JsonObject> detailsCache;
+    private Subscription networkMapSubscription;
 
 
     @Override
     public void start(Promise<Void> startPromise) throws Exception {
         nodeRPC = NodeRPCConnection.getInstance(config());
         this.me = this.nodeRPC.proxy().nodeInfo().getLegalIdentities().get(0).getName();
-        cordaWorkerPool = vertx.createSharedWorkerExecutor("corda-rpc-pool", 5);
+        cordaWorkerPool = vertx.createSharedWorkerExecutor("corda-rpc-pool",
+                config().getInteger("vertx.corda.rpc.worker.pool.size", DEFAULT_RPC_WORKER_POOL_SIZE));
+        if ("rpc".equalsIgnoreCase(config().getString("vertx.corda.query.mode", "flow"))) {
+            rpcQueries = new VaultRpcQueries(nodeRPC);
+        }
+        if (config().getBoolean("vertx.corda.readmodel.enabled", false)) {
+            startReadModel();
+        }
+        settlementBatchSize = config().getInteger("vertx.orderbook.settlement.batch.size", DEFAULT_SETTLEMENT_BATCH_SIZE);
+        settlementTimer = vertx.setPeriodic(config().getInteger("vertx.orderbook.settlement.interval.ms",
+                DEFAULT_SETTLEMENT_INTERVAL_MS), id -> settleTrades());
+        jobs = new FlowJobs(vertx.eventBus());
+        int jobTtlMs = config().getInteger("vertx.corda.jobs.ttl.ms", DEFAULT_JOB_TTL_MS);
+        int jobMaxRunningMs = config().getInteger("vertx.corda.jobs.max.running.ms", DEFAULT_JOB_MAX_RUNNING_MS);
+        jobEvictionTimer = vertx.setPeriodic(jobTtlMs, id -> {
+            Instant now = Instant.now();
+            int failed = jobs.failRunningStartedBefore(now.minusMillis(jobMaxRunningMs));
+            if (failed > 0) {
+                log.warn("Failed {} jobs still running after {} ms", failed, jobMaxRunningMs);
+            }
+            jobs.evictFinishedBefore(now.minusMillis(jobTtlMs));
+        });
+        int detailsCacheTtlMs = config().getInteger("vertx.corda.details.cache.ttl.ms", DEFAULT_DETAILS_CACHE_TTL_MS);
+        if (detailsCacheTtlMs > 0) {
+            startDetailsCache(detailsCacheTtlMs);
+        }
 
         vertx.eventBus()
                 .consumer("CORDA-API", new CordaHandler());
@@ -55,6 +125,14 @@ public class CordaVerticle extends AbstractVerticle {
 
     @Override
     public void stop(Promise<Void> stopPromise) throws Exception {
+        vertx.cancelTimer(settlementTimer);
+        vertx.cancelTimer(jobEvictionTimer);
+        if (networkMapSubscription != null) {
+            networkMapSubscription.unsubscribe();
+        }
+        if (readModel != null) {
+            readModel.close();
+        }
         if (nodeRPC != null) {
             nodeRPC.close();
         }
@@ -69,6 +147,115 @@ public class CordaVerticle extends AbstractVerticle {
         log.info("Undeployed CordaVerticle...");
     }
 
+    // queries keep going to the flows until the read model is seeded, and again from a lost RPC connection until it
+    // has been seeded anew after the reconnect
+    private void startReadModel() {
+        CordaRPCOps proxy = nodeRPC.proxy();
+        readModel = new VaultReadModel(proxy);
+        nodeRPC.addReconnectListener(proxy, readModel::disconnected, this::seedReadModel);
+        seedReadModel();
+    }
+
+    private void seedReadModel() {
+        cordaWorkerPool.executeBlocking(e1 -> {
+            readModel.start();
+            e1.complete();
+        }, false).onFailure(e -> log.error("Failed to seed the read model, queries are served by flows", e));
+    }
+
+    /**
+     * Node details are answered from memory for up to ttlMs, and dropped as soon as a node joins, leaves or changes
+     * in the network map, which changes the peers, the notaries and our own node info. Should the feed fail the
+     * answers are only refreshed once their time to live is up.
+     */
+    private void startDetailsCache(int ttlMs) {
+        detailsCache = new RpcCache<>(ttlMs);
+        DataFeed<List<NodeInfo>, NetworkMapCache.MapChange> feed = nodeRPC.proxy().networkMapFeed();
+        networkMapSubscription = feed.getUpdates().subscribe(
+                change -> context.runOnContext(v -> detailsCache.invalidateAll()),
+                e -> log.warn("Network map feed failed, node details are kept for their time to live", e));
+    }
+
+    /**
+     * Starts one delivery versus payment per netted buyer, seller and term. Our node is the buyer of every trade.
+     * A settlement that fails is tried again by the next run, and kept as failed on the book of its term once it has
+     * failed MAX_SETTLEMENT_ATTEMPTS times, so matched trades are never lost.
+     */
+    private void settleTrades() {
+        if (!orderBooks.hasSettlements()) {
+            return;
+        }
+        List<Settlement> settlements = orderBooks.drainSettlements();
+        log.info("Settling {} netted order book trades", settlements.size());
+        for (Settlement settlement : settlements) {
+            cordaWorkerPool.<Future<String>>executeBlocking(e1 -> {
+                Party seller = partyByCommonName(settlement.getSeller());
+                if (seller == null) {
+                    e1.fail(settlement.getSeller() + " not found");
+                    return;
+                }
+                e1.complete(startFlow(InterBankBondTransferFlow.DvPTransferInitiator.class,
+                        UniqueIdentifier.Companion.fromString(settlement.getTermId()),
+                        settlement.getUnits(), settlement.getCost(), seller));
+            }, false)
+                    .compose(result -> result)
+                    .onComplete(result -> {
+                        if (result.succeeded() && !result.result().contains("errorMsg")) {
+                            log.info("Settled {} with {}", settlement, result.result());
+                            return;
+                        }
+                        Object failure = result.succeeded() ? result.result() : result.cause();
+                        if (orderBooks.retry(settlement, MAX_SETTLEMENT_ATTEMPTS)) {
+                            log.warn("Failed to settle {}, trying again: {}", settlement, failure);
+                        } else {
+                            log.error("Gave up settling {}, kept as failed for reconciliation: {}", settlement, failure);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * The legal identity in the network map with the common name, null when there is none. Blocks on RPC.
+     */
+    private Party partyByCommonName(String commonName) {
+        return nodeRPC.proxy().networkMapSnapshot().stream()
+                .flatMap(el -> el.getLegalIdentities().stream())
+                .filter(party -> party.getName().getCommonName() != null
+                        && party.getName().getCommonName().equals(commonName))
+                .findAny().orElse(null);
+    }
+
+    /**
+     * Starts the flow and completes on the verticle's context once it has finished, without blocking a thread
+     * meanwhile. Started, completed and failed flows are counted by flow class.
+     */
+    private <T> Future<T> startFlow(Class<? extends FlowLogic<? extends T>> flowClass, Object... args) {
+        return ClientMetrics.countFlow(flowClass, () -> Future.fromCompletionStage(
+                nodeRPC.proxy().startFlowDynamic(flowClass, args).getReturnValue().toCompletableFuture(), context));
+    }
+
+    /**
+     * Starts the flow with its progress tracked and returns right away with the job it runs as. The job records the
+     * steps the flow moves through and its result, and publishes each change to the job's event bus address.
+     */
+    private FlowJob startJob(Class<? extends FlowLogic<String>> flowClass, Object... args) {
+        FlowProgressHandle<String> handle = nodeRPC.proxy().startTrackedFlowDynamic(flowClass, args);
+        FlowJob job = jobs.start(handle.getId().getUuid().toString(), flowClass.getSimpleName());
+        handle.getProgress().subscribe(step -> jobs.step(job, step),
+                e -> log.warn("Stopped tracking the progress of job {}", job.getJobId(), e));
+        ClientMetrics.countFlow(flowClass, () -> Future.fromCompletionStage(
+                        handle.getReturnValue().toCompletableFuture(), context))
+                .onComplete(result -> {
+                    if (result.succeeded()) {
+                        jobs.complete(job, result.result());
+                    } else {
+                        log.error("Job {} failed", job.getJobId(), result.cause());
+                        jobs.fail(job, String.valueOf(result.cause().getMessage()));
+                    }
+                });
+        return job;
+    }
+
     class CordaHandler implements Handler<Message<JsonObject>> {
 
         @Override
@@ -76,447 +263,444 @@ public class CordaVerticle extends AbstractVerticle {
             // /addresses
             JsonObject json = event.body();
             String url = json.getString("url");
+            if (url.endsWith("bond-order") || url.equals("get-bond-order-book")) {
+                orderBookRequest(url, json).onComplete(result -> event.reply(new JsonObject().put("msg",
+                        result.succeeded() ? result.result() : errorMsg(String.valueOf(result.cause().getMessage())))));
+                return;
+            }
+            if (url.equals("get-job")) {
+                event.reply(jobRequest(json.getString("jobId")));
+                return;
+            }
+            String cached = readModelQuery(url, json);
+            if (cached != null) {
+                event.reply(new JsonObject().put("msg", cached));
+                return;
+            }
+            Future<JsonObject> response = detailsCache != null && CACHED_DETAILS.contains(url)
+                    ? detailsCache.get(url, () -> dispatchOnWorker(url, json))
+                    : dispatchOnWorker(url, json);
+            response.onComplete(result -> {
+                if (result.succeeded()) {
+                    event.reply(result.result());
+                } else {
+                    log.error("Exception query Corda", result.cause());
+                    event.fail(500, "Couldnt successfully process request...");
+                }
+            });
+        }
+
+        // the worker only runs the blocking RPC call that starts the flow (or a plain query), flow results are
+        // composed on their CordaFuture so no worker thread is parked while a flow is in flight
+        private Future<JsonObject> dispatchOnWorker(String url, JsonObject json) {
+            return cordaWorkerPool.<Future<JsonObject>>executeBlocking(e1 -> e1.complete(dispatch(url, json)), false)
+                    .compose(response -> response);
+        }
+
+        private Future<JsonObject> dispatch(String url, JsonObject json) {
             JsonObject responseJson = new JsonObject();
-            cordaWorkerPool.executeBlocking(e1 ->
-                    {
-                        switch (url) {
-                            case "addresses":
-                                String address = nodeRPC.proxy().nodeInfo().getAddresses().toString();
-                                responseJson.put("msg", String.format("{ \"msg\":\"%s\"}", address));
-                                break;
-                            case "identities":
-                                String identities = nodeRPC.proxy().nodeInfo().getLegalIdentities().toString();
-                                responseJson.put("msg", String.format("{ \"msg\":\"%s\"}", identities));
-                                break;
-                            case "platformversion":
-                                int platformVersion = nodeRPC.proxy().nodeInfo().getPlatformVersion();
-                                responseJson.put("msg", String.format("{ \"msg\":\"%s\"}", platformVersion));
-                                break;
-                            case "peers":
-                                responseJson.put("msg", getPeers());
-                                break;
-                            case "notaries":
-                                String notary = nodeRPC.proxy().notaryIdentities().toString();
-                                responseJson.put("msg", String.format("{ \"msg\":\"%s\"}", notary));
-                                break;
-                            case "flows":
-                                responseJson.put("msg", nodeRPC.proxy().registeredFlows().toString());
-                                break;
-                            case "me":
-                                responseJson.put("msg", whoami());
-                                break;
-                            case "states":
-                                List<String> listOfStates = nodeRPC.proxy().vaultQuery(ContractState.class).getStates()
-                                        .stream().map(contractStateStateAndRef -> contractStateStateAndRef.getState().getData())
-                                        .map(contractState -> {
-                                            if (contractState instanceof FungibleToken) {
-                                                FungibleToken ft = (FungibleToken) contractState;
-                                                return new JsonObject()
-                                                        .put("amount", ft.getAmount().getQuantity())
-                                                        .put("holder", ft.getHolder().toString())
-                                                        .put("tokenType", ft.getTokenType().getTokenClass().getName())
-                                                        .put("issuer", ft.getIssuer().toString())
-                                                        .toString();
-                                            } else {
-                                                return contractState.toString();
-                                            }
-                                        })
-                                        .collect(Collectors.toList());
-                                responseJson.put("msg", listOfStates.toString());
-                                break;
-                            case "issue-bond-terms":
-                                try {
-                                    String returnMsg = nodeRPC.proxy().startTrackedFlowDynamic(CreateAndIssueTermFlow.class,
-                                            json.getString("bondName"),
-                                            json.getDouble("interestRate"),
-                                            json.getInteger("parValue"),
-                                            json.getInteger("unitsAvailable"),
-                                            json.getString("maturityDate"),
-                                            json.getString("bondType"),
-                                            json.getString("currency"),
-                                            json.getString("creditRating"),
-                                            json.getInteger("paymentFrequencyInMonths")).getReturnValue().get();
-                                    String response = returnMsg.split(">")[1];
-                                    responseJson.put("msg", response);
-                                } catch (InterruptedException e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                } catch (ExecutionException e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                }
-                                break;
-                            case "query-bond-terms":
-                                queryBondTerms(json, responseJson);
-                                break;
-                            case "query-bonds":
-                                queryBond(json, responseJson);
-                                break;
-                            case "issue-bond":
-                                String teamStateLinearID = json.getString("teamStateLinearID");
-                                int unitsOfBonds = json.getInteger("unitsOfBonds");
-                                try {
-                                    String returnMsg = nodeRPC.proxy()
-                                            .startTrackedFlowDynamic(RequestForBondInitiatorFlow.class,
-                                                    UniqueIdentifier.Companion.fromString(teamStateLinearID),
-                                                    unitsOfBonds).getReturnValue().get();
-                                    responseJson.put("msg", returnMsg);
-                                } catch (InterruptedException e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                } catch (ExecutionException e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                }
-                                break;
-                            case "get-bond-tokens":
-                                String termId = json.getString("termId");
-                                log.info("tokens for bonds on termId {}", termId);
-                                try {
-                                    Long amount = nodeRPC.proxy()
-                                            .startTrackedFlowDynamic(QueryBondToken.GetTokenBalance.class, termId)
-                                            .getReturnValue()
-                                            .get();
-                                    log.info("Retrieved sum: {} ", amount);
-                                    responseJson.put("msg", String.format("{\"total\": %s}", amount.toString()));
-                                } catch (InterruptedException e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                } catch (ExecutionException e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                }
-                                break;
-                            case "bond-coupon":
-                                try {
-                                    String returnMsg = nodeRPC.proxy().startTrackedFlowDynamic(CouponPaymentFlow.class,
-                                                    json.getString("couponDate"))
-                                            .getReturnValue().get();
-                                    String response = returnMsg;
-                                    responseJson.put("msg", response);
-                                } catch (InterruptedException e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                } catch (ExecutionException e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                }
-                                break;
-                            case "issue-cash":
-                                try {
-                                    String returnMsg = nodeRPC.proxy().startTrackedFlowDynamic(CreateCashFlow.class,
-                                                    json.getString("amount"),
-                                                    json.getString("currencyCode"),
-                                                    json.getDouble("usdRate")
-                                            )
-                                            .getReturnValue().get();
-                                    String response = returnMsg.split(">")[1];
-                                    responseJson.put("msg", response);
-                                } catch (InterruptedException e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                } catch (ExecutionException e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                }
-                                break;
-                            case "transfer-cash":
-                                try {
-                                    String recipient = json.getString("recipient");
-                                    log.info("Recipient: [{}] ", recipient);
-
-                                    Party partyRecipient = nodeRPC.proxy().networkMapSnapshot().stream()
-                                            .filter(el -> !isNotary(el) && !isMe(el) && !isNetworkMap(el))
-                                            .flatMap(el -> el.getLegalIdentities().stream())
-                                            .filter(party -> {
-                                                log.info("Party: [{}] ", party.getName().getCommonName());
-                                                return party.getName().getCommonName().equals(recipient);
-                                            })
-                                            .findAny().orElse(null);
-                                    String response = String.format("{\"msg\":\"%s not found\"}", recipient);
-
-                                    if (partyRecipient != null) {
-                                        SignedTransaction returnMsg = nodeRPC.proxy().startTrackedFlowDynamic(TransferTokenFlow.TransferTokenInitiator.class,
-                                                        json.getString("amount"),
-                                                        json.getString("currencyCode"),
-                                                        partyRecipient
-                                                )
-                                                .getReturnValue().get();
-                                        response = String.format("{\"transactionId\":\"%s\"}", returnMsg.getId().toHexString());
-                                    }
-                                    responseJson.put("msg", response);
-
-                                } catch (InterruptedException e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                } catch (ExecutionException e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                }
-                                break;
-                            case "query-cash":
-                                queryCash(json, responseJson);
-                                break;
-                            case "bond-coupon-schedule":
-                                try {
-                                    Void rt = nodeRPC.proxy().startTrackedFlowDynamic(StartCouponPaymentFlow.class,
-                                                    json.getInteger("schedulePeriodInSeconds"))
-                                            .getReturnValue().get();
-                                    String response = String.format("{\"msg\":\"coupon schedule started\"}");
-                                    responseJson.put("msg", response);
-                                } catch (InterruptedException e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                } catch (ExecutionException e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                }
-                                break;
-                            case "bond-early-redemption":
-                                try {
-                                    String redeemJson = nodeRPC.proxy().startTrackedFlowDynamic(
-                                                    RedeemCouponPaymentFlow.RedeemCouponInitiator.class, json.getString("termId"), true)
-                                            .getReturnValue().get();
-                                    responseJson.put("msg", redeemJson);
-                                } catch (Exception e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
+            switch (url) {
+                case "addresses":
+                    String address = nodeRPC.proxy().nodeInfo().getAddresses().toString();
+                    responseJson.put("msg", String.format("{ \"msg\":\"%s\"}", address));
+                    break;
+                case "identities":
+                    String identities = nodeRPC.proxy().nodeInfo().getLegalIdentities().toString();
+                    responseJson.put("msg", String.format("{ \"msg\":\"%s\"}", identities));
+                    break;
+                case "platformversion":
+                    int platformVersion = nodeRPC.proxy().nodeInfo().getPlatformVersion();
+                    responseJson.put("msg", String.format("{ \"msg\":\"%s\"}", platformVersion));
+                    break;
+                case "peers":
+                    responseJson.put("msg", getPeers());
+                    break;
+                case "notaries":
+                    String notary = nodeRPC.proxy().notaryIdentities().toString();
+                    responseJson.put("msg", String.format("{ \"msg\":\"%s\"}", notary));
+                    break;
+                case "flows":
+                    responseJson.put("msg", nodeRPC.proxy().registeredFlows().toString());
+                    break;
+                case "me":
+                    responseJson.put("msg", whoami());
+                    break;
+                case "states":
+                    List<String> listOfStates = nodeRPC.proxy().vaultQuery(ContractState.class).getStates()
+                            .stream().map(contractStateStateAndRef -> contractStateStateAndRef.getState().getData())
+                            .map(contractState -> {
+                                if (contractState instanceof FungibleToken) {
+                                    FungibleToken ft = (FungibleToken) contractState;
+                                    return new JsonObject()
+                                            .put("amount", ft.getAmount().getQuantity())
+                                            .put("holder", ft.getHolder().toString())
+                                            .put("tokenType", ft.getTokenType().getTokenClass().getName())
+                                            .put("issuer", ft.getIssuer().toString())
+                                            .toString();
+                                } else {
+                                    return contractState.toString();
                                 }
-                                break;
-                            case "bond-redemption":
-                                try {
-                                    String redeemJson = nodeRPC.proxy().startTrackedFlowDynamic(
-                                                    RedeemCouponPaymentFlow.RedeemCouponInitiator.class, json.getString("maturityDate"))
-                                            .getReturnValue().get();
-                                    responseJson.put("msg", redeemJson);
-                                } catch (Exception e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                }
-                                break;
-                            case "get-cash-tokens":
-                                try {
-                                    List<CashState> listOfCash = nodeRPC.proxy()
-                                            .startTrackedFlowDynamic(QueryCashTokenFlow.GetAllCashTokens.class)
-                                            .getReturnValue().get();
-                                    responseJson.put("msg", listOfCash.toString());
-                                } catch (Exception e) {
-                                    log.error("Exception query Corda", e);
-                                    e1.fail(e);
-                                    return;
-                                }
-                                break;
-                            default:
-                                responseJson.put("msg", "API NOT-FOUND");
-                                break;
+                            })
+                            .collect(Collectors.toList());
+                    responseJson.put("msg", listOfStates.toString());
+                    break;
+                case "issue-bond-terms":
+                    return reply(startFlow(CreateAndIssueTermFlow.class,
+                            json.getString("bondName"),
+                            json.getDouble("interestRate"),
+                            json.getInteger("parValue"),
+                            json.getInteger("unitsAvailable"),
+                            json.getString("maturityDate"),
+                            json.getString("bondType"),
+                            json.getString("currency"),
+                            json.getString("creditRating"),
+                            json.getInteger("paymentFrequencyInMonths"))
+                            .map(returnMsg -> returnMsg.split(">")[1]));
+                case "query-bond-terms":
+                    return queryBondTerms(json);
+                case "query-bonds":
+                    return queryBond(json);
+                case "issue-bond":
+                    String teamStateLinearID = json.getString("teamStateLinearID");
+                    int unitsOfBonds = json.getInteger("unitsOfBonds");
+                    return flowReply(json, RequestForBondInitiatorFlow.class,
+                            UniqueIdentifier.Companion.fromString(teamStateLinearID),
+                            unitsOfBonds);
+                case "issue-bonds-bulk":
+                    List<BulkRequestForBondFlow.BondPurchase> purchases = json.getJsonArray("purchases").stream()
+                            .map(JsonObject.class::cast)
+                            .map(purchase -> new BulkRequestForBondFlow.BondPurchase(
+                                    purchase.getString("termId"), purchase.getInteger("units")))
+                            .collect(Collectors.toList());
+                    return reply(startFlow(BulkRequestForBondFlow.BulkRequestForBondInitiator.class, purchases));
+                case "post-bond-ask":
+                    return reply(startFlow(BondAskFlow.PostBondAsk.class,
+                            UniqueIdentifier.Companion.fromString(json.getString("termId")),
+                            json.getInteger("unitPrice"), json.getInteger("units")));
+                case "bond-allocation-mode":
+                    return reply(startFlow(BondAllocationModeFlow.class,
+                            json.getBoolean("coalescing"), json.getInteger("maxBatchSize", 100)));
+                case "get-bond-tokens":
+                    String termId = json.getString("termId");
+                    log.info("tokens for bonds on termId {}", termId);
+                    return reply(startFlow(QueryBondToken.GetTokenBalance.class, termId)
+                            .map(amount -> {
+                                log.info("Retrieved sum: {} ", amount);
+                                return String.format("{\"total\": %s}", amount.toString());
+                            }));
+                case "bond-coupon":
+                    if (json.containsKey("batchSize")) {
+                        return flowReply(json, BatchCouponPaymentFlow.class,
+                                json.getString("couponDate"), json.getInteger("batchSize"));
+                    }
+                    return flowReply(json, CouponPaymentFlow.class,
+                            json.getString("couponDate"));
+                case "bond-coupon-due":
+                    return reply(startFlow(
+                            QueryCouponScheduleFlow.GetCouponsDue.class, json.getInteger("days")));
+                case "issue-cash":
+                    return reply(startFlow(CreateCashFlow.class,
+                                    json.getString("amount"),
+                                    json.getString("currencyCode"),
+                                    json.getDouble("usdRate"))
+                            .map(returnMsg -> returnMsg.split(">")[1]));
+                case "transfer-cash":
+                    String recipient = json.getString("recipient");
+                    log.info("Recipient: [{}] ", recipient);
+
+                    Party partyRecipient = nodeRPC.proxy().networkMapSnapshot().stream()
+                            .filter(el -> !isNotary(el) && !isMe(el) && !isNetworkMap(el))
+                            .flatMap(el -> el.getLegalIdentities().stream())
+                            .filter(party -> {
+                                log.info("Party: [{}] ", party.getName().getCommonName());
+                                return party.getName().getCommonName().equals(recipient);
+                            })
+                            .findAny().orElse(null);
+                    if (partyRecipient == null) {
+                        responseJson.put("msg", String.format("{\"msg\":\"%s not found\"}", recipient));
+                        break;
+                    }
+                    return reply(startFlow(TransferTokenFlow.TransferTokenInitiator.class,
+                                    json.getString("amount"),
+                                    json.getString("currencyCode"),
+                                    partyRecipient)
+                            .map(stx -> String.format("{\"transactionId\":\"%s\"}", stx.getId().toHexString())));
+                case "query-cash":
+                    return queryCash(json);
+                case "bond-coupon-schedule":
+                    return reply(startFlow(StartCouponPaymentFlow.class,
+                                    json.getInteger("schedulePeriodInSeconds"))
+                            .map(rt -> "{\"msg\":\"coupon schedule started\"}"));
+                case "bond-early-redemption":
+                    if (json.getBoolean("batch", false)) {
+                        return flowReply(json,
+                                RedeemCouponPaymentFlow.BatchRedeemInitiator.class,
+                                UniqueIdentifier.Companion.fromString(json.getString("termId")));
+                    }
+                    return flowReply(json,
+                            RedeemCouponPaymentFlow.RedeemCouponInitiator.class, json.getString("termId"), true);
+                case "bond-redemption":
+                    if (json.getBoolean("batch", false)) {
+                        return flowReply(json,
+                                RedeemCouponPaymentFlow.BatchRedeemInitiator.class, json.getString("maturityDate"));
+                    }
+                    return flowReply(json,
+                            RedeemCouponPaymentFlow.RedeemCouponInitiator.class, json.getString("maturityDate"));
+                case "get-cash-tokens":
+                    return reply(startFlow(QueryCashTokenFlow.GetAllCashTokens.class)
+                            .map(List::toString));
+                default:
+                    responseJson.put("msg", "API NOT-FOUND");
+                    break;
+            }
+            return Future.succeededFuture(responseJson);
+        }
+
+        /**
+         * Order placement, cancellation and book depth, answered in memory on the verticle's context.
+         * Bids are our own, asks are the offers of the banks holding the bonds, so every trade can be settled by us.
+         * An ask is only placed once its bank has confirmed, with its own posted ask of the term, that it sells the
+         * units at the price.
+         */
+        private Future<String> orderBookRequest(String url, JsonObject json) {
+            String termId = json.getString("termId");
+            if (termId == null) {
+                return Future.succeededFuture(errorMsg("termId is missing"));
+            }
+            try {
+                switch (url) {
+                    case "place-bond-order":
+                        String sideName = json.getString("side");
+                        if (sideName == null) {
+                            return Future.succeededFuture(errorMsg("side is missing, BID or ASK"));
                         }
-                        e1.complete(responseJson);
-                    })
-                    .onComplete(result -> {
-                        if (result.succeeded()) {
-                            event.reply(result.result());
-                        } else {
-                            event.fail(500, "Couldnt successfully process request...");
+                        OrderBook.Side side = OrderBook.Side.valueOf(sideName.toUpperCase());
+                        String owner = json.getString("owner", me.getCommonName());
+                        if (side == OrderBook.Side.BID && !owner.equals(me.getCommonName())) {
+                            return Future.succeededFuture(errorMsg("Bids can only be placed for " + me.getCommonName()));
+                        }
+                        if (side == OrderBook.Side.ASK && owner.equals(me.getCommonName())) {
+                            return Future.succeededFuture(errorMsg("Asks are placed for the bank holding the bonds"));
+                        }
+                        if (!isPositiveInteger(json, "units") || !isPositiveInteger(json, "price")) {
+                            return Future.succeededFuture(errorMsg("units and price must be positive integers"));
                         }
+                        int units = json.getInteger("units");
+                        int price = json.getInteger("price");
+                        if (side == OrderBook.Side.BID) {
+                            return Future.succeededFuture(placeOrder(termId, side, price, units, owner));
+                        }
+                        return confirmAsk(termId, owner, price, units).map(confirmed -> confirmed
+                                ? placeOrder(termId, side, price, units, owner)
+                                : errorMsg("Ask is not confirmed by " + owner));
+                    case "cancel-bond-order":
+                        boolean cancelled = orderBooks.cancel(termId, Long.parseLong(json.getString("orderId")));
+                        return Future.succeededFuture(String.format("{\"orderId\":\"%s\",\"cancelled\":%b}",
+                                json.getString("orderId"), cancelled));
+                    default:
+                        return Future.succeededFuture(orderBooks.toJson(termId, ORDER_BOOK_LEVELS));
+                }
+            } catch (IllegalArgumentException e) {
+                return Future.succeededFuture(errorMsg(e.getMessage()));
+            }
+        }
+
+        private String placeOrder(String termId, OrderBook.Side side, int price, int units, String owner) {
+            try {
+                long orderId = orderBooks.place(termId, side, price, units, owner);
+                int resting = orderBooks.book(termId).remaining(orderId);
+                if (orderBooks.pendingTrades() >= settlementBatchSize) {
+                    settleTrades();
+                }
+                return String.format("{\"orderId\":\"%d\",\"filled\":%d,\"resting\":%d}",
+                        orderId, units - resting, resting);
+            } catch (IllegalArgumentException e) {
+                return errorMsg(e.getMessage());
+            }
+        }
+
+        /**
+         * Whether the seller's own posted ask of the term sells the units at the price, asked of the seller's node.
+         */
+        private Future<Boolean> confirmAsk(String termId, String seller, int price, int units) {
+            UniqueIdentifier termLinearId = UniqueIdentifier.Companion.fromString(termId);
+            return cordaWorkerPool.<Party>executeBlocking(e1 -> e1.complete(partyByCommonName(seller)), false)
+                    .compose(sellerParty -> {
+                        if (sellerParty == null) {
+                            return Future.failedFuture(seller + " not found");
+                        }
+                        return startFlow(BondAskFlow.QueryBondAsk.class, termLinearId, sellerParty);
+                    })
+                    .map(ask -> {
+                        JsonObject posted = new JsonObject(ask);
+                        return units <= posted.getInteger("units") && price >= posted.getInteger("unitPrice");
                     });
         }
 
-        private void queryCash(JsonObject json, JsonObject responseJson) {
+        private boolean isPositiveInteger(JsonObject json, String key) {
+            Object value = json.getValue(key);
+            return value instanceof Integer && (Integer) value > 0;
+        }
+
+        private String errorMsg(String message) {
+            return new JsonObject().put("errorMsg", message).encode();
+        }
+
+        /**
+         * Answer of a query API from the read model, null when the query has to go to its flow.
+         */
+        private String readModelQuery(String url, JsonObject json) {
+            if (readModel == null || !readModel.isReady() || isPagedQuery(json)) {
+                return null;
+            }
+            String qType = json.getString("queryType");
+            String queryValue = json.getString("queryValue");
+            switch (url) {
+                case "query-bonds":
+                    return readModel.queryBonds(qType, queryValue);
+                case "query-bond-terms":
+                    return readModel.queryTerms(qType, queryValue);
+                case "query-cash":
+                    if ("byCurrencyCode".equalsIgnoreCase(qType)) {
+                        if (queryValue == null) {
+                            return VaultReadModel.MISSING_QUERY_VALUE;
+                        }
+                        BigDecimal amount = readModel.cashBalance(queryValue);
+                        return amount == null ? null : String.format("{\"total\":\"%s\"}", amount.toPlainString());
+                    }
+                    return null;
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * Status, steps so far and result of a job, answered from memory. Unknown or evicted jobs are a 404.
+         */
+        private JsonObject jobRequest(String jobId) {
+            FlowJob job = jobs.get(jobId);
+            if (job == null) {
+                return new JsonObject()
+                        .put("msg", "{\"errorMsg\":\"Job " + jobId + " not found\"}")
+                        .put("statusCode", 404);
+            }
+            return new JsonObject().put("msg", job.toJson().encode());
+        }
+
+        private Future<JsonObject> queryCash(JsonObject json) {
             String qType = json.getString("queryType");
-            String jsonResponse = "";
             if (qType.equalsIgnoreCase("byCurrencyCode")) {
                 String currency = json.getString("queryValue");
-                try {
-                    BigDecimal amount = nodeRPC.proxy().
-                            startTrackedFlowDynamic(QueryCashTokenFlow.GetTokenBalance.class, currency)
-                            .getReturnValue().get();
-                    jsonResponse = String.format("{\"total\":\"%s\"}", amount.toPlainString());
-                } catch (InterruptedException e) {
-                    log.error("Exception query Corda", e);
-                } catch (ExecutionException e) {
-                    log.error("Exception query Corda", e);
+                if (rpcQueries != null) {
+                    return queryReply(rpcQuery(() -> String.format("{\"total\":\"%s\"}",
+                            rpcQueries.cashBalance(currency).toPlainString())));
                 }
-                responseJson.put("msg", jsonResponse);
+                return queryReply(startFlow(QueryCashTokenFlow.GetTokenBalance.class, currency)
+                        .map(amount -> String.format("{\"total\":\"%s\"}", amount.toPlainString())));
             }
+            return Future.succeededFuture(new JsonObject());
         }
 
-        private void queryBondTerms(JsonObject json, JsonObject responseJson) {
+        private Future<JsonObject> queryBondTerms(JsonObject json) {
             String qType = json.getString("queryType");
-            String jsonResponse = "";
-
-            if (qType.equalsIgnoreCase("byCurrency")) {
-                String currency = json.getString("queryValue");
-                try {
-                    jsonResponse = nodeRPC.proxy().startTrackedFlowDynamic
-                                    (QueryBondTermsFlow.GetBondTermsByCurrency.class, currency)
-                            .getReturnValue().get();
-                } catch (InterruptedException e) {
-                    log.error("Exception query Corda", e);
-                } catch (ExecutionException e) {
-                    log.error("Exception query Corda", e);
-                }
-                responseJson.put("msg", jsonResponse);
+            String queryValue = json.getString("queryValue");
+            Future<String> result;
 
+            if (rpcQueries != null && !isPagedQuery(json) && VaultRpcQueries.isQueryType(qType)) {
+                return queryReply(rpcQuery(() -> rpcQueries.queryTerms(qType, queryValue)));
+            }
+            if (isPagedQuery(json)) {
+                result = startFlow(QueryBondTermsFlow.GetBondTermsPage.class, qType, queryValue,
+                        json.getInteger("pageNumber", 1),
+                        json.getInteger("pageSize", DEFAULT_PAGE_SIZE),
+                        json.getString("cursor"));
+            } else if (qType.equalsIgnoreCase("byCurrency")) {
+                result = startFlow(QueryBondTermsFlow.GetBondTermsByCurrency.class, queryValue);
             } else if (qType.equalsIgnoreCase("byRating")) {
-                String creditRating = json.getString("queryValue");
-                try {
-                    jsonResponse = nodeRPC.proxy().startTrackedFlowDynamic
-                                    (QueryBondTermsFlow.GetBondTermsByRating.class, creditRating)
-                            .getReturnValue().get();
-                } catch (InterruptedException e) {
-                    log.error("Exception query Corda", e);
-                } catch (ExecutionException e) {
-                    log.error("Exception query Corda", e);
-                }
-                responseJson.put("msg", jsonResponse);
-
+                result = startFlow(QueryBondTermsFlow.GetBondTermsByRating.class, queryValue);
             } else if (qType.equalsIgnoreCase("lessThanMaturityDate")) {
-                String maturityDate = json.getString("queryValue");
-                try {
-                    jsonResponse = nodeRPC.proxy().startTrackedFlowDynamic
-                                    (QueryBondTermsFlow.GetBondTermsLessThanMaturityDate.class, maturityDate)
-                            .getReturnValue().get();
-                } catch (InterruptedException e) {
-                    log.error("Exception query Corda", e);
-                } catch (ExecutionException e) {
-                    log.error("Exception query Corda", e);
-                }
-                responseJson.put("msg", jsonResponse);
+                result = startFlow(QueryBondTermsFlow.GetBondTermsLessThanMaturityDate.class, queryValue);
             } else if (qType.equalsIgnoreCase("greaterThanMaturityDate")) {
-                String maturityDate = json.getString("queryValue");
-                try {
-                    jsonResponse = nodeRPC.proxy().startTrackedFlowDynamic(QueryBondTermsFlow.GetBondTermsGreaterThanMaturityDate.class, maturityDate)
-                            .getReturnValue().get();
-                } catch (InterruptedException e) {
-                    log.error("Exception query Corda", e);
-                } catch (ExecutionException e) {
-                    log.error("Exception query Corda", e);
-                }
-                responseJson.put("msg", jsonResponse);
-
+                result = startFlow(QueryBondTermsFlow.GetBondTermsGreaterThanMaturityDate.class, queryValue);
             } else if (qType.equalsIgnoreCase("byTermStateLinearID")) {
-                String teamStateLinearID = json.getString("queryValue");
-                try {
-                    jsonResponse = nodeRPC.proxy().startTrackedFlowDynamic
-                                    (QueryBondTermsFlow.GetActiveBondTermByTermStateLinearID.class,
-                                            UniqueIdentifier.Companion.fromString(teamStateLinearID))
-                            .getReturnValue().get();
-                } catch (InterruptedException e) {
-                    log.error("Exception query Corda", e);
-                } catch (ExecutionException e) {
-                    log.error("Exception query Corda", e);
-                }
-                responseJson.put("msg", jsonResponse);
-            }else if (qType.equalsIgnoreCase("notActiveBonds")) {
-                try {
-                    jsonResponse = nodeRPC.proxy().startTrackedFlowDynamic
-                                    (QueryBondTermsFlow.GetNotActiveBondTerm.class)
-                            .getReturnValue().get();
-                } catch (InterruptedException e) {
-                    log.error("Exception query Corda", e);
-                } catch (ExecutionException e) {
-                    log.error("Exception query Corda", e);
-                }
-                responseJson.put("msg", jsonResponse);
+                result = startFlow(QueryBondTermsFlow.GetActiveBondTermByTermStateLinearID.class,
+                        UniqueIdentifier.Companion.fromString(queryValue));
+            } else if (qType.equalsIgnoreCase("notActiveBonds")) {
+                result = startFlow(QueryBondTermsFlow.GetNotActiveBondTerm.class);
+            } else {
+                return Future.succeededFuture(new JsonObject());
             }
+            return queryReply(result);
         }
 
-        private void queryBond(JsonObject json, JsonObject responseJson) {
+        private Future<JsonObject> queryBond(JsonObject json) {
             String qType = json.getString("queryType");
-            String jsonResponse = "";
-
-            if (qType.equalsIgnoreCase("byCurrency")) {
-                String currency = json.getString("queryValue");
-                try {
-                    jsonResponse = nodeRPC.proxy().
-                            startTrackedFlowDynamic(QueryBondsFlow.GetBondsByCurrency.class, currency)
-                            .getReturnValue().get();
-                } catch (InterruptedException e) {
-                    log.error("Exception query Corda", e);
-                } catch (ExecutionException e) {
-                    log.error("Exception query Corda", e);
-                }
-                responseJson.put("msg", jsonResponse);
+            String queryValue = json.getString("queryValue");
+            Future<String> result;
 
+            if (rpcQueries != null && !isPagedQuery(json) && VaultRpcQueries.isQueryType(qType)) {
+                return queryReply(rpcQuery(() -> rpcQueries.queryBonds(qType, queryValue)));
+            }
+            if (isPagedQuery(json)) {
+                result = startFlow(QueryBondsFlow.GetBondsPage.class, qType, queryValue,
+                        json.getInteger("pageNumber", 1),
+                        json.getInteger("pageSize", DEFAULT_PAGE_SIZE),
+                        json.getString("cursor"));
+            } else if (qType.equalsIgnoreCase("byCurrency")) {
+                result = startFlow(QueryBondsFlow.GetBondsByCurrency.class, queryValue);
             } else if (qType.equalsIgnoreCase("byRating")) {
-                String creditRating = json.getString("queryValue");
-                try {
-                    jsonResponse = nodeRPC.proxy().
-                            startTrackedFlowDynamic(QueryBondsFlow.GetBondsByRating.class, creditRating)
-                            .getReturnValue().get();
-                } catch (InterruptedException e) {
-                    log.error("Exception query Corda", e);
-                } catch (ExecutionException e) {
-                    log.error("Exception query Corda", e);
-                }
-                responseJson.put("msg", jsonResponse);
-
+                result = startFlow(QueryBondsFlow.GetBondsByRating.class, queryValue);
             } else if (qType.equalsIgnoreCase("lessThanMaturityDate")) {
-                String maturityDate = json.getString("queryValue");
-                try {
-                    jsonResponse = nodeRPC.proxy().
-                            startTrackedFlowDynamic(QueryBondsFlow.GetBondLessThanMaturityDate.class, maturityDate)
-                            .getReturnValue().get();
-                } catch (InterruptedException e) {
-                    log.error("Exception query Corda", e);
-                } catch (ExecutionException e) {
-                    log.error("Exception query Corda", e);
-                }
-                responseJson.put("msg", jsonResponse);
+                result = startFlow(QueryBondsFlow.GetBondLessThanMaturityDate.class, queryValue);
             } else if (qType.equalsIgnoreCase("greaterThanMaturityDate")) {
-                String maturityDate = json.getString("queryValue");
-                try {
-                    jsonResponse = nodeRPC.proxy().
-                            startTrackedFlowDynamic(QueryBondsFlow.GetBondGreaterThanMaturityDate.class, maturityDate)
-                            .getReturnValue().get();
-                } catch (InterruptedException e) {
-                    log.error("Exception query Corda", e);
-                } catch (ExecutionException e) {
-                    log.error("Exception query Corda", e);
-                }
-                responseJson.put("msg", jsonResponse);
-
+                result = startFlow(QueryBondsFlow.GetBondGreaterThanMaturityDate.class, queryValue);
             } else if (qType.equalsIgnoreCase("byTermStateLinearID")) {
-                String teamStateLinearID = json.getString("queryValue");
-                try {
-                    jsonResponse = nodeRPC.proxy().
-                            startTrackedFlowDynamic(QueryBondsFlow.GetBondByTermStateLinearID.class,
-                                    UniqueIdentifier.Companion.fromString(teamStateLinearID))
-                            .getReturnValue().get();
-                } catch (InterruptedException e) {
-                    log.error("Exception query Corda", e);
-                } catch (ExecutionException e) {
-                    log.error("Exception query Corda", e);
-                }
-                responseJson.put("msg", jsonResponse);
-            }else if (qType.equalsIgnoreCase("notActiveBonds")) {
-                try {
-                    jsonResponse = nodeRPC.proxy().startTrackedFlowDynamic
-                            (QueryBondsFlow.GetNotActiveBonds.class)
-                            .getReturnValue().get();
-                } catch (InterruptedException e) {
-                    log.error("Exception query Corda", e);
-                } catch (ExecutionException e) {
-                    log.error("Exception query Corda", e);
-                }
-                responseJson.put("msg", jsonResponse);
+                result = startFlow(QueryBondsFlow.GetBondByTermStateLinearID.class,
+                        UniqueIdentifier.Companion.fromString(queryValue));
+            } else if (qType.equalsIgnoreCase("notActiveBonds")) {
+                result = startFlow(QueryBondsFlow.GetNotActiveBonds.class);
+            } else {
+                return Future.succeededFuture(new JsonObject());
+            }
+            return queryReply(result);
+        }
+
+        private Future<String> rpcQuery(Supplier<String> query) {
+            try {
+                return Future.succeededFuture(query.get());
+            } catch (RuntimeException e) {
+                return Future.failedFuture(e);
+            }
+        }
+
+        /**
+         * Replies with the flow's result once it has finished, or with "async": true right away with a 202 and the
+         * job the flow runs as, to be polled from /corda/jobs/{jobId} or streamed from /corda/jobs/{jobId}/events.
+         */
+        private Future<JsonObject> flowReply(JsonObject json, Class<? extends FlowLogic<String>> flowClass,
+                                             Object... args) {
+            if (json.getBoolean("async", false)) {
+                return Future.succeededFuture(new JsonObject()
+                        .put("msg", startJob(flowClass, args).toJson().encode())
+                        .put("statusCode", 202));
             }
+            return reply(startFlow(flowClass, args));
+        }
+
+        private Future<JsonObject> reply(Future<String> msg) {
+            return msg.map(response -> new JsonObject().put("msg", response));
+        }
+
+        // query endpoints answer with an empty msg when the flow fails, as they always have
+        private Future<JsonObject> queryReply(Future<String> msg) {
+            return reply(msg.otherwise(e -> {
+                log.error("Exception query Corda", e);
+                return "";
+            }));
+        }
+
+        private boolean isPagedQuery(JsonObject json) {
+            return json.containsKey("pageNumber") || json.containsKey("pageSize") || json.containsKey("cursor");
         }
 
         private HashMap<String, String> whoami() {
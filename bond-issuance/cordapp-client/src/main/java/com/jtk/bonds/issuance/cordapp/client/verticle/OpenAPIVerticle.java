@@ -1,6 +1,7 @@
 package com.jtk.bonds.issuance.cordapp.client.verticle;
 
 import com.jtk.bonds.issuance.cordapp.client.MainVerticle;
+import com.jtk.bonds.issuance.cordapp.client.metrics.ClientMetrics;
 import com.jtk.bonds.issuance.cordapp.client.route.handler.HandlerFactory;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.vertx.core.AbstractVerticle;
@@ -33,6 +34,9 @@ public class OpenAPIVerticle extends AbstractVerticle {
                     if (routerBuilderAsyncResult.succeeded()) {
                         log.info("Completed building Router from API");
                         Router router = routerBuilderAsyncResult.result().createRouter();
+                        if (ClientMetrics.isEnabled(config())) {
+                            router.get(ClientMetrics.METRICS_PATH).handler(ClientMetrics.scrapeHandler());
+                        }
                         addErrorHandler(router);
                         createHttpServer(startPromise, router);
                     } else {
@@ -0,0 +1,83 @@
+package com.jtk.bonds.issuance.cordapp.client.jobs;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(VertxExtension.class)
+public class FlowJobsTest {
+    private FlowJobs jobs;
+
+    @BeforeEach
+    void setUp(Vertx vertx) {
+        jobs = new FlowJobs(vertx.eventBus());
+    }
+
+    @Test
+    void onlyJobsFinishedBeforeTheInstantAreEvicted() {
+        FlowJob running = jobs.start("running", "Flow");
+        FlowJob completed = jobs.start("completed", "Flow");
+        FlowJob failed = jobs.start("failed", "Flow");
+        jobs.complete(completed, "{}");
+        jobs.fail(failed, "boom");
+
+        assertEquals(0, jobs.evictFinishedBefore(Instant.now().minusSeconds(60)));
+        assertEquals(2, jobs.evictFinishedBefore(Instant.now().plusSeconds(1)));
+
+        assertNotNull(jobs.get(running.getJobId()));
+        assertNull(jobs.get(completed.getJobId()));
+        assertNull(jobs.get(failed.getJobId()));
+    }
+
+    @Test
+    void jobsRunningPastTheirMaxAgeAreFailedThenEvicted() {
+        FlowJob stuck = jobs.start("stuck", "Flow");
+        FlowJob done = jobs.start("done", "Flow");
+        jobs.complete(done, "{}");
+
+        assertEquals(0, jobs.failRunningStartedBefore(Instant.now().minusSeconds(60)));
+        assertEquals(1, jobs.failRunningStartedBefore(Instant.now().plusSeconds(1)));
+
+        assertEquals(FlowJob.Status.FAILED, stuck.getStatus());
+        assertEquals(FlowJob.Status.COMPLETED, done.getStatus());
+        assertEquals(2, jobs.evictFinishedBefore(Instant.now().plusSeconds(1)));
+        assertNull(jobs.get(stuck.getJobId()));
+    }
+
+    @Test
+    void changesArePublishedOnceAndNotAfterTheJobFinished(Vertx vertx, VertxTestContext testContext) {
+        FlowJob job = jobs.start("published", "Flow");
+        List<JsonObject> published = new ArrayList<>();
+        vertx.eventBus().<JsonObject>consumer(FlowJobs.address(job.getJobId()), event -> published.add(event.body()))
+                .completionHandler(testContext.succeeding(registered -> {
+                    jobs.step(job, "one");
+                    jobs.step(job, "one");
+                    jobs.step(job, "two");
+                    jobs.failRunningStartedBefore(Instant.now().plusSeconds(1));
+                    jobs.complete(job, "{}");
+                    jobs.step(job, "three");
+                    vertx.setTimer(100, id -> testContext.verify(() -> {
+                        assertEquals(3, published.size());
+                        assertEquals("one", published.get(0).getString("step"));
+                        assertEquals("two", published.get(1).getString("step"));
+                        assertEquals("FAILED", published.get(2).getString("status"));
+                        assertTrue(published.get(2).containsKey("error"));
+                        assertNull(published.get(2).getString("result"));
+                        testContext.completeNow();
+                    }));
+                }));
+    }
+}
@@ -0,0 +1,148 @@
+package com.jtk.bonds.issuance.cordapp.client.orderbook;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BondOrderBooksTest {
+    private BondOrderBooks books;
+
+    @BeforeEach
+    void setUp() {
+        books = new BondOrderBooks();
+    }
+
+    @Test
+    void tradesAreNettedPerTermBuyerAndSeller() {
+        books.place("T1", OrderBook.Side.ASK, 100, 10, "GS");
+        books.place("T1", OrderBook.Side.ASK, 101, 10, "GS");
+        books.place("T1", OrderBook.Side.ASK, 101, 10, "HSBC");
+        books.place("T2", OrderBook.Side.ASK, 50, 10, "GS");
+
+        books.place("T1", OrderBook.Side.BID, 101, 25, "CB");
+        books.place("T2", OrderBook.Side.BID, 50, 4, "CB");
+        books.place("T2", OrderBook.Side.BID, 50, 4, "CB");
+
+        assertEquals(5, books.pendingTrades());
+        assertTrue(books.hasSettlements());
+        List<Settlement> settlements = books.drainSettlements();
+        settlements.sort(Comparator.comparing(Settlement::getTermId).thenComparing(Settlement::getSeller));
+        assertEquals(3, settlements.size());
+        assertSettlement(settlements.get(0), "T1", "GS", 20, 100 * 10 + 101 * 10, 2);
+        assertSettlement(settlements.get(1), "T1", "HSBC", 5, 101 * 5, 1);
+        assertSettlement(settlements.get(2), "T2", "GS", 8, 50 * 8, 2);
+        assertEquals("CB", settlements.get(0).getBuyer());
+
+        assertEquals(0, books.pendingTrades());
+        assertFalse(books.hasSettlements());
+        assertTrue(books.drainSettlements().isEmpty());
+    }
+
+    @Test
+    void pairIsClosedBeforeItsCostOverflows() {
+        int price = Integer.MAX_VALUE / 2;
+        books.place("T1", OrderBook.Side.ASK, price, 1, "GS");
+        books.place("T1", OrderBook.Side.ASK, price, 1, "GS");
+        books.place("T1", OrderBook.Side.ASK, price, 1, "GS");
+
+        books.place("T1", OrderBook.Side.BID, price, 1, "CB");
+        books.place("T1", OrderBook.Side.BID, price, 1, "CB");
+        books.place("T1", OrderBook.Side.BID, price, 1, "CB");
+
+        List<Settlement> settlements = books.drainSettlements();
+        assertEquals(2, settlements.size());
+        assertSettlement(settlements.get(0), "T1", "GS", 2, 2 * price, 2);
+        assertSettlement(settlements.get(1), "T1", "GS", 1, price, 1);
+    }
+
+    @Test
+    void orderTooLargeToSettleIsRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> books.place("T1", OrderBook.Side.BID, Integer.MAX_VALUE, 2, "CB"));
+        assertNull(books.book("T1"));
+    }
+
+    @Test
+    void cancelOfAnUnknownTermOrOrderIsFalse() {
+        long order = books.place("T1", OrderBook.Side.BID, 100, 10, "CB");
+
+        assertFalse(books.cancel("T2", order));
+        assertTrue(books.cancel("T1", order));
+        assertFalse(books.cancel("T1", order));
+    }
+
+    @Test
+    void failedSettlementIsRetriedThenKeptAsFailed() {
+        books.place("T1", OrderBook.Side.ASK, 100, 10, "GS");
+        books.place("T1", OrderBook.Side.BID, 100, 10, "CB");
+        Settlement settlement = books.drainSettlements().get(0);
+
+        assertTrue(books.retry(settlement, 3));
+        assertTrue(books.hasSettlements());
+        Settlement retried = books.drainSettlements().get(0);
+        assertEquals(1, retried.getAttempts());
+        assertSettlement(retried, "T1", "GS", 10, 1000, 1);
+
+        assertTrue(books.retry(retried, 3));
+        Settlement last = books.drainSettlements().get(0);
+        assertFalse(books.retry(last, 3));
+
+        assertFalse(books.hasSettlements());
+        assertEquals(1, books.failedSettlements("T1").size());
+        assertEquals(3, books.failedSettlements("T1").get(0).getAttempts());
+        assertTrue(books.failedSettlements("T2").isEmpty());
+        JsonArray failed = new JsonObject(books.toJson("T1", 5)).getJsonArray("failedSettlements");
+        assertEquals(1, failed.size());
+        assertEquals("GS", failed.getJsonObject(0).getString("seller"));
+    }
+
+    @Test
+    void retriedSettlementsAreDrainedWithNewTrades() {
+        books.place("T1", OrderBook.Side.ASK, 100, 10, "GS");
+        books.place("T1", OrderBook.Side.BID, 100, 5, "CB");
+        books.retry(books.drainSettlements().get(0), 3);
+
+        books.place("T1", OrderBook.Side.BID, 100, 5, "CB");
+
+        List<Settlement> settlements = books.drainSettlements();
+        assertEquals(2, settlements.size());
+        assertEquals(1, settlements.get(0).getAttempts());
+        assertEquals(0, settlements.get(1).getAttempts());
+    }
+
+    @Test
+    void bookJsonHasTheBestPricesAndLevels() {
+        books.place("T1", OrderBook.Side.BID, 99, 10, "CB");
+        books.place("T1", OrderBook.Side.BID, 98, 5, "CB");
+        books.place("T1", OrderBook.Side.ASK, 101, 7, "GS");
+
+        JsonObject book = new JsonObject(books.toJson("T1", 1));
+
+        assertEquals(99, book.getInteger("bestBid"));
+        assertEquals(101, book.getInteger("bestAsk"));
+        assertEquals(3, book.getInteger("restingOrders"));
+        assertEquals(1, book.getJsonArray("bids").size());
+        assertEquals(10, book.getJsonArray("bids").getJsonObject(0).getInteger("units"));
+        assertEquals(7, book.getJsonArray("asks").getJsonObject(0).getInteger("units"));
+        assertTrue(new JsonObject(books.toJson("T2", 1)).getJsonArray("bids").isEmpty());
+    }
+
+    private static void assertSettlement(Settlement settlement, String termId, String seller, int units, int cost,
+                                         int trades) {
+        assertEquals(termId, settlement.getTermId());
+        assertEquals(seller, settlement.getSeller());
+        assertEquals(units, settlement.getUnits());
+        assertEquals(cost, settlement.getCost());
+        assertEquals(trades, settlement.getTrades());
+    }
+}
@@ -0,0 +1,188 @@
+package com.jtk.bonds.issuance.cordapp.client.orderbook;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OrderBookTest {
+    private OrderBook book;
+    private List<String> trades;
+    private OrderBook.TradeListener listener;
+
+    @BeforeEach
+    void setUp() {
+        // tiny capacities, so the tests also grow the arrays
+        book = new OrderBook("term", 1, 1);
+        trades = new ArrayList<>();
+        listener = (bidId, askId, buyer, seller, price, units) ->
+                trades.add(buyer + "<" + seller + "@" + price + "x" + units);
+    }
+
+    @Test
+    void bestPriceTradesFirstThenOldestOrder() {
+        book.place(OrderBook.Side.ASK, 102, 10, "HSBC", listener);
+        long first = book.place(OrderBook.Side.ASK, 101, 10, "GS", listener);
+        long second = book.place(OrderBook.Side.ASK, 101, 10, "HSBC", listener);
+
+        book.place(OrderBook.Side.BID, 102, 25, "CB", listener);
+
+        assertEquals(Arrays.asList("CB<GS@101x10", "CB<HSBC@101x10", "CB<HSBC@102x5"), trades);
+        assertEquals(0, book.remaining(first));
+        assertEquals(0, book.remaining(second));
+        assertEquals(102, book.bestAsk());
+        assertEquals(1, book.restingOrders());
+    }
+
+    @Test
+    void tradesAtTheRestingPrice() {
+        book.place(OrderBook.Side.BID, 105, 10, "CB", listener);
+
+        book.place(OrderBook.Side.ASK, 100, 4, "GS", listener);
+
+        assertEquals(Arrays.asList("CB<GS@105x4"), trades);
+    }
+
+    @Test
+    void partialFillRestsTheRest() {
+        long ask = book.place(OrderBook.Side.ASK, 100, 10, "GS", listener);
+
+        long bid = book.place(OrderBook.Side.BID, 100, 4, "CB", listener);
+        assertEquals(0, book.remaining(bid));
+        assertEquals(6, book.remaining(ask));
+
+        long bigBid = book.place(OrderBook.Side.BID, 100, 15, "CB", listener);
+        assertEquals(0, book.remaining(ask));
+        assertEquals(9, book.remaining(bigBid));
+        assertEquals(100, book.bestBid());
+        assertEquals(0, book.bestAsk());
+        assertEquals(Arrays.asList("CB<GS@100x4", "CB<GS@100x6"), trades);
+    }
+
+    @Test
+    void ordersThatDoNotCrossRest() {
+        book.place(OrderBook.Side.BID, 99, 10, "CB", listener);
+        book.place(OrderBook.Side.BID, 98, 5, "CB", listener);
+        book.place(OrderBook.Side.ASK, 100, 7, "GS", listener);
+
+        assertTrue(trades.isEmpty());
+        int[] prices = new int[4];
+        long[] units = new long[4];
+        assertEquals(2, book.depth(OrderBook.Side.BID, prices, units));
+        assertArrayEquals(new int[]{99, 98, 0, 0}, prices);
+        assertArrayEquals(new long[]{10, 5, 0, 0}, units);
+        assertEquals(1, book.depth(OrderBook.Side.ASK, prices, units));
+        assertEquals(100, prices[0]);
+    }
+
+    @Test
+    void cancelTakesTheOrderOffItsLevel() {
+        long first = book.place(OrderBook.Side.ASK, 100, 10, "GS", listener);
+        long second = book.place(OrderBook.Side.ASK, 100, 5, "HSBC", listener);
+        long third = book.place(OrderBook.Side.ASK, 100, 3, "GS", listener);
+
+        assertTrue(book.cancel(second));
+        assertFalse(book.cancel(second));
+        assertEquals(0, book.remaining(second));
+        assertNull(book.owner(second));
+
+        int[] prices = new int[1];
+        long[] units = new long[1];
+        book.depth(OrderBook.Side.ASK, prices, units);
+        assertEquals(13, units[0]);
+
+        book.place(OrderBook.Side.BID, 100, 13, "CB", listener);
+        assertEquals(Arrays.asList("CB<GS@100x10", "CB<GS@100x3"), trades);
+        assertEquals(0, book.remaining(first));
+        assertEquals(0, book.remaining(third));
+        assertEquals(0, book.levels(OrderBook.Side.ASK));
+    }
+
+    @Test
+    void cancellingTheLastOrderRemovesTheLevel() {
+        long order = book.place(OrderBook.Side.BID, 100, 10, "CB", listener);
+
+        assertTrue(book.cancel(order));
+
+        assertEquals(0, book.levels(OrderBook.Side.BID));
+        assertEquals(0, book.bestBid());
+        assertEquals(0, book.restingOrders());
+    }
+
+    @Test
+    void cancelledSlotIsReusedAndItsOldIdGoesStale() {
+        long cancelled = book.place(OrderBook.Side.BID, 100, 10, "CB", listener);
+        book.cancel(cancelled);
+
+        long reused = book.place(OrderBook.Side.BID, 90, 7, "CB", listener);
+
+        assertEquals((int) cancelled, (int) reused);
+        assertNotEquals(cancelled, reused);
+        assertEquals(0, book.remaining(cancelled));
+        assertFalse(book.cancel(cancelled));
+        assertEquals(7, book.remaining(reused));
+        assertEquals("CB", book.owner(reused));
+        assertEquals(90, book.bestBid());
+    }
+
+    @Test
+    void filledSlotIsReusedAndItsOldIdGoesStale() {
+        long filled = book.place(OrderBook.Side.ASK, 100, 5, "GS", listener);
+        book.place(OrderBook.Side.BID, 100, 5, "CB", listener);
+
+        long reused = book.place(OrderBook.Side.ASK, 101, 5, "HSBC", listener);
+
+        assertEquals(0, book.remaining(filled));
+        assertFalse(book.cancel(filled));
+        assertEquals(5, book.remaining(reused));
+    }
+
+    @Test
+    void ownersRestingOrderIsCancelledInsteadOfTraded() {
+        long own = book.place(OrderBook.Side.ASK, 100, 10, "GS", listener);
+        long other = book.place(OrderBook.Side.ASK, 100, 10, "HSBC", listener);
+
+        long bid = book.place(OrderBook.Side.BID, 100, 15, "GS", listener);
+
+        assertEquals(Arrays.asList("GS<HSBC@100x10"), trades);
+        assertEquals(0, book.remaining(own));
+        assertEquals(0, book.remaining(other));
+        assertEquals(5, book.remaining(bid));
+        assertEquals(0, book.levels(OrderBook.Side.ASK));
+        assertEquals(1, book.restingOrders());
+    }
+
+    @Test
+    void selfTradePreventionKeepsTheQueueBehindIt() {
+        book.place(OrderBook.Side.BID, 100, 5, "HSBC", listener);
+        book.place(OrderBook.Side.BID, 100, 5, "GS", listener);
+        long last = book.place(OrderBook.Side.BID, 100, 5, "CB", listener);
+
+        book.place(OrderBook.Side.ASK, 100, 7, "GS", listener);
+
+        assertEquals(Arrays.asList("HSBC<GS@100x5", "CB<GS@100x2"), trades);
+        assertEquals(3, book.remaining(last));
+        int[] prices = new int[1];
+        long[] units = new long[1];
+        book.depth(OrderBook.Side.BID, prices, units);
+        assertEquals(3, units[0]);
+    }
+
+    @Test
+    void invalidOrdersAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> book.place(OrderBook.Side.BID, 0, 1, "CB", listener));
+        assertThrows(IllegalArgumentException.class, () -> book.place(OrderBook.Side.BID, 1, -1, "CB", listener));
+        assertThrows(IllegalArgumentException.class, () -> book.place(OrderBook.Side.BID, 1, 1, null, listener));
+        assertEquals(0, book.restingOrders());
+    }
+}
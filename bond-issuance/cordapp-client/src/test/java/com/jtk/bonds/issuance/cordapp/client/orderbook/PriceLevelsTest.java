@@ -0,0 +1,81 @@
+package com.jtk.bonds.issuance.cordapp.client.orderbook;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PriceLevelsTest {
+
+    @Test
+    void bestBidIsTheHighestPrice() {
+        PriceLevels bids = new PriceLevels(true, 1);
+        bids.findOrInsert(100);
+        bids.findOrInsert(102);
+        bids.findOrInsert(98);
+
+        assertEquals(3, bids.size());
+        assertEquals(102, bids.price(bids.best()));
+        assertEquals(100, bids.price(bids.best() - 1));
+        assertEquals(98, bids.price(0));
+    }
+
+    @Test
+    void bestAskIsTheLowestPrice() {
+        PriceLevels asks = new PriceLevels(false, 1);
+        asks.findOrInsert(100);
+        asks.findOrInsert(102);
+        asks.findOrInsert(98);
+
+        assertEquals(98, asks.price(asks.best()));
+        assertEquals(102, asks.price(0));
+    }
+
+    @Test
+    void findOrInsertKeepsAnExistingLevel() {
+        PriceLevels asks = new PriceLevels(false, 4);
+        int level = asks.findOrInsert(100);
+        asks.setHead(level, 7);
+        asks.addUnits(level, 10);
+
+        assertEquals(level, asks.findOrInsert(100));
+        assertEquals(1, asks.size());
+        assertEquals(7, asks.head(level));
+        assertEquals(10, asks.units(level));
+        assertTrue(asks.find(101) < 0);
+    }
+
+    @Test
+    void insertingAndRemovingShiftTheOtherLevels() {
+        PriceLevels bids = new PriceLevels(true, 4);
+        bids.setHead(bids.findOrInsert(100), 1);
+        bids.setHead(bids.findOrInsert(104), 2);
+        bids.setHead(bids.findOrInsert(102), 3);
+
+        assertEquals(2, bids.head(bids.find(104)));
+        assertEquals(3, bids.head(bids.find(102)));
+
+        bids.remove(bids.find(102));
+
+        assertEquals(2, bids.size());
+        assertEquals(1, bids.head(bids.find(100)));
+        assertEquals(2, bids.head(bids.find(104)));
+        assertEquals(PriceLevels.NIL, bids.tail(bids.find(104)));
+    }
+
+    @Test
+    void crossesComparesAgainstTheOtherSide() {
+        PriceLevels asks = new PriceLevels(false, 4);
+        int ask = asks.findOrInsert(100);
+        assertTrue(asks.crosses(ask, 100));
+        assertTrue(asks.crosses(ask, 101));
+        assertFalse(asks.crosses(ask, 99));
+
+        PriceLevels bids = new PriceLevels(true, 4);
+        int bid = bids.findOrInsert(100);
+        assertTrue(bids.crosses(bid, 100));
+        assertTrue(bids.crosses(bid, 99));
+        assertFalse(bids.crosses(bid, 101));
+    }
+}
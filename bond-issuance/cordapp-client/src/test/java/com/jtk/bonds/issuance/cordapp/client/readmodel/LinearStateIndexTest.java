@@ -0,0 +1,177 @@
+package com.jtk.bonds.issuance.cordapp.client.readmodel;
+
+import net.corda.core.contracts.LinearState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LinearStateIndexTest {
+    private static Party notary;
+
+    private LinearStateIndex<Rated> index;
+
+    @BeforeEach
+    void setUp() throws NoSuchAlgorithmException {
+        if (notary == null) {
+            notary = new Party(new CordaX500Name("Notary", "London", "GB"),
+                    KeyPairGenerator.getInstance("EC").generateKeyPair().getPublic());
+        }
+        index = new LinearStateIndex<Rated>()
+                .withAttribute("rating", Rated::getRating)
+                .withAttribute("maturityDate", Rated::getMaturityDate);
+    }
+
+    @Test
+    void seededStatesAreFoundByEqualityAndRange() {
+        index.seed(Arrays.asList(
+                state(new UniqueIdentifier(), "AAA", "20250101"),
+                state(new UniqueIdentifier(), "AAA", "20260101"),
+                state(new UniqueIdentifier(), "BBB", "20270101")));
+        index.seeded();
+
+        assertEquals(3, index.size());
+        assertEquals(2, index.equalTo("rating", "AAA").size());
+        assertEquals(1, index.notEqualTo("rating", "AAA").size());
+        assertEquals(Arrays.asList("20250101", "20260101"),
+                maturityDates(index.lessThan("maturityDate", "20270101", false)));
+        assertEquals(Arrays.asList("20260101", "20270101"),
+                maturityDates(index.greaterThan("maturityDate", "20260101", true)));
+        assertTrue(index.equalTo("rating", "CCC").isEmpty());
+    }
+
+    @Test
+    void updateReplacesTheConsumedVersionOfAState() {
+        UniqueIdentifier linearId = new UniqueIdentifier();
+        StateAndRef<Rated> v1 = state(linearId, "AAA", "20250101");
+        index.seed(Collections.singletonList(v1));
+        index.seeded();
+
+        StateAndRef<Rated> v2 = state(linearId, "BBB", "20250101");
+        index.update(Collections.singletonList(v1), Collections.singletonList(v2));
+
+        assertEquals(1, index.size());
+        assertTrue(index.equalTo("rating", "AAA").isEmpty());
+        assertEquals("BBB", index.get(linearId).getRating());
+        assertEquals(1, index.equalTo("rating", "BBB").size());
+    }
+
+    @Test
+    void consumingAnOlderVersionKeepsTheCurrentOne() {
+        UniqueIdentifier linearId = new UniqueIdentifier();
+        StateAndRef<Rated> v1 = state(linearId, "AAA", "20250101");
+        StateAndRef<Rated> v2 = state(linearId, "BBB", "20250101");
+        index.seed(Collections.singletonList(v2));
+        index.seeded();
+
+        index.update(Collections.singletonList(v1), Collections.emptyList());
+
+        assertEquals("BBB", index.get(linearId).getRating());
+    }
+
+    @Test
+    void consumedStatesAreRemoved() {
+        StateAndRef<Rated> state = state(new UniqueIdentifier(), "AAA", "20250101");
+        index.seed(Collections.singletonList(state));
+        index.seeded();
+
+        index.update(Collections.singletonList(state), Collections.emptyList());
+
+        assertEquals(0, index.size());
+        assertTrue(index.equalTo("rating", "AAA").isEmpty());
+    }
+
+    @Test
+    void seedPageReadBeforeAConsumptionDoesNotReviveTheState() {
+        UniqueIdentifier linearId = new UniqueIdentifier();
+        StateAndRef<Rated> v1 = state(linearId, "AAA", "20250101");
+        StateAndRef<Rated> v2 = state(linearId, "BBB", "20250101");
+        StateAndRef<Rated> gone = state(new UniqueIdentifier(), "AAA", "20260101");
+
+        // the feed delivers the updates before the snapshot page that was read earlier
+        index.update(Arrays.asList(v1, gone), Collections.singletonList(v2));
+        index.seed(Arrays.asList(v1, gone));
+        index.seeded();
+
+        assertEquals(1, index.size());
+        assertEquals("BBB", index.get(linearId).getRating());
+        assertNull(index.get(gone.getState().getData().getLinearId()));
+        assertTrue(index.equalTo("rating", "AAA").isEmpty());
+    }
+
+    @Test
+    void consumedRefsAreForgottenOnceSeeded() {
+        StateAndRef<Rated> state = state(new UniqueIdentifier(), "AAA", "20250101");
+        index.update(Collections.singletonList(state), Collections.emptyList());
+        index.seeded();
+
+        index.seed(Collections.singletonList(state));
+
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void queryWithoutValueIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> index.equalTo("rating", null));
+        assertThrows(IllegalArgumentException.class, () -> index.lessThan("maturityDate", null, true));
+        assertThrows(IllegalArgumentException.class, () -> index.greaterThan("maturityDate", null, false));
+    }
+
+    private static List<String> maturityDates(List<Rated> states) {
+        return states.stream().map(Rated::getMaturityDate).sorted().collect(Collectors.toList());
+    }
+
+    private static StateAndRef<Rated> state(UniqueIdentifier linearId, String rating, String maturityDate) {
+        return new StateAndRef<>(
+                new TransactionState<>(new Rated(linearId, rating, maturityDate), "com.example.RatedContract", notary),
+                new StateRef(SecureHash.randomSHA256(), 0));
+    }
+
+    private static class Rated implements LinearState {
+        private final UniqueIdentifier linearId;
+        private final String rating;
+        private final String maturityDate;
+
+        private Rated(UniqueIdentifier linearId, String rating, String maturityDate) {
+            this.linearId = linearId;
+            this.rating = rating;
+            this.maturityDate = maturityDate;
+        }
+
+        @Override
+        public UniqueIdentifier getLinearId() {
+            return linearId;
+        }
+
+        @Override
+        public List<AbstractParty> getParticipants() {
+            return Collections.emptyList();
+        }
+
+        String getRating() {
+            return rating;
+        }
+
+        String getMaturityDate() {
+            return maturityDate;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.jtk.bonds.issuance.cordapp.client.readmodel;
+
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.services.Vault;
+import org.junit.jupiter.api.Test;
+import rx.subjects.PublishSubject;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class VaultReadModelTest {
+    // the vault feeds opened so far, four per seeding
+    private final List<PublishSubject<Vault.Update<?>>> feeds = new ArrayList<>();
+    private final AtomicInteger queries = new AtomicInteger();
+    private Runnable onQuery = () -> { };
+
+    @Test
+    void reconnectSeedsTheModelAnew() {
+        VaultReadModel model = new VaultReadModel(emptyVault());
+        model.start();
+        assertTrue(model.isReady());
+        assertEquals(4, feeds.size());
+
+        model.disconnected();
+        assertFalse(model.isReady());
+
+        model.start();
+        assertTrue(model.isReady());
+        assertEquals(8, feeds.size());
+        assertEquals(8, queries.get());
+        // the feeds of the first seeding are dropped, they missed the updates made while disconnected
+        feeds.subList(0, 4).forEach(feed -> assertFalse(feed.hasObservers()));
+        feeds.subList(4, 8).forEach(feed -> assertTrue(feed.hasObservers()));
+    }
+
+    @Test
+    void seedingOverlappingADisconnectDoesNotServe() {
+        VaultReadModel model = new VaultReadModel(emptyVault());
+        onQuery = model::disconnected;
+        model.start();
+        assertFalse(model.isReady());
+
+        onQuery = () -> { };
+        model.start();
+        assertTrue(model.isReady());
+    }
+
+    @Test
+    void queryWithoutValueIsAnErrorMsg() {
+        VaultReadModel model = new VaultReadModel(emptyVault());
+        model.start();
+        assertEquals(VaultReadModel.MISSING_QUERY_VALUE, model.queryBonds("byCurrency", null));
+        assertEquals(VaultReadModel.MISSING_QUERY_VALUE, model.queryTerms("lessThanMaturityDate", null));
+        assertEquals("[]", model.queryBonds("notActiveBonds", null));
+    }
+
+    private CordaRPCOps emptyVault() {
+        return (CordaRPCOps) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{CordaRPCOps.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "vaultTrackBy":
+                            PublishSubject<Vault.Update<?>> feed = PublishSubject.create();
+                            feeds.add(feed);
+                            return new DataFeed<>(emptyPage(), feed);
+                        case "vaultQueryBy":
+                            queries.incrementAndGet();
+                            onQuery.run();
+                            return emptyPage();
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static Vault.Page<?> emptyPage() {
+        return new Vault.Page<>(Collections.emptyList(), Collections.emptyList(), 0L,
+                Vault.StateStatus.UNCONSUMED, Collections.emptyList());
+    }
+}
@@ -0,0 +1,125 @@
+package com.jtk.bonds.issuance.cordapp.client.route.handler;
+
+import com.jtk.bonds.issuance.cordapp.client.jobs.FlowJob;
+import com.jtk.bonds.issuance.cordapp.client.jobs.FlowJobs;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.validation.ValidationHandler;
+import io.vertx.ext.web.validation.builder.Parameters;
+import io.vertx.json.schema.SchemaParser;
+import io.vertx.json.schema.SchemaRouter;
+import io.vertx.json.schema.SchemaRouterOptions;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.vertx.json.schema.draft7.dsl.Schemas.stringSchema;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ExtendWith(VertxExtension.class)
+public class JobEventsHandlerTest {
+    private static final String CORDA_API = "TEST-CORDA-API";
+
+    private FlowJobs jobs;
+    private int port;
+
+    @BeforeEach
+    void setUp(Vertx vertx, VertxTestContext testContext) {
+        jobs = new FlowJobs(vertx.eventBus());
+        // answers get-job as CordaVerticle does, except that the job moves on to its next step after its snapshot
+        // was taken and before the snapshot is replied, and finishes once it has been replied
+        vertx.eventBus().<JsonObject>consumer(CORDA_API, request -> {
+            FlowJob job = jobs.get(request.body().getString("jobId"));
+            if (job == null) {
+                request.reply(new JsonObject().put("msg", "{\"errorMsg\":\"Job not found\"}").put("statusCode", 404));
+                return;
+            }
+            String snapshot = job.toJson().encode();
+            jobs.step(job, "two");
+            vertx.setTimer(50, id -> {
+                request.reply(new JsonObject().put("msg", snapshot));
+                vertx.setTimer(50, id2 -> jobs.complete(job, "{\"ok\":true}"));
+            });
+        });
+        SchemaParser parser = SchemaParser.createDraft7SchemaParser(
+                SchemaRouter.create(vertx, new SchemaRouterOptions()));
+        Router router = Router.router(vertx);
+        router.get("/corda/jobs/:jobId/events")
+                .handler(ValidationHandler.builder(parser)
+                        .pathParameter(Parameters.param("jobId", stringSchema()))
+                        .build())
+                .handler(new JobEventsHandler(vertx, CORDA_API));
+        vertx.createHttpServer().requestHandler(router).listen(0)
+                .onComplete(testContext.succeeding(server -> {
+                    port = server.actualPort();
+                    testContext.completeNow();
+                }));
+    }
+
+    @Test
+    void snapshotIsStreamedBeforeTheChangesThatArrivedWhileItWasFetched(Vertx vertx, VertxTestContext testContext) {
+        FlowJob job = jobs.start("job-1", "Flow");
+        jobs.step(job, "one");
+
+        get(vertx, job.getJobId()).onComplete(testContext.succeeding(response -> {
+            HttpClientResponse http = response.http;
+            testContext.verify(() -> {
+                assertEquals(200, http.statusCode());
+                assertEquals("text/event-stream", http.getHeader("Content-Type"));
+                List<String> events = new ArrayList<>();
+                List<JsonObject> data = new ArrayList<>();
+                for (String event : response.body.split("\n\n")) {
+                    String[] lines = event.split("\n");
+                    events.add(lines[0].substring("event: ".length()));
+                    data.add(new JsonObject(lines[1].substring("data: ".length())));
+                }
+                assertEquals(3, events.size());
+                assertEquals("progress", events.get(0));
+                assertEquals("one", data.get(0).getString("step"));
+                assertEquals("progress", events.get(1));
+                assertEquals("two", data.get(1).getString("step"));
+                assertEquals("result", events.get(2));
+                assertEquals("COMPLETED", data.get(2).getString("status"));
+                assertEquals("{\"ok\":true}", data.get(2).getString("result"));
+            });
+            testContext.completeNow();
+        }));
+    }
+
+    @Test
+    void unknownJobIsNotFound(Vertx vertx, VertxTestContext testContext) {
+        get(vertx, "no-such-job").onComplete(testContext.succeeding(response -> {
+            testContext.verify(() -> {
+                assertEquals(404, response.http.statusCode());
+                assertEquals("Job not found", new JsonObject(response.body).getString("errorMsg"));
+            });
+            testContext.completeNow();
+        }));
+    }
+
+    private Future<Response> get(Vertx vertx, String jobId) {
+        return vertx.createHttpClient()
+                .request(HttpMethod.GET, port, "localhost", "/corda/jobs/" + jobId + "/events")
+                .compose(request -> request.send())
+                .compose(http -> http.body().map(body -> new Response(http, body.toString())));
+    }
+
+    private static class Response {
+        private final HttpClientResponse http;
+        private final String body;
+
+        private Response(HttpClientResponse http, String body) {
+            this.http = http;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.jtk.bonds.issuance.cordapp.client.utils;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RpcCacheTest {
+    private final AtomicLong now = new AtomicLong(1_000);
+    // every call made, completed by the tests
+    private final List<Promise<String>> calls = new ArrayList<>();
+    private final Supplier<Future<String>> call = () -> {
+        Promise<String> promise = Promise.promise();
+        calls.add(promise);
+        return promise.future();
+    };
+
+    private RpcCache<String> cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new RpcCache<>(100, now::get);
+    }
+
+    @Test
+    void answerIsKeptForItsTimeToLive() {
+        cache.get("peers", call);
+        calls.get(0).complete("first");
+
+        now.addAndGet(99);
+        assertEquals("first", cache.get("peers", call).result());
+        assertEquals(1, calls.size());
+
+        now.addAndGet(1);
+        Future<String> expired = cache.get("peers", call);
+        assertEquals(2, calls.size());
+        calls.get(1).complete("second");
+        assertEquals("second", expired.result());
+        assertEquals("second", cache.get("peers", call).result());
+    }
+
+    @Test
+    void concurrentMissesShareTheCallInFlight() {
+        Future<String> first = cache.get("peers", call);
+        Future<String> second = cache.get("peers", call);
+        Future<String> otherKey = cache.get("notaries", call);
+
+        assertSame(first, second);
+        assertEquals(2, calls.size());
+        calls.get(0).complete("peers");
+        assertEquals("peers", second.result());
+        assertFalse(otherKey.isComplete());
+    }
+
+    @Test
+    void failedCallIsNotKept() {
+        Future<String> failed = cache.get("peers", call);
+        calls.get(0).fail("RPC down");
+        assertTrue(failed.failed());
+
+        Future<String> retried = cache.get("peers", call);
+        assertEquals(2, calls.size());
+        calls.get(1).complete("peers");
+        assertEquals("peers", retried.result());
+        assertEquals("peers", cache.get("peers", call).result());
+        assertEquals(2, calls.size());
+    }
+
+    @Test
+    void answerLoadedWhileInvalidatedIsHandedOutButNotKept() {
+        Future<String> loading = cache.get("peers", call);
+        cache.invalidateAll();
+        calls.get(0).complete("stale");
+
+        assertEquals("stale", loading.result());
+        Future<String> reloaded = cache.get("peers", call);
+        assertEquals(2, calls.size());
+        calls.get(1).complete("fresh");
+        assertEquals("fresh", reloaded.result());
+        assertEquals("fresh", cache.get("peers", call).result());
+    }
+
+    @Test
+    void invalidateDropsKeptAnswers() {
+        cache.get("peers", call);
+        calls.get(0).complete("before");
+
+        cache.invalidateAll();
+
+        cache.get("peers", call);
+        assertEquals(2, calls.size());
+    }
+}
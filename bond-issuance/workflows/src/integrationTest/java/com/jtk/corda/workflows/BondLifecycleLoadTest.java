@@ -0,0 +1,387 @@
+package com.jtk.corda.workflows;
+
+import com.google.common.collect.ImmutableList;
+import com.jtk.corda.CordaParties;
+import com.jtk.corda.states.bond.issuance.BondState;
+import com.jtk.corda.workflows.bond.coupons.CouponPaymentFlow;
+import com.jtk.corda.workflows.bond.coupons.RedeemCouponPaymentFlow;
+import com.jtk.corda.workflows.bond.issuance.BondAllocationModeFlow;
+import com.jtk.corda.workflows.bond.issuance.CreateAndIssueTermFlow;
+import com.jtk.corda.workflows.bond.issuance.InterBankBondTransferFlow;
+import com.jtk.corda.workflows.bond.issuance.RequestForBondInitiatorFlow;
+import com.jtk.corda.workflows.cash.issuance.CreateCashFlow;
+import com.jtk.corda.workflows.cash.issuance.TransferTokenFlow;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.crypto.TransactionSignature;
+import net.corda.core.flows.StateMachineRunId;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowHandle;
+import net.corda.core.messaging.StateMachineTransactionMapping;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+import net.corda.testing.driver.VerifierType;
+import net.corda.testing.node.NotarySpec;
+import net.corda.testing.node.TestCordapp;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.PublicKey;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+import static net.corda.testing.driver.Driver.driver;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * End to end load of the bond lifecycle on in-process driver nodes: the central bank, the MAS observer, the SGX
+ * notary and the GS, HSBC and CITI banks. Each phase starts one flow type at a fixed rate, open loop, so a slow flow
+ * shows up as latency rather than as a lower offered rate:
+ * cash transfers from the central bank, GS issuing terms, HSBC and CITI buying bonds, CITI buying bonds from HSBC,
+ * GS paying coupons and GS redeeming its terms early.
+ * <p>
+ * Latency is measured from when a flow was due to start until its result came back. Notarisations are the distinct
+ * notary-signed transactions the started flows recorded, divided by the phase's events.
+ * The report is written to build/reports/load/bond-lifecycle.json.
+ * <p>
+ * Run with ./gradlew workflows:integrationTest --tests '*BondLifecycleLoadTest'. -Dload.rate sets the flows per second
+ * of every phase and -Dload.rate.&lt;phase&gt; one phase; -Dload.transfers, -Dload.terms, -Dload.requests and
+ * -Dload.interBankTransfers size the run; -Dload.coalescing=false turns off coalesced bond allocation on GS.
+ */
+public class BondLifecycleLoadTest {
+    private static final Logger log = LoggerFactory.getLogger(BondLifecycleLoadTest.class);
+    private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final String CURRENCY = "SGD";
+    private static final double DEFAULT_RATE = Double.parseDouble(System.getProperty("load.rate", "5"));
+    private static final int TRANSFERS = Integer.getInteger("load.transfers", 50);
+    private static final int TERMS = Integer.getInteger("load.terms", 20);
+    private static final int REQUESTS = Integer.getInteger("load.requests", 100);
+    private static final int INTER_BANK_TRANSFERS = Integer.getInteger("load.interBankTransfers", 20);
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("load.maxInFlight", 32);
+    private static final long PHASE_TIMEOUT_SECONDS = Long.getLong("load.phaseTimeoutSeconds", 600);
+    private static final boolean COALESCING = Boolean.parseBoolean(System.getProperty("load.coalescing", "true"));
+    private static final Path REPORT = Paths.get(System.getProperty("load.report",
+            "build/reports/load/bond-lifecycle.json"));
+
+    private static final CordaX500Name GS = CordaX500Name.parse("CN=Goldman Sachs,OU=Bank,O=Goldman Sachs,L=New York,C=US");
+    private static final CordaX500Name HSBC = CordaX500Name.parse("CN=HSBC,OU=Bank,O=HSBC,L=London,C=GB");
+    private static final CordaX500Name CITI = CordaX500Name.parse("CN=CITI,OU=Bank,O=CITI,L=New York,C=US");
+
+    /**
+     * Transactions recorded by each flow run on the nodes that start flows, from their recorded transaction feeds.
+     */
+    private final Map<StateMachineRunId, Set<SecureHash>> recordedByRun = new ConcurrentHashMap<>();
+
+    @Test
+    public void driveBondLifecycle() {
+        driver(new DriverParameters()
+                .withIsDebug(false)
+                .withStartNodesInProcess(true)
+                .withNotarySpecs(ImmutableList.of(new NotarySpec(CordaParties.NOTARY.getCordaX500Name(), true,
+                        Collections.emptyList(), VerifierType.InMemory, null)))
+                .withCordappsForAllNodes(ImmutableList.of(
+                        TestCordapp.findCordapp("com.jtk.corda.contracts"),
+                        TestCordapp.findCordapp("com.jtk.corda.workflows"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.tokens.contracts"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.tokens.workflows"))), dsl -> {
+            try {
+                List<NodeHandle> nodes = new ArrayList<>();
+                for (CordaX500Name name : Arrays.asList(CordaParties.CENTRAL_BANK.getCordaX500Name(),
+                        CordaParties.OBSERVER.getCordaX500Name(), GS, HSBC, CITI)) {
+                    nodes.add(dsl.startNode(new NodeParameters().withProvidedName(name)).get());
+                }
+                CordaRPCOps cb = nodes.get(0).getRpc();
+                CordaRPCOps gs = nodes.get(2).getRpc();
+                CordaRPCOps hsbc = nodes.get(3).getRpc();
+                CordaRPCOps citi = nodes.get(4).getRpc();
+                Party gsParty = nodes.get(2).getNodeInfo().getLegalIdentities().get(0);
+                Party hsbcParty = nodes.get(3).getNodeInfo().getLegalIdentities().get(0);
+                Party citiParty = nodes.get(4).getNodeInfo().getLegalIdentities().get(0);
+                PublicKey notaryKey = gs.wellKnownPartyFromX500Name(CordaParties.NOTARY.getCordaX500Name())
+                        .getOwningKey();
+                for (CordaRPCOps proxy : Arrays.asList(cb, gs, hsbc, citi)) {
+                    proxy.stateMachineRecordedTransactionMappingFeed().getUpdates().subscribe(this::record);
+                }
+
+                // cash for every bank, and the allocation mode of the issuer, before anything is measured
+                cb.startFlowDynamic(CreateCashFlow.class, "10000000000", CURRENCY, 0.74).getReturnValue().get();
+                for (Party bank : Arrays.asList(gsParty, hsbcParty, citiParty)) {
+                    cb.startFlowDynamic(TransferTokenFlow.TransferTokenInitiator.class, "100000000", CURRENCY, bank)
+                            .getReturnValue().get();
+                }
+                gs.startFlowDynamic(BondAllocationModeFlow.class, COALESCING).getReturnValue().get();
+
+                List<Party> banks = Arrays.asList(gsParty, hsbcParty, citiParty);
+                Phase transfers = run(new Phase("transfer", TransferTokenFlow.TransferTokenInitiator.class, TRANSFERS),
+                        i -> cb, (node, i) -> node.startFlowDynamic(TransferTokenFlow.TransferTokenInitiator.class,
+                                "1000", CURRENCY, banks.get(i % banks.size())));
+
+                String maturityDate = dateFormatter.format(LocalDate.now().plusYears(5));
+                Phase issueTerms = run(new Phase("issueTerm", CreateAndIssueTermFlow.class, TERMS),
+                        i -> gs, (node, i) -> node.startFlowDynamic(CreateAndIssueTermFlow.class, "LOAD-GS-" + i,
+                                3.2, 100, 100000, maturityDate, "CB", CURRENCY, "AAA", 1 + i % 4));
+                List<UniqueIdentifier> termIds = new ArrayList<>();
+                for (Sample sample : issueTerms.samples) {
+                    if (sample.ok) {
+                        String response = ((String) sample.result).split(">")[1];
+                        termIds.add(UniqueIdentifier.Companion.fromString(
+                                ((JSONObject) new JSONTokener(response).nextValue()).getString("linearId")));
+                    }
+                }
+                assertTrue("No terms were issued", !termIds.isEmpty());
+
+                // every term is bought by both investors once the requests outnumber the terms
+                Phase requests = run(new Phase("requestBond", RequestForBondInitiatorFlow.class, REQUESTS),
+                        i -> (i / termIds.size()) % 2 == 0 ? hsbc : citi,
+                        (node, i) -> node.startFlowDynamic(RequestForBondInitiatorFlow.class,
+                                termIds.get(i % termIds.size()), 10));
+                List<UniqueIdentifier> heldByHsbc = new ArrayList<>();
+                for (int i = 0; i < requests.samples.size(); i++) {
+                    UniqueIdentifier termId = termIds.get(i % termIds.size());
+                    if (requests.samples.get(i).ok && requests.samples.get(i).proxy == hsbc
+                            && !heldByHsbc.contains(termId)) {
+                        heldByHsbc.add(termId);
+                    }
+                }
+                assertTrue("HSBC holds no bonds to sell", !heldByHsbc.isEmpty());
+
+                Phase interBank = run(new Phase("interBankTransfer",
+                                InterBankBondTransferFlow.InterBankBondTransferFlowInitiator.class, INTER_BANK_TRANSFERS),
+                        i -> citi, (node, i) -> node.startFlowDynamic(
+                                InterBankBondTransferFlow.InterBankBondTransferFlowInitiator.class,
+                                heldByHsbc.get(i % heldByHsbc.size()), 1, 200, hsbcParty));
+
+                // a coupon run holds the issuer's coupon lock, so coupon dates are paid one at a time
+                List<String> couponDates = new ArrayList<>(gs.vaultQuery(BondState.class).getStates().stream()
+                        .map(sr -> sr.getState().getData())
+                        .filter(bond -> bond.getIssuer().equals(gsParty))
+                        .map(BondState::getNextCouponDate)
+                        .collect(Collectors.toCollection(TreeSet::new)));
+                Phase coupons = run(new Phase("couponPayment", CouponPaymentFlow.class, couponDates.size(), 1),
+                        i -> gs, (node, i) -> node.startFlowDynamic(CouponPaymentFlow.class, couponDates.get(i)));
+
+                Phase redemptions = run(new Phase("redeem", RedeemCouponPaymentFlow.RedeemCouponInitiator.class,
+                                termIds.size()),
+                        i -> gs, (node, i) -> node.startFlowDynamic(RedeemCouponPaymentFlow.RedeemCouponInitiator.class,
+                                termIds.get(i).toString(), true));
+
+                List<Phase> phases = Arrays.asList(transfers, issueTerms, requests, interBank, coupons, redemptions);
+                // let the transaction feeds catch up with the last flows before counting
+                TimeUnit.SECONDS.sleep(2);
+                writeReport(phases, notaryKey);
+                for (Phase phase : phases) {
+                    assertTrue(phase.name + " had no successful flows", phase.succeeded() > 0);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException("Caught exception during load test: ", e);
+            }
+            return null;
+        });
+    }
+
+    private void record(StateMachineTransactionMapping mapping) {
+        recordedByRun.computeIfAbsent(mapping.getStateMachineRunId(), id -> ConcurrentHashMap.newKeySet())
+                .add(mapping.getTransactionId());
+    }
+
+    /**
+     * Starts the phase's events at its rate on the node picked for each event, keeping at most maxInFlight flows
+     * running, and waits for all of them.
+     */
+    private Phase run(Phase phase, IntFunction<CordaRPCOps> nodeForEvent, FlowStarter starter)
+            throws InterruptedException {
+        long intervalNanos = (long) (1_000_000_000L / phase.rate);
+        Semaphore inFlight = new Semaphore(phase.maxInFlight);
+        CountDownLatch done = new CountDownLatch(phase.events);
+        long start = System.nanoTime();
+        for (int i = 0; i < phase.events; i++) {
+            long due = start + i * intervalNanos;
+            LockSupport.parkNanos(due - System.nanoTime());
+            inFlight.acquire();
+            Sample sample = new Sample(nodeForEvent.apply(i));
+            phase.samples.add(sample);
+            try {
+                FlowHandle<?> handle = starter.start(sample.proxy, i);
+                sample.runId = handle.getId();
+                handle.getReturnValue().then(future -> {
+                    sample.latencyNanos = System.nanoTime() - due;
+                    try {
+                        sample.result = future.get();
+                        sample.ok = sample.result != null
+                                && !(sample.result instanceof String && ((String) sample.result).contains("\"errorMsg\""));
+                    } catch (Exception e) {
+                        log.debug("{} event failed", phase.name, e);
+                    }
+                    inFlight.release();
+                    done.countDown();
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                log.warn("Could not start {} event {}", phase.name, i, e);
+                sample.latencyNanos = System.nanoTime() - due;
+                inFlight.release();
+                done.countDown();
+            }
+        }
+        if (!done.await(PHASE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(phase.name + " did not complete in " + PHASE_TIMEOUT_SECONDS + "s");
+        }
+        phase.elapsedNanos = System.nanoTime() - start;
+        log.info("{}: {} of {} flows succeeded at {} flows/s, p50={}ms p99={}ms", phase.name, phase.succeeded(),
+                phase.events, String.format("%.2f", phase.throughput()),
+                millis(phase.latencyPercentile(50)), millis(phase.latencyPercentile(99)));
+        return phase;
+    }
+
+    private void writeReport(List<Phase> phases, PublicKey notaryKey) throws IOException {
+        JSONArray results = new JSONArray();
+        for (Phase phase : phases) {
+            Set<SecureHash> transactions = new HashSet<>();
+            Set<SecureHash> notarisedTransactions = new HashSet<>();
+            for (Sample sample : phase.samples) {
+                if (sample.runId == null) {
+                    continue;
+                }
+                for (SecureHash txId : recordedByRun.getOrDefault(sample.runId, Collections.emptySet())) {
+                    if (transactions.add(txId) && isNotarised(sample.proxy, txId, notaryKey)) {
+                        notarisedTransactions.add(txId);
+                    }
+                }
+            }
+            results.put(new JSONObject()
+                    .put("phase", phase.name)
+                    .put("flow", phase.flowClass.getName())
+                    .put("targetRate", phase.rate)
+                    .put("events", phase.events)
+                    .put("succeeded", phase.succeeded())
+                    .put("failed", phase.events - phase.succeeded())
+                    .put("elapsedMs", phase.elapsedNanos / 1_000_000)
+                    .put("flowsPerSec", phase.throughput())
+                    .put("latencyMs", new JSONObject()
+                            .put("p50", phase.latencyPercentile(50) / 1_000_000.0)
+                            .put("p95", phase.latencyPercentile(95) / 1_000_000.0)
+                            .put("p99", phase.latencyPercentile(99) / 1_000_000.0)
+                            .put("max", phase.latencyPercentile(100) / 1_000_000.0))
+                    .put("transactions", transactions.size())
+                    .put("notarisations", notarisedTransactions.size())
+                    .put("notarisationsPerEvent", phase.events == 0 ? 0.0
+                            : (double) notarisedTransactions.size() / phase.events));
+        }
+        JSONObject report = new JSONObject()
+                .put("timestamp", System.currentTimeMillis())
+                .put("coalescing", COALESCING)
+                .put("maxInFlight", MAX_IN_FLIGHT)
+                .put("phases", results);
+        Path parent = REPORT.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.write(REPORT, report.toString(2).getBytes(StandardCharsets.UTF_8));
+        log.info("Load test report written to {}", REPORT.toAbsolutePath());
+    }
+
+    /**
+     * Only transactions that consume states or have a time window are sent to the notary, so issuances are not
+     * counted.
+     */
+    private static boolean isNotarised(CordaRPCOps proxy, SecureHash txId, PublicKey notaryKey) {
+        SignedTransaction stx = proxy.internalFindVerifiedTransaction(txId);
+        if (stx == null) {
+            return false;
+        }
+        for (TransactionSignature sig : stx.getSigs()) {
+            if (sig.getBy().equals(notaryKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1_000_000.0);
+    }
+
+    @FunctionalInterface
+    private interface FlowStarter {
+        FlowHandle<?> start(CordaRPCOps node, int event);
+    }
+
+    private static final class Sample {
+        private final CordaRPCOps proxy;
+        private volatile StateMachineRunId runId;
+        private volatile long latencyNanos;
+        private volatile Object result;
+        private volatile boolean ok;
+
+        private Sample(CordaRPCOps proxy) {
+            this.proxy = proxy;
+        }
+    }
+
+    private static final class Phase {
+        private final String name;
+        private final Class<?> flowClass;
+        private final int events;
+        private final double rate;
+        private final int maxInFlight;
+        private final List<Sample> samples = new ArrayList<>();
+        private long elapsedNanos;
+
+        private Phase(String name, Class<?> flowClass, int events) {
+            this(name, flowClass, events, MAX_IN_FLIGHT);
+        }
+
+        private Phase(String name, Class<?> flowClass, int events, int maxInFlight) {
+            this.name = name;
+            this.flowClass = flowClass;
+            this.events = events;
+            this.rate = Double.parseDouble(System.getProperty("load.rate." + name, String.valueOf(DEFAULT_RATE)));
+            this.maxInFlight = maxInFlight;
+        }
+
+        private int succeeded() {
+            return (int) samples.stream().filter(sample -> sample.ok).count();
+        }
+
+        private double throughput() {
+            return elapsedNanos == 0 ? 0.0 : succeeded() / (elapsedNanos / 1_000_000_000.0);
+        }
+
+        private long latencyPercentile(int percentile) {
+            long[] sortedNanos = samples.stream().mapToLong(sample -> sample.latencyNanos).sorted().toArray();
+            if (sortedNanos.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * sortedNanos.length) - 1;
+            return sortedNanos[Math.max(0, index)];
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.jtk.corda.workflows;
+
+import com.google.common.collect.ImmutableList;
+import com.jtk.corda.CordaParties;
+import com.jtk.corda.states.bond.issuance.TermState;
+import com.jtk.corda.workflows.bond.issuance.CreateAndIssueTermFlow;
+import com.jtk.corda.workflows.bond.issuance.QueryBondTermsFlow;
+import com.jtk.corda.workflows.utils.CustomQuery;
+import com.jtk.corda.workflows.utils.QueryPage;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+import net.corda.testing.driver.VerifierType;
+import net.corda.testing.node.NotarySpec;
+import net.corda.testing.node.TestCordapp;
+import org.json.JSONArray;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.testing.driver.Driver.driver;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Latency of the same term query answered by a query flow and by a direct RPC vault query, on a driver node.
+ * Run with ./gradlew workflows:integrationTest; -Dbenchmark.iterations and -Dbenchmark.terms size the run.
+ */
+public class QueryPathBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(QueryPathBenchmark.class);
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 200);
+    private static final int TERMS = Integer.getInteger("benchmark.terms", 50);
+    private static final CordaX500Name GS = CordaX500Name.parse("CN=Goldman Sachs,OU=Bank,O=Goldman Sachs,L=New York,C=US");
+
+    @Test
+    public void compareFlowAndRpcQueryLatency() {
+        driver(new DriverParameters()
+                .withIsDebug(false)
+                .withStartNodesInProcess(true)
+                .withNotarySpecs(ImmutableList.of(new NotarySpec(CordaParties.NOTARY.getCordaX500Name(), true,
+                        Collections.emptyList(), VerifierType.InMemory, null)))
+                .withCordappsForAllNodes(ImmutableList.of(
+                        TestCordapp.findCordapp("com.jtk.corda.contracts"),
+                        TestCordapp.findCordapp("com.jtk.corda.workflows"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.tokens.contracts"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.tokens.workflows"))), dsl -> {
+            try {
+                NodeHandle gs = dsl.startNode(new NodeParameters().withProvidedName(GS)).get();
+                CordaRPCOps proxy = gs.getRpc();
+                for (int i = 0; i < TERMS; i++) {
+                    proxy.startFlowDynamic(CreateAndIssueTermFlow.class, "BENCH-" + i, 3.2, 1000, 1000,
+                            "20300806", "CB", "USD", "AAA", 6).getReturnValue().get();
+                }
+
+                Callable<String> flowQuery = () -> proxy
+                        .startFlowDynamic(QueryBondTermsFlow.GetBondTermsByCurrency.class, "USD")
+                        .getReturnValue().get();
+                Callable<String> rpcQuery = () -> proxy
+                        .vaultQueryBy(CustomQuery.termQueryCriteria("byCurrency", "USD"),
+                                new PageSpecification(DEFAULT_PAGE_NUM, QueryPage.MAX_PAGE_SIZE),
+                                new Sort(Collections.emptySet()), TermState.class)
+                        .getStates().stream()
+                        .map(sr -> sr.getState().getData().toJson())
+                        .collect(Collectors.toList())
+                        .toString();
+                String flowAnswer = flowQuery.call();
+                assertEquals(TERMS, new JSONArray(flowAnswer).length());
+                assertEquals(terms(flowAnswer), terms(rpcQuery.call()));
+
+                long[] flowNanos = measure(flowQuery);
+                long[] rpcNanos = measure(rpcQuery);
+                log.info("{} terms, {} iterations: flow p50={}ms p99={}ms, rpc vault query p50={}ms p99={}ms",
+                        TERMS, ITERATIONS,
+                        millis(percentile(flowNanos, 50)), millis(percentile(flowNanos, 99)),
+                        millis(percentile(rpcNanos, 50)), millis(percentile(rpcNanos, 99)));
+            } catch (Exception e) {
+                throw new RuntimeException("Caught exception during benchmark: ", e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * The terms of a query answer, in an order that does not depend on the order the vault returned them in.
+     */
+    private static List<String> terms(String answer) {
+        JSONArray array = new JSONArray(answer);
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            terms.add(array.getJSONObject(i).toString());
+        }
+        Collections.sort(terms);
+        return terms;
+    }
+
+    private static long[] measure(Callable<String> query) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            query.call();
+        }
+        long[] nanos = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            query.call();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    private static long percentile(long[] sortedNanos, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1_000_000.0);
+    }
+}
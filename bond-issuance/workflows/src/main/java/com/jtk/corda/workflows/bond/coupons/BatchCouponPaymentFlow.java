@@ -0,0 +1,331 @@
+package com.jtk.corda.workflows.bond.coupons;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.jtk.corda.contracts.bond.issuance.BondContract;
+import com.jtk.corda.states.bond.issuance.BondState;
+import com.jtk.corda.states.cash.issuance.CashState;
+import com.jtk.corda.workflows.cash.issuance.TransferTokenFlow;
+import com.jtk.corda.workflows.services.CouponRunLock;
+import com.jtk.corda.workflows.services.CouponScheduleService;
+import com.jtk.corda.workflows.services.TimedFlowLogic;
+import com.jtk.corda.workflows.utils.CouponPaymentUtil;
+import com.jtk.corda.workflows.utils.Utility;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import com.r3.corda.lib.tokens.contracts.types.TokenType;
+import com.r3.corda.lib.tokens.workflows.flows.move.MoveTokensUtilities;
+import com.r3.corda.lib.tokens.workflows.types.PartyAndAmount;
+import com.r3.corda.lib.tokens.workflows.utilities.QueryUtilities;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.flows.CollectSignaturesFlow;
+import net.corda.core.flows.FinalityFlow;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowSession;
+import net.corda.core.flows.InitiatingFlow;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.UntrustworthyData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.PublicKey;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Batched variant of {@link CouponPaymentFlow}.
+ * Bonds due on the coupon date are grouped by currency and split into batches of {@code batchSize}. Each batch is
+ * settled in one transaction that moves the netted coupon cash to every holder in the batch and evolves all of the
+ * batch's BondStates under {@link BondContract.Commands.PayCoupon}, so a coupon date costs one notarisation per batch
+ * instead of several per bond.
+ */
+@InitiatingFlow
+@StartableByRPC
+public class BatchCouponPaymentFlow extends TimedFlowLogic<String> {
+    private static final Logger log = LoggerFactory.getLogger(BatchCouponPaymentFlow.class);
+    private final static DateTimeFormatter locateDateformat = DateTimeFormatter.ofPattern("yyyyMMdd");
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    private final String couponDate;
+    private final int batchSize;
+
+    private final ProgressTracker progressTracker = new ProgressTracker(
+            FETCH_STATES,
+            IDENTIFY_OBSERVERS,
+            FETCH_BOND_TOKENS_SIZE,
+            CALCULATE_COUPON,
+            SEND_CASH,
+            UPDATE_STATES,
+            SIGNING_TRANSACTIONS,
+            DONE
+    );
+
+    private static final ProgressTracker.Step FETCH_STATES = new ProgressTracker
+            .Step("Fetch Bond States for Coupon payment");
+
+    private static final ProgressTracker.Step IDENTIFY_OBSERVERS = new ProgressTracker
+            .Step("Identifying Bond Observers");
+
+    private static final ProgressTracker.Step FETCH_BOND_TOKENS_SIZE = new ProgressTracker
+            .Step("Fetch Bond Tokens size held by Bond Holders");
+
+    private static final ProgressTracker.Step CALCULATE_COUPON = new ProgressTracker
+            .Step("Calculate Coupon Payments");
+
+    private static final ProgressTracker.Step SEND_CASH = new ProgressTracker
+            .Step("Adding digital currency payouts");
+
+    private static final ProgressTracker.Step UPDATE_STATES = new ProgressTracker
+            .Step("Updating Bond States");
+
+    private static final ProgressTracker.Step SIGNING_TRANSACTIONS = new ProgressTracker
+            .Step("Signing Transaction");
+
+    private static final ProgressTracker.Step DONE = new ProgressTracker
+            .Step("Done Processing Flow");
+
+    public BatchCouponPaymentFlow(String couponDate) {
+        this(couponDate, DEFAULT_BATCH_SIZE);
+    }
+
+    public BatchCouponPaymentFlow(String couponDate, int batchSize) {
+        this.couponDate = couponDate;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Override
+    @Suspendable
+    protected String doCall() throws FlowException {
+        if (batchSize < 1) {
+            throw new FlowException("batchSize must be greater than zero");
+        }
+        LocalDate cDate;
+        try {
+            cDate = LocalDate.parse(couponDate, locateDateformat);
+        } catch (DateTimeParseException e) {
+            throw new FlowException("couponDate format should be yyyyMMdd");
+        }
+        CouponRunLock runLock = getServiceHub().cordaService(CouponRunLock.class);
+        if (!runLock.tryLock(getRunId())) {
+            throw new FlowException("Another coupon run is in progress, try again once it has completed");
+        }
+        try {
+            return payCoupons(cDate);
+        } finally {
+            runLock.unlock(getRunId());
+        }
+    }
+
+    @Suspendable
+    private String payCoupons(LocalDate cDate) throws FlowException {
+        Party me = getOurIdentity();
+        long runStart = System.currentTimeMillis();
+        log.info("Checking batched coupon payments for {} on couponDate {} with batchSize {}",
+                me.getName().getCommonName(), couponDate, batchSize);
+
+        progressTracker.setCurrentStep(FETCH_STATES);
+        Map<String, List<StateAndRef<BondState>>> dueBondsByCurrency =
+                getServiceHub().cordaService(CouponScheduleService.class)
+                        .queryBondRefsDueForCoupon(couponDate, me, getServiceHub())
+                        .stream()
+                        .filter(sr -> sr.getState().getData().getCouponPaymentLeft() > 0)
+                        .collect(Collectors.groupingBy(sr -> sr.getState().getData().getCurrency(),
+                                TreeMap::new, Collectors.toList()));
+
+        progressTracker.setCurrentStep(IDENTIFY_OBSERVERS);
+        List<Party> bondObservers = Utility.getLegalIdentitiesByOU(getServiceHub(), "Observer")
+                .stream()
+                .filter(party -> !party.equals(me))
+                .collect(Collectors.toList());
+
+        List<String> batchReports = new ArrayList<>();
+        int bondsPaid = 0;
+        for (Map.Entry<String, List<StateAndRef<BondState>>> currencyBonds : dueBondsByCurrency.entrySet()) {
+            List<StateAndRef<BondState>> bonds = currencyBonds.getValue();
+            log.info("Found {} {} coupons to pay ", bonds.size(), currencyBonds.getKey());
+            for (int from = 0; from < bonds.size(); from += batchSize) {
+                List<StateAndRef<BondState>> batch =
+                        new ArrayList<>(bonds.subList(from, Math.min(from + batchSize, bonds.size())));
+                batchReports.add(payBatch(me, currencyBonds.getKey(), batch, bondObservers, cDate,
+                        batchReports.size() + 1));
+                bondsPaid += batch.size();
+            }
+        }
+
+        progressTracker.setCurrentStep(DONE);
+        return String.format("{ " +
+                        "\"issuer\":\"%s\"," +
+                        "\"couponDate\":\"%s\"," +
+                        "\"batchSize\":%d," +
+                        "\"bondsPaid\":%d," +
+                        "\"elapsedMs\":%d," +
+                        "\"batches\":%s" +
+                        "}",
+                me.getName().getCommonName(),
+                couponDate,
+                batchSize,
+                bondsPaid,
+                System.currentTimeMillis() - runStart,
+                batchReports);
+    }
+
+    /**
+     * Settles one batch of bonds sharing a currency and returns the batch's throughput report.
+     */
+    @Suspendable
+    @SuppressWarnings("unchecked")
+    private String payBatch(Party me, String currency, List<StateAndRef<BondState>> batch, List<Party> bondObservers,
+                            LocalDate cDate, int batchNumber) throws FlowException {
+        long batchStart = System.currentTimeMillis();
+        Map<Party, List<CouponPaymentFlow.CouponPaymentNotification>> notificationsByHolder = new LinkedHashMap<>();
+        for (StateAndRef<BondState> bondRef : batch) {
+            BondState bs = bondRef.getState().getData();
+            notificationsByHolder.computeIfAbsent(bs.getInvestor(), holder -> new ArrayList<>())
+                    .add(new CouponPaymentFlow.CouponPaymentNotification(
+                            me,
+                            0L,
+                            "PENDING",
+                            bs.getLinearId().toString(),
+                            bs.getTermStateLinearID().toString(), false));
+        }
+
+        // all holders of the batch are notified at once and their replies gathered in parallel
+        progressTracker.setCurrentStep(FETCH_BOND_TOKENS_SIZE);
+        long fanOutStart = System.currentTimeMillis();
+        Map<FlowSession, Object> notificationsBySession = new LinkedHashMap<>();
+        for (Map.Entry<Party, List<CouponPaymentFlow.CouponPaymentNotification>> holderNotifications
+                : notificationsByHolder.entrySet()) {
+            notificationsBySession.put(initiateFlow(holderNotifications.getKey()), holderNotifications.getValue());
+        }
+        List<FlowSession> holderSessions = new ArrayList<>(notificationsBySession.keySet());
+        sendAllMap(notificationsBySession);
+        Map<String, Long> tokensByBond = new HashMap<>();
+        for (UntrustworthyData<List> holderReplies : receiveAll(List.class, holderSessions)) {
+            List<CouponPaymentFlow.CouponPaymentNotification> replies =
+                    holderReplies.unwrap(data -> (List<CouponPaymentFlow.CouponPaymentNotification>) data);
+            for (CouponPaymentFlow.CouponPaymentNotification reply : replies) {
+                if (!"OK".equals(reply.getStatus()) || reply.getNumberOfTokens() == null) {
+                    throw new FlowException("Something went wrong with Coupon payment");
+                }
+                tokensByBond.put(reply.getBondLinearID(), reply.getNumberOfTokens());
+            }
+        }
+        long fanOutMs = System.currentTimeMillis() - fanOutStart;
+
+        //Coupon payment = parvalue * (annual coupon rate / number of payments per year)
+        progressTracker.setCurrentStep(CALCULATE_COUPON);
+        TransactionBuilder txBuilder = new TransactionBuilder(batch.get(0).getState().getNotary());
+        List<PublicKey> signers = new ArrayList<>();
+        signers.add(me.getOwningKey());
+        List<TransferTokenFlow.TransferLeg> couponLegs = new ArrayList<>();
+        for (StateAndRef<BondState> bondRef : batch) {
+            BondState bs = bondRef.getState().getData();
+            Long numberOfTokens = tokensByBond.get(bs.getLinearId().toString());
+            if (numberOfTokens == null) {
+                throw new FlowException("Bond holder did not report tokens for bondId " + bs.getLinearId());
+            }
+            double coupon = couponAmount(bs, numberOfTokens);
+            couponLegs.add(new TransferTokenFlow.TransferLeg(bs.getInvestor(), String.valueOf(coupon), currency));
+
+            progressTracker.setCurrentStep(UPDATE_STATES);
+            txBuilder.addInputState(bondRef);
+            txBuilder.addOutputState(nextCouponState(bs, cDate));
+            if (!signers.contains(bs.getInvestor().getOwningKey())) {
+                signers.add(bs.getInvestor().getOwningKey());
+            }
+        }
+        txBuilder.addCommand(new BondContract.Commands.PayCoupon(), signers);
+
+        progressTracker.setCurrentStep(SEND_CASH);
+        // coupons are netted per holder the same way as a multi-leg cash transfer
+        TokenPointer<CashState> cashPointer = TransferTokenFlow.queryCashPointer(currency, getServiceHub());
+        List<PartyAndAmount<TokenType>> payouts = TransferTokenFlow.toPartyAndAmounts(
+                TransferTokenFlow.netLegs(couponLegs).get(currency), cashPointer);
+        if (!payouts.isEmpty()) {
+            QueryCriteria heldByMeCriteria = QueryUtilities.heldTokenAmountCriteria(cashPointer, me);
+            MoveTokensUtilities.addMoveFungibleTokens(txBuilder, getServiceHub(), payouts, me, heldByMeCriteria);
+        }
+
+        progressTracker.setCurrentStep(SIGNING_TRANSACTIONS);
+        txBuilder.verify(getServiceHub());
+        SignedTransaction ptx = getServiceHub().signInitialTransaction(txBuilder);
+        SignedTransaction stx = subFlow(new CollectSignaturesFlow(ptx, holderSessions));
+
+        List<FlowSession> finalitySessions = new ArrayList<>(holderSessions);
+        for (Party observer : bondObservers) {
+            FlowSession observerSession = initiateFlow(observer);
+            // an empty batch tells the responder it is only an observer of this transaction
+            observerSession.send(new ArrayList<CouponPaymentFlow.CouponPaymentNotification>());
+            finalitySessions.add(observerSession);
+        }
+        SignedTransaction finalTx = subFlow(new FinalityFlow(stx, finalitySessions));
+
+        long elapsedMs = Math.max(1, System.currentTimeMillis() - batchStart);
+        double bondsPerSecond = batch.size() * 1000.0 / elapsedMs;
+        log.info("Coupon batch {} [{}] paid {} bonds to {} holders in {} ms (fan-out {} ms, {} bonds/s) with transactionId: {}",
+                batchNumber, currency, batch.size(), holderSessions.size(), elapsedMs, fanOutMs,
+                String.format("%.2f", bondsPerSecond), finalTx.getId());
+        return String.format("{" +
+                        "\"batch\":%d," +
+                        "\"currency\":\"%s\"," +
+                        "\"bonds\":%d," +
+                        "\"holders\":%d," +
+                        "\"transactionId\":\"%s\"," +
+                        "\"elapsedMs\":%d," +
+                        "\"fanOutMs\":%d," +
+                        "\"bondsPerSecond\":%.2f" +
+                        "}",
+                batchNumber,
+                currency,
+                batch.size(),
+                holderSessions.size(),
+                finalTx.getId(),
+                elapsedMs,
+                fanOutMs,
+                bondsPerSecond);
+    }
+
+    /**
+     * Coupon owed on tokens bond tokens of the term of bs.
+     */
+    protected double couponAmount(BondState bs, long tokens) {
+        return owedOnCoupon(bs, tokens);
+    }
+
+    static double owedOnCoupon(BondState bs, long tokens) {
+        int paymentsPerYear = 12 / bs.getPaymentFrequencyInMonths();
+        return (bs.getParValue() * (bs.getInterestRate() / paymentsPerYear)) * tokens;
+    }
+
+    // next coupon date stays on the last coupon once it would fall after maturity, as in CouponPaymentFlow
+    private BondState nextCouponState(BondState bs, LocalDate cDate) {
+        LocalDate nextCouponDate = CouponPaymentUtil.getNextCouponPaymentDate(cDate, 30, bs.getPaymentFrequencyInMonths());
+        LocalDate mDate = LocalDate.parse(bs.getMaturityDate(), locateDateformat);
+        String nCouponDate = locateDateformat.format(nextCouponDate);
+        if (nextCouponDate.isAfter(mDate)) {
+            nCouponDate = couponDate;
+        }
+        return new BondState(
+                bs.getIssuer(), bs.getInvestor(), bs.getInterestRate(), bs.getParValue(),
+                bs.getMaturityDate(), bs.getCreditRating(), bs.getCouponPaymentLeft() - 1,
+                bs.getBondStatus(), bs.getBondType(), bs.getCurrency(),
+                bs.getBondName(), bs.getTermStateLinearID(), bs.getLinearId(),
+                bs.getPaymentFrequencyInMonths(), bs.getIssueDate(), nCouponDate);
+    }
+}
@@ -0,0 +1,198 @@
+package com.jtk.corda.workflows.bond.coupons;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.jtk.corda.contracts.bond.issuance.BondContract;
+import com.jtk.corda.states.bond.issuance.BondState;
+import com.jtk.corda.states.cash.issuance.CashState;
+import com.jtk.corda.workflows.bond.issuance.QueryBondToken;
+import com.jtk.corda.workflows.services.TimedFlowLogic;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowSession;
+import net.corda.core.flows.InitiatedBy;
+import net.corda.core.flows.ReceiveFinalityFlow;
+import net.corda.core.flows.SignTransactionFlow;
+import net.corda.core.identity.Party;
+import net.corda.core.node.StatesToRecord;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.utilities.ProgressTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@InitiatedBy(BatchCouponPaymentFlow.class)
+public class BatchCouponPaymentResponderFlow extends TimedFlowLogic<SignedTransaction> {
+    private static final Logger log = LoggerFactory.getLogger(BatchCouponPaymentResponderFlow.class);
+    private final FlowSession bondIssuerSession;
+
+    private final ProgressTracker progressTracker = new ProgressTracker(
+            QUERY_BOND_TOKENS_SIZE,
+            SEND_COUPON_PAYMENT_RESPONSE,
+            SIGNING_TRANSACTIONS,
+            DONE
+    );
+
+    private static final ProgressTracker.Step QUERY_BOND_TOKENS_SIZE = new ProgressTracker
+            .Step("Query Bond Tokens held");
+    private static final ProgressTracker.Step SEND_COUPON_PAYMENT_RESPONSE = new ProgressTracker
+            .Step("Send Bond Tokens size held by Bond Holder");
+    private static final ProgressTracker.Step SIGNING_TRANSACTIONS = new ProgressTracker
+            .Step("Signing Transaction");
+    private static final ProgressTracker.Step DONE = new ProgressTracker
+            .Step("Done Processing Responder Flow");
+
+    public BatchCouponPaymentResponderFlow(FlowSession bondIssuerSession) {
+        this.bondIssuerSession = bondIssuerSession;
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Override
+    @Suspendable
+    @SuppressWarnings("unchecked")
+    protected SignedTransaction doCall() throws FlowException {
+        List<CouponPaymentFlow.CouponPaymentNotification> notifications = bondIssuerSession.receive(List.class)
+                .unwrap(data -> (List<CouponPaymentFlow.CouponPaymentNotification>) data);
+        if (notifications.isEmpty()) {
+            log.info("Recording coupon batch from {} as observer",
+                    bondIssuerSession.getCounterparty().getName().getCommonName());
+            return subFlow(new ReceiveFinalityFlow(bondIssuerSession, null, StatesToRecord.ALL_VISIBLE));
+        }
+
+        progressTracker.setCurrentStep(QUERY_BOND_TOKENS_SIZE);
+        Map<String, Long> tokensByTerm = new HashMap<>();
+        Set<String> notifiedBonds = new HashSet<>();
+        List<CouponPaymentFlow.CouponPaymentNotification> replies = new ArrayList<>();
+        for (CouponPaymentFlow.CouponPaymentNotification cpn : notifications) {
+            Long numberOfToken = tokensByTerm.get(cpn.getTermLinearId());
+            if (numberOfToken == null) {
+                numberOfToken = subFlow(new QueryBondToken.GetTokenBalance(cpn.getTermLinearId()));
+                tokensByTerm.put(cpn.getTermLinearId(), numberOfToken);
+            }
+            notifiedBonds.add(cpn.getBondLinearID());
+            replies.add(new CouponPaymentFlow.CouponPaymentNotification(cpn.getIssuer(),
+                    numberOfToken,
+                    "OK",
+                    cpn.getBondLinearID(),
+                    cpn.getTermLinearId(), false));
+        }
+
+        progressTracker.setCurrentStep(SEND_COUPON_PAYMENT_RESPONSE);
+        bondIssuerSession.send(replies);
+
+        progressTracker.setCurrentStep(SIGNING_TRANSACTIONS);
+        SignedTransaction signedTx = subFlow(new SignCouponBatchFlow(bondIssuerSession, notifiedBonds, tokensByTerm));
+        progressTracker.setCurrentStep(DONE);
+        return subFlow(new ReceiveFinalityFlow(bondIssuerSession, signedTx.getId()));
+    }
+
+    /**
+     * Only signs a PayCoupon transaction whose bonds held by us are the ones we were notified about and that pays us
+     * at least the coupon on the bond tokens we reported for each of them.
+     */
+    private static class SignCouponBatchFlow extends SignTransactionFlow {
+        private final Set<String> notifiedBonds;
+        private final Map<String, Long> tokensByTerm;
+
+        private SignCouponBatchFlow(FlowSession otherSideSession, Set<String> notifiedBonds,
+                                    Map<String, Long> tokensByTerm) {
+            super(otherSideSession);
+            this.notifiedBonds = notifiedBonds;
+            this.tokensByTerm = tokensByTerm;
+        }
+
+        @Override
+        @Suspendable
+        protected void checkTransaction(SignedTransaction stx) throws FlowException {
+            boolean payCoupon = stx.getTx().getCommands().stream()
+                    .anyMatch(command -> command.getValue() instanceof BondContract.Commands.PayCoupon);
+            if (!payCoupon) {
+                throw new FlowException("Coupon batch must carry a PayCoupon command");
+            }
+            Party me = getOurIdentity();
+            for (BondState bondState : stx.getTx().outputsOfType(BondState.class)) {
+                if (bondState.getInvestor().equals(me)
+                        && !notifiedBonds.contains(bondState.getLinearId().toString())) {
+                    throw new FlowException("Unexpected bond " + bondState.getLinearId() + " in coupon batch");
+                }
+            }
+            LedgerTransaction ltx;
+            try {
+                ltx = stx.toLedgerTransaction(getServiceHub(), false);
+            } catch (Exception e) {
+                throw new FlowException("Could not resolve the coupon batch: " + e.getMessage());
+            }
+
+            // what we are owed, by currency, for the bond tokens we reported for each bond of ours
+            Map<String, BigDecimal> owed = new HashMap<>();
+            for (BondState bs : ltx.inputsOfType(BondState.class)) {
+                Long tokens = tokensByTerm.get(bs.getTermStateLinearID().toString());
+                if (!bs.getInvestor().equals(me) || tokens == null
+                        || !notifiedBonds.contains(bs.getLinearId().toString())) {
+                    continue;
+                }
+                owed.merge(bs.getCurrency(), new BigDecimal(String.valueOf(
+                        BatchCouponPaymentFlow.owedOnCoupon(bs, tokens))), BigDecimal::add);
+            }
+
+            // what the batch pays us, by currency of the cash tokens it moves to us
+            Map<UniqueIdentifier, CashState> cashTypes = new HashMap<>();
+            for (StateAndRef<CashState> cashRef : getServiceHub().getVaultService().queryBy(CashState.class).getStates()) {
+                cashTypes.put(cashRef.getState().getData().getLinearId(), cashRef.getState().getData());
+            }
+            for (CashState cashState : ltx.referenceInputsOfType(CashState.class)) {
+                cashTypes.put(cashState.getLinearId(), cashState);
+            }
+            Map<String, Long> paid = new HashMap<>();
+            for (FungibleToken token : ltx.outputsOfType(FungibleToken.class)) {
+                CashState cash = cashOf(token, cashTypes);
+                if (cash != null && token.getHolder().equals(me)) {
+                    paid.merge(cash.getCurrencyCode(), token.getAmount().getQuantity(), Long::sum);
+                }
+            }
+            for (FungibleToken token : ltx.inputsOfType(FungibleToken.class)) {
+                CashState cash = cashOf(token, cashTypes);
+                if (cash != null && token.getHolder().equals(me)) {
+                    paid.merge(cash.getCurrencyCode(), -token.getAmount().getQuantity(), Long::sum);
+                }
+            }
+            for (Map.Entry<String, BigDecimal> currencyOwed : owed.entrySet()) {
+                CashState cash = cashTypes.values().stream()
+                        .filter(cashState -> cashState.getCurrencyCode().equals(currencyOwed.getKey()))
+                        .findFirst()
+                        .orElseThrow(() -> new FlowException("Coupon batch pays no " + currencyOwed.getKey()));
+                long owedQuantity = Amount.fromDecimal(currencyOwed.getValue(), cash.toPointer()).getQuantity();
+                if (paid.getOrDefault(currencyOwed.getKey(), 0L) < owedQuantity) {
+                    throw new FlowException("Coupon batch pays " + currencyOwed.getKey() + " "
+                            + paid.getOrDefault(currencyOwed.getKey(), 0L) + ", at least " + owedQuantity
+                            + " is owed");
+                }
+            }
+        }
+
+        /**
+         * The cash a cash token is of, null for any other token.
+         */
+        private static CashState cashOf(FungibleToken token, Map<UniqueIdentifier, CashState> cashTypes) {
+            if (token.getTokenType() instanceof TokenPointer) {
+                return cashTypes.get(((TokenPointer<?>) token.getTokenType()).getPointer().getPointer());
+            }
+            return null;
+        }
+    }
+}
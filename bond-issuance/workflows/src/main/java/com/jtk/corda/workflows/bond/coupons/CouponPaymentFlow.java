@@ -2,42 +2,44 @@ package com.jtk.corda.workflows.bond.coupons;
 
 import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
-import static com.jtk.corda.contants.BondStatus.ACTIVE;
 import com.jtk.corda.states.bond.issuance.BondState;
 import com.jtk.corda.workflows.cash.issuance.TransferTokenFlow;
+import com.jtk.corda.workflows.services.CouponRunLock;
+import com.jtk.corda.workflows.services.CouponScheduleService;
+import com.jtk.corda.workflows.services.TimedFlowLogic;
 import com.jtk.corda.workflows.utils.CouponPaymentUtil;
-import com.jtk.corda.workflows.utils.CustomQuery;
 import com.jtk.corda.workflows.utils.Utility;
 import com.r3.corda.lib.tokens.workflows.flows.rpc.UpdateEvolvableToken;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.flows.FinalityFlow;
 import net.corda.core.flows.FlowException;
-import net.corda.core.flows.FlowLogic;
 import net.corda.core.flows.FlowSession;
 import net.corda.core.flows.InitiatingFlow;
-import net.corda.core.flows.SchedulableFlow;
 import net.corda.core.flows.StartableByRPC;
 import net.corda.core.identity.Party;
 import net.corda.core.serialization.ConstructorForDeserialization;
 import net.corda.core.serialization.CordaSerializable;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.UntrustworthyData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 @InitiatingFlow
 @StartableByRPC
-@SchedulableFlow
-public class CouponPaymentFlow extends FlowLogic<String> {
+public class CouponPaymentFlow extends TimedFlowLogic<String> {
     private static final Logger log = LoggerFactory.getLogger(CouponPaymentFlow.class);
     private final static DateTimeFormatter locateDateformat = DateTimeFormatter.ofPattern("yyyyMMdd");
     private String couponDate;
+    private long fanOutMillis;
 
     private final ProgressTracker progressTracker = new ProgressTracker(
             FETCH_STATES,
@@ -81,103 +83,144 @@ public class CouponPaymentFlow extends FlowLogic<String> {
     public CouponPaymentFlow(String couponDate){
         this.couponDate = couponDate;
     }
+
+    /**
+     * Wall-clock time spent notifying the bond holders and collecting their token counts.
+     */
+    public long getFanOutMillis() {
+        return fanOutMillis;
+    }
+
     @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Override
+    @Suspendable
+    protected String doCall() throws FlowException {
+        CouponRunLock runLock = getServiceHub().cordaService(CouponRunLock.class);
+        if (!runLock.tryLock(getRunId())) {
+            throw new FlowException("Another coupon run is in progress, try again once it has completed");
+        }
+        try {
+            return payCoupons();
+        } finally {
+            runLock.unlock(getRunId());
+        }
+    }
+
     @Suspendable
-    public String call() throws FlowException {
+    private String payCoupons() throws FlowException {
         Party me = getOurIdentity();
         log.info("Checking coupon payments for {} on couponDate {}",me.getName().getCommonName(), couponDate);
         progressTracker.setCurrentStep(FETCH_STATES);
-        List<BondState> bondIssuedByMe = CustomQuery.queryBondsPointerWithCouponDate(couponDate, getServiceHub())
-                .stream()
-                .filter(bondState -> bondState.getIssuer().equals(me))
-                .filter(bondState -> bondState.getBondStatus().equalsIgnoreCase(ACTIVE.name()))
-                .collect(Collectors.toList());
+        List<StateAndRef<BondState>> bondIssuedByMe = getServiceHub().cordaService(CouponScheduleService.class)
+                .queryBondRefsDueForCoupon(couponDate, me, getServiceHub());
         log.info("Found {} coupons to pay ", bondIssuedByMe.size());
 
         progressTracker.setCurrentStep(IDENTIFY_OBSERVERS);
         List<Party> bondObservers = new ArrayList<>(Utility.getLegalIdentitiesByOU
-                (getServiceHub().getIdentityService(), "Observer"));
+                (getServiceHub(), "Observer"));
         bondObservers.add(me);
 
-        for (BondState bs:  bondIssuedByMe){
+        // notify every holder at once and gather the token counts in parallel, one session per bond
+        progressTracker.setCurrentStep(FETCH_BOND_TOKENS_SIZE);
+        long fanOutStart = System.currentTimeMillis();
+        Map<FlowSession, Object> notificationsBySession = new LinkedHashMap<>();
+        Map<String, FlowSession> sessionsByBond = new HashMap<>();
+        List<StateAndRef<BondState>> bondsToPay = new ArrayList<>();
+        for (StateAndRef<BondState> oldBondStateAndRef : bondIssuedByMe){
+            BondState bs = oldBondStateAndRef.getState().getData();
             if(bs.getCouponPaymentLeft() > 0){
                 progressTracker.setCurrentStep(CHECK_BOND_FOR_COUPON);
-                log.info("Calculating coupon on bondId {}", bs.getLinearId());
-                LocalDate cDate = LocalDate.parse(couponDate, locateDateformat);
-                Party holder = bs.getInvestor();
-                int parValue = bs.getParValue();
-                FlowSession bondHolderSession = initiateFlow(holder);
-                StateAndRef<BondState> oldBondStateAndRef = CustomQuery.queryBondByLinearID(bs.getLinearId(), getServiceHub());
-                String bondLinearId = oldBondStateAndRef.getState()
-                        .getData()
-                        .getLinearId()
-                        .toString();
-                CouponPaymentNotification couponPaymentNotification =
+                String bondLinearId = bs.getLinearId().toString();
+                FlowSession bondHolderSession = initiateFlow(bs.getInvestor());
+                notificationsBySession.put(bondHolderSession,
                         new CouponPaymentNotification(
                                 me,
                                 0L,
                                 "PENDING",
                                 bondLinearId,
-                                bs.getTermStateLinearID().toString(), false);
-                progressTracker.setCurrentStep(FETCH_BOND_TOKENS_SIZE);
-                Long numberOfTokens = bondHolderSession.sendAndReceive(CouponPaymentNotification.class, couponPaymentNotification)
-                        .unwrap(data -> {
-                            if (data.status.equals("OK")) {
-                                return data.getNumberOfTokens();
-                            } else {
-                                return null;
-                            }
-                        });
-                if(numberOfTokens == null){
-                    throw new FlowException("Something went wrong with Coupon payment");
-                }
-                //Coupon payment = parvalue * (annual coupon rate / number of payments per year)
-                progressTracker.setCurrentStep(CALCULATE_COUPON);
-                int paymentsPerYear = 12 / bs.getPaymentFrequencyInMonths();
-                double coupon = (parValue * (bs.getInterestRate() / paymentsPerYear)) * numberOfTokens;
-                log.info("{}$ Coupon to be send to bond holder", coupon);
-
-                progressTracker.setCurrentStep(SEND_CASH);
-                progressTracker.setCurrentStep(SIGNING_TRANSACTIONS);
-                SignedTransaction tStxTran = subFlow(
-                        new TransferTokenFlow.
-                                TransferTokenInitiator(String.valueOf(coupon), bs.getCurrency(), bs.getInvestor()));
-
-                log.info("TransactionID:{} for coupons to investor {}",
-                        tStxTran.getId(),
-                        bs.getInvestor().getName().getCommonName());
-
-                // update bond with the next coupon date
-                // reduce the number of coupon payments by on2
-                LocalDate nextCouponDate = CouponPaymentUtil.getNextCouponPaymentDate(cDate, 30, bs.getPaymentFrequencyInMonths());
-                LocalDate  mDate = LocalDate.parse(bs.getMaturityDate(),locateDateformat);
-                String  nCouponDate = locateDateformat.format(nextCouponDate);
-                if(nextCouponDate.isAfter(mDate)){
-                    nCouponDate = couponDate;
-                }
-                long couponPaymentLeft = bs.getCouponPaymentLeft() - 1;
-                progressTracker.setCurrentStep(UPDATE_STATES);
-                BondState newBondState = new BondState(
-                        me, bs.getInvestor(), bs.getInterestRate(),bs.getParValue(),
-                        bs.getMaturityDate(), bs.getCreditRating(), couponPaymentLeft,
-                        bs.getBondStatus(), bs.getBondType(), bs.getCurrency(),
-                        bs.getBondName(), bs.getTermStateLinearID(),bs.getLinearId(),
-                        bs.getPaymentFrequencyInMonths(), bs.getIssueDate(), nCouponDate);
-
-                progressTracker.setCurrentStep(SIGNING_TRANSACTIONS);
-                SignedTransaction txId = subFlow(new UpdateEvolvableToken(oldBondStateAndRef, newBondState, bondObservers));
-                log.info("BondState has been updated with nextCouponDate:{},couponPaymentLeft:{}  after coupon payment TxID: {}",
-                        nCouponDate,
-                        couponPaymentLeft,
-                        txId.getId());
-                SignedTransaction finalTx = subFlow(new FinalityFlow(txId, ImmutableList.of(bondHolderSession)));
-
-                log.info(String.format("Completed Coupon payment to %s for coupon date %s with transactionId: %s",
-                        holder.getName().getCommonName(), cDate, finalTx.getId()));
+                                bs.getTermStateLinearID().toString(), false));
+                sessionsByBond.put(bondLinearId, bondHolderSession);
+                bondsToPay.add(oldBondStateAndRef);
             }else {
                 log.info("No coupon left to pay pn bondId {}", bs.getLinearId());
             }
         }
+        Map<String, Long> tokensByBond = new HashMap<>();
+        if (!notificationsBySession.isEmpty()) {
+            sendAllMap(notificationsBySession);
+            List<UntrustworthyData<CouponPaymentNotification>> replies =
+                    receiveAll(CouponPaymentNotification.class, new ArrayList<>(notificationsBySession.keySet()));
+            for (UntrustworthyData<CouponPaymentNotification> reply : replies) {
+                CouponPaymentNotification data = reply.unwrap(it -> it);
+                if (!data.getStatus().equals("OK") || data.getNumberOfTokens() == null) {
+                    throw new FlowException("Something went wrong with Coupon payment");
+                }
+                tokensByBond.put(data.getBondLinearID(), data.getNumberOfTokens());
+            }
+        }
+        fanOutMillis = System.currentTimeMillis() - fanOutStart;
+        log.info("Fetched bond token sizes from {} holders in {} ms", notificationsBySession.size(), fanOutMillis);
+
+        for (StateAndRef<BondState> oldBondStateAndRef : bondsToPay){
+            BondState bs = oldBondStateAndRef.getState().getData();
+            log.info("Calculating coupon on bondId {}", bs.getLinearId());
+            LocalDate cDate = LocalDate.parse(couponDate, locateDateformat);
+            Party holder = bs.getInvestor();
+            int parValue = bs.getParValue();
+            String bondLinearId = bs.getLinearId().toString();
+            FlowSession bondHolderSession = sessionsByBond.get(bondLinearId);
+            Long numberOfTokens = tokensByBond.get(bondLinearId);
+            if(numberOfTokens == null){
+                throw new FlowException("Something went wrong with Coupon payment");
+            }
+            //Coupon payment = parvalue * (annual coupon rate / number of payments per year)
+            progressTracker.setCurrentStep(CALCULATE_COUPON);
+            int paymentsPerYear = 12 / bs.getPaymentFrequencyInMonths();
+            double coupon = (parValue * (bs.getInterestRate() / paymentsPerYear)) * numberOfTokens;
+            log.info("{}$ Coupon to be send to bond holder", coupon);
+
+            progressTracker.setCurrentStep(SEND_CASH);
+            progressTracker.setCurrentStep(SIGNING_TRANSACTIONS);
+            SignedTransaction tStxTran = subFlow(
+                    new TransferTokenFlow.
+                            TransferTokenInitiator(String.valueOf(coupon), bs.getCurrency(), bs.getInvestor()));
+
+            log.info("TransactionID:{} for coupons to investor {}",
+                    tStxTran.getId(),
+                    bs.getInvestor().getName().getCommonName());
+
+            // update bond with the next coupon date
+            // reduce the number of coupon payments by on2
+            LocalDate nextCouponDate = CouponPaymentUtil.getNextCouponPaymentDate(cDate, 30, bs.getPaymentFrequencyInMonths());
+            LocalDate  mDate = LocalDate.parse(bs.getMaturityDate(),locateDateformat);
+            String  nCouponDate = locateDateformat.format(nextCouponDate);
+            if(nextCouponDate.isAfter(mDate)){
+                nCouponDate = couponDate;
+            }
+            long couponPaymentLeft = bs.getCouponPaymentLeft() - 1;
+            progressTracker.setCurrentStep(UPDATE_STATES);
+            BondState newBondState = new BondState(
+                    me, bs.getInvestor(), bs.getInterestRate(),bs.getParValue(),
+                    bs.getMaturityDate(), bs.getCreditRating(), couponPaymentLeft,
+                    bs.getBondStatus(), bs.getBondType(), bs.getCurrency(),
+                    bs.getBondName(), bs.getTermStateLinearID(),bs.getLinearId(),
+                    bs.getPaymentFrequencyInMonths(), bs.getIssueDate(), nCouponDate);
+
+            progressTracker.setCurrentStep(SIGNING_TRANSACTIONS);
+            SignedTransaction txId = subFlow(new UpdateEvolvableToken(oldBondStateAndRef, newBondState, bondObservers));
+            log.info("BondState has been updated with nextCouponDate:{},couponPaymentLeft:{}  after coupon payment TxID: {}",
+                    nCouponDate,
+                    couponPaymentLeft,
+                    txId.getId());
+            SignedTransaction finalTx = subFlow(new FinalityFlow(txId, ImmutableList.of(bondHolderSession)));
+
+            log.info(String.format("Completed Coupon payment to %s for coupon date %s with transactionId: %s",
+                    holder.getName().getCommonName(), cDate, finalTx.getId()));
+        }
         progressTracker.setCurrentStep(DONE);
         return String.format("{ " +
                         "\"issuer\":\"%s\"," +
@@ -2,8 +2,8 @@ package com.jtk.corda.workflows.bond.coupons;
 
 import co.paralleluniverse.fibers.Suspendable;
 import com.jtk.corda.workflows.bond.issuance.QueryBondToken;
+import com.jtk.corda.workflows.services.TimedFlowLogic;
 import net.corda.core.flows.FlowException;
-import net.corda.core.flows.FlowLogic;
 import net.corda.core.flows.FlowSession;
 import net.corda.core.flows.InitiatedBy;
 import net.corda.core.flows.ReceiveFinalityFlow;
@@ -14,7 +14,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @InitiatedBy(CouponPaymentFlow.class)
-public class CouponPaymentResponderFlow extends FlowLogic<SignedTransaction> {
+public class CouponPaymentResponderFlow extends TimedFlowLogic<SignedTransaction> {
     private static final Logger log = LoggerFactory.getLogger(CouponPaymentResponderFlow.class);
     private final FlowSession bondHolderSession;
 
@@ -39,9 +39,14 @@ public class CouponPaymentResponderFlow extends FlowLogic<SignedTransaction> {
         this.bondHolderSession = bondHolderSession;
     }
 
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
     @Override
     @Suspendable
-    public SignedTransaction call() throws FlowException {
+    protected SignedTransaction doCall() throws FlowException {
         Party bondHolder = getOurIdentity();
         Party bondIssuer = bondHolderSession.getCounterparty();
         CouponPaymentFlow.CouponPaymentNotification cpn =
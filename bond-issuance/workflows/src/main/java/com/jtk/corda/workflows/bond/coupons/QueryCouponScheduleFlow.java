@@ -0,0 +1,71 @@
+package com.jtk.corda.workflows.bond.coupons;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.jtk.corda.workflows.services.CouponScheduleService;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.InitiatingFlow;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.identity.Party;
+import net.corda.core.utilities.ProgressTracker;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.stream.Collectors;
+
+public class QueryCouponScheduleFlow {
+    private final static DateTimeFormatter locateDateformat = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    /**
+     * Coupons this node has to pay from today to today + days, by coupon date, for payment-operations planning.
+     */
+    @InitiatingFlow
+    @StartableByRPC
+    public static class GetCouponsDue extends FlowLogic<String> {
+        private final ProgressTracker progressTracker = new ProgressTracker();
+        private final int days;
+
+        public GetCouponsDue(int days) {
+            this.days = days;
+        }
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+        @Override
+        @Suspendable
+        public String call() throws FlowException {
+            if (days < 0) {
+                throw new FlowException("days must not be negative");
+            }
+            CouponScheduleService schedule = getServiceHub().cordaService(CouponScheduleService.class);
+            if (!schedule.isReady()) {
+                throw new FlowException("Coupon schedule is still loading");
+            }
+            Party me = getOurIdentity();
+            LocalDate today = LocalDate.now();
+            String from = locateDateformat.format(today);
+            String to = locateDateformat.format(today.plusDays(days));
+            SortedMap<String, List<UniqueIdentifier>> due = schedule.getBondsDueBetween(from, to, me);
+
+            int bonds = due.values().stream().mapToInt(List::size).sum();
+            String dates = due.entrySet().stream()
+                    .map(QueryCouponScheduleFlow::toJson)
+                    .collect(Collectors.joining(","));
+            return String.format("{\"issuer\":\"%s\",\"from\":\"%s\",\"to\":\"%s\",\"bonds\":%d,\"schedule\":[%s]}",
+                    me.getName().getCommonName(), from, to, bonds, dates);
+        }
+    }
+
+    private static String toJson(Map.Entry<String, List<UniqueIdentifier>> couponDate) {
+        String ids = couponDate.getValue().stream()
+                .map(id -> "\"" + id + "\"")
+                .collect(Collectors.joining(","));
+        return String.format("{\"couponDate\":\"%s\",\"bonds\":%d,\"bondLinearIds\":[%s]}",
+                couponDate.getKey(), couponDate.getValue().size(), ids);
+    }
+}
@@ -4,53 +4,84 @@ import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import com.jtk.corda.contants.BondStatus;
 import static com.jtk.corda.contants.BondStatus.ACTIVE;
+import com.jtk.corda.contracts.bond.issuance.BondContract;
 import com.jtk.corda.states.bond.issuance.BondState;
 import com.jtk.corda.states.bond.issuance.TermState;
+import com.jtk.corda.states.cash.issuance.CashState;
 import com.jtk.corda.workflows.bond.issuance.QueryBondToken;
 import com.jtk.corda.workflows.cash.issuance.TransferTokenFlow;
+import com.jtk.corda.workflows.services.CouponRunLock;
+import com.jtk.corda.workflows.services.TimedFlowLogic;
+import com.jtk.corda.workflows.utils.CouponPaymentUtil;
 import com.jtk.corda.workflows.utils.CustomQuery;
+import com.jtk.corda.workflows.utils.QueryPage;
 import com.jtk.corda.workflows.utils.Utility;
+import com.r3.corda.lib.tokens.contracts.states.AbstractToken;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
 import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
 import com.r3.corda.lib.tokens.contracts.types.TokenType;
+import com.r3.corda.lib.tokens.workflows.flows.move.MoveTokensUtilities;
+import com.r3.corda.lib.tokens.workflows.flows.redeem.RedeemTokensUtilities;
 import com.r3.corda.lib.tokens.workflows.flows.rpc.RedeemFungibleTokens;
 import com.r3.corda.lib.tokens.workflows.flows.rpc.UpdateEvolvableToken;
+import com.r3.corda.lib.tokens.workflows.types.PartyAndAmount;
 import com.r3.corda.lib.tokens.workflows.utilities.QueryUtilities;
 import net.corda.core.contracts.Amount;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.CollectSignaturesFlow;
 import net.corda.core.flows.FinalityFlow;
 import net.corda.core.flows.FlowException;
-import net.corda.core.flows.FlowLogic;
 import net.corda.core.flows.FlowSession;
 import net.corda.core.flows.InitiatedBy;
 import net.corda.core.flows.InitiatingFlow;
 import net.corda.core.flows.ReceiveFinalityFlow;
 import net.corda.core.flows.ReceiveStateAndRefFlow;
 import net.corda.core.flows.SendStateAndRefFlow;
+import net.corda.core.flows.SignTransactionFlow;
 import net.corda.core.flows.StartableByRPC;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.IdentityService;
+import net.corda.core.node.StatesToRecord;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.LedgerTransaction;
 import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.math.BigDecimal;
+import java.security.PublicKey;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
 /**
  * Redeem Coupons for particular term
  * This can be an early redemption or when the maturity date is hit
+ * RedeemCouponInitiator settles bond by bond, BatchRedeemInitiator settles all bonds of a currency in one transaction
  */
 public class RedeemCouponPaymentFlow {
 
     @InitiatingFlow
     @StartableByRPC
-    public static class RedeemCouponInitiator extends FlowLogic<String>{
+    public static class RedeemCouponInitiator extends TimedFlowLogic<String>{
 
         private static final Logger log = LoggerFactory.getLogger(RedeemCouponInitiator.class);
         private final String termId;
@@ -106,9 +137,14 @@ public class RedeemCouponPaymentFlow {
             this.maturityDate = maturityDate;
         }
 
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
         @Override
         @Suspendable
-        public String call() throws FlowException {
+        protected String doCall() throws FlowException {
             Party me = getOurIdentity();
             List<BondState> bondIssuedByMe = new ArrayList<>();
             progressTracker.setCurrentStep(FETCH_STATES);
@@ -139,20 +175,15 @@ public class RedeemCouponPaymentFlow {
             progressTracker.setCurrentStep(IDENTIFY_OBSERVERS);
 
             List<Party> bondObservers = new ArrayList<>(Utility.getLegalIdentitiesByOU
-                    (getServiceHub().getIdentityService(), "Observer"));
+                    (getServiceHub(), "Observer"));
             bondObservers.add(me);
 
             LocalDate mDate = LocalDate.parse(maturityDate, locateDateformat);
-            StateAndRef<TermState> termStateStateAndRef = CustomQuery.
+            StateAndRef<TermState> termStateRef = CustomQuery.
                     queryActiveTermsByTermStateLinearID(UniqueIdentifier.Companion.fromString(termId), getServiceHub());
-            if(termStateStateAndRef == null) {
+            if(termStateRef == null) {
                 throw new FlowException("Couldn't find Active TermState");
             }
-            TokenPointer<TermState> termStateTokenPointer = termStateStateAndRef
-                    .getState()
-                    .getData().toPointer();
-            StateAndRef<TermState> termStateRef = termStateTokenPointer.getPointer()
-                    .resolve(getServiceHub());
             TermState termState = termStateRef.getState().getData();
 
             for (BondState bs: bondIssuedByMe){
@@ -235,7 +266,7 @@ public class RedeemCouponPaymentFlow {
     }
 
     @InitiatedBy(RedeemCouponInitiator.class)
-    public static class RedeemCouponResponder extends FlowLogic<SignedTransaction> {
+    public static class RedeemCouponResponder extends TimedFlowLogic<SignedTransaction> {
         private final FlowSession bondHolderSession;
 
         private final ProgressTracker progressTracker = new ProgressTracker(
@@ -267,14 +298,18 @@ public class RedeemCouponPaymentFlow {
         public RedeemCouponResponder(FlowSession bondHolderSession){
             this.bondHolderSession = bondHolderSession;
         }
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
         @Suspendable
         @Override
-        public SignedTransaction call() throws FlowException {
+        protected SignedTransaction doCall() throws FlowException {
             Party bondHolder = getOurIdentity();
             Party bondIssuer = bondHolderSession.getCounterparty();
-            IdentityService identityService = getServiceHub().getIdentityService();
             progressTracker.setCurrentStep(IDENTIFY_OBSERVERS);
-            List<Party> observers = Utility.getLegalIdentitiesByOU(identityService,"Observer");
+            List<Party> observers = Utility.getLegalIdentitiesByOU(getServiceHub(), "Observer");
             List<StateAndRef<TermState>> investorTermStateRefList =
                     subFlow(new ReceiveStateAndRefFlow<>(bondHolderSession));
             StateAndRef<TermState> investorTermStateRef = investorTermStateRefList.get(0);
@@ -307,4 +342,546 @@ public class RedeemCouponPaymentFlow {
             return subFlow(new ReceiveFinalityFlow(bondHolderSession));
         }
     }
+
+    /**
+     * Batched redemption of every active bond of a maturity date, or of a term on early redemption.
+     * Bonds are grouped by currency and each currency is settled in one transaction, which moves the netted principal
+     * plus final coupon to every holder, redeems the holders' bond tokens and matures all of the BondStates under
+     * {@link BondContract.Commands.Redeem}. The redeemed terms are then marked MATURED, one update per term.
+     */
+    @InitiatingFlow
+    @StartableByRPC
+    public static class BatchRedeemInitiator extends TimedFlowLogic<String> {
+
+        private static final Logger log = LoggerFactory.getLogger(BatchRedeemInitiator.class);
+        private final static DateTimeFormatter locateDateformat = DateTimeFormatter.ofPattern("yyyyMMdd");
+        private final UniqueIdentifier termId;
+        private final String maturityDate;
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                FETCH_STATES,
+                IDENTIFY_OBSERVERS,
+                FETCH_BOND_TOKENS,
+                CALCULATE_REDEMPTION,
+                UPDATE_STATES,
+                SEND_CASH,
+                SIGNING_TRANSACTIONS,
+                UPDATE_TERM_STATES,
+                DONE
+        );
+
+        private static final ProgressTracker.Step FETCH_STATES = new ProgressTracker
+                .Step("Fetch Bond States for Redemption");
+        private static final ProgressTracker.Step IDENTIFY_OBSERVERS = new ProgressTracker
+                .Step("Identifying Bond Observers");
+        private static final ProgressTracker.Step FETCH_BOND_TOKENS = new ProgressTracker
+                .Step("Fetch Bond Tokens held by Bond Holders");
+        private static final ProgressTracker.Step CALCULATE_REDEMPTION = new ProgressTracker
+                .Step("Calculate Redemption Payments");
+        private static final ProgressTracker.Step UPDATE_STATES = new ProgressTracker
+                .Step("Updating Bond States");
+        private static final ProgressTracker.Step SEND_CASH = new ProgressTracker
+                .Step("Adding digital currency payouts");
+        private static final ProgressTracker.Step SIGNING_TRANSACTIONS = new ProgressTracker
+                .Step("Signing Transaction");
+        private static final ProgressTracker.Step UPDATE_TERM_STATES = new ProgressTracker
+                .Step("Updating Term States");
+        private static final ProgressTracker.Step DONE = new ProgressTracker
+                .Step("Done Processing Flow");
+
+        /**
+         * Early redemption of every active bond of the term, today.
+         */
+        public BatchRedeemInitiator(UniqueIdentifier termId) {
+            this.termId = termId;
+            this.maturityDate = LocalDate.now().format(locateDateformat);
+        }
+
+        /**
+         * Redemption of every active bond maturing on maturityDate (yyyyMMdd).
+         */
+        public BatchRedeemInitiator(String maturityDate) {
+            this.termId = null;
+            this.maturityDate = maturityDate;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Override
+        @Suspendable
+        protected String doCall() throws FlowException {
+            LocalDate redemptionDate;
+            try {
+                redemptionDate = LocalDate.parse(maturityDate, locateDateformat);
+            } catch (DateTimeParseException e) {
+                throw new FlowException("maturityDate format should be yyyyMMdd");
+            }
+            // redemption pays the final coupons, so it must not overlap a coupon run on the same bonds
+            CouponRunLock runLock = getServiceHub().cordaService(CouponRunLock.class);
+            if (!runLock.tryLock(getRunId())) {
+                throw new FlowException("A coupon run is in progress, try again once it has completed");
+            }
+            try {
+                return redeem(redemptionDate);
+            } finally {
+                runLock.unlock(getRunId());
+            }
+        }
+
+        @Suspendable
+        private String redeem(LocalDate redemptionDate) throws FlowException {
+            Party me = getOurIdentity();
+            long runStart = System.currentTimeMillis();
+            progressTracker.setCurrentStep(FETCH_STATES);
+            List<StateAndRef<BondState>> bonds = termId != null
+                    ? CustomQuery.queryBondRefsByTerm(termId, me, getServiceHub())
+                    : CustomQuery.queryBondRefsMaturingOn(maturityDate, me, getServiceHub());
+            Map<String, List<StateAndRef<BondState>>> bondsByCurrency = bonds.stream()
+                    .collect(Collectors.groupingBy(sr -> sr.getState().getData().getCurrency(),
+                            TreeMap::new, Collectors.toList()));
+            log.info("Found {} bonds to redeem in {} currencies", bonds.size(), bondsByCurrency.size());
+
+            progressTracker.setCurrentStep(IDENTIFY_OBSERVERS);
+            List<Party> bondObservers = Utility.getLegalIdentitiesByOU(getServiceHub(), "Observer")
+                    .stream()
+                    .filter(party -> !party.equals(me))
+                    .collect(Collectors.toList());
+
+            List<String> currencyReports = new ArrayList<>();
+            for (Map.Entry<String, List<StateAndRef<BondState>>> currencyBonds : bondsByCurrency.entrySet()) {
+                currencyReports.add(redeemCurrency(me, currencyBonds.getKey(), currencyBonds.getValue(),
+                        bondObservers, redemptionDate));
+            }
+
+            progressTracker.setCurrentStep(UPDATE_TERM_STATES);
+            Set<UniqueIdentifier> terms = new LinkedHashSet<>();
+            if (termId != null) {
+                terms.add(termId);
+            }
+            bonds.forEach(sr -> terms.add(sr.getState().getData().getTermStateLinearID()));
+            List<Party> termObservers = new ArrayList<>(bondObservers);
+            termObservers.add(me);
+            int termsMatured = 0;
+            for (UniqueIdentifier term : terms) {
+                StateAndRef<TermState> termStateRef = CustomQuery.queryActiveTermsByTermStateLinearID(term, getServiceHub());
+                if (termStateRef == null || !termStateRef.getState().getData().getIssuer().equals(me)) {
+                    log.info("No active TermState {} of ours left to mature", term);
+                    continue;
+                }
+                TermState termState = termStateRef.getState().getData();
+                TermState newTermState = new TermState
+                        (termState.getIssuer(), termState.getInvestors(), termState.getBondName(),
+                                BondStatus.MATURED.name(),termState.getInterestRate(), termState.getParValue(),
+                                0, termState.getRedemptionAvailable(), termState.getLinearId(),
+                                termState.getMaturityDate(), termState.getBondType(), termState.getCurrency(),
+                                termState.getCreditRating(), termState.getPaymentFrequencyInMonths());
+                subFlow(new UpdateEvolvableToken(termStateRef, newTermState, termObservers));
+                termsMatured++;
+            }
+            progressTracker.setCurrentStep(DONE);
+            return String.format("{ " +
+                            "\"issuer\":\"%s\"," +
+                            "\"maturityDate\":\"%s\"," +
+                            "\"bondsRedeemed\":%d," +
+                            "\"termsMatured\":%d," +
+                            "\"elapsedMs\":%d," +
+                            "\"currencies\":%s" +
+                            "}",
+                    me.getName().getCommonName(),
+                    maturityDate,
+                    bonds.size(),
+                    termsMatured,
+                    System.currentTimeMillis() - runStart,
+                    currencyReports);
+        }
+
+        /**
+         * Redeems every bond of one currency in a single transaction and returns the currency's report.
+         */
+        @Suspendable
+        @SuppressWarnings("unchecked")
+        private String redeemCurrency(Party me, String currency, List<StateAndRef<BondState>> bonds,
+                                      List<Party> bondObservers, LocalDate redemptionDate) throws FlowException {
+            long start = System.currentTimeMillis();
+            Map<Party, List<CouponPaymentFlow.CouponPaymentNotification>> notificationsByHolder = new LinkedHashMap<>();
+            Map<Party, Set<UniqueIdentifier>> termsByHolder = new HashMap<>();
+            for (StateAndRef<BondState> bondRef : bonds) {
+                BondState bs = bondRef.getState().getData();
+                notificationsByHolder.computeIfAbsent(bs.getInvestor(), holder -> new ArrayList<>())
+                        .add(new CouponPaymentFlow.CouponPaymentNotification(
+                                me,
+                                0L,
+                                "PENDING",
+                                bs.getLinearId().toString(),
+                                bs.getTermStateLinearID().toString(), true));
+                termsByHolder.computeIfAbsent(bs.getInvestor(), holder -> new HashSet<>())
+                        .add(bs.getTermStateLinearID());
+            }
+
+            // all holders are notified at once, each answers with the bond tokens it holds of the notified terms
+            progressTracker.setCurrentStep(FETCH_BOND_TOKENS);
+            Map<FlowSession, Object> notificationsBySession = new LinkedHashMap<>();
+            for (Map.Entry<Party, List<CouponPaymentFlow.CouponPaymentNotification>> holderNotifications
+                    : notificationsByHolder.entrySet()) {
+                notificationsBySession.put(initiateFlow(holderNotifications.getKey()), holderNotifications.getValue());
+            }
+            List<FlowSession> holderSessions = new ArrayList<>(notificationsBySession.keySet());
+            sendAllMap(notificationsBySession);
+            Map<Party, Map<UniqueIdentifier, Long>> tokensByHolder = new HashMap<>();
+            Map<UniqueIdentifier, List<StateAndRef<AbstractToken>>> tokensToRedeemByTerm = new LinkedHashMap<>();
+            for (FlowSession holderSession : holderSessions) {
+                Party holder = holderSession.getCounterparty();
+                List<StateAndRef<FungibleToken>> heldTokens = subFlow(new ReceiveStateAndRefFlow<>(holderSession));
+                for (StateAndRef<FungibleToken> tokenRef : heldTokens) {
+                    FungibleToken token = tokenRef.getState().getData();
+                    if (!(token.getTokenType() instanceof TokenPointer) || !token.getHolder().equals(holder)
+                            || !token.getIssuer().equals(me)) {
+                        throw new FlowException("Unexpected bond token from " + holder.getName().getCommonName());
+                    }
+                    UniqueIdentifier term = ((TokenPointer<?>) token.getTokenType()).getPointer().getPointer();
+                    if (!termsByHolder.get(holder).contains(term)) {
+                        throw new FlowException("Bond token of term " + term + " was not asked for");
+                    }
+                    tokensByHolder.computeIfAbsent(holder, key -> new HashMap<>())
+                            .merge(term, token.getAmount().getQuantity(), Long::sum);
+                    tokensToRedeemByTerm.computeIfAbsent(term, key -> new ArrayList<>())
+                            .add((StateAndRef<AbstractToken>) (StateAndRef<?>) tokenRef);
+                }
+            }
+
+            //Redemption payment = parvalue * tokens + final coupon
+            progressTracker.setCurrentStep(CALCULATE_REDEMPTION);
+            TransactionBuilder txBuilder = new TransactionBuilder(bonds.get(0).getState().getNotary());
+            List<PublicKey> signers = new ArrayList<>();
+            signers.add(me.getOwningKey());
+            List<TransferTokenFlow.TransferLeg> redemptionLegs = new ArrayList<>();
+            Map<Party, Set<UniqueIdentifier>> paidTerms = new HashMap<>();
+            for (StateAndRef<BondState> bondRef : bonds) {
+                BondState bs = bondRef.getState().getData();
+                Party holder = bs.getInvestor();
+                // bonds of a term share par value, rate and schedule, and a holder's tokens of the term are paid once
+                if (paidTerms.computeIfAbsent(holder, key -> new HashSet<>()).add(bs.getTermStateLinearID())) {
+                    long tokens = tokensByHolder.getOrDefault(holder, Collections.emptyMap())
+                            .getOrDefault(bs.getTermStateLinearID(), 0L);
+                    if (tokens > 0) {
+                        double redemption = redemptionAmount(bs, tokens, redemptionDate);
+                        log.info("{}$ redemption to be send to bond holder for {} tokens", redemption, tokens);
+                        redemptionLegs.add(new TransferTokenFlow.TransferLeg(holder, String.valueOf(redemption), currency));
+                    }
+                }
+
+                progressTracker.setCurrentStep(UPDATE_STATES);
+                txBuilder.addInputState(bondRef);
+                txBuilder.addOutputState(new BondState(
+                        me, holder, bs.getInterestRate(), bs.getParValue(),
+                        bs.getMaturityDate(), bs.getCreditRating(), 0,
+                        BondStatus.MATURED.name(), bs.getBondType(), bs.getCurrency(),
+                        bs.getBondName(), bs.getTermStateLinearID(), bs.getLinearId(),
+                        bs.getPaymentFrequencyInMonths(), bs.getIssueDate(), ""));
+                if (!signers.contains(holder.getOwningKey())) {
+                    signers.add(holder.getOwningKey());
+                }
+            }
+            txBuilder.addCommand(new BondContract.Commands.Redeem(), signers);
+            for (List<StateAndRef<AbstractToken>> termTokens : tokensToRedeemByTerm.values()) {
+                RedeemTokensUtilities.addTokensToRedeem(txBuilder, termTokens, null);
+            }
+
+            progressTracker.setCurrentStep(SEND_CASH);
+            // redemptions are netted per holder the same way as a multi-leg cash transfer
+            Map<Party, BigDecimal> nettedRedemptions = TransferTokenFlow.netLegs(redemptionLegs).get(currency);
+            if (nettedRedemptions != null) {
+                TokenPointer<CashState> cashPointer = TransferTokenFlow.queryCashPointer(currency, getServiceHub());
+                List<PartyAndAmount<TokenType>> payouts = TransferTokenFlow.toPartyAndAmounts(nettedRedemptions,
+                        cashPointer);
+                if (!payouts.isEmpty()) {
+                    QueryCriteria heldByMeCriteria = QueryUtilities.heldTokenAmountCriteria(cashPointer, me);
+                    MoveTokensUtilities.addMoveFungibleTokens(txBuilder, getServiceHub(), payouts, me, heldByMeCriteria);
+                }
+            }
+
+            progressTracker.setCurrentStep(SIGNING_TRANSACTIONS);
+            txBuilder.verify(getServiceHub());
+            SignedTransaction ptx = getServiceHub().signInitialTransaction(txBuilder);
+            SignedTransaction stx = subFlow(new CollectSignaturesFlow(ptx, holderSessions));
+
+            List<FlowSession> finalitySessions = new ArrayList<>(holderSessions);
+            for (Party observer : bondObservers) {
+                FlowSession observerSession = initiateFlow(observer);
+                // an empty list tells the responder it is only an observer of this transaction
+                observerSession.send(new ArrayList<CouponPaymentFlow.CouponPaymentNotification>());
+                finalitySessions.add(observerSession);
+            }
+            SignedTransaction finalTx = subFlow(new FinalityFlow(stx, finalitySessions));
+
+            long elapsedMs = System.currentTimeMillis() - start;
+            log.info("Redeemed {} {} bonds of {} holders in {} ms with transactionId: {}",
+                    bonds.size(), currency, holderSessions.size(), elapsedMs, finalTx.getId());
+            return String.format("{" +
+                            "\"currency\":\"%s\"," +
+                            "\"bonds\":%d," +
+                            "\"holders\":%d," +
+                            "\"transactionId\":\"%s\"," +
+                            "\"elapsedMs\":%d" +
+                            "}",
+                    currency,
+                    bonds.size(),
+                    holderSessions.size(),
+                    finalTx.getId(),
+                    elapsedMs);
+        }
+
+        /**
+         * Principal plus final coupon owed on tokens bond tokens of the term of bs redeemed on redemptionDate.
+         */
+        protected double redemptionAmount(BondState bs, long tokens, LocalDate redemptionDate) {
+            return owedOnRedemption(bs, tokens, redemptionDate);
+        }
+
+        static double owedOnRedemption(BondState bs, long tokens, LocalDate redemptionDate) {
+            LocalDate nCouponDate = bs.getNextCouponDate().isEmpty()
+                    ? redemptionDate
+                    : LocalDate.parse(bs.getNextCouponDate(), locateDateformat);
+            return CouponPaymentUtil.getRedemptionAmount(bs.getParValue(), bs.getInterestRate(),
+                    bs.getPaymentFrequencyInMonths(), bs.getCouponPaymentLeft(), nCouponDate, redemptionDate, 30,
+                    tokens);
+        }
+    }
+
+    @InitiatedBy(BatchRedeemInitiator.class)
+    public static class BatchRedeemResponder extends TimedFlowLogic<SignedTransaction> {
+        private static final Logger log = LoggerFactory.getLogger(BatchRedeemResponder.class);
+        private final FlowSession bondIssuerSession;
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                QUERY_BOND_TOKENS,
+                SEND_BOND_TOKENS,
+                SIGNING_TRANSACTIONS,
+                DONE
+        );
+
+        private static final ProgressTracker.Step QUERY_BOND_TOKENS = new ProgressTracker
+                .Step("Query Bond Tokens held");
+        private static final ProgressTracker.Step SEND_BOND_TOKENS = new ProgressTracker
+                .Step("Send Bond Tokens held to the Bond Issuer");
+        private static final ProgressTracker.Step SIGNING_TRANSACTIONS = new ProgressTracker
+                .Step("Signing Transaction");
+        private static final ProgressTracker.Step DONE = new ProgressTracker
+                .Step("Done Processing Responder Flow");
+
+        public BatchRedeemResponder(FlowSession bondIssuerSession) {
+            this.bondIssuerSession = bondIssuerSession;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Override
+        @Suspendable
+        @SuppressWarnings("unchecked")
+        protected SignedTransaction doCall() throws FlowException {
+            List<CouponPaymentFlow.CouponPaymentNotification> notifications = bondIssuerSession.receive(List.class)
+                    .unwrap(data -> (List<CouponPaymentFlow.CouponPaymentNotification>) data);
+            if (notifications.isEmpty()) {
+                log.info("Recording redemption from {} as observer",
+                        bondIssuerSession.getCounterparty().getName().getCommonName());
+                return subFlow(new ReceiveFinalityFlow(bondIssuerSession, null, StatesToRecord.ALL_VISIBLE));
+            }
+
+            progressTracker.setCurrentStep(QUERY_BOND_TOKENS);
+            Party me = getOurIdentity();
+            Party bondIssuer = bondIssuerSession.getCounterparty();
+            Set<String> notifiedBonds = new HashSet<>();
+            Set<String> terms = new LinkedHashSet<>();
+            for (CouponPaymentFlow.CouponPaymentNotification cpn : notifications) {
+                if (!cpn.isRedeem()) {
+                    throw new FlowException("Expected a redemption for bond " + cpn.getBondLinearID());
+                }
+                notifiedBonds.add(cpn.getBondLinearID());
+                terms.add(cpn.getTermLinearId());
+            }
+            List<StateAndRef<?>> heldTokens = new ArrayList<>();
+            Map<UniqueIdentifier, Long> sentTokens = new HashMap<>();
+            for (String term : terms) {
+                StateAndRef<TermState> termStateRef;
+                try {
+                    termStateRef = CustomQuery.queryAllTermsByTermStateLinearID(
+                            UniqueIdentifier.Companion.fromString(term), getServiceHub());
+                } catch (IllegalArgumentException e) {
+                    termStateRef = null;
+                }
+                if (termStateRef == null) {
+                    throw new FlowException("No TermState " + term + " to redeem bonds of");
+                }
+                TermState termState = termStateRef.getState().getData();
+                for (StateAndRef<FungibleToken> tokenRef : queryHeldBondTokens(termState.toPointer(), me, bondIssuer)) {
+                    heldTokens.add(tokenRef);
+                    sentTokens.merge(termState.getLinearId(),
+                            tokenRef.getState().getData().getAmount().getQuantity(), Long::sum);
+                }
+            }
+
+            progressTracker.setCurrentStep(SEND_BOND_TOKENS);
+            subFlow(new SendStateAndRefFlow(bondIssuerSession, heldTokens));
+
+            progressTracker.setCurrentStep(SIGNING_TRANSACTIONS);
+            SignedTransaction signedTx = subFlow(new SignRedemptionBatchFlow(bondIssuerSession, notifiedBonds,
+                    sentTokens));
+            progressTracker.setCurrentStep(DONE);
+            return subFlow(new ReceiveFinalityFlow(bondIssuerSession, signedTx.getId()));
+        }
+
+        private List<StateAndRef<FungibleToken>> queryHeldBondTokens(TokenPointer<TermState> pointer, Party holder,
+                                                                     Party issuer) {
+            QueryCriteria criteria = QueryUtilities.heldTokenAmountCriteria(pointer, holder)
+                    .and(QueryUtilities.tokenAmountWithIssuerCriteria(pointer, issuer));
+            List<StateAndRef<FungibleToken>> tokens = new ArrayList<>();
+            int page = DEFAULT_PAGE_NUM;
+            Vault.Page<FungibleToken> result;
+            do {
+                result = getServiceHub().getVaultService().queryBy(FungibleToken.class, criteria,
+                        new PageSpecification(page++, QueryPage.MAX_PAGE_SIZE));
+                tokens.addAll(result.getStates());
+            } while (!result.getStates().isEmpty() && tokens.size() < result.getTotalStatesAvailable());
+            return tokens;
+        }
+    }
+
+    /**
+     * Only signs a Redeem transaction whose bonds held by us are the ones we were notified about, which redeems exactly
+     * the bond tokens we sent of each term and pays us at least the principal plus final coupon owed on them. The
+     * coupon owed is the one accrued by the earlier of the bond's maturity date and yesterday, a day of slack for
+     * issuer and holder clocks on either side of midnight.
+     */
+    private static class SignRedemptionBatchFlow extends SignTransactionFlow {
+        private final static DateTimeFormatter locateDateformat = DateTimeFormatter.ofPattern("yyyyMMdd");
+        private final Set<String> notifiedBonds;
+        private final Map<UniqueIdentifier, Long> sentTokens;
+
+        private SignRedemptionBatchFlow(FlowSession otherSideSession, Set<String> notifiedBonds,
+                                        Map<UniqueIdentifier, Long> sentTokens) {
+            super(otherSideSession);
+            this.notifiedBonds = notifiedBonds;
+            this.sentTokens = sentTokens;
+        }
+
+        @Override
+        @Suspendable
+        protected void checkTransaction(SignedTransaction stx) throws FlowException {
+            boolean redeem = stx.getTx().getCommands().stream()
+                    .anyMatch(command -> command.getValue() instanceof BondContract.Commands.Redeem);
+            if (!redeem) {
+                throw new FlowException("Redemption batch must carry a Redeem command");
+            }
+            Party me = getOurIdentity();
+            for (BondState bondState : stx.getTx().outputsOfType(BondState.class)) {
+                if (bondState.getInvestor().equals(me)
+                        && !notifiedBonds.contains(bondState.getLinearId().toString())) {
+                    throw new FlowException("Unexpected bond " + bondState.getLinearId() + " in redemption batch");
+                }
+            }
+            LedgerTransaction ltx;
+            try {
+                ltx = stx.toLedgerTransaction(getServiceHub(), false);
+            } catch (Exception e) {
+                throw new FlowException("Could not resolve the redemption batch: " + e.getMessage());
+            }
+
+            // bond tokens of ours redeemed by the batch, per term
+            Map<UniqueIdentifier, Long> redeemedTokens = new HashMap<>();
+            for (FungibleToken token : ltx.inputsOfType(FungibleToken.class)) {
+                UniqueIdentifier term = termOf(token);
+                if (term != null && token.getHolder().equals(me)) {
+                    redeemedTokens.merge(term, token.getAmount().getQuantity(), Long::sum);
+                }
+            }
+            for (FungibleToken token : ltx.outputsOfType(FungibleToken.class)) {
+                UniqueIdentifier term = termOf(token);
+                if (term != null && token.getHolder().equals(me)) {
+                    redeemedTokens.merge(term, -token.getAmount().getQuantity(), Long::sum);
+                }
+            }
+            redeemedTokens.values().removeIf(quantity -> quantity == 0);
+            if (!redeemedTokens.equals(sentTokens)) {
+                throw new FlowException("Redemption batch redeems " + redeemedTokens + " bond tokens, we sent "
+                        + sentTokens);
+            }
+
+            // what we are owed, by currency, for the bond tokens we sent of each term
+            LocalDate yesterday = LocalDate.now().minusDays(1);
+            Map<String, BigDecimal> owed = new HashMap<>();
+            Set<UniqueIdentifier> owedTerms = new HashSet<>();
+            for (BondState bs : ltx.inputsOfType(BondState.class)) {
+                Long tokens = sentTokens.get(bs.getTermStateLinearID());
+                if (!bs.getInvestor().equals(me) || tokens == null || !owedTerms.add(bs.getTermStateLinearID())) {
+                    continue;
+                }
+                LocalDate maturity = LocalDate.parse(bs.getMaturityDate(), locateDateformat);
+                LocalDate redemptionDate = maturity.isBefore(yesterday) ? maturity : yesterday;
+                owed.merge(bs.getCurrency(), new BigDecimal(String.valueOf(
+                        BatchRedeemInitiator.owedOnRedemption(bs, tokens, redemptionDate))), BigDecimal::add);
+            }
+
+            // what the batch pays us, by currency of the cash tokens it moves to us
+            Map<UniqueIdentifier, CashState> cashTypes = new HashMap<>();
+            for (StateAndRef<CashState> cashRef : getServiceHub().getVaultService().queryBy(CashState.class).getStates()) {
+                cashTypes.put(cashRef.getState().getData().getLinearId(), cashRef.getState().getData());
+            }
+            for (CashState cashState : ltx.referenceInputsOfType(CashState.class)) {
+                cashTypes.put(cashState.getLinearId(), cashState);
+            }
+            Map<String, Long> paid = new HashMap<>();
+            for (FungibleToken token : ltx.outputsOfType(FungibleToken.class)) {
+                CashState cash = cashOf(token, cashTypes);
+                if (cash != null && token.getHolder().equals(me)) {
+                    paid.merge(cash.getCurrencyCode(), token.getAmount().getQuantity(), Long::sum);
+                }
+            }
+            for (FungibleToken token : ltx.inputsOfType(FungibleToken.class)) {
+                CashState cash = cashOf(token, cashTypes);
+                if (cash != null && token.getHolder().equals(me)) {
+                    paid.merge(cash.getCurrencyCode(), -token.getAmount().getQuantity(), Long::sum);
+                }
+            }
+            for (Map.Entry<String, BigDecimal> currencyOwed : owed.entrySet()) {
+                CashState cash = cashTypes.values().stream()
+                        .filter(cashState -> cashState.getCurrencyCode().equals(currencyOwed.getKey()))
+                        .findFirst()
+                        .orElseThrow(() -> new FlowException("Redemption batch pays no "
+                                + currencyOwed.getKey()));
+                long owedQuantity = Amount.fromDecimal(currencyOwed.getValue(), cash.toPointer()).getQuantity();
+                if (paid.getOrDefault(currencyOwed.getKey(), 0L) < owedQuantity) {
+                    throw new FlowException("Redemption batch pays " + currencyOwed.getKey() + " "
+                            + paid.getOrDefault(currencyOwed.getKey(), 0L) + ", at least " + owedQuantity
+                            + " is owed");
+                }
+            }
+        }
+
+        /**
+         * The term of a bond token, null for any other token.
+         */
+        private static UniqueIdentifier termOf(FungibleToken token) {
+            if (token.getTokenType() instanceof TokenPointer
+                    && TermState.class.equals(((TokenPointer<?>) token.getTokenType()).getPointer().getType())) {
+                return ((TokenPointer<?>) token.getTokenType()).getPointer().getPointer();
+            }
+            return null;
+        }
+
+        /**
+         * The cash a cash token is of, null for any other token.
+         */
+        private static CashState cashOf(FungibleToken token, Map<UniqueIdentifier, CashState> cashTypes) {
+            if (token.getTokenType() instanceof TokenPointer) {
+                return cashTypes.get(((TokenPointer<?>) token.getTokenType()).getPointer().getPointer());
+            }
+            return null;
+        }
+    }
 }
@@ -0,0 +1,158 @@
+package com.jtk.corda.workflows.bond.coupons;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.jtk.corda.contracts.bond.coupons.CouponPaymentContract;
+import com.jtk.corda.states.bond.coupons.CouponPaymentState;
+import com.jtk.corda.workflows.services.CouponRunLock;
+import com.jtk.corda.workflows.services.CouponScheduleService;
+import com.jtk.corda.workflows.services.TimedFlowLogic;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.flows.FinalityFlow;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.SchedulableFlow;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.ProgressTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.jtk.corda.contracts.bond.coupons.CouponPaymentContract.Commands.PayCoupons;
+
+/**
+ * Run of an issuer's coupon schedule, started by the node when its {@link CouponPaymentState} falls due.
+ * Every coupon date up to today on which the issuer still has bonds due is paid with {@link BatchCouponPaymentFlow},
+ * oldest first, so dates missed while the node was down are caught up. The schedule is then consumed and re-emitted
+ * for its next run. When another coupon run holds the {@link CouponRunLock}, or the coupon schedule index is still
+ * loading, nothing is paid and the next run picks the dates up.
+ */
+@SchedulableFlow
+public class ScheduledCouponPaymentFlow extends TimedFlowLogic<String> {
+    private static final Logger log = LoggerFactory.getLogger(ScheduledCouponPaymentFlow.class);
+    private final static DateTimeFormatter locateDateformat = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final StateRef scheduleRef;
+
+    private final ProgressTracker progressTracker = new ProgressTracker(
+            FETCH_SCHEDULE,
+            PAY_COUPONS,
+            RESCHEDULE,
+            DONE
+    );
+
+    private static final ProgressTracker.Step FETCH_SCHEDULE = new ProgressTracker
+            .Step("Fetch Coupon Payment schedule");
+
+    private static final ProgressTracker.Step PAY_COUPONS = new ProgressTracker
+            .Step("Paying coupons due");
+
+    private static final ProgressTracker.Step RESCHEDULE = new ProgressTracker
+            .Step("Scheduling the next coupon run");
+
+    private static final ProgressTracker.Step DONE = new ProgressTracker
+            .Step("Done Processing Flow");
+
+    public ScheduledCouponPaymentFlow(StateRef scheduleRef) {
+        this.scheduleRef = scheduleRef;
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Override
+    @Suspendable
+    protected String doCall() throws FlowException {
+        progressTracker.setCurrentStep(FETCH_SCHEDULE);
+        QueryCriteria unconsumed = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED)
+                .withStateRefs(Collections.singletonList(scheduleRef));
+        List<StateAndRef<CouponPaymentState>> schedules = getServiceHub().getVaultService()
+                .queryBy(CouponPaymentState.class, unconsumed).getStates();
+        if (schedules.isEmpty()) {
+            log.info("Coupon schedule {} has already been replaced, nothing to run", scheduleRef);
+            return "{}";
+        }
+        StateAndRef<CouponPaymentState> schedule = schedules.get(0);
+        CouponPaymentState current = schedule.getState().getData();
+        Party me = getOurIdentity();
+        if (!current.getIssuer().equals(me)) {
+            throw new FlowException("Only the issuer can run its coupon schedule");
+        }
+
+        progressTracker.setCurrentStep(PAY_COUPONS);
+        String today = locateDateformat.format(LocalDate.now());
+        List<String> paidDates = payCouponsDueBy(today, me);
+        String lastCouponDate = paidDates.isEmpty()
+                ? current.getLastCouponDate()
+                : paidDates.get(paidDates.size() - 1);
+
+        progressTracker.setCurrentStep(RESCHEDULE);
+        CouponPaymentState next = current.next(lastCouponDate);
+        TransactionBuilder txBuilder = new TransactionBuilder(schedule.getState().getNotary())
+                .addInputState(schedule)
+                .addOutputState(next, CouponPaymentContract.contractID)
+                .addCommand(new PayCoupons(), me.getOwningKey());
+        txBuilder.verify(getServiceHub());
+        SignedTransaction signedTx = getServiceHub().signInitialTransaction(txBuilder);
+        SignedTransaction finalTx = subFlow(new FinalityFlow(signedTx, Collections.emptyList()));
+        log.info("Coupon run paid couponDates {}, next run at {} with transactionId: {}",
+                paidDates, next.getNextActivityTime(), finalTx.getId());
+
+        progressTracker.setCurrentStep(DONE);
+        return String.format("{" +
+                        "\"issuer\":\"%s\"," +
+                        "\"couponDates\":[%s]," +
+                        "\"lastCouponDate\":\"%s\"," +
+                        "\"nextActivityTime\":\"%s\"" +
+                        "}",
+                me.getName().getCommonName(),
+                paidDates.stream().map(date -> "\"" + date + "\"").collect(Collectors.joining(",")),
+                lastCouponDate,
+                next.getNextActivityTime());
+    }
+
+    /**
+     * Pays the coupon dates due by today in order and returns those paid. A failed date stops the run, as the dates
+     * after it would be paid out of order, and is retried by the next run.
+     */
+    @Suspendable
+    private List<String> payCouponsDueBy(String today, Party me) {
+        List<String> paidDates = new ArrayList<>();
+        CouponScheduleService couponSchedule = getServiceHub().cordaService(CouponScheduleService.class);
+        if (!couponSchedule.isReady()) {
+            log.info("Coupon schedule is still loading, coupons due by {} are left to the next run", today);
+            return paidDates;
+        }
+        CouponRunLock runLock = getServiceHub().cordaService(CouponRunLock.class);
+        if (!runLock.tryLock(getRunId())) {
+            log.info("A coupon run is in progress, coupons due by {} are left to the next run", today);
+            return paidDates;
+        }
+        try {
+            for (String couponDate : couponSchedule.getCouponDatesDueBy(today, me)) {
+                try {
+                    String report = subFlow(new BatchCouponPaymentFlow(couponDate));
+                    log.info("Scheduled coupon payment for couponDate {}: {}", couponDate, report);
+                    paidDates.add(couponDate);
+                } catch (FlowException e) {
+                    log.error("Scheduled coupon payment failed for couponDate {}", couponDate, e);
+                    break;
+                }
+            }
+        } finally {
+            runLock.unlock(getRunId());
+        }
+        return paidDates;
+    }
+}
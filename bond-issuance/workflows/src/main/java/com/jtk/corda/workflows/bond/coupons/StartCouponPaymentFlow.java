@@ -1,12 +1,16 @@
 package com.jtk.corda.workflows.bond.coupons;
 
+import co.paralleluniverse.fibers.Suspendable;
+import com.jtk.corda.CordaParties;
 import com.jtk.corda.contracts.bond.coupons.CouponPaymentContract;
 import static com.jtk.corda.contracts.bond.coupons.CouponPaymentContract.Commands.PayCoupons;
 import com.jtk.corda.states.bond.coupons.CouponPaymentState;
+import com.jtk.corda.workflows.services.TimedFlowLogic;
 import net.corda.core.contracts.CommandData;
 import net.corda.core.flows.FinalityFlow;
 import net.corda.core.flows.FlowException;
-import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.identity.Party;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
@@ -15,8 +19,12 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
 
-// Not working for some reason!!
-public class StartCouponPaymentFlow extends FlowLogic<Void> {
+/**
+ * Starts the issuer's coupon schedule. The {@link CouponPaymentState} it records makes the node run
+ * {@link ScheduledCouponPaymentFlow} every schedulePeriodInSeconds; an issuer has one schedule at a time.
+ */
+@StartableByRPC
+public class StartCouponPaymentFlow extends TimedFlowLogic<Void> {
     private static final Logger log = LoggerFactory.getLogger(StartCouponPaymentFlow.class);
     private final ProgressTracker progressTracker = tracker();
 
@@ -44,14 +52,31 @@ public class StartCouponPaymentFlow extends FlowLogic<Void> {
     }
 
     @Override
-    public Void call() throws FlowException {
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Override
+    @Suspendable
+    protected Void doCall() throws FlowException {
+        if (schedulePeriodInSeconds <= 0) {
+            throw new FlowException("schedulePeriodInSeconds must be greater than zero");
+        }
+        Party me = getOurIdentity();
+        boolean scheduled = getServiceHub().getVaultService().queryBy(CouponPaymentState.class).getStates().stream()
+                .anyMatch(sr -> sr.getState().getData().getIssuer().equals(me));
+        if (scheduled) {
+            throw new FlowException("Coupon payments are already scheduled for " + me.getName().getCommonName());
+        }
         log.info("Start Coupon Payment every {} seconds", this.schedulePeriodInSeconds);
         progressTracker.setCurrentStep(GENERATING_TRANSACTION);
-        CouponPaymentState couponPaymentState = new CouponPaymentState(getOurIdentity(), this.schedulePeriodInSeconds);
+        CouponPaymentState couponPaymentState = new CouponPaymentState(me, this.schedulePeriodInSeconds);
         CommandData cmd = new PayCoupons();
-        TransactionBuilder txBuilder = new TransactionBuilder(getServiceHub().getNetworkMapCache().getNotaryIdentities().get(0))
+        Party notary = getServiceHub().getNetworkMapCache().getNotary(CordaParties.NOTARY.getCordaX500Name());
+        TransactionBuilder txBuilder = new TransactionBuilder(notary)
                 .addOutputState(couponPaymentState, CouponPaymentContract.contractID)
-                .addCommand(cmd, getOurIdentity().getOwningKey());
+                .addCommand(cmd, me.getOwningKey());
+        txBuilder.verify(getServiceHub());
         progressTracker.setCurrentStep(SIGNING_TRANSACTION);
         SignedTransaction signedTx = getServiceHub().signInitialTransaction(txBuilder);
         progressTracker.setCurrentStep(FINALISING_TRANSACTION);
@@ -0,0 +1,49 @@
+package com.jtk.corda.workflows.bond.issuance;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.jtk.corda.workflows.services.TermAllocationService;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.utilities.ProgressTracker;
+
+import java.util.Objects;
+
+/**
+ * Switches how this issuer allocates bond requests. With coalescing on, concurrent requests for a term are queued
+ * and allocated together in batches of up to maxBatchSize; with it off every request updates the TermState itself
+ * and is rejected when the investor's TermState is not the latest one.
+ */
+@StartableByRPC
+public class BondAllocationModeFlow extends FlowLogic<String> {
+    private final ProgressTracker progressTracker = new ProgressTracker();
+    private final boolean coalescing;
+    private final int maxBatchSize;
+
+    public BondAllocationModeFlow(boolean coalescing) {
+        this(coalescing, TermAllocationService.DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public BondAllocationModeFlow(boolean coalescing, int maxBatchSize) {
+        this.coalescing = coalescing;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
+    @Override
+    @Suspendable
+    public String call() throws FlowException {
+        if (!Objects.equals(getOurIdentity().getName().getOrganisationUnit(), "Bank")) {
+            throw new FlowException("Flow can be invoked by OU=Bank only");
+        }
+        if (maxBatchSize <= 0) {
+            throw new FlowException("maxBatchSize must be greater than zero");
+        }
+        getServiceHub().cordaService(TermAllocationService.class).configure(coalescing, maxBatchSize);
+        return String.format("{\"coalescing\":%s,\"maxBatchSize\":%d}", coalescing, maxBatchSize);
+    }
+}
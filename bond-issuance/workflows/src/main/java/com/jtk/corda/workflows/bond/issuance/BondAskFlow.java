@@ -0,0 +1,117 @@
+package com.jtk.corda.workflows.bond.issuance;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.jtk.corda.workflows.services.BondAskService;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.FlowSession;
+import net.corda.core.flows.InitiatedBy;
+import net.corda.core.flows.InitiatingFlow;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.identity.Party;
+import net.corda.core.utilities.ProgressTracker;
+
+import java.util.Objects;
+
+/**
+ * The asks of a bank for the bonds it holds, which its delivery versus payment transfers are priced against.
+ */
+public class BondAskFlow {
+
+    /**
+     * Posts the lowest price per unit this bank sells bonds of a term at and how many units it sells, replacing its
+     * previous ask of the term. Posting 0 units withdraws the ask.
+     */
+    @StartableByRPC
+    public static class PostBondAsk extends FlowLogic<String> {
+        private final ProgressTracker progressTracker = new ProgressTracker();
+        private final UniqueIdentifier termId;
+        private final int unitPrice;
+        private final int units;
+
+        public PostBondAsk(UniqueIdentifier termId, int unitPrice, int units) {
+            this.termId = termId;
+            this.unitPrice = unitPrice;
+            this.units = units;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Override
+        @Suspendable
+        public String call() throws FlowException {
+            if (!Objects.equals(getOurIdentity().getName().getOrganisationUnit(), "Bank")) {
+                throw new FlowException("Flow can be invoked by OU=Bank only");
+            }
+            if (unitPrice <= 0 || units < 0) {
+                throw new FlowException("unitPrice must be greater than zero and units cannot be negative");
+            }
+            getServiceHub().cordaService(BondAskService.class).post(termId, unitPrice, units);
+            return new BondAskService.Ask(termId.toString(), unitPrice, units).toJson();
+        }
+    }
+
+    /**
+     * Asks a bank for its ask of a term, so an ask placed on our order book for that bank can be checked against
+     * what the bank itself sells at. Answers the ask as json, with 0 units when the bank has none.
+     */
+    @InitiatingFlow
+    @StartableByRPC
+    public static class QueryBondAsk extends FlowLogic<String> {
+        private final ProgressTracker progressTracker = new ProgressTracker();
+        private final UniqueIdentifier termId;
+        private final Party seller;
+
+        public QueryBondAsk(UniqueIdentifier termId, Party seller) {
+            this.termId = termId;
+            this.seller = seller;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Override
+        @Suspendable
+        public String call() throws FlowException {
+            FlowSession sellerSession = initiateFlow(seller);
+            BondAskService.Ask ask = sellerSession.sendAndReceive(BondAskService.Ask.class, termId.toString())
+                    .unwrap(data -> {
+                        if (!data.getTermId().equals(termId.toString())) {
+                            throw new FlowException("Ask of term " + data.getTermId() + " was not asked for");
+                        }
+                        return data;
+                    });
+            return ask.toJson();
+        }
+    }
+
+    @InitiatedBy(QueryBondAsk.class)
+    public static class QueryBondAskResponder extends FlowLogic<Void> {
+        private final FlowSession buyerSession;
+
+        public QueryBondAskResponder(FlowSession buyerSession) {
+            this.buyerSession = buyerSession;
+        }
+
+        @Override
+        @Suspendable
+        public Void call() throws FlowException {
+            String termId = buyerSession.receive(String.class).unwrap(it -> it);
+            BondAskService.Ask ask = null;
+            try {
+                ask = getServiceHub().cordaService(BondAskService.class)
+                        .ask(UniqueIdentifier.Companion.fromString(termId));
+            } catch (IllegalArgumentException e) {
+                // not a term id, so no ask of ours
+            }
+            buyerSession.send(ask != null ? ask : new BondAskService.Ask(termId, 0, 0));
+            return null;
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package com.jtk.corda.workflows.bond.issuance;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import com.jtk.corda.CordaParties;
+import com.jtk.corda.states.bond.issuance.BondState;
+import com.jtk.corda.states.bond.issuance.TermState;
+import com.jtk.corda.workflows.cash.issuance.TransferTokenFlow;
+import com.jtk.corda.workflows.services.TimedFlowLogic;
+import com.jtk.corda.workflows.utils.CouponPaymentUtil;
+import com.jtk.corda.workflows.utils.CustomQuery;
+import com.jtk.corda.workflows.utils.Utility;
+import com.r3.corda.lib.tokens.contracts.states.AbstractToken;
+import com.r3.corda.lib.tokens.contracts.types.EvolvableTokenType;
+import com.r3.corda.lib.tokens.workflows.flows.rpc.CreateEvolvableTokens;
+import com.r3.corda.lib.tokens.workflows.flows.rpc.IssueTokens;
+import com.r3.corda.lib.tokens.workflows.flows.rpc.UpdateEvolvableToken;
+import com.r3.corda.lib.tokens.workflows.utilities.FungibleTokenBuilder;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FinalityFlow;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowSession;
+import net.corda.core.flows.InitiatedBy;
+import net.corda.core.flows.InitiatingFlow;
+import net.corda.core.flows.ReceiveFinalityFlow;
+import net.corda.core.flows.ReceiveStateAndRefFlow;
+import net.corda.core.flows.SendStateAndRefFlow;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.ConstructorForDeserialization;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.utilities.ProgressTracker;
+import net.corda.core.utilities.UntrustworthyData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Buys bonds of many terms in one flow. Purchases are grouped by issuer and each issuer gets one session, over which
+ * all of its terms are requested at once. Every issuer is sent its requests before the first TermStates are sent, so
+ * the issuers validate and issue in parallel, and the investor pays them all with one cash transfer per currency.
+ * On the wire a request is a {@link RequestForBondResponderFlow.BondRequestNotification} per TermState, in the same
+ * order as the TermStates, and the issuer answers with one per TermState as well.
+ */
+public class BulkRequestForBondFlow {
+
+    @InitiatingFlow
+    @StartableByRPC
+    public static class BulkRequestForBondInitiator extends TimedFlowLogic<String> {
+        private static final Logger log = LoggerFactory.getLogger(BulkRequestForBondInitiator.class);
+        private final List<BondPurchase> purchases;
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                AUTHORIZATION,
+                FETCH_STATES,
+                SEND_BOND_ISSUE_REQUEST,
+                RECEIVE_BOND_ISSUE_RESPONSE,
+                SEND_CASH,
+                SIGNING_TRANSACTIONS,
+                DONE
+        );
+        private static final ProgressTracker.Step AUTHORIZATION = new ProgressTracker
+                .Step("Validating Authorized Nodes");
+        private static final ProgressTracker.Step FETCH_STATES = new ProgressTracker
+                .Step("Fetch Term States");
+        private static final ProgressTracker.Step SEND_BOND_ISSUE_REQUEST = new ProgressTracker
+                .Step("Sending notifications to term issuers for issuing Bonds");
+        private static final ProgressTracker.Step RECEIVE_BOND_ISSUE_RESPONSE = new ProgressTracker
+                .Step("Receiving responses of term issuers");
+        private static final ProgressTracker.Step SEND_CASH = new ProgressTracker
+                .Step("Sending digital currency");
+        private static final ProgressTracker.Step SIGNING_TRANSACTIONS = new ProgressTracker
+                .Step("Recording issued Bond Fungible-Tokens");
+        private static final ProgressTracker.Step DONE = new ProgressTracker
+                .Step("Done Processing Flow");
+
+        public BulkRequestForBondInitiator(List<BondPurchase> purchases) {
+            this.purchases = purchases;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        @SuppressWarnings("unchecked")
+        protected String doCall() throws FlowException {
+            long start = System.currentTimeMillis();
+            progressTracker.setCurrentStep(AUTHORIZATION);
+            Party investorParty = getOurIdentity();
+            if (!Objects.equals(investorParty.getName().getOrganisationUnit(), "Bank")) {
+                throw new FlowException("Flow can be invoked by OU=Bank only");
+            }
+            if (purchases == null || purchases.isEmpty()) {
+                throw new FlowException("No bonds requested");
+            }
+
+            // units of the same term are requested together
+            progressTracker.setCurrentStep(FETCH_STATES);
+            Map<UniqueIdentifier, Integer> unitsByTerm = new LinkedHashMap<>();
+            for (BondPurchase purchase : purchases) {
+                if (purchase.getUnits() <= 0) {
+                    throw new FlowException("Units requested for " + purchase.getTermId() + " must be positive");
+                }
+                unitsByTerm.merge(UniqueIdentifier.Companion.fromString(purchase.getTermId()), purchase.getUnits(),
+                        Integer::sum);
+            }
+            Map<Party, List<StateAndRef<TermState>>> termsByIssuer = new LinkedHashMap<>();
+            for (Map.Entry<UniqueIdentifier, Integer> termUnits : unitsByTerm.entrySet()) {
+                StateAndRef<TermState> termStateAndRef = CustomQuery.queryActiveTermsByTermStateLinearID
+                        (termUnits.getKey(), getServiceHub());
+                if (termStateAndRef == null) {
+                    throw new FlowException(termUnits.getKey() + ": not found!!");
+                }
+                TermState termState = termStateAndRef.getState().getData();
+                if (termUnits.getValue() > termState.getUnitsAvailable()) {
+                    throw new FlowException("Requesting for more bonds than available for the term " +
+                            termUnits.getKey());
+                }
+                if (termState.getIssuer().equals(investorParty)) {
+                    throw new FlowException("Issuer cannot be investor of the bond " + termUnits.getKey());
+                }
+                termsByIssuer.computeIfAbsent(termState.getIssuer(), issuer -> new ArrayList<>()).add(termStateAndRef);
+            }
+
+            // every issuer gets its requests before any of them is sent its TermStates
+            progressTracker.setCurrentStep(SEND_BOND_ISSUE_REQUEST);
+            Map<FlowSession, Object> requestsBySession = new LinkedHashMap<>();
+            Map<FlowSession, List<StateAndRef<TermState>>> termsBySession = new LinkedHashMap<>();
+            for (Map.Entry<Party, List<StateAndRef<TermState>>> issuerTerms : termsByIssuer.entrySet()) {
+                FlowSession session = initiateFlow(issuerTerms.getKey());
+                List<RequestForBondResponderFlow.BondRequestNotification> requests = issuerTerms.getValue().stream()
+                        .map(termRef -> new RequestForBondResponderFlow.BondRequestNotification(investorParty,
+                                unitsByTerm.get(termRef.getState().getData().getLinearId()), "PENDING", ""))
+                        .collect(Collectors.toList());
+                requestsBySession.put(session, requests);
+                termsBySession.put(session, issuerTerms.getValue());
+            }
+            List<FlowSession> issuerSessions = new ArrayList<>(termsBySession.keySet());
+            sendAllMap(requestsBySession);
+            for (FlowSession session : issuerSessions) {
+                subFlow(new SendStateAndRefFlow(session, new ArrayList<>(termsBySession.get(session))));
+            }
+
+            progressTracker.setCurrentStep(RECEIVE_BOND_ISSUE_RESPONSE);
+            List<UntrustworthyData<List>> issuerReplies = receiveAll(List.class, issuerSessions);
+            List<TransferTokenFlow.TransferLeg> payments = new ArrayList<>();
+            List<FlowSession> issuingSessions = new ArrayList<>();
+            List<String> lines = new ArrayList<>();
+            int unitsIssued = 0;
+            for (int i = 0; i < issuerSessions.size(); i++) {
+                FlowSession session = issuerSessions.get(i);
+                List<StateAndRef<TermState>> terms = termsBySession.get(session);
+                List<RequestForBondResponderFlow.BondRequestNotification> replies = issuerReplies.get(i)
+                        .unwrap(data -> (List<RequestForBondResponderFlow.BondRequestNotification>) data);
+                if (replies.size() != terms.size()) {
+                    throw new FlowException("Unexpected response from " + session.getCounterparty().getName());
+                }
+                boolean issued = false;
+                for (int t = 0; t < terms.size(); t++) {
+                    TermState termState = terms.get(t).getState().getData();
+                    RequestForBondResponderFlow.BondRequestNotification reply = replies.get(t);
+                    if (reply.getStatus().equalsIgnoreCase("OK")) {
+                        issued = true;
+                        unitsIssued += reply.getUnits();
+                        payments.add(new TransferTokenFlow.TransferLeg(termState.getIssuer(),
+                                String.valueOf(termState.getParValue() * reply.getUnits()), termState.getCurrency()));
+                    } else {
+                        log.warn("{} rejected request for term {}: {}",
+                                session.getCounterparty().getName().getCommonName(), termState.getLinearId(),
+                                reply.getStatus());
+                    }
+                    lines.add(String.format("{" +
+                                    "\"termId\":\"%s\"," +
+                                    "\"issuer\":\"%s\"," +
+                                    "\"units\":%d," +
+                                    "\"status\":\"%s\"," +
+                                    "\"bondIdentifier\":\"%s\"" +
+                                    "}",
+                            termState.getLinearId(),
+                            termState.getIssuer().getName().getCommonName(),
+                            reply.getUnits(),
+                            reply.getStatus(),
+                            reply.getBondLinearId()));
+                }
+                if (issued) {
+                    issuingSessions.add(session);
+                }
+            }
+
+            // one cash transfer per currency pays every issuer that issued
+            progressTracker.setCurrentStep(SEND_CASH);
+            List<String> cashTransactions = new ArrayList<>();
+            if (!payments.isEmpty()) {
+                for (SignedTransaction cashTx : subFlow(new TransferTokenFlow.MultiTransferTokenInitiator(payments))) {
+                    cashTransactions.add("\"" + cashTx.getId() + "\"");
+                }
+            }
+
+            progressTracker.setCurrentStep(SIGNING_TRANSACTIONS);
+            for (FlowSession session : issuingSessions) {
+                subFlow(new ReceiveFinalityFlow(session));
+            }
+            progressTracker.setCurrentStep(DONE);
+            return String.format("{" +
+                            "\"investor\":\"%s\"," +
+                            "\"issuers\":%d," +
+                            "\"unitsIssued\":%d," +
+                            "\"elapsedMs\":%d," +
+                            "\"cashTransactions\":%s," +
+                            "\"purchases\":%s" +
+                            "}",
+                    investorParty.getName().getCommonName(),
+                    issuerSessions.size(),
+                    unitsIssued,
+                    System.currentTimeMillis() - start,
+                    cashTransactions,
+                    lines);
+        }
+    }
+
+    @InitiatedBy(BulkRequestForBondInitiator.class)
+    public static class BulkRequestForBondResponder extends TimedFlowLogic<SignedTransaction> {
+        private static final Logger log = LoggerFactory.getLogger(BulkRequestForBondResponder.class);
+        private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyyMMdd");
+        private final FlowSession investorSession;
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                RECEIVE_TERM_STATE,
+                VALIDATE_TERM_STATE,
+                IDENTIFY_OBSERVERS,
+                UPDATE_STATES,
+                CREATE_STATES,
+                CREATE_TOKENS,
+                SEND_BOND_ISSUE_RESPONSE,
+                DONE
+        );
+        private static final ProgressTracker.Step RECEIVE_TERM_STATE = new ProgressTracker
+                .Step("Receiving Term States from Bond Requester");
+        private static final ProgressTracker.Step VALIDATE_TERM_STATE = new ProgressTracker
+                .Step("Validating Term states");
+        private static final ProgressTracker.Step IDENTIFY_OBSERVERS = new ProgressTracker
+                .Step("Identifying Observers");
+        private static final ProgressTracker.Step UPDATE_STATES = new ProgressTracker
+                .Step("Updating Term States");
+        private static final ProgressTracker.Step CREATE_STATES = new ProgressTracker
+                .Step("Creating Bond States");
+        private static final ProgressTracker.Step CREATE_TOKENS = new ProgressTracker
+                .Step("Creating Bond Fungible-Tokens");
+        private static final ProgressTracker.Step SEND_BOND_ISSUE_RESPONSE = new ProgressTracker
+                .Step("Sending response to issuing Bonds");
+        private static final ProgressTracker.Step DONE = new ProgressTracker
+                .Step("Done Processing Responder Flow");
+
+        public BulkRequestForBondResponder(FlowSession investorSession) {
+            this.investorSession = investorSession;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Suspendable
+        @Override
+        @SuppressWarnings("unchecked")
+        protected SignedTransaction doCall() throws FlowException {
+            Party bondIssuer = getOurIdentity();
+            Party investor = investorSession.getCounterparty();
+
+            progressTracker.setCurrentStep(RECEIVE_TERM_STATE);
+            List<RequestForBondResponderFlow.BondRequestNotification> requests = investorSession.receive(List.class)
+                    .unwrap(data -> (List<RequestForBondResponderFlow.BondRequestNotification>) data);
+            List<StateAndRef<TermState>> investorTermStateRefs =
+                    subFlow(new ReceiveStateAndRefFlow<>(investorSession));
+            if (requests.size() != investorTermStateRefs.size()) {
+                throw new FlowException("Expected one bond request per TermState");
+            }
+            log.info("Received bulk request from {} for {} terms", investor.getName().getCommonName(),
+                    requests.size());
+
+            progressTracker.setCurrentStep(IDENTIFY_OBSERVERS);
+            final Party notary = getServiceHub().getNetworkMapCache().getNotary(CordaParties.NOTARY.getCordaX500Name());
+            List<Party> observers = Utility.getLegalIdentitiesByOU(getServiceHub(), "Observer");
+            List<Party> termObservers = Utility.getLegalIdentitiesByOU(getServiceHub(), "Bank")
+                    .stream()
+                    .filter(party -> !Objects.equals(party.getName().getCommonName(),
+                            bondIssuer.getName().getCommonName()))
+                    .collect(Collectors.toList());
+            termObservers.addAll(observers);
+            List<Party> bondObservers = new ArrayList<>(observers);
+            bondObservers.add(bondIssuer);
+
+            LocalDate now = LocalDate.now();
+            String issueDate = dateFormatter.format(now);
+            // In order to demo coupon payment first coupon is always on the same date
+            String nCouponDate = dateFormatter.format(now);
+
+            List<RequestForBondResponderFlow.BondRequestNotification> replies = new ArrayList<>();
+            List<TransactionState<EvolvableTokenType>> newBondStates = new ArrayList<>();
+            List<AbstractToken> bondTokens = new ArrayList<>();
+            for (int i = 0; i < requests.size(); i++) {
+                RequestForBondResponderFlow.BondRequestNotification brn = requests.get(i);
+                StateAndRef<TermState> investorTermStateRef = investorTermStateRefs.get(i);
+                TermState investorTermState = investorTermStateRef.getState().getData();
+
+                progressTracker.setCurrentStep(VALIDATE_TERM_STATE);
+                StateAndRef<TermState> currentTermStateAndRef = CustomQuery.queryActiveTermsByTermStateLinearID
+                        (investorTermState.getLinearId(), getServiceHub());
+                String status = "OK";
+                if (currentTermStateAndRef == null || !investorTermState.getIssuer().equals(bondIssuer)) {
+                    status = "TermNotFound";
+                } else if (!investorTermStateRef.getRef().getTxhash()
+                        .equals(currentTermStateAndRef.getRef().getTxhash())) {
+                    status = "NotLatestTerm";
+                } else if (!brn.getInvestor().equals(investor) || brn.getUnits() <= 0) {
+                    status = "InvalidRequest";
+                } else if (investorTermState.getUnitsAvailable() < brn.getUnits()) {
+                    status = "NotEnoughUnits";
+                }
+                if (!status.equals("OK")) {
+                    replies.add(new RequestForBondResponderFlow.BondRequestNotification(investor, brn.getUnits(),
+                            status, ""));
+                    continue;
+                }
+
+                progressTracker.setCurrentStep(UPDATE_STATES);
+                Set<Party> investors = new HashSet<>(investorTermState.getInvestors());
+                investors.add(investor);
+                TermState newTermState = new TermState(
+                        investorTermState.getIssuer(), investors, investorTermState.getBondName(),
+                        investorTermState.getBondStatus(), investorTermState.getInterestRate(),
+                        investorTermState.getParValue(),
+                        investorTermState.getUnitsAvailable() - brn.getUnits(),
+                        investorTermState.getRedemptionAvailable() + brn.getUnits(),
+                        investorTermState.getLinearId(), investorTermState.getMaturityDate(),
+                        investorTermState.getBondType(), investorTermState.getCurrency(),
+                        investorTermState.getCreditRating(), investorTermState.getPaymentFrequencyInMonths());
+                subFlow(new UpdateEvolvableToken(investorTermStateRef, newTermState, termObservers));
+
+                progressTracker.setCurrentStep(CREATE_STATES);
+                List<BondState> bondIssuedByMe = CustomQuery
+                        .queryBondByTermStateLinearID(newTermState.getLinearId(), getServiceHub())
+                        .stream()
+                        .filter(bondState -> bondState.getInvestor().equals(investor))
+                        .collect(Collectors.toList());
+                UniqueIdentifier bondLinearId;
+                if (bondIssuedByMe.isEmpty()) {
+                    long numberOfPayments = CouponPaymentUtil.getCouponPayments(
+                            newTermState.getPaymentFrequencyInMonths(), 30,
+                            LocalDate.parse(newTermState.getMaturityDate(), dateFormatter), now);
+                    bondLinearId = new UniqueIdentifier();
+                    newBondStates.add(new TransactionState<>(new BondState(
+                            bondIssuer, investor, newTermState.getInterestRate(), newTermState.getParValue(),
+                            newTermState.getMaturityDate(), newTermState.getCreditRating(), numberOfPayments,
+                            newTermState.getBondStatus(), newTermState.getBondType(), newTermState.getCurrency(),
+                            newTermState.getBondName(), newTermState.getLinearId(), bondLinearId,
+                            newTermState.getPaymentFrequencyInMonths(), issueDate, nCouponDate), notary));
+                } else {
+                    bondLinearId = bondIssuedByMe.get(0).getLinearId();
+                }
+
+                progressTracker.setCurrentStep(CREATE_TOKENS);
+                bondTokens.add(new FungibleTokenBuilder()
+                        .ofTokenType(newTermState.toPointer())
+                        .issuedBy(bondIssuer)
+                        .heldBy(investor)
+                        .withAmount(brn.getUnits())
+                        .buildFungibleToken());
+                replies.add(new RequestForBondResponderFlow.BondRequestNotification(investor, brn.getUnits(),
+                        "OK", bondLinearId.toString()));
+            }
+
+            // the new BondStates of all terms are created together and the bond tokens issued in one transaction
+            SignedTransaction stx = null;
+            if (!newBondStates.isEmpty()) {
+                subFlow(new CreateEvolvableTokens(newBondStates, bondObservers));
+            }
+            if (!bondTokens.isEmpty()) {
+                stx = subFlow(new IssueTokens(bondTokens, bondObservers));
+            }
+
+            progressTracker.setCurrentStep(SEND_BOND_ISSUE_RESPONSE);
+            investorSession.send(replies);
+            progressTracker.setCurrentStep(DONE);
+            if (stx == null) {
+                log.info("No bonds issued to {}", investor.getName().getCommonName());
+                return null;
+            }
+            log.info("Issued {} terms of bonds to {} with transactionId: {}", bondTokens.size(),
+                    investor.getName().getCommonName(), stx.getId());
+            return subFlow(new FinalityFlow(stx, ImmutableList.of(investorSession)));
+        }
+    }
+
+    @CordaSerializable
+    public static class BondPurchase {
+        private final String termId;
+        private final int units;
+
+        @ConstructorForDeserialization
+        public BondPurchase(String termId, int units) {
+            this.termId = termId;
+            this.units = units;
+        }
+
+        public String getTermId() {
+            return termId;
+        }
+
+        public int getUnits() {
+            return units;
+        }
+    }
+}
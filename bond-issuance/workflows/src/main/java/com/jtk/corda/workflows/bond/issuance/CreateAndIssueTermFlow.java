@@ -4,17 +4,16 @@ import co.paralleluniverse.fibers.Suspendable;
 import com.jtk.corda.CordaParties;
 import com.jtk.corda.contants.BondStatus;
 import com.jtk.corda.states.bond.issuance.TermState;
+import com.jtk.corda.workflows.services.TimedFlowLogic;
 import com.jtk.corda.workflows.utils.Utility;
 import com.r3.corda.lib.tokens.workflows.flows.rpc.CreateEvolvableTokens;
 import net.corda.core.contracts.TransactionState;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.flows.FlowException;
-import net.corda.core.flows.FlowLogic;
 import net.corda.core.flows.InitiatingFlow;
 import net.corda.core.flows.StartableByRPC;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.IdentityService;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.utilities.ProgressTracker;
 import org.slf4j.Logger;
@@ -30,7 +29,7 @@ import java.util.stream.Collectors;
 
 @InitiatingFlow
 @StartableByRPC
-public class CreateAndIssueTermFlow extends FlowLogic<String> {
+public class CreateAndIssueTermFlow extends TimedFlowLogic<String> {
     private final String bondName; // Name of bond cannot be changed
     private final double interestRate; // current interest rate for the bonds
     private final int parValue; // current price of the bond
@@ -78,9 +77,14 @@ public class CreateAndIssueTermFlow extends FlowLogic<String> {
         this.paymentFrequencyInMonths = paymentFrequencyInMonths;
     }
 
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
     @Override
     @Suspendable
-    public String call() throws FlowException {
+    protected String doCall() throws FlowException {
         // Sample specific - retrieving the hard-coded observers
         progressTracker.setCurrentStep(AUTHORIZATION);
 
@@ -91,13 +95,12 @@ public class CreateAndIssueTermFlow extends FlowLogic<String> {
         }
         progressTracker.setCurrentStep(IDENTIFY_OBSERVERS);
         CordaX500Name notaryX500Name = CordaParties.NOTARY.getCordaX500Name();
-        IdentityService identityService = getServiceHub().getIdentityService();
-        List<Party> otherBanks = Utility.getLegalIdentitiesByOU(identityService, "Bank")
+        List<Party> otherBanks = Utility.getLegalIdentitiesByOU(getServiceHub(), "Bank")
                 .stream()
                 .filter(party -> !party.getName().getCommonName().equals(company.getName().getCommonName()))
                 .collect(Collectors.toList());
         // Observers include the notary and all banks interested in knowing the terms
-        List<Party> observers = Utility.getLegalIdentitiesByOU(identityService,"Observer");
+        List<Party> observers = Utility.getLegalIdentitiesByOU(getServiceHub(), "Observer");
         observers.addAll(otherBanks);
         log.info("Identified observers to publish term-state: {}",
                 observers.stream().map(party -> party.getName().getCommonName()).collect(Collectors.joining(",")));
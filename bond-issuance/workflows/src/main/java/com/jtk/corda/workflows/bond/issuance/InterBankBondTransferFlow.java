@@ -6,50 +6,69 @@ import com.google.common.collect.ImmutableList;
 import com.jtk.corda.CordaParties;
 import com.jtk.corda.states.bond.issuance.BondState;
 import com.jtk.corda.states.bond.issuance.TermState;
+import com.jtk.corda.states.cash.issuance.CashState;
 import com.jtk.corda.workflows.cash.issuance.TransferTokenFlow;
+import com.jtk.corda.workflows.services.BondAskService;
+import com.jtk.corda.workflows.services.TimedFlowLogic;
 import com.jtk.corda.workflows.utils.CustomQuery;
+import com.jtk.corda.workflows.utils.QueryPage;
 import com.jtk.corda.workflows.utils.Utility;
+import com.r3.corda.lib.tokens.contracts.states.AbstractToken;
 import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
 import com.r3.corda.lib.tokens.contracts.types.IssuedTokenType;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
 import com.r3.corda.lib.tokens.contracts.types.TokenType;
+import com.r3.corda.lib.tokens.workflows.flows.move.MoveTokensUtilities;
 import com.r3.corda.lib.tokens.workflows.flows.rpc.CreateEvolvableTokens;
 import com.r3.corda.lib.tokens.workflows.flows.rpc.MoveFungibleTokens;
 import com.r3.corda.lib.tokens.workflows.types.PartyAndAmount;
 import com.r3.corda.lib.tokens.workflows.utilities.FungibleTokenBuilder;
 import com.r3.corda.lib.tokens.workflows.utilities.QueryUtilities;
 import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
 import net.corda.core.contracts.TransactionState;
 import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.CollectSignaturesFlow;
 import net.corda.core.flows.FinalityFlow;
 import net.corda.core.flows.FlowException;
-import net.corda.core.flows.FlowLogic;
 import net.corda.core.flows.FlowSession;
 import net.corda.core.flows.InitiatedBy;
 import net.corda.core.flows.InitiatingFlow;
 import net.corda.core.flows.ReceiveFinalityFlow;
 import net.corda.core.flows.ReceiveStateAndRefFlow;
 import net.corda.core.flows.SendStateAndRefFlow;
+import net.corda.core.flows.SignTransactionFlow;
 import net.corda.core.flows.StartableByRPC;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.IdentityService;
+import net.corda.core.node.StatesToRecord;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
 import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.serialization.CordaSerializable;
 import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.utilities.NonEmptySet;
 import net.corda.core.utilities.ProgressTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
 
 public class InterBankBondTransferFlow {
 
     @InitiatingFlow
     @StartableByRPC
-    public static class InterBankBondTransferFlowInitiator extends FlowLogic<String> {
+    public static class InterBankBondTransferFlowInitiator extends TimedFlowLogic<String> {
         private static final Logger log = LoggerFactory.getLogger(InterBankBondTransferFlowInitiator.class);
         private UniqueIdentifier termIdentifier;
         private int unitsOfBond;
@@ -91,9 +110,14 @@ public class InterBankBondTransferFlow {
         private static final ProgressTracker.Step DONE = new ProgressTracker
                 .Step("Done Processing Flow");
 
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
         @Override
         @Suspendable
-        public String call() throws FlowException {
+        protected String doCall() throws FlowException {
             try {
                 progressTracker.setCurrentStep(AUTHORIZATION);
                 log.info("Initiating Inter bank bond transfer...");
@@ -110,11 +134,7 @@ public class InterBankBondTransferFlow {
 
                 if (termStateAndRef != null) {
                     log.info("Term: {} is present ", this.termIdentifier);
-                    TermState termState = termStateAndRef.getState()
-                            .getData().toPointer(TermState.class)
-                            .getPointer()
-                            .resolve(getServiceHub())
-                            .getState().getData();
+                    TermState termState = termStateAndRef.getState().getData();
                     if (termState.getIssuer().equals(bondHolder)) {
                         throw new FlowException("Issuer cannot be recipient of the bond");
                     }
@@ -197,7 +217,7 @@ public class InterBankBondTransferFlow {
     }
 
     @InitiatedBy(InterBankBondTransferFlowInitiator.class)
-    public static class InterBankBondTransferResponseFlow extends FlowLogic<SignedTransaction> {
+    public static class InterBankBondTransferResponseFlow extends TimedFlowLogic<SignedTransaction> {
 
         private static final Logger log = LoggerFactory.getLogger(InterBankBondTransferResponseFlow.class);
         private final FlowSession bondHolderSession;
@@ -246,15 +266,19 @@ public class InterBankBondTransferFlow {
             this.bondHolderSession = bondHolderSession;
         }
 
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
         @Override
         @Suspendable
-        public SignedTransaction call() throws FlowException {
-            IdentityService identityService = getServiceHub().getIdentityService();
+        protected SignedTransaction doCall() throws FlowException {
             Party bondHolder = getOurIdentity();
             Party counterparty = bondHolderSession.getCounterparty();
             final Party notary = getServiceHub().getNetworkMapCache().getNotary(CordaParties.NOTARY.getCordaX500Name());
             progressTracker.setCurrentStep(IDENTIFY_OBSERVERS);
-            List<Party> observers = Utility.getLegalIdentitiesByOU(identityService,"Observer");
+            List<Party> observers = Utility.getLegalIdentitiesByOU(getServiceHub(), "Observer");
             log.info(" Issuing bond from {} to investor: {} ",
                     bondHolder.getName().getCommonName(),
                     counterparty.getName().getCommonName());
@@ -265,10 +289,7 @@ public class InterBankBondTransferFlow {
             TermState its = investorTermStateRef.getState().getData();
 
             StateAndRef<TermState> currentTermStateAndRef =
-                    CustomQuery.queryActiveTermsByTermStateLinearID(its.getLinearId(), getServiceHub())
-                            .getState().getData().toPointer()
-                            .getPointer()
-                            .resolve(getServiceHub());
+                    CustomQuery.queryActiveTermsByTermStateLinearID(its.getLinearId(), getServiceHub());
 
             Long totalTokens = subFlow(new QueryBondToken.GetTokenBalance(its.getLinearId().toString()));
 
@@ -279,27 +300,11 @@ public class InterBankBondTransferFlow {
                     .unwrap(it -> {
                         progressTracker.setCurrentStep(VALIDATE_TERM_AND_BOND_STATE);
 
-                        // check to see if the holder has bonds in that term
                         bonds.addAll(CustomQuery.queryBondByTermStateLinearID
                                                 (UniqueIdentifier.Companion.fromString(it.termId),
                                                         getServiceHub()));
-                        if(bonds.size() == 0 ){
-                            it.status = "NoBondsFound";
-                            return it;
-                        }
-                        // check for availability of tokens
-                        if(it.getUnitsOfBond() > totalTokens){
-                            it.status = "NotEnoughBonds";
-                            return it;
-                        }
-                        // it.cashAmount; - check if cashAmount is sufficient for it.termId using external API
-
-                        if(!investorTermStateRef.getRef().getTxhash()
-                                .equals(currentTermStateAndRef.getRef().getTxhash())){
-                            it.status = "NotLatestTerm";
-                            return it;
-                        }
-                        it.status = "OK";
+                        it.status = transferStatus(it, bonds, totalTokens, investorTermStateRef,
+                                currentTermStateAndRef);
                         return it;
                     });
 
@@ -344,6 +349,419 @@ public class InterBankBondTransferFlow {
         }
     }
 
+    /**
+     * Delivery versus payment transfer. The buyer's cash and the bond holder's bond tokens move in one transaction,
+     * signed by both banks and notarised once, so neither leg can settle without the other. The bond holder is paid
+     * the cost in the term currency, and only sells when the cost meets the ask it posted for the term with
+     * {@link BondAskFlow.PostBondAsk}.
+     */
+    @InitiatingFlow
+    @StartableByRPC
+    public static class DvPTransferInitiator extends TimedFlowLogic<String> {
+        private static final Logger log = LoggerFactory.getLogger(DvPTransferInitiator.class);
+        private final UniqueIdentifier termIdentifier;
+        private final int unitsOfBond;
+        private final int cost;
+        private final Party bondHolder;
+
+        public DvPTransferInitiator(UniqueIdentifier termIdentifier,
+                                    int unitsOfBond,
+                                    int cost,
+                                    Party bondHolder) {
+            this.termIdentifier = termIdentifier;
+            this.unitsOfBond = unitsOfBond;
+            this.cost = cost;
+            this.bondHolder = bondHolder;
+        }
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                AUTHORIZATION,
+                FETCH_STATES,
+                SEND_BOND_TRANSFER_REQUEST,
+                RECEIVE_BOND_TOKENS,
+                SEND_CASH,
+                SIGNING_TRANSACTIONS,
+                DONE
+        );
+
+        private static final ProgressTracker.Step AUTHORIZATION = new ProgressTracker
+                .Step("Validating Authorized Nodes");
+        private static final ProgressTracker.Step FETCH_STATES = new ProgressTracker
+                .Step("Fetch Term States");
+        private static final ProgressTracker.Step SEND_BOND_TRANSFER_REQUEST = new ProgressTracker
+                .Step("Sending notification to Bond holder to transfer bonds ");
+        private static final ProgressTracker.Step RECEIVE_BOND_TOKENS = new ProgressTracker
+                .Step("Receiving Bond Fungible-Tokens from Bond holder");
+        private static final ProgressTracker.Step SEND_CASH = new ProgressTracker
+                .Step("Adding digital currency payment");
+        private static final ProgressTracker.Step SIGNING_TRANSACTIONS = new ProgressTracker
+                .Step("Signing Transaction");
+        private static final ProgressTracker.Step DONE = new ProgressTracker
+                .Step("Done Processing Flow");
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Override
+        @Suspendable
+        @SuppressWarnings("unchecked")
+        protected String doCall() throws FlowException {
+            try {
+                progressTracker.setCurrentStep(AUTHORIZATION);
+                log.info("Initiating DvP inter bank bond transfer...");
+                Party me = getOurIdentity();
+                if (!me.getName().getOrganisationUnit().equals("Bank") ||
+                        !bondHolder.getName().getOrganisationUnit().equals("Bank")) {
+                    throw new FlowException("Only Bank to Bank Transfer is allowed");
+                }
+
+                progressTracker.setCurrentStep(FETCH_STATES);
+                StateAndRef<TermState> termStateAndRef = CustomQuery.queryActiveTermsByTermStateLinearID
+                        (this.termIdentifier, getServiceHub());
+                if (termStateAndRef == null) {
+                    throw new FlowException(this.termIdentifier + ": not found");
+                }
+                TermState termState = termStateAndRef.getState().getData();
+                if (termState.getIssuer().equals(bondHolder)) {
+                    throw new FlowException("Issuer cannot be recipient of the bond");
+                }
+                String bondId = CustomQuery.queryBondByTermStateLinearID(termIdentifier, getServiceHub()).stream()
+                        .map(BondState::getLinearId)
+                        .map(UniqueIdentifier::toString)
+                        .findAny().orElse("");
+
+                progressTracker.setCurrentStep(SEND_BOND_TRANSFER_REQUEST);
+                FlowSession bondHolderSession = initiateFlow(bondHolder);
+                bondHolderSession.send(new BondTransferNotification(unitsOfBond, cost, termIdentifier.toString(),
+                        bondId, "PENDING"));
+                subFlow(new SendStateAndRefFlow(bondHolderSession, ImmutableList.of(termStateAndRef)));
+
+                // the bond holder picks the bond tokens to deliver and answers with them and the outputs it wants
+                progressTracker.setCurrentStep(RECEIVE_BOND_TOKENS);
+                List<StateAndRef<FungibleToken>> bondInputs = subFlow(new ReceiveStateAndRefFlow<>(bondHolderSession));
+                List<FungibleToken> bondOutputs = bondHolderSession.receive(List.class)
+                        .unwrap(data -> (List<FungibleToken>) data);
+                String termTokenId = termState.toPointer().getTokenIdentifier();
+                for (StateAndRef<FungibleToken> bondInput : bondInputs) {
+                    FungibleToken token = bondInput.getState().getData();
+                    if (!token.getHolder().equals(bondHolder) || !token.getIssuer().equals(termState.getIssuer())
+                            || !token.getTokenType().getTokenIdentifier().equals(termTokenId)) {
+                        throw new FlowException("Unexpected bond token from " + bondHolder.getName().getCommonName());
+                    }
+                }
+                long delivered = bondOutputs.stream()
+                        .filter(token -> token.getHolder().equals(me))
+                        .mapToLong(token -> token.getAmount().getQuantity())
+                        .sum();
+                long expected = new FungibleTokenBuilder()
+                        .ofTokenType(termState.toPointer())
+                        .issuedBy(termState.getIssuer())
+                        .heldBy(me)
+                        .withAmount(unitsOfBond)
+                        .buildFungibleToken().getAmount().getQuantity();
+                if (delivered != expected) {
+                    throw new FlowException("Bond holder delivers " + delivered + " bond tokens, expected " + expected);
+                }
+
+                TransactionBuilder txBuilder = new TransactionBuilder(bondInputs.get(0).getState().getNotary());
+                MoveTokensUtilities.addMoveTokens(txBuilder,
+                        (List<StateAndRef<AbstractToken>>) (List<?>) bondInputs,
+                        (List<AbstractToken>) (List<?>) bondOutputs);
+
+                progressTracker.setCurrentStep(SEND_CASH);
+                TokenPointer<CashState> cashPointer = TransferTokenFlow.queryCashPointer(termState.getCurrency(),
+                        getServiceHub());
+                List<PartyAndAmount<TokenType>> payment = TransferTokenFlow.toPartyAndAmounts(
+                        Collections.singletonMap(bondHolder, BigDecimal.valueOf(cost)), cashPointer);
+                if (!payment.isEmpty()) {
+                    QueryCriteria heldByMeCriteria = QueryUtilities.heldTokenAmountCriteria(cashPointer, me);
+                    MoveTokensUtilities.addMoveFungibleTokens(txBuilder, getServiceHub(), payment, me, heldByMeCriteria);
+                }
+
+                progressTracker.setCurrentStep(SIGNING_TRANSACTIONS);
+                txBuilder.verify(getServiceHub());
+                SignedTransaction ptx = getServiceHub().signInitialTransaction(txBuilder);
+                SignedTransaction stx = subFlow(new CollectSignaturesFlow(ptx, ImmutableList.of(bondHolderSession)));
+
+                List<FlowSession> finalitySessions = new ArrayList<>();
+                finalitySessions.add(bondHolderSession);
+                for (Party observer : Utility.getLegalIdentitiesByOU(getServiceHub(), "Observer")) {
+                    FlowSession observerSession = initiateFlow(observer);
+                    observerSession.send(new BondTransferNotification(unitsOfBond, cost, termIdentifier.toString(),
+                            bondId, "OBSERVER"));
+                    finalitySessions.add(observerSession);
+                }
+                SignedTransaction finalTx = subFlow(new FinalityFlow(stx, finalitySessions));
+                log.info("Settled {} bond tokens against {} {} with transactionId: {}",
+                        unitsOfBond, cost, termState.getCurrency(), finalTx.getId());
+
+                // the bond holder records a BondState for us before delivering when we had none
+                String bondIdentifier = CustomQuery.queryBondByTermStateLinearID(termIdentifier, getServiceHub())
+                        .stream()
+                        .map(BondState::getLinearId)
+                        .map(UniqueIdentifier::toString)
+                        .findAny().orElse(bondId);
+                progressTracker.setCurrentStep(DONE);
+                return "{" +
+                        "\"tokenType\": \"FungibleToken\", " +
+                        "\"name\": \"BondToken\", " +
+                        "\"tokenIdentifier\": \"" + termTokenId + "\", " +
+                        "\"bondIdentifier\": \"" + bondIdentifier + "\", " +
+                        "\"issuer\": \"" + termState.getIssuer().getName().getCommonName() + "\", " +
+                        "\"holder\": \"" + me.getName().getCommonName() + "\", " +
+                        "\"amount\": " + delivered + ", " +
+                        "\"cost\": " + cost + ", " +
+                        "\"currency\": \"" + termState.getCurrency() + "\", " +
+                        "\"transactionId\": \"" + finalTx.getId() + "\" " +
+                        "}";
+            } catch (Exception e) {
+                log.error("Unexpected Exception when settling bond transfer", e);
+                return "{" +
+                        "\"errorMsg\": \""+e.getMessage()+"\" " +
+                        "}";
+            }
+        }
+    }
+
+    @InitiatedBy(DvPTransferInitiator.class)
+    public static class DvPTransferResponder extends TimedFlowLogic<SignedTransaction> {
+        private static final Logger log = LoggerFactory.getLogger(DvPTransferResponder.class);
+        private final FlowSession buyerSession;
+
+        private final ProgressTracker progressTracker = new ProgressTracker(
+                RECEIVE_TERM_STATE,
+                VALIDATE_TERM_AND_BOND_STATE,
+                CREATE_STATES,
+                SELECT_BOND_TOKENS,
+                SIGNING_TRANSACTIONS,
+                DONE
+        );
+
+        private static final ProgressTracker.Step RECEIVE_TERM_STATE = new ProgressTracker
+                .Step("Receiving Term States from Bond Requester");
+        private static final ProgressTracker.Step VALIDATE_TERM_AND_BOND_STATE = new ProgressTracker
+                .Step("Validating Term and Bond states");
+        private static final ProgressTracker.Step CREATE_STATES = new ProgressTracker
+                .Step("Creating new Bond States");
+        private static final ProgressTracker.Step SELECT_BOND_TOKENS = new ProgressTracker
+                .Step("Selecting Bond Fungible-Tokens to deliver");
+        private static final ProgressTracker.Step SIGNING_TRANSACTIONS = new ProgressTracker
+                .Step("Signing Transaction");
+        private static final ProgressTracker.Step DONE = new ProgressTracker
+                .Step("Done Processing Responder Flow");
+
+        public DvPTransferResponder(FlowSession buyerSession) {
+            this.buyerSession = buyerSession;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Override
+        @Suspendable
+        protected SignedTransaction doCall() throws FlowException {
+            BondTransferNotification brn = buyerSession.receive(BondTransferNotification.class).unwrap(it -> it);
+            if (brn.getStatus().equalsIgnoreCase("OBSERVER")) {
+                log.info("Recording bond transfer from {} as observer",
+                        buyerSession.getCounterparty().getName().getCommonName());
+                return subFlow(new ReceiveFinalityFlow(buyerSession, null, StatesToRecord.ALL_VISIBLE));
+            }
+            Party me = getOurIdentity();
+            Party buyer = buyerSession.getCounterparty();
+            final Party notary = getServiceHub().getNetworkMapCache().getNotary(CordaParties.NOTARY.getCordaX500Name());
+
+            progressTracker.setCurrentStep(RECEIVE_TERM_STATE);
+            StateAndRef<TermState> buyerTermStateRef =
+                    subFlow(new ReceiveStateAndRefFlow<TermState>(buyerSession)).get(0);
+            TermState termState = buyerTermStateRef.getState().getData();
+            StateAndRef<TermState> currentTermStateAndRef =
+                    CustomQuery.queryActiveTermsByTermStateLinearID(termState.getLinearId(), getServiceHub());
+
+            progressTracker.setCurrentStep(VALIDATE_TERM_AND_BOND_STATE);
+            Long totalTokens = subFlow(new QueryBondToken.GetTokenBalance(termState.getLinearId().toString()));
+            List<BondState> bonds = CustomQuery.queryBondByTermStateLinearID(
+                    UniqueIdentifier.Companion.fromString(brn.getTermId()), getServiceHub());
+            String status = transferStatus(brn, bonds, totalTokens, buyerTermStateRef, currentTermStateAndRef);
+            if (!status.equalsIgnoreCase("OK")) {
+                throw new FlowException("Failed validation for Bond Transfer request - " + status);
+            }
+            // the price is ours to set, the buyer's cost has to meet the ask we posted for the term
+            BondAskService askService = getServiceHub().cordaService(BondAskService.class);
+            if (askService.ask(termState.getLinearId()) == null) {
+                throw new FlowException("Failed validation for Bond Transfer request - NoAsk");
+            }
+            if (!askService.covers(termState.getLinearId(), brn.getUnitsOfBond(), brn.getCost())) {
+                throw new FlowException("Failed validation for Bond Transfer request - BelowAsk");
+            }
+
+            if (Strings.isNullOrEmpty(brn.getBondIdentifier())) {
+                progressTracker.setCurrentStep(CREATE_STATES);
+                BondState bondState = bonds.get(0);
+                BondState newBondState = new BondState(
+                        bondState.getIssuer(), buyer, bondState.getInterestRate(), bondState.getParValue(),
+                        bondState.getMaturityDate(), bondState.getCreditRating(), bondState.getCouponPaymentLeft(),
+                        bondState.getBondStatus(), bondState.getBondType(), bondState.getCurrency(),
+                        bondState.getBondName(), bondState.getTermStateLinearID(), new UniqueIdentifier(),
+                        bondState.getPaymentFrequencyInMonths(), bondState.getIssueDate(), bondState.getNextCouponDate());
+                List<Party> bondObservers = new ArrayList<>(Utility.getLegalIdentitiesByOU(getServiceHub(), "Observer"));
+                bondObservers.add(bondState.getIssuer());
+                subFlow(new CreateEvolvableTokens(new TransactionState<>(newBondState, notary), bondObservers));
+            }
+
+            progressTracker.setCurrentStep(SELECT_BOND_TOKENS);
+            FungibleToken delivery = new FungibleTokenBuilder()
+                    .ofTokenType(termState.toPointer())
+                    .issuedBy(termState.getIssuer())
+                    .heldBy(buyer)
+                    .withAmount(brn.getUnitsOfBond())
+                    .buildFungibleToken();
+            List<StateAndRef<FungibleToken>> inputs = selectBondTokens(termState, me, delivery.getAmount());
+            Amount<IssuedTokenType> selected = inputs.stream()
+                    .map(sr -> sr.getState().getData().getAmount())
+                    .reduce(Amount::plus)
+                    .orElseThrow(() -> new FlowException("Failed validation for Bond Transfer request - NotEnoughBonds"));
+            List<FungibleToken> outputs = new ArrayList<>();
+            outputs.add(delivery);
+            if (selected.getQuantity() > delivery.getAmount().getQuantity()) {
+                outputs.add(new FungibleToken(selected.minus(delivery.getAmount()), me, delivery.getTokenTypeJarHash()));
+            }
+            subFlow(new SendStateAndRefFlow(buyerSession, new ArrayList<>(inputs)));
+            buyerSession.send(outputs);
+
+            progressTracker.setCurrentStep(SIGNING_TRANSACTIONS);
+            Set<StateRef> delivered = inputs.stream().map(StateAndRef::getRef).collect(Collectors.toSet());
+            // the units are taken off the ask before we sign, so concurrent transfers cannot oversell it
+            if (!askService.take(termState.getLinearId(), brn.getUnitsOfBond(), brn.getCost())) {
+                throw new FlowException("Failed validation for Bond Transfer request - BelowAsk");
+            }
+            // and put back if the transfer does not complete, whatever it failed with
+            try {
+                SignedTransaction signedTx = subFlow(new SignDvPTransferFlow(buyerSession, termState,
+                        delivery.getAmount().getQuantity(), brn.getCost(), delivered));
+                progressTracker.setCurrentStep(DONE);
+                return subFlow(new ReceiveFinalityFlow(buyerSession, signedTx.getId()));
+            } catch (Exception e) {
+                askService.release(termState.getLinearId(), brn.getUnitsOfBond());
+                throw e;
+            }
+        }
+
+        /**
+         * Our bond tokens of the term, oldest first, until they cover {@code amount}. They are soft locked to this
+         * flow so a concurrent transfer does not pick them as well.
+         */
+        @Suspendable
+        private List<StateAndRef<FungibleToken>> selectBondTokens(TermState termState, Party me,
+                                                                   Amount<IssuedTokenType> amount) throws FlowException {
+            QueryCriteria criteria = QueryUtilities.heldTokenAmountCriteria(termState.toPointer(), me)
+                    .and(QueryUtilities.tokenAmountWithIssuerCriteria(termState.toPointer(), termState.getIssuer()))
+                    .and(new QueryCriteria.VaultQueryCriteria().withSoftLockingCondition(
+                            new QueryCriteria.SoftLockingCondition(QueryCriteria.SoftLockingType.UNLOCKED_ONLY,
+                                    Collections.emptyList())));
+            List<StateAndRef<FungibleToken>> selected = new ArrayList<>();
+            long selectedQuantity = 0;
+            int page = DEFAULT_PAGE_NUM;
+            Vault.Page<FungibleToken> result;
+            do {
+                result = getServiceHub().getVaultService().queryBy(FungibleToken.class, criteria,
+                        new PageSpecification(page++, QueryPage.MAX_PAGE_SIZE));
+                for (StateAndRef<FungibleToken> tokenRef : result.getStates()) {
+                    selected.add(tokenRef);
+                    selectedQuantity += tokenRef.getState().getData().getAmount().getQuantity();
+                    if (selectedQuantity >= amount.getQuantity()) {
+                        getServiceHub().getVaultService().softLockReserve(getRunId().getUuid(),
+                                NonEmptySet.copyOf(selected.stream().map(StateAndRef::getRef)
+                                        .collect(Collectors.toList())));
+                        return selected;
+                    }
+                }
+            } while (!result.getStates().isEmpty());
+            throw new FlowException("Failed validation for Bond Transfer request - NotEnoughBonds");
+        }
+    }
+
+    /**
+     * Signs a DvP transfer only when we are paid at least the agreed cost in the term currency, deliver exactly the
+     * agreed bond tokens, and none of our other tokens are spent.
+     */
+    private static class SignDvPTransferFlow extends SignTransactionFlow {
+        private final TermState termState;
+        private final long bondQuantity;
+        private final int cost;
+        private final Set<StateRef> delivered;
+
+        private SignDvPTransferFlow(FlowSession otherSideSession, TermState termState, long bondQuantity, int cost,
+                                    Set<StateRef> delivered) {
+            super(otherSideSession);
+            this.termState = termState;
+            this.bondQuantity = bondQuantity;
+            this.cost = cost;
+            this.delivered = delivered;
+        }
+
+        @Override
+        @Suspendable
+        protected void checkTransaction(SignedTransaction stx) throws FlowException {
+            Party me = getOurIdentity();
+            Party buyer = getOtherSideSession().getCounterparty();
+            TokenPointer<CashState> cashPointer = TransferTokenFlow.queryCashPointer(termState.getCurrency(),
+                    getServiceHub());
+            String termTokenId = termState.toPointer().getTokenIdentifier();
+            long paid = 0;
+            long bondsToBuyer = 0;
+            for (FungibleToken token : stx.getTx().outputsOfType(FungibleToken.class)) {
+                String tokenId = token.getTokenType().getTokenIdentifier();
+                if (tokenId.equals(cashPointer.getTokenIdentifier()) && token.getHolder().equals(me)) {
+                    paid += token.getAmount().getQuantity();
+                } else if (tokenId.equals(termTokenId) && token.getHolder().equals(buyer)) {
+                    bondsToBuyer += token.getAmount().getQuantity();
+                }
+            }
+            if (paid < Amount.fromDecimal(BigDecimal.valueOf(cost), cashPointer).getQuantity()) {
+                throw new FlowException("DvP transfer pays less than the agreed cost of " + cost);
+            }
+            if (bondsToBuyer != bondQuantity) {
+                throw new FlowException("DvP transfer moves " + bondsToBuyer + " bond tokens, expected " + bondQuantity);
+            }
+            for (StateRef input : stx.getTx().getInputs()) {
+                if (delivered.contains(input)) {
+                    continue;
+                }
+                ContractState state = getServiceHub().loadState(input).getData();
+                if (state instanceof AbstractToken && ((AbstractToken) state).getHolder().equals(me)) {
+                    throw new FlowException("DvP transfer spends our token " + input);
+                }
+            }
+        }
+    }
+
+    /**
+     * Status of a transfer request against the bonds, bond tokens and term held by the bond holder.
+     */
+    private static String transferStatus(BondTransferNotification request, List<BondState> bonds, long totalTokens,
+                                         StateAndRef<TermState> requesterTermStateRef,
+                                         StateAndRef<TermState> currentTermStateAndRef) {
+        // check to see if the holder has bonds in that term
+        if (bonds.size() == 0) {
+            return "NoBondsFound";
+        }
+        // check for availability of tokens
+        if (request.getUnitsOfBond() > totalTokens) {
+            return "NotEnoughBonds";
+        }
+        // it.cashAmount; - check if cashAmount is sufficient for it.termId using external API
+
+        if (!requesterTermStateRef.getRef().getTxhash()
+                .equals(currentTermStateAndRef.getRef().getTxhash())) {
+            return "NotLatestTerm";
+        }
+        return "OK";
+    }
+
     @CordaSerializable
     public static class BondTransferNotification {
         private static final Logger log = LoggerFactory.getLogger(BondTransferNotification.class);
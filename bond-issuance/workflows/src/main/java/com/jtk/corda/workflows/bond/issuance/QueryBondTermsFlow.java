@@ -5,11 +5,13 @@ import com.jtk.corda.workflows.utils.CustomQuery;
 import com.jtk.corda.states.bond.issuance.TermState;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowException;
 import net.corda.core.flows.FlowLogic;
 import net.corda.core.flows.InitiatingFlow;
 import net.corda.core.flows.StartableByRPC;
 import net.corda.core.utilities.ProgressTracker;
 
+import java.time.format.DateTimeParseException;
 import java.util.stream.Collectors;
 
 public class QueryBondTermsFlow {
@@ -127,8 +129,7 @@ public class QueryBondTermsFlow {
             StateAndRef<TermState> termSateAndRef = CustomQuery.queryActiveTermsByTermStateLinearID(teamStateLinearID, getServiceHub());
             if (termSateAndRef == null)
                 return "{}";
-            return termSateAndRef.getState().getData().toPointer().getPointer()
-                    .resolve(getServiceHub()).getState().getData().toJson();
+            return termSateAndRef.getState().getData().toJson();
         }
     }
 
@@ -151,8 +152,7 @@ public class QueryBondTermsFlow {
             StateAndRef<TermState> termSateAndRef = CustomQuery.queryNotActiveTermsByTermStateLinearID(teamStateLinearID, getServiceHub());
             if(termSateAndRef == null)
                 return "{}";
-            return termSateAndRef.getState().getData().toPointer().getPointer()
-                    .resolve(getServiceHub()).getState().getData().toJson();
+            return termSateAndRef.getState().getData().toJson();
         }
     }
 
@@ -172,8 +172,45 @@ public class QueryBondTermsFlow {
             StateAndRef<TermState> termSateAndRef = CustomQuery.queryNotActiveTerms(getServiceHub());
             if(termSateAndRef == null)
                 return "{}";
-            return termSateAndRef.getState().getData().toPointer().getPointer()
-                    .resolve(getServiceHub()).getState().getData().toJson();
+            return termSateAndRef.getState().getData().toJson();
+        }
+    }
+
+    /**
+     * Paged variant of the term queries above. queryType takes the same values as the query-bond-terms API;
+     * pass the nextCursor of the previous page as cursor to stream through large books.
+     */
+    @InitiatingFlow
+    @StartableByRPC
+    public static class GetBondTermsPage extends FlowLogic<String>{
+        private final ProgressTracker progressTracker = new ProgressTracker();
+        private final String queryType;
+        private final String queryValue;
+        private final int pageNumber;
+        private final int pageSize;
+        private final String cursor;
+
+        public GetBondTermsPage(String queryType, String queryValue, int pageNumber, int pageSize, String cursor) {
+            this.queryType = queryType;
+            this.queryValue = queryValue;
+            this.pageNumber = pageNumber;
+            this.pageSize = pageSize;
+            this.cursor = cursor;
+        }
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+        @Override
+        @Suspendable
+        public String call() throws FlowException {
+            try {
+                return CustomQuery.queryTermsPage(CustomQuery.termQueryCriteria(queryType, queryValue), cursor,
+                                pageNumber, pageSize, getServiceHub())
+                        .toJson(TermState::toJson);
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                throw new FlowException(e.getMessage());
+            }
         }
     }
 }
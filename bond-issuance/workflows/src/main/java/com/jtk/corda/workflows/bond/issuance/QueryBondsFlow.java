@@ -4,11 +4,13 @@ import co.paralleluniverse.fibers.Suspendable;
 import com.jtk.corda.workflows.utils.CustomQuery;
 import com.jtk.corda.states.bond.issuance.BondState;
 import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowException;
 import net.corda.core.flows.FlowLogic;
 import net.corda.core.flows.InitiatingFlow;
 import net.corda.core.flows.StartableByRPC;
 import net.corda.core.utilities.ProgressTracker;
 
+import java.time.format.DateTimeParseException;
 import java.util.stream.Collectors;
 
 public class QueryBondsFlow {
@@ -197,4 +199,42 @@ public class QueryBondsFlow {
                     .toString();
         }
     }
+
+    /**
+     * Paged variant of the bond queries above. queryType takes the same values as the query-bonds API;
+     * pass the nextCursor of the previous page as cursor to stream through large books.
+     */
+    @InitiatingFlow
+    @StartableByRPC
+    public static class GetBondsPage extends FlowLogic<String>{
+        private final ProgressTracker progressTracker = new ProgressTracker();
+        private final String queryType;
+        private final String queryValue;
+        private final int pageNumber;
+        private final int pageSize;
+        private final String cursor;
+
+        public GetBondsPage(String queryType, String queryValue, int pageNumber, int pageSize, String cursor) {
+            this.queryType = queryType;
+            this.queryValue = queryValue;
+            this.pageNumber = pageNumber;
+            this.pageSize = pageSize;
+            this.cursor = cursor;
+        }
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+        @Override
+        @Suspendable
+        public String call() throws FlowException {
+            try {
+                return CustomQuery.queryBondsPage(CustomQuery.bondQueryCriteria(queryType, queryValue), cursor,
+                                pageNumber, pageSize, getServiceHub())
+                        .toJson(BondState::toJson);
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                throw new FlowException(e.getMessage());
+            }
+        }
+    }
 }
@@ -3,6 +3,7 @@ package com.jtk.corda.workflows.bond.issuance;
 import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import com.jtk.corda.workflows.cash.issuance.TransferTokenFlow;
+import com.jtk.corda.workflows.services.TimedFlowLogic;
 import com.jtk.corda.workflows.utils.CustomQuery;
 import com.jtk.corda.states.bond.issuance.TermState;
 import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
@@ -11,7 +12,6 @@ import net.corda.core.contracts.Amount;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.flows.FlowException;
-import net.corda.core.flows.FlowLogic;
 import net.corda.core.flows.FlowSession;
 import net.corda.core.flows.InitiatingFlow;
 import net.corda.core.flows.ReceiveFinalityFlow;
@@ -29,7 +29,7 @@ import java.util.concurrent.atomic.AtomicReference;
 
 @InitiatingFlow
 @StartableByRPC
-public class RequestForBondInitiatorFlow extends FlowLogic<String> {
+public class RequestForBondInitiatorFlow extends TimedFlowLogic<String> {
     private static final Logger log = LoggerFactory.getLogger(RequestForBondInitiatorFlow.class);
     private final UniqueIdentifier teamStateLinearID;
     private final int unitsOfBonds;
@@ -65,9 +65,14 @@ public class RequestForBondInitiatorFlow extends FlowLogic<String> {
     }
 
 
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
     @Suspendable
     @Override
-    public String call() throws FlowException {
+    protected String doCall() throws FlowException {
         progressTracker.setCurrentStep(AUTHORIZATION);
         Party investorParty = getOurIdentity();
         if (!Objects.equals(investorParty.getName().getOrganisationUnit(), "Bank")) {
@@ -80,9 +85,7 @@ public class RequestForBondInitiatorFlow extends FlowLogic<String> {
                 (teamStateLinearID, getServiceHub());
         if (termStateAndRef != null) {
             log.info("Term: {} is present ", teamStateLinearID);
-            TermState termState = termStateAndRef.getState()
-                    .getData().toPointer(TermState.class)
-                    .getPointer().resolve(getServiceHub()).getState().getData();
+            TermState termState = termStateAndRef.getState().getData();
             // check if requested unit is greater than available units
             if (unitsOfBonds > termState.getUnitsAvailable()) {
                 throw new FlowException("Requesting for more bonds than available for the term");
@@ -125,19 +128,23 @@ public class RequestForBondInitiatorFlow extends FlowLogic<String> {
                                     }
                                     return true;
                                 } else {
-                                    log.warn("Counterparty Rejected BondRequest...");
+                                    log.warn("Counterparty Rejected BondRequest: {}", data.getStatus());
                                     return false;
                                 }
                             });
             if (successfullySendCash) {
                 try {
                     SignedTransaction finalTx = subFlow(new ReceiveFinalityFlow(flowSession));
-                    FungibleToken fungibleToken = (FungibleToken) finalTx.getTx().getOutputStates().get(0);
+                    // a coalesced allocation issues to several investors in one transaction
+                    FungibleToken fungibleToken = finalTx.getTx().outputsOfType(FungibleToken.class).stream()
+                            .filter(token -> token.getHolder().equals(getOurIdentity()))
+                            .findFirst()
+                            .orElseThrow(() -> new IllegalStateException("No bond tokens issued to us"));
                     Party tokenIssuer = fungibleToken.getIssuer();
                     String issuerCN = tokenIssuer.getName().getCommonName();
                     Party tokenHolder = (Party) fungibleToken.getHolder();
                     String holderCN = tokenHolder.getName().getCommonName();
-                    Amount<IssuedTokenType> fungibleTokenAmount = ((FungibleToken) finalTx.getTx().getOutputStates().get(0)).getAmount();
+                    Amount<IssuedTokenType> fungibleTokenAmount = fungibleToken.getAmount();
                     String tokenIdentifier = fungibleTokenAmount.getToken().getTokenType().getTokenIdentifier();
                     progressTracker.setCurrentStep(DONE);
                     return "{" +
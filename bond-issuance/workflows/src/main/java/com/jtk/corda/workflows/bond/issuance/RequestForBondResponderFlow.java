@@ -5,10 +5,14 @@ import com.google.common.collect.ImmutableList;
 import com.jtk.corda.CordaParties;
 import com.jtk.corda.states.bond.issuance.BondState;
 import com.jtk.corda.states.bond.issuance.TermState;
+import com.jtk.corda.workflows.services.TermAllocationService;
+import com.jtk.corda.workflows.services.TimedFlowLogic;
 import com.jtk.corda.workflows.utils.CouponPaymentUtil;
 import com.jtk.corda.workflows.utils.CustomQuery;
 import com.jtk.corda.workflows.utils.Utility;
+import com.r3.corda.lib.tokens.contracts.states.AbstractToken;
 import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.EvolvableTokenType;
 import com.r3.corda.lib.tokens.workflows.flows.rpc.CreateEvolvableTokens;
 import com.r3.corda.lib.tokens.workflows.flows.rpc.IssueTokens;
 import com.r3.corda.lib.tokens.workflows.flows.rpc.UpdateEvolvableToken;
@@ -18,13 +22,12 @@ import net.corda.core.contracts.TransactionState;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.flows.FinalityFlow;
 import net.corda.core.flows.FlowException;
-import net.corda.core.flows.FlowLogic;
 import net.corda.core.flows.FlowSession;
 import net.corda.core.flows.InitiatedBy;
 import net.corda.core.flows.ReceiveStateAndRefFlow;
+import net.corda.core.flows.SendTransactionFlow;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
-import net.corda.core.node.services.IdentityService;
 import net.corda.core.serialization.CordaSerializable;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.utilities.ProgressTracker;
@@ -34,8 +37,11 @@ import org.slf4j.LoggerFactory;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -46,7 +52,7 @@ import java.util.stream.Collectors;
  */
 
 @InitiatedBy(RequestForBondInitiatorFlow.class)
-public class RequestForBondResponderFlow extends FlowLogic<SignedTransaction>{
+public class RequestForBondResponderFlow extends TimedFlowLogic<SignedTransaction>{
 
     private static final Logger log = LoggerFactory.getLogger(RequestForBondResponderFlow.class);
 
@@ -96,9 +102,14 @@ public class RequestForBondResponderFlow extends FlowLogic<SignedTransaction>{
         this.termIssuerSession = termIssuerSession;
     }
 
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
     @Suspendable
     @Override
-    public SignedTransaction call() throws FlowException {
+    protected SignedTransaction doCall() throws FlowException {
         Party bondIssuer = getOurIdentity();
         Party counterparty = termIssuerSession.getCounterparty();
 
@@ -110,13 +121,17 @@ public class RequestForBondResponderFlow extends FlowLogic<SignedTransaction>{
         StateAndRef<TermState> investorTermStateRef = investorTermStateRefList.get(0);
         TermState investorTermState = investorTermStateRef.getState().getData();
 
+        TermAllocationService allocations = getServiceHub().cordaService(TermAllocationService.class);
+        if (allocations.isCoalescing()) {
+            BondRequestNotification request = termIssuerSession.receive(BondRequestNotification.class)
+                    .unwrap(it -> it);
+            return allocate(allocations, investorTermState, request);
+        }
+
         progressTracker.setCurrentStep(VALIDATE_TERM_STATE);
         //query for the current TermStateAndRef
         StateAndRef<TermState> currentTermStateAndRef = CustomQuery.queryActiveTermsByTermStateLinearID
-                        (investorTermState.getLinearId(), getServiceHub())
-                .getState().getData().toPointer()
-                .getPointer()
-                .resolve(getServiceHub());
+                        (investorTermState.getLinearId(), getServiceHub());
 
         log.info("Queried TermState for {}", investorTermState.getLinearId());
         // check if the TermState held by the investor is the same
@@ -134,19 +149,18 @@ public class RequestForBondResponderFlow extends FlowLogic<SignedTransaction>{
         if(newAvailableUnits < 0 ){
             throw new FlowException("Cannot request for bonds more than available in TermState");
         }
-        IdentityService identityService = getServiceHub().getIdentityService();
 
         progressTracker.setCurrentStep(IDENTIFY_OBSERVERS);
         CordaX500Name notaryX500Name = CordaParties.NOTARY.getCordaX500Name();
         final Party notary = getServiceHub().getNetworkMapCache().getNotary(notaryX500Name);
         Set<Party> investors = new HashSet<>(investorTermState.getInvestors());
         investors.add(brn.investor);
-        List<Party> allBanks = Utility.getLegalIdentitiesByOU(identityService, "Bank")
+        List<Party> allBanks = Utility.getLegalIdentitiesByOU(getServiceHub(), "Bank")
                 .stream()
                 .filter(party -> !Objects.equals(party.getName().getCommonName(),
                         bondIssuer.getName().getCommonName()))
                 .collect(Collectors.toList());
-        List<Party> observers = Utility.getLegalIdentitiesByOU(identityService,"Observer");
+        List<Party> observers = Utility.getLegalIdentitiesByOU(getServiceHub(), "Observer");
         List<Party> termObservers = new ArrayList<>();
         termObservers.addAll(allBanks);
         termObservers.addAll(observers);
@@ -237,6 +251,211 @@ public class RequestForBondResponderFlow extends FlowLogic<SignedTransaction>{
     }
 
 
+    /**
+     * Coalesced allocation. The request is queued with the other requests for the term and allocated against the
+     * current TermState, so an investor holding an older version of it is not turned away. Whichever flow leads the
+     * term allocates the queued requests as a batch, see {@link TermAllocationService}.
+     */
+    @Suspendable
+    private SignedTransaction allocate(TermAllocationService allocations, TermState investorTermState,
+                                       BondRequestNotification request) throws FlowException {
+        Party investor = termIssuerSession.getCounterparty();
+        if (!investorTermState.getIssuer().equals(getOurIdentity()) || !request.getInvestor().equals(investor)
+                || request.getUnits() <= 0) {
+            termIssuerSession.send(new BondRequestNotification(investor, request.getUnits(), "InvalidRequest", ""));
+            return null;
+        }
+        UniqueIdentifier termId = investorTermState.getLinearId();
+        long ticket = allocations.request(termId, investor, request.getUnits());
+        TermAllocationService.Allocation allocation = await(allocations.outcome(ticket));
+        while (allocation.isLead()) {
+            List<TermAllocationService.Request> batch = allocations.takeBatch(termId);
+            try {
+                allocateBatch(allocations, termId, batch);
+            } catch (FlowException | RuntimeException e) {
+                log.error("Allocation of {} bond requests for term {} failed", batch.size(), termId, e);
+                for (TermAllocationService.Request failed : batch) {
+                    allocations.complete(failed.getTicket(),
+                            new TermAllocationService.Allocation("AllocationFailed", "", null));
+                }
+            } finally {
+                allocations.handOff(termId);
+            }
+            allocation = await(allocations.outcome(ticket));
+        }
+
+        progressTracker.setCurrentStep(SEND_BOND_ISSUE_RESPONSE);
+        termIssuerSession.send(new BondRequestNotification(investor, request.getUnits(), allocation.getStatus(),
+                allocation.getBondLinearId()));
+        progressTracker.setCurrentStep(DONE);
+        if (!allocation.getStatus().equals("OK")) {
+            log.info("Bond request of {} for term {} rejected: {}", investor.getName().getCommonName(), termId,
+                    allocation.getStatus());
+            return null;
+        }
+        // the batch was finalised with every investor in it, which FinalityFlow would want a session for each
+        SignedTransaction stx = getServiceHub().getValidatedTransactions().getTransaction(allocation.getTxId());
+        subFlow(new SendTransactionFlow(termIssuerSession, stx));
+        return stx;
+    }
+
+    /**
+     * Allocates a batch of requests for a term oldest first, until the units available run out. The allocated units
+     * are taken off the TermState in one update, the investors new to the term get their BondStates created
+     * together and the bond tokens of the whole batch are issued in one transaction. Should creating the BondStates
+     * or issuing the tokens fail, the units are put back on the TermState before the failure is passed on.
+     */
+    @Suspendable
+    private void allocateBatch(TermAllocationService allocations, UniqueIdentifier termId,
+                               List<TermAllocationService.Request> batch) throws FlowException {
+        Party bondIssuer = getOurIdentity();
+        progressTracker.setCurrentStep(VALIDATE_TERM_STATE);
+        StateAndRef<TermState> currentTermStateAndRef = CustomQuery.queryActiveTermsByTermStateLinearID
+                (termId, getServiceHub());
+        if (currentTermStateAndRef == null) {
+            for (TermAllocationService.Request request : batch) {
+                allocations.complete(request.getTicket(),
+                        new TermAllocationService.Allocation("TermNotFound", "", null));
+            }
+            return;
+        }
+        TermState currentTermState = currentTermStateAndRef.getState().getData();
+        int unitsAvailable = currentTermState.getUnitsAvailable();
+        List<TermAllocationService.Request> accepted = new ArrayList<>();
+        Map<Party, Integer> unitsByInvestor = new LinkedHashMap<>();
+        for (TermAllocationService.Request request : batch) {
+            if (request.getUnits() > unitsAvailable) {
+                allocations.complete(request.getTicket(),
+                        new TermAllocationService.Allocation("NotEnoughUnits", "", null));
+                continue;
+            }
+            unitsAvailable -= request.getUnits();
+            accepted.add(request);
+            unitsByInvestor.merge(request.getInvestor(), request.getUnits(), Integer::sum);
+        }
+        if (accepted.isEmpty()) {
+            return;
+        }
+        int unitsAllocated = currentTermState.getUnitsAvailable() - unitsAvailable;
+        log.info("Allocating {} units of term {} to {} requests", unitsAllocated, termId, accepted.size());
+
+        progressTracker.setCurrentStep(IDENTIFY_OBSERVERS);
+        final Party notary = getServiceHub().getNetworkMapCache().getNotary(CordaParties.NOTARY.getCordaX500Name());
+        List<Party> observers = Utility.getLegalIdentitiesByOU(getServiceHub(), "Observer");
+        List<Party> termObservers = Utility.getLegalIdentitiesByOU(getServiceHub(), "Bank")
+                .stream()
+                .filter(party -> !Objects.equals(party.getName().getCommonName(),
+                        bondIssuer.getName().getCommonName()))
+                .collect(Collectors.toList());
+        termObservers.addAll(observers);
+        List<Party> bondObservers = new ArrayList<>(observers);
+        bondObservers.add(bondIssuer);
+
+        progressTracker.setCurrentStep(UPDATE_STATES);
+        Set<Party> investors = new HashSet<>(currentTermState.getInvestors());
+        investors.addAll(unitsByInvestor.keySet());
+        TermState newTermState = new TermState(
+                currentTermState.getIssuer(), investors, currentTermState.getBondName(),
+                currentTermState.getBondStatus(), currentTermState.getInterestRate(), currentTermState.getParValue(),
+                unitsAvailable, (currentTermState.getRedemptionAvailable() + unitsAllocated),
+                currentTermState.getLinearId(), currentTermState.getMaturityDate(),
+                currentTermState.getBondType(), currentTermState.getCurrency(),
+                currentTermState.getCreditRating(), currentTermState.getPaymentFrequencyInMonths());
+        progressTracker.setCurrentStep(SIGNING_TRANSACTIONS);
+        subFlow(new UpdateEvolvableToken(currentTermStateAndRef, newTermState, termObservers));
+
+        SignedTransaction stx;
+        Map<Party, UniqueIdentifier> bondIds = new HashMap<>();
+        try {
+            stx = issueBonds(termId, newTermState, unitsByInvestor, bondIds, notary, bondObservers);
+        } catch (FlowException | RuntimeException e) {
+            // the units are already off the term, put them back before the batch is reported as failed
+            log.error("Issuing {} units of term {} failed after the term was updated", unitsAllocated, termId, e);
+            try {
+                restoreUnits(termId, currentTermState.getInvestors(), unitsAllocated, termObservers);
+            } catch (FlowException | RuntimeException restoreFailure) {
+                log.error("{} units of term {} could not be put back", unitsAllocated, termId, restoreFailure);
+                e.addSuppressed(restoreFailure);
+            }
+            throw e;
+        }
+        for (TermAllocationService.Request request : accepted) {
+            allocations.complete(request.getTicket(), new TermAllocationService.Allocation("OK",
+                    bondIds.get(request.getInvestor()).toString(), stx.getId()));
+        }
+    }
+
+    /**
+     * Creates the BondStates of the investors new to the term and issues the bond tokens of a batch, filling in
+     * bondIds with the BondState of each investor.
+     */
+    @Suspendable
+    private SignedTransaction issueBonds(UniqueIdentifier termId, TermState newTermState,
+                                         Map<Party, Integer> unitsByInvestor, Map<Party, UniqueIdentifier> bondIds,
+                                         Party notary, List<Party> bondObservers) throws FlowException {
+        Party bondIssuer = getOurIdentity();
+        progressTracker.setCurrentStep(CREATE_STATES);
+        LocalDate now = LocalDate.now();
+        long numberOfPayments = CouponPaymentUtil.getCouponPayments
+                (newTermState.getPaymentFrequencyInMonths(), 30,
+                        LocalDate.parse(newTermState.getMaturityDate(), dateFormatter), now);
+        String issueDate = dateFormatter.format(now);
+        // In order to demo coupon payment first coupon is always on the same date
+        String nCouponDate = dateFormatter.format(now);
+        CustomQuery.queryBondByTermStateLinearID(termId, getServiceHub()).stream()
+                .filter(bondState -> unitsByInvestor.containsKey(bondState.getInvestor()))
+                .forEach(bondState -> bondIds.putIfAbsent(bondState.getInvestor(), bondState.getLinearId()));
+        List<TransactionState<EvolvableTokenType>> newBondStates = new ArrayList<>();
+        for (Party investor : unitsByInvestor.keySet()) {
+            if (!bondIds.containsKey(investor)) {
+                UniqueIdentifier bondLinearId = new UniqueIdentifier();
+                bondIds.put(investor, bondLinearId);
+                newBondStates.add(new TransactionState<>(new BondState(
+                        bondIssuer, investor, newTermState.getInterestRate(), newTermState.getParValue(),
+                        newTermState.getMaturityDate(), newTermState.getCreditRating(), numberOfPayments,
+                        newTermState.getBondStatus(), newTermState.getBondType(), newTermState.getCurrency(),
+                        newTermState.getBondName(), newTermState.getLinearId(), bondLinearId,
+                        newTermState.getPaymentFrequencyInMonths(), issueDate, nCouponDate), notary));
+            }
+        }
+        if (!newBondStates.isEmpty()) {
+            subFlow(new CreateEvolvableTokens(newBondStates, bondObservers));
+        }
+
+        progressTracker.setCurrentStep(CREATE_TOKENS);
+        List<AbstractToken> bondTokens = unitsByInvestor.entrySet().stream()
+                .map(units -> new FungibleTokenBuilder()
+                        .ofTokenType(newTermState.toPointer())
+                        .issuedBy(bondIssuer)
+                        .heldBy(units.getKey())
+                        .withAmount(units.getValue())
+                        .buildFungibleToken())
+                .collect(Collectors.toList());
+        progressTracker.setCurrentStep(SIGNING_TRANSACTIONS);
+        return subFlow(new IssueTokens(bondTokens, bondObservers));
+    }
+
+    /**
+     * Puts units taken off a term back on it, with the investors it had before, once their allocation failed.
+     */
+    @Suspendable
+    private void restoreUnits(UniqueIdentifier termId, Set<Party> investors, int units, List<Party> termObservers)
+            throws FlowException {
+        StateAndRef<TermState> termStateAndRef = CustomQuery.queryActiveTermsByTermStateLinearID
+                (termId, getServiceHub());
+        TermState termState = termStateAndRef.getState().getData();
+        TermState restoredTermState = new TermState(
+                termState.getIssuer(), new HashSet<>(investors), termState.getBondName(),
+                termState.getBondStatus(), termState.getInterestRate(), termState.getParValue(),
+                termState.getUnitsAvailable() + units, termState.getRedemptionAvailable() - units,
+                termState.getLinearId(), termState.getMaturityDate(),
+                termState.getBondType(), termState.getCurrency(),
+                termState.getCreditRating(), termState.getPaymentFrequencyInMonths());
+        progressTracker.setCurrentStep(UPDATE_STATES);
+        subFlow(new UpdateEvolvableToken(termStateAndRef, restoredTermState, termObservers));
+        log.info("Put {} units back on term {}", units, termId);
+    }
+
     @CordaSerializable
     public static class BondRequestNotification {
         private final Party investor;
@@ -4,6 +4,7 @@ import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import com.jtk.corda.CordaParties;
 import com.jtk.corda.states.cash.issuance.CashState;
+import com.jtk.corda.workflows.services.TimedFlowLogic;
 import com.jtk.corda.workflows.utils.CustomQuery;
 import com.jtk.corda.workflows.utils.Utility;
 import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
@@ -13,7 +14,6 @@ import com.r3.corda.lib.tokens.workflows.utilities.FungibleTokenBuilder;
 import net.corda.core.contracts.TransactionState;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.flows.FlowException;
-import net.corda.core.flows.FlowLogic;
 import net.corda.core.flows.InitiatingFlow;
 import net.corda.core.flows.StartableByRPC;
 import net.corda.core.identity.Party;
@@ -28,7 +28,7 @@ import java.util.stream.Collectors;
 
 @InitiatingFlow
 @StartableByRPC
-public class CreateCashFlow extends FlowLogic<String> {
+public class CreateCashFlow extends TimedFlowLogic<String> {
     private static final Logger log = LoggerFactory.getLogger(CreateCashFlow.class);
 
     private final ProgressTracker progressTracker = new ProgressTracker(
@@ -66,9 +66,14 @@ public class CreateCashFlow extends FlowLogic<String> {
         this.usdRate = usdRate;
     }
 
+    @Override
+    public ProgressTracker getProgressTracker() {
+        return progressTracker;
+    }
+
     @Override
     @Suspendable
-    public String call() throws FlowException {
+    protected String doCall() throws FlowException {
         BigDecimal amountInBG = new BigDecimal(amount);
         log.info("Creating Central Bank: [{}] monies...", amountInBG);
 
@@ -78,7 +83,7 @@ public class CreateCashFlow extends FlowLogic<String> {
             throw new FlowException("Only Central Bank can create money");
         }
         progressTracker.setCurrentStep(IDENTIFY_OBSERVERS);
-        List<Party> observers = Utility.getLegalIdentitiesByOU(getServiceHub().getIdentityService(), "Observer");
+        List<Party> observers = Utility.getLegalIdentitiesByOU(getServiceHub(), "Observer");
         log.info("Observers {}", observers.stream().map(party -> party.getName().getCommonName()).collect(Collectors.toList()));
         if (observers.size() == 0) {
             throw new FlowException("Cannot issue money without observers");
@@ -56,8 +56,7 @@ public class QueryCashTokenFlow {
         public List<CashState> call() throws FlowException {
             return getServiceHub().getVaultService().queryBy(CashState.class).getStates()
                     .stream()
-                    .map(sr -> sr.getState().getData().toPointer(CashState.class))
-                    .map(p -> p.getPointer().resolve(getServiceHub()).getState().getData())
+                    .map(sr -> sr.getState().getData())
                     .collect(Collectors.toList());
         }
     }
@@ -3,6 +3,7 @@ package com.jtk.corda.workflows.cash.issuance;
 import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import com.jtk.corda.states.cash.issuance.CashState;
+import com.jtk.corda.workflows.services.TimedFlowLogic;
 import com.jtk.corda.workflows.utils.CustomQuery;
 import com.jtk.corda.workflows.utils.Utility;
 import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
@@ -12,6 +13,7 @@ import com.r3.corda.lib.tokens.workflows.flows.rpc.MoveFungibleTokens;
 import com.r3.corda.lib.tokens.workflows.types.PartyAndAmount;
 import com.r3.corda.lib.tokens.workflows.utilities.FungibleTokenBuilder;
 import com.r3.corda.lib.tokens.workflows.utilities.QueryUtilities;
+import net.corda.core.contracts.Amount;
 import net.corda.core.flows.FlowException;
 import net.corda.core.flows.FlowLogic;
 import net.corda.core.flows.FlowSession;
@@ -19,15 +21,21 @@ import net.corda.core.flows.InitiatedBy;
 import net.corda.core.flows.InitiatingFlow;
 import net.corda.core.flows.StartableByRPC;
 import net.corda.core.identity.Party;
+import net.corda.core.node.ServiceHub;
 import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.ConstructorForDeserialization;
+import net.corda.core.serialization.CordaSerializable;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.utilities.ProgressTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class TransferTokenFlow {
@@ -44,18 +52,25 @@ public class TransferTokenFlow {
 
     private static final ProgressTracker.Step DONE = new ProgressTracker
             .Step("Done Transferring Digital Currency");
-    private static final ProgressTracker progressTracker = new ProgressTracker(
-            AUTHORIZATION,
-            IDENTIFY_OBSERVERS,
-            FIND_TOKEN,
-            TRANSFER_TOKENS,
-            DONE
-    );
+
+    /**
+     * A tracker per flow, so concurrent transfers do not move each other's steps.
+     */
+    private static ProgressTracker tracker() {
+        return new ProgressTracker(
+                AUTHORIZATION,
+                IDENTIFY_OBSERVERS,
+                FIND_TOKEN,
+                TRANSFER_TOKENS,
+                DONE
+        );
+    }
 
     @InitiatingFlow
     @StartableByRPC
-    public static class TransferTokenInitiator extends FlowLogic<SignedTransaction> {
+    public static class TransferTokenInitiator extends TimedFlowLogic<SignedTransaction> {
         private static final Logger log = LoggerFactory.getLogger(TransferTokenInitiator.class);
+        private final ProgressTracker progressTracker = tracker();
 
         private final String currencyCode;
         private final String amount;
@@ -67,9 +82,14 @@ public class TransferTokenFlow {
             this.recipient = recipient;
         }
 
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
         @Override
         @Suspendable
-        public SignedTransaction call() throws FlowException {
+        protected SignedTransaction doCall() throws FlowException {
             BigDecimal amountInBG = new BigDecimal(amount);
             log.info("Transferring {} {} to {} ", amountInBG, currencyCode, recipient.getName().getCommonName());
 
@@ -85,7 +105,7 @@ public class TransferTokenFlow {
             }
 
             progressTracker.setCurrentStep(IDENTIFY_OBSERVERS);
-            List<Party> observers = Utility.getLegalIdentitiesByOU(getServiceHub().getIdentityService(), "Observer");
+            List<Party> observers = Utility.getLegalIdentitiesByOU(getServiceHub(), "Observer");
             log.info("Observers: {}", observers.stream().map(party -> party.getName().getCommonName()).collect(Collectors.toList()));
             List<CashState> cashStates = CustomQuery.queryCashStateByCurrency(currencyCode, getServiceHub());
             if(cashStates.size() > 0) {
@@ -126,6 +146,140 @@ public class TransferTokenFlow {
         }
     }
 
+    /**
+     * Moves cash to many recipients at once. Legs are netted per recipient and currency and every currency is
+     * settled with a single MoveFungibleTokens, so N payouts cost one notarised transaction per currency.
+     */
+    @InitiatingFlow
+    @StartableByRPC
+    public static class MultiTransferTokenInitiator extends TimedFlowLogic<List<SignedTransaction>> {
+        private static final Logger log = LoggerFactory.getLogger(MultiTransferTokenInitiator.class);
+        private final ProgressTracker progressTracker = tracker();
+
+        private final List<TransferLeg> legs;
+
+        public MultiTransferTokenInitiator(List<TransferLeg> legs) {
+            this.legs = legs;
+        }
+
+        @Override
+        public ProgressTracker getProgressTracker() {
+            return progressTracker;
+        }
+
+        @Override
+        @Suspendable
+        protected List<SignedTransaction> doCall() throws FlowException {
+            progressTracker.setCurrentStep(AUTHORIZATION);
+            Party me = getOurIdentity();
+            ImmutableList<String> allowedSenders = ImmutableList.of("CBDC", "Bank");
+            ImmutableList<String> allowedRecipients = ImmutableList.of("Bank");
+            if (!allowedSenders.contains(me.getName().getOrganisationUnit())) {
+                throw new FlowException("You can only transfer from Bank or CBDC");
+            }
+            for (TransferLeg leg : legs) {
+                if (!allowedRecipients.contains(leg.getRecipient().getName().getOrganisationUnit())) {
+                    throw new FlowException("You can only transfer to Banks");
+                }
+            }
+            Map<String, Map<Party, BigDecimal>> nettedLegs;
+            try {
+                nettedLegs = netLegs(legs);
+            } catch (IllegalArgumentException e) {
+                throw new FlowException(e.getMessage());
+            }
+
+            progressTracker.setCurrentStep(IDENTIFY_OBSERVERS);
+            List<Party> observers = Utility.getLegalIdentitiesByOU(getServiceHub(), "Observer");
+
+            List<SignedTransaction> transactions = new ArrayList<>();
+            for (Map.Entry<String, Map<Party, BigDecimal>> currencyLegs : nettedLegs.entrySet()) {
+                progressTracker.setCurrentStep(FIND_TOKEN);
+                TokenPointer<CashState> cashPointer = queryCashPointer(currencyLegs.getKey(), getServiceHub());
+                List<PartyAndAmount<TokenType>> partyAmounts = toPartyAndAmounts(currencyLegs.getValue(), cashPointer);
+                if (partyAmounts.isEmpty()) {
+                    continue;
+                }
+                final QueryCriteria heldByMeCriteria = QueryUtilities.heldTokenAmountCriteria(cashPointer, me);
+
+                progressTracker.setCurrentStep(TRANSFER_TOKENS);
+                SignedTransaction stx = subFlow(new MoveFungibleTokens(partyAmounts, observers, heldByMeCriteria, me));
+                log.info("Transferred {} {} to {} recipients with transactionId: {}",
+                        currencyLegs.getValue().values().stream().reduce(BigDecimal.ZERO, BigDecimal::add),
+                        currencyLegs.getKey(), partyAmounts.size(), stx.getId());
+                transactions.add(stx);
+            }
+            progressTracker.setCurrentStep(DONE);
+            return transactions;
+        }
+    }
+
+    /**
+     * Nets the legs per currency and recipient. Currencies and recipients keep the order they first appear in.
+     */
+    public static Map<String, Map<Party, BigDecimal>> netLegs(List<TransferLeg> legs) {
+        Map<String, Map<Party, BigDecimal>> netted = new LinkedHashMap<>();
+        for (TransferLeg leg : legs) {
+            BigDecimal amount = new BigDecimal(leg.getAmount());
+            if (amount.signum() < 0) {
+                throw new IllegalArgumentException("Transfer amount cannot be negative: " + leg.getAmount());
+            }
+            netted.computeIfAbsent(leg.getCurrencyCode(), currency -> new LinkedHashMap<>())
+                    .merge(leg.getRecipient(), amount, BigDecimal::add);
+        }
+        return netted;
+    }
+
+    /**
+     * Turns netted amounts into MoveFungibleTokens legs of {@code tokenType}, leaving out zero amounts.
+     */
+    public static List<PartyAndAmount<TokenType>> toPartyAndAmounts(Map<Party, BigDecimal> nettedAmounts,
+                                                                    TokenType tokenType) {
+        List<PartyAndAmount<TokenType>> partyAmounts = new ArrayList<>();
+        for (Map.Entry<Party, BigDecimal> recipientAmount : nettedAmounts.entrySet()) {
+            if (recipientAmount.getValue().signum() > 0) {
+                partyAmounts.add(new PartyAndAmount<>(recipientAmount.getKey(),
+                        Amount.fromDecimal(recipientAmount.getValue(), tokenType)));
+            }
+        }
+        return partyAmounts;
+    }
+
+    public static TokenPointer<CashState> queryCashPointer(String currencyCode, ServiceHub serviceHub)
+            throws FlowException {
+        List<CashState> cashStates = CustomQuery.queryCashStateByCurrency(currencyCode, serviceHub);
+        if (cashStates.isEmpty()) {
+            throw new FlowException("No Cash State [" + currencyCode + "] available ");
+        }
+        return cashStates.get(0).toPointer();
+    }
+
+    @CordaSerializable
+    public static class TransferLeg {
+        private final Party recipient;
+        private final String amount;
+        private final String currencyCode;
+
+        @ConstructorForDeserialization
+        public TransferLeg(Party recipient, String amount, String currencyCode) {
+            this.recipient = recipient;
+            this.amount = amount;
+            this.currencyCode = currencyCode;
+        }
+
+        public Party getRecipient() {
+            return recipient;
+        }
+
+        public String getAmount() {
+            return amount;
+        }
+
+        public String getCurrencyCode() {
+            return currencyCode;
+        }
+    }
+
     @InitiatedBy(TransferTokenInitiator.class)
     public static class TransferTokenResponder extends FlowLogic<SignedTransaction>{
         private static final Logger log = LoggerFactory.getLogger(TransferTokenResponder.class);
@@ -0,0 +1,116 @@
+package com.jtk.corda.workflows.services;
+
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.ConstructorForDeserialization;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The asks this bank has posted for the bonds it holds, by term: the lowest price per unit it sells at and how many
+ * units it still sells. A delivery versus payment is only signed when an ask covers it, and the units it delivers are
+ * taken off the ask. Asks are posted with {@link com.jtk.corda.workflows.bond.issuance.BondAskFlow.PostBondAsk}; they
+ * are in memory only and have to be posted again after a restart, until then nothing is sold.
+ */
+@CordaService
+public class BondAskService extends SingletonSerializeAsToken {
+    private static final Logger log = LoggerFactory.getLogger(BondAskService.class);
+
+    private final Map<UniqueIdentifier, Ask> asks = new HashMap<>();
+
+    public BondAskService(AppServiceHub serviceHub) {
+    }
+
+    /**
+     * Replaces the ask of the term, withdraws it when units is 0.
+     */
+    public synchronized void post(UniqueIdentifier termId, int unitPrice, int units) {
+        if (units == 0) {
+            asks.remove(termId);
+            log.info("Withdrew ask of term {}", termId);
+        } else {
+            asks.put(termId, new Ask(termId.toString(), unitPrice, units));
+            log.info("Posted ask of term {}: {} units at {}", termId, units, unitPrice);
+        }
+    }
+
+    /**
+     * The ask of the term, null when none is posted.
+     */
+    public synchronized Ask ask(UniqueIdentifier termId) {
+        return asks.get(termId);
+    }
+
+    /**
+     * Whether the ask of the term sells units at cost.
+     */
+    public synchronized boolean covers(UniqueIdentifier termId, int units, int cost) {
+        Ask ask = asks.get(termId);
+        return ask != null && ask.covers(units, cost);
+    }
+
+    /**
+     * Takes units sold at cost off the ask of the term, false when it does not cover them.
+     */
+    public synchronized boolean take(UniqueIdentifier termId, int units, int cost) {
+        Ask ask = asks.get(termId);
+        if (ask == null || !ask.covers(units, cost)) {
+            return false;
+        }
+        post(termId, ask.getUnitPrice(), ask.getUnits() - units);
+        return true;
+    }
+
+    /**
+     * Puts units taken for a transfer that was not signed back on the ask of the term, if it is still posted.
+     */
+    public synchronized void release(UniqueIdentifier termId, int units) {
+        Ask ask = asks.get(termId);
+        if (ask != null) {
+            asks.put(termId, new Ask(ask.getTermId(), ask.getUnitPrice(), ask.getUnits() + units));
+        }
+    }
+
+    @CordaSerializable
+    public static class Ask {
+        private final String termId;
+        private final int unitPrice;
+        private final int units;
+
+        @ConstructorForDeserialization
+        public Ask(String termId, int unitPrice, int units) {
+            this.termId = termId;
+            this.unitPrice = unitPrice;
+            this.units = units;
+        }
+
+        public String getTermId() {
+            return termId;
+        }
+
+        public int getUnitPrice() {
+            return unitPrice;
+        }
+
+        public int getUnits() {
+            return units;
+        }
+
+        /**
+         * Whether units sold at cost are within the ask, at no less than its price per unit.
+         */
+        public boolean covers(int units, int cost) {
+            return units > 0 && units <= this.units && cost >= (long) unitPrice * units;
+        }
+
+        public String toJson() {
+            return String.format("{\"termId\":\"%s\",\"unitPrice\":%d,\"units\":%d}", termId, unitPrice, units);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.jtk.corda.workflows.services;
+
+import net.corda.core.flows.StateMachineRunId;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lets one coupon run at a time pay coupons on this node, whether it was started over RPC or by the coupon scheduler.
+ * The lock is held by a flow run id and is re-entrant for that run, so a scheduled run can pay through the coupon
+ * payment flows as sub flows. It is in memory only; a run resumed from a checkpoint after a restart does not hold it.
+ */
+@CordaService
+public class CouponRunLock extends SingletonSerializeAsToken {
+    private static final Logger log = LoggerFactory.getLogger(CouponRunLock.class);
+
+    private StateMachineRunId holder;
+    private int holds;
+
+    public CouponRunLock(AppServiceHub serviceHub) {
+    }
+
+    /**
+     * Takes the lock for runId, false when another run holds it.
+     */
+    public synchronized boolean tryLock(StateMachineRunId runId) {
+        if (holder != null && !holder.equals(runId)) {
+            log.info("Coupon run {} refused, run {} is in progress", runId, holder);
+            return false;
+        }
+        holder = runId;
+        holds++;
+        return true;
+    }
+
+    /**
+     * Releases one hold of runId, the lock is free once every tryLock of the run has been released.
+     */
+    public synchronized void unlock(StateMachineRunId runId) {
+        if (holder == null || !holder.equals(runId)) {
+            return;
+        }
+        if (--holds == 0) {
+            holder = null;
+        }
+    }
+
+    public synchronized boolean isLocked() {
+        return holder != null;
+    }
+}
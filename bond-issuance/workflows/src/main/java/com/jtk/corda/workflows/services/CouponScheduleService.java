@@ -0,0 +1,228 @@
+package com.jtk.corda.workflows.services;
+
+import com.jtk.corda.contants.BondStatus;
+import com.jtk.corda.states.bond.issuance.BondState;
+import com.jtk.corda.workflows.utils.CustomQuery;
+import com.jtk.corda.workflows.utils.QueryPage;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.ServiceLifecycleEvent;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+
+/**
+ * Index of the active bonds with coupons left, sorted by nextCouponDate, so the bonds due on a date or over a period
+ * are a range lookup rather than a vault scan.
+ * Coupon dates are yyyyMMdd strings, which sort the same way as the dates. The index is loaded once the state
+ * machine has started and is kept current from the vault updates; callers re-check the states they resolve from it.
+ */
+@CordaService
+public class CouponScheduleService extends SingletonSerializeAsToken {
+    private static final Logger log = LoggerFactory.getLogger(CouponScheduleService.class);
+
+    private final AppServiceHub serviceHub;
+    private final ConcurrentSkipListMap<String, Set<UniqueIdentifier>> bondsByCouponDate = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<UniqueIdentifier, ScheduledBond> scheduledBonds = new ConcurrentHashMap<>();
+    // refs consumed while the index was being loaded, a page read before the consumption must not revive them
+    private final Set<StateRef> consumedWhileLoading = new HashSet<>();
+    private boolean loading = true;
+    private volatile boolean ready = false;
+
+    public CouponScheduleService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        serviceHub.register(AppServiceHub.SERVICE_PRIORITY_NORMAL, event -> {
+            if (event == ServiceLifecycleEvent.STATE_MACHINE_STARTED) {
+                load();
+            }
+        });
+    }
+
+    /**
+     * False until the index has been loaded, callers then have to query the vault themselves.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * LinearIds of the bonds issued by {@code issuer} with a coupon due on {@code couponDate} (yyyyMMdd).
+     */
+    public List<UniqueIdentifier> getBondsDueOn(String couponDate, Party issuer) {
+        return issuedBy(bondsByCouponDate.get(couponDate), issuer);
+    }
+
+    /**
+     * The bonds {@code issuer} has to pay a coupon on for {@code couponDate}, resolved with one vault query per page of
+     * due bonds. Falls back to {@link CustomQuery#queryBondRefsDueForCoupon} while the index is not loaded.
+     */
+    public List<StateAndRef<BondState>> queryBondRefsDueForCoupon(String couponDate, Party issuer,
+                                                                  ServiceHub flowServiceHub) {
+        if (!ready) {
+            return CustomQuery.queryBondRefsDueForCoupon(couponDate, issuer, flowServiceHub);
+        }
+        List<UniqueIdentifier> due = getBondsDueOn(couponDate, issuer);
+        due.sort(Comparator.comparing(id -> id.getId().toString()));
+        // the index may trail the vault by an update, so only the states still due are kept
+        return CustomQuery.queryBondRefsByLinearIds(due, flowServiceHub).stream()
+                .filter(sr -> {
+                    BondState bond = sr.getState().getData();
+                    return couponDate.equals(bond.getNextCouponDate())
+                            && bond.getIssuer().equals(issuer)
+                            && BondStatus.ACTIVE.name().equals(bond.getBondStatus());
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Bonds issued by {@code issuer} with a coupon due between the two dates (yyyyMMdd, both inclusive), by coupon date.
+     */
+    public SortedMap<String, List<UniqueIdentifier>> getBondsDueBetween(String fromDate, String toDate, Party issuer) {
+        SortedMap<String, List<UniqueIdentifier>> schedule = new TreeMap<>();
+        bondsByCouponDate.subMap(fromDate, true, toDate, true).forEach((couponDate, ids) -> {
+            List<UniqueIdentifier> due = issuedBy(ids, issuer);
+            if (!due.isEmpty()) {
+                schedule.put(couponDate, due);
+            }
+        });
+        return schedule;
+    }
+
+    /**
+     * Coupon dates up to and including {@code date} (yyyyMMdd) on which bonds issued by {@code issuer} are still
+     * unpaid, oldest first. Dates before {@code date} are coupons a run has missed.
+     */
+    public List<String> getCouponDatesDueBy(String date, Party issuer) {
+        return bondsByCouponDate.headMap(date, true).entrySet().stream()
+                .filter(couponDate -> !issuedBy(couponDate.getValue(), issuer).isEmpty())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    private List<UniqueIdentifier> issuedBy(Set<UniqueIdentifier> ids, Party issuer) {
+        List<UniqueIdentifier> issued = new ArrayList<>();
+        if (ids != null) {
+            for (UniqueIdentifier id : ids) {
+                ScheduledBond bond = scheduledBonds.get(id);
+                if (bond != null && bond.issuer.equals(issuer)) {
+                    issued.add(id);
+                }
+            }
+        }
+        return issued;
+    }
+
+    private void load() {
+        long start = System.currentTimeMillis();
+        QueryCriteria activeBonds = CustomQuery.activeBondsCriteria();
+        // the feed is only used for its updates, which are not filtered by the criteria
+        DataFeed<Vault.Page<BondState>, Vault.Update<BondState>> feed = serviceHub.getVaultService()
+                .trackBy(BondState.class, activeBonds, new PageSpecification(DEFAULT_PAGE_NUM, 1));
+        feed.getUpdates().subscribe(this::onVaultUpdate,
+                e -> {
+                    ready = false;
+                    log.error("Vault feed failed, coupon schedule is no longer updated", e);
+                });
+
+        int page = DEFAULT_PAGE_NUM;
+        long read = 0;
+        Vault.Page<BondState> result;
+        do {
+            result = serviceHub.getVaultService()
+                    .queryBy(BondState.class, activeBonds, new PageSpecification(page++, QueryPage.MAX_PAGE_SIZE));
+            addLoaded(result.getStates());
+            read += result.getStates().size();
+        } while (!result.getStates().isEmpty() && read < result.getTotalStatesAvailable());
+        loaded();
+        log.info("Coupon schedule loaded {} bonds over {} coupon dates in {}ms", scheduledBonds.size(),
+                bondsByCouponDate.size(), System.currentTimeMillis() - start);
+    }
+
+    private synchronized void addLoaded(List<StateAndRef<BondState>> states) {
+        for (StateAndRef<BondState> state : states) {
+            if (!consumedWhileLoading.contains(state.getRef())) {
+                add(state);
+            }
+        }
+    }
+
+    private synchronized void loaded() {
+        loading = false;
+        consumedWhileLoading.clear();
+        ready = true;
+    }
+
+    private synchronized void onVaultUpdate(Vault.Update<BondState> update) {
+        for (StateAndRef<BondState> state : update.getConsumed()) {
+            if (loading) {
+                consumedWhileLoading.add(state.getRef());
+            }
+            ScheduledBond current = scheduledBonds.get(state.getState().getData().getLinearId());
+            if (current != null && current.ref.equals(state.getRef())) {
+                remove(state.getState().getData().getLinearId(), current);
+            }
+        }
+        update.getProduced().forEach(this::add);
+    }
+
+    private void add(StateAndRef<BondState> state) {
+        BondState bond = state.getState().getData();
+        ScheduledBond previous = scheduledBonds.get(bond.getLinearId());
+        if (previous != null) {
+            remove(bond.getLinearId(), previous);
+        }
+        if (!BondStatus.ACTIVE.name().equals(bond.getBondStatus()) || bond.getCouponPaymentLeft() <= 0) {
+            return;
+        }
+        scheduledBonds.put(bond.getLinearId(), new ScheduledBond(state.getRef(), bond.getNextCouponDate(),
+                bond.getIssuer()));
+        bondsByCouponDate.computeIfAbsent(bond.getNextCouponDate(), key -> ConcurrentHashMap.newKeySet())
+                .add(bond.getLinearId());
+    }
+
+    private void remove(UniqueIdentifier linearId, ScheduledBond bond) {
+        scheduledBonds.remove(linearId);
+        Set<UniqueIdentifier> ids = bondsByCouponDate.get(bond.couponDate);
+        if (ids != null) {
+            ids.remove(linearId);
+            if (ids.isEmpty()) {
+                bondsByCouponDate.remove(bond.couponDate, ids);
+            }
+        }
+    }
+
+    private static class ScheduledBond {
+        private final StateRef ref;
+        private final String couponDate;
+        private final Party issuer;
+
+        private ScheduledBond(StateRef ref, String couponDate, Party issuer) {
+            this.ref = ref;
+            this.couponDate = couponDate;
+            this.issuer = issuer;
+        }
+    }
+}
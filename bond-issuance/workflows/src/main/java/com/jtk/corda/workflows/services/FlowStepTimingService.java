@@ -0,0 +1,119 @@
+package com.jtk.corda.workflows.services;
+
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.utilities.ProgressTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Times the ProgressTracker steps of the flows handed to {@link #track(FlowLogic, ProgressTracker)}, which every
+ * {@link TimedFlowLogic} is as it starts. A step lasts from the tracker moving to it until it moves on, and goes into
+ * a histogram per flow class and step label. A flow's last step is only timed when the tracker ends, which the state
+ * machine does for trackers the flow returns from getProgressTracker().
+ * Each histogram is published as a {@link StepTimingMXBean} named
+ * com.jtk.corda:type=FlowStepTiming,node=&lt;organisation&gt;,flow=&lt;flow class&gt;,step=&lt;step label&gt;
+ * so JMX clients and exporters can scrape it. Only the top level steps of a flow's own tracker are timed.
+ * The histograms are in memory only; a flow resumed from a checkpoint after a restart is no longer tracked.
+ */
+@CordaService
+public class FlowStepTimingService extends SingletonSerializeAsToken {
+    private static final Logger log = LoggerFactory.getLogger(FlowStepTimingService.class);
+    public static final String JMX_DOMAIN = "com.jtk.corda";
+
+    private final String node;
+    private final ConcurrentMap<String, StepTiming> timings = new ConcurrentHashMap<>();
+
+    public FlowStepTimingService(AppServiceHub serviceHub) {
+        this.node = serviceHub.getMyInfo().getLegalIdentities().get(0).getName().getOrganisation();
+    }
+
+    /**
+     * Starts timing the steps of the flow's progress tracker, call it before the flow's first step. The tracker
+     * must belong to this flow alone.
+     */
+    public void track(FlowLogic<?> flow, ProgressTracker tracker) {
+        StepClock clock = new StepClock(flow.getClass().getName());
+        tracker.getChanges().subscribe(change -> {
+                    if (change instanceof ProgressTracker.Change.Position && change.getProgressTracker() == tracker) {
+                        clock.enter(((ProgressTracker.Change.Position) change).getNewStep());
+                    }
+                },
+                e -> clock.enter(null),
+                () -> clock.enter(null));
+    }
+
+    public StepTiming getTiming(Class<?> flowClass, String step) {
+        return timings.get(key(flowClass.getName(), step));
+    }
+
+    /**
+     * Every step timed so far. The list is a copy the caller is free to modify.
+     */
+    public List<StepTiming> getTimings() {
+        return new ArrayList<>(timings.values());
+    }
+
+    private StepTiming timing(String flow, String step) {
+        return timings.computeIfAbsent(key(flow, step), k -> register(new StepTiming(flow, step)));
+    }
+
+    /**
+     * Registers the timing with the platform MBean server. A bean of the same name left by a node that ran earlier
+     * in this JVM, as in-process test nodes do, is replaced.
+     */
+    private StepTiming register(StepTiming timing) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=FlowStepTiming"
+                    + ",node=" + ObjectName.quote(node)
+                    + ",flow=" + ObjectName.quote(timing.getFlow())
+                    + ",step=" + ObjectName.quote(timing.getStep()));
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(timing, name);
+        } catch (JMException e) {
+            log.warn("Could not publish timing of step '{}' of {} over JMX", timing.getStep(), timing.getFlow(), e);
+        }
+        return timing;
+    }
+
+    private static String key(String flow, String step) {
+        return flow + '\u0000' + step;
+    }
+
+    /**
+     * The step a single flow is in and since when. Steps move on the flow's fiber, the end of the flow may be
+     * signalled from the state machine.
+     */
+    private final class StepClock {
+        private final String flow;
+        private ProgressTracker.Step current;
+        private long since;
+
+        private StepClock(String flow) {
+            this.flow = flow;
+        }
+
+        private synchronized void enter(ProgressTracker.Step step) {
+            long now = System.nanoTime();
+            if (current != null) {
+                timing(flow, current.getLabel()).record(now - since);
+            }
+            current = step instanceof ProgressTracker.DONE || step instanceof ProgressTracker.UNSTARTED ? null : step;
+            since = now;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.jtk.corda.workflows.services;
+
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.NetworkMapCache;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the network's legal identities indexed by organisation unit (Bank, Observer, CBDC, ...).
+ * The index is seeded from the network map snapshot and kept current from its updates, so flows look parties up
+ * by OU without scanning every identity the node knows about.
+ */
+@CordaService
+public class PartyDirectoryService extends SingletonSerializeAsToken {
+    private static final Logger log = LoggerFactory.getLogger(PartyDirectoryService.class);
+
+    private final ConcurrentMap<String, Set<Party>> partiesByOU = new ConcurrentHashMap<>();
+
+    public PartyDirectoryService(AppServiceHub serviceHub) {
+        DataFeed<List<NodeInfo>, NetworkMapCache.MapChange> feed = serviceHub.getNetworkMapCache().track();
+        feed.getSnapshot().forEach(this::addNode);
+        feed.getUpdates().subscribe(this::onMapChange,
+                e -> log.error("Network map feed failed, party directory is no longer updated", e));
+        log.info("Party directory started with organisation units {}", partiesByOU.keySet());
+    }
+
+    /**
+     * Parties of the given organisation unit. The list is a copy the caller is free to modify.
+     */
+    public List<Party> getPartiesByOU(String organizationalUnit) {
+        Set<Party> parties = partiesByOU.get(organizationalUnit);
+        return parties == null ? new ArrayList<>() : new ArrayList<>(parties);
+    }
+
+    private void onMapChange(NetworkMapCache.MapChange change) {
+        if (change instanceof NetworkMapCache.MapChange.Modified) {
+            removeNode(((NetworkMapCache.MapChange.Modified) change).getPreviousNode());
+            addNode(change.getNode());
+        } else if (change instanceof NetworkMapCache.MapChange.Removed) {
+            removeNode(change.getNode());
+        } else {
+            addNode(change.getNode());
+        }
+    }
+
+    private void addNode(NodeInfo nodeInfo) {
+        for (Party party : nodeInfo.getLegalIdentities()) {
+            String ou = party.getName().getOrganisationUnit();
+            if (ou != null) {
+                partiesByOU.computeIfAbsent(ou, key -> ConcurrentHashMap.newKeySet()).add(party);
+            }
+        }
+    }
+
+    private void removeNode(NodeInfo nodeInfo) {
+        for (Party party : nodeInfo.getLegalIdentities()) {
+            String ou = party.getName().getOrganisationUnit();
+            if (ou != null) {
+                Set<Party> parties = partiesByOU.get(ou);
+                if (parties != null) {
+                    parties.remove(party);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.jtk.corda.workflows.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of the durations of one step of a flow class, in fixed buckets from a quarter of a millisecond to a
+ * minute. Recording is lock free, so flows record from their fibers without contending with each other or with
+ * JMX reads.
+ */
+public class StepTiming implements StepTimingMXBean {
+    private static final long[] BUCKET_UPPER_BOUNDS_MICROS = {
+            250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000, 30_000_000, 60_000_000, Long.MAX_VALUE
+    };
+
+    private final String flow;
+    private final String step;
+    private final LongAdder[] buckets = new LongAdder[BUCKET_UPPER_BOUNDS_MICROS.length];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public StepTiming(String flow, String step) {
+        this.flow = flow;
+        this.step = step;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long micros = nanos / 1_000;
+        int bucket = 0;
+        while (micros > BUCKET_UPPER_BOUNDS_MICROS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    @Override
+    public String getFlow() {
+        return flow;
+    }
+
+    @Override
+    public String getStep() {
+        return step;
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return totalNanos.sum() / 1_000_000.0;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0.0 : getTotalMillis() / n;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / 1_000_000.0;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return percentileMillis(50);
+    }
+
+    @Override
+    public double getP95Millis() {
+        return percentileMillis(95);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return percentileMillis(99);
+    }
+
+    @Override
+    public long[] getBucketUpperBoundsMicros() {
+        return BUCKET_UPPER_BOUNDS_MICROS.clone();
+    }
+
+    @Override
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Upper bound of the bucket holding the percentile, capped at the longest duration seen.
+     */
+    private double percentileMillis(int percentile) {
+        long[] counts = getBucketCounts();
+        long n = 0;
+        for (long c : counts) {
+            n += c;
+        }
+        if (n == 0) {
+            return 0.0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * n);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(BUCKET_UPPER_BOUNDS_MICROS[i] / 1_000.0, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+}
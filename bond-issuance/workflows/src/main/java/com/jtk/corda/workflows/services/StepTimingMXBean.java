@@ -0,0 +1,29 @@
+package com.jtk.corda.workflows.services;
+
+/**
+ * JMX view of how long one ProgressTracker step of a flow class takes, registered by {@link FlowStepTimingService}
+ * under com.jtk.corda:type=FlowStepTiming. Percentiles are the upper bound of the histogram bucket they fall in.
+ */
+public interface StepTimingMXBean {
+    String getFlow();
+
+    String getStep();
+
+    long getCount();
+
+    double getTotalMillis();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+
+    double getP50Millis();
+
+    double getP95Millis();
+
+    double getP99Millis();
+
+    long[] getBucketUpperBoundsMicros();
+
+    long[] getBucketCounts();
+}
@@ -0,0 +1,275 @@
+package com.jtk.corda.workflows.services;
+
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowExternalAsyncOperation;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queues the issuer's concurrent bond requests per term so they are allocated in batches, one TermState update for
+ * every request queued while the previous batch was being recorded.
+ * The first request of a term leads: its flow takes the queued requests as a batch, allocates them and hands the lead
+ * to the oldest request still queued, whose flow is woken up to allocate the next batch. Every other flow waits for
+ * the outcome of its own request. Allocation is only coalesced while it is switched on, see
+ * {@link com.jtk.corda.workflows.bond.issuance.BondAllocationModeFlow}. Outcomes are keyed by the deduplication id
+ * of the await, so an await the flow retries gets the outcome it was handed before rather than the next one; the
+ * allocations of the last RETAINED_ALLOCATIONS finished requests are kept for the same reason. The queues are in
+ * memory only; a request resumed from a checkpoint after a restart has no outcome to wait for and fails.
+ */
+@CordaService
+public class TermAllocationService extends SingletonSerializeAsToken {
+    private static final Logger log = LoggerFactory.getLogger(TermAllocationService.class);
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    private static final int RETAINED_ALLOCATIONS = 1024;
+
+    private final AtomicLong nextTicket = new AtomicLong();
+    private final Map<UniqueIdentifier, TermQueue> queues = new HashMap<>();
+    private final ConcurrentHashMap<Long, Ticket> tickets = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Allocation>> allocated =
+            new LinkedHashMap<String, CompletableFuture<Allocation>>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Allocation>> eldest) {
+                    return size() > RETAINED_ALLOCATIONS;
+                }
+            };
+    private volatile boolean coalescing;
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    public TermAllocationService(AppServiceHub serviceHub) {
+    }
+
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void configure(boolean coalescing, int maxBatchSize) {
+        this.coalescing = coalescing;
+        this.maxBatchSize = maxBatchSize;
+        log.info("Term allocation coalescing: {}, max batch size: {}", coalescing, maxBatchSize);
+    }
+
+    /**
+     * Queues a request for units of a term and returns its ticket. The request leads right away when the term has no
+     * leader, otherwise its outcome is set once a leader has allocated it.
+     */
+    public long request(UniqueIdentifier termId, Party investor, int units) {
+        long ticket = nextTicket.incrementAndGet();
+        tickets.put(ticket, new Ticket());
+        synchronized (queues) {
+            TermQueue queue = queues.computeIfAbsent(termId, id -> new TermQueue());
+            queue.pending.add(new Request(ticket, investor, units));
+            if (!queue.led) {
+                queue.led = true;
+                grantLead(ticket);
+            }
+        }
+        return ticket;
+    }
+
+    /**
+     * Next outcome of a ticket for {@link net.corda.core.flows.FlowLogic#await}, which is either the allocation or
+     * {@link Allocation#LEAD} when the flow has to allocate the next batch of its term first.
+     */
+    public FlowExternalAsyncOperation<Allocation> outcome(long ticket) {
+        return new Outcome(this, ticket);
+    }
+
+    /**
+     * Takes up to the max batch size of the oldest requests of a term, for the flow that leads it.
+     */
+    public List<Request> takeBatch(UniqueIdentifier termId) {
+        synchronized (queues) {
+            ArrayDeque<Request> pending = queues.get(termId).pending;
+            List<Request> batch = new ArrayList<>();
+            while (!pending.isEmpty() && batch.size() < maxBatchSize) {
+                batch.add(pending.poll());
+            }
+            return batch;
+        }
+    }
+
+    public void complete(long ticket, Allocation allocation) {
+        Ticket state = tickets.get(ticket);
+        if (state != null) {
+            state.post(allocation);
+        }
+    }
+
+    /**
+     * Passes the lead of a term to its oldest queued request, or drops the term once nothing is queued.
+     */
+    public void handOff(UniqueIdentifier termId) {
+        synchronized (queues) {
+            TermQueue queue = queues.get(termId);
+            if (queue.pending.isEmpty()) {
+                queues.remove(termId);
+            } else {
+                grantLead(queue.pending.peek().getTicket());
+            }
+        }
+    }
+
+    private void grantLead(long ticket) {
+        tickets.get(ticket).post(Allocation.LEAD);
+    }
+
+    private CompletableFuture<Allocation> nextOutcome(long ticket, String deduplicationId) {
+        synchronized (allocated) {
+            CompletableFuture<Allocation> retried = allocated.get(deduplicationId);
+            if (retried != null) {
+                return retried;
+            }
+        }
+        Ticket state = tickets.get(ticket);
+        if (state == null) {
+            CompletableFuture<Allocation> lost = new CompletableFuture<>();
+            lost.completeExceptionally(new IllegalStateException("No bond allocation pending for ticket " + ticket));
+            return lost;
+        }
+        CompletableFuture<Allocation> outcome = state.next(deduplicationId);
+        // the allocation is the last outcome of a ticket
+        outcome.thenAccept(allocation -> {
+            if (!allocation.isLead()) {
+                synchronized (allocated) {
+                    allocated.put(deduplicationId, outcome);
+                }
+                tickets.remove(ticket);
+            }
+        });
+        return outcome;
+    }
+
+    private static class TermQueue {
+        private final ArrayDeque<Request> pending = new ArrayDeque<>();
+        private boolean led;
+    }
+
+    /**
+     * Outcomes of a request in the order they were posted, kept until its flow asks for them, and what was handed out
+     * by the deduplication id of the await that asked.
+     */
+    private static class Ticket {
+        private final ArrayDeque<Allocation> posted = new ArrayDeque<>();
+        private final Map<String, CompletableFuture<Allocation>> handedOut = new HashMap<>();
+        private CompletableFuture<Allocation> waiting;
+
+        private synchronized void post(Allocation allocation) {
+            if (waiting == null) {
+                posted.add(allocation);
+            } else {
+                CompletableFuture<Allocation> waiter = waiting;
+                waiting = null;
+                waiter.complete(allocation);
+            }
+        }
+
+        private synchronized CompletableFuture<Allocation> next(String deduplicationId) {
+            CompletableFuture<Allocation> outcome = handedOut.get(deduplicationId);
+            if (outcome != null) {
+                return outcome;
+            }
+            if (!posted.isEmpty()) {
+                outcome = CompletableFuture.completedFuture(posted.poll());
+            } else {
+                waiting = new CompletableFuture<>();
+                outcome = waiting;
+            }
+            handedOut.put(deduplicationId, outcome);
+            return outcome;
+        }
+    }
+
+    private static class Outcome implements FlowExternalAsyncOperation<Allocation> {
+        private final TermAllocationService service;
+        private final long ticket;
+
+        private Outcome(TermAllocationService service, long ticket) {
+            this.service = service;
+            this.ticket = ticket;
+        }
+
+        @NotNull
+        @Override
+        public CompletableFuture<Allocation> execute(@NotNull String deduplicationId) {
+            return service.nextOutcome(ticket, deduplicationId);
+        }
+    }
+
+    public static class Request {
+        private final long ticket;
+        private final Party investor;
+        private final int units;
+
+        public Request(long ticket, Party investor, int units) {
+            this.ticket = ticket;
+            this.investor = investor;
+            this.units = units;
+        }
+
+        public long getTicket() {
+            return ticket;
+        }
+
+        public Party getInvestor() {
+            return investor;
+        }
+
+        public int getUnits() {
+            return units;
+        }
+    }
+
+    /**
+     * What a request was allocated: its status, the BondState of the investor and the transaction that issued the
+     * bond tokens, or no transaction when the request was rejected.
+     */
+    public static class Allocation {
+        public static final Allocation LEAD = new Allocation("LEAD", "", null);
+
+        private final String status;
+        private final String bondLinearId;
+        private final SecureHash txId;
+
+        public Allocation(String status, String bondLinearId, SecureHash txId) {
+            this.status = status;
+            this.bondLinearId = bondLinearId;
+            this.txId = txId;
+        }
+
+        public boolean isLead() {
+            return "LEAD".equals(status);
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getBondLinearId() {
+            return bondLinearId;
+        }
+
+        public SecureHash getTxId() {
+            return txId;
+        }
+    }
+}
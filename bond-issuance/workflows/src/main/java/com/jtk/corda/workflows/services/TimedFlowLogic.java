@@ -0,0 +1,29 @@
+package com.jtk.corda.workflows.services;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.utilities.ProgressTracker;
+
+/**
+ * A flow whose ProgressTracker steps are timed by the {@link FlowStepTimingService}. The tracker the flow returns
+ * from getProgressTracker() is handed to the service before {@link #doCall()} runs the flow's first step.
+ */
+public abstract class TimedFlowLogic<T> extends FlowLogic<T> {
+
+    @Suspendable
+    @Override
+    public final T call() throws FlowException {
+        ProgressTracker tracker = getProgressTracker();
+        if (tracker != null) {
+            getServiceHub().cordaService(FlowStepTimingService.class).track(this, tracker);
+        }
+        return doCall();
+    }
+
+    /**
+     * The work of the flow, what call() would be for a plain FlowLogic.
+     */
+    @Suspendable
+    protected abstract T doCall() throws FlowException;
+}
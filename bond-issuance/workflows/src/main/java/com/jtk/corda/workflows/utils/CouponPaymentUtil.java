@@ -24,4 +24,26 @@ public class CouponPaymentUtil {
         return fromDate.plusDays(daysPerMonth * paymentFrequency);
     }
 
+    /**
+     * Principal plus final coupon owed on {@code tokens} bond tokens redeemed on {@code redemptionDate}.
+     * The coupon is the one CouponPaymentFlow pays for a period. A bond redeemed before its next coupon date gets the
+     * part of it accrued since the previous coupon date, and a bond with no coupon left gets none.
+     */
+    public static double getRedemptionAmount(int parValue, double interestRate, int paymentFrequency,
+                                             long couponPaymentLeft, LocalDate nextCouponDate,
+                                             LocalDate redemptionDate, int daysPerMonth, long tokens){
+        double principal = (double) parValue * tokens;
+        if (couponPaymentLeft <= 0) {
+            return principal;
+        }
+        int paymentsPerYear = 12 / paymentFrequency;
+        double coupon = (parValue * (interestRate / paymentsPerYear)) * tokens;
+        if (redemptionDate.isBefore(nextCouponDate)) {
+            long periodDays = (long) daysPerMonth * paymentFrequency;
+            long accruedDays = ChronoUnit.DAYS.between(nextCouponDate.minusDays(periodDays), redemptionDate);
+            coupon = coupon * Math.max(0, Math.min(accruedDays, periodDays)) / periodDays;
+        }
+        return principal + coupon;
+    }
+
 }
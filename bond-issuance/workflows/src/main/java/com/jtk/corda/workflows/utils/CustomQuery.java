@@ -1,225 +1,444 @@
 package com.jtk.corda.workflows.utils;
 
 import com.jtk.corda.contants.BondStatus;
+import com.jtk.corda.schemas.bond.issuance.BondSchemaV1;
+import com.jtk.corda.schemas.bond.issuance.TermSchemaV1;
 import com.jtk.corda.states.bond.issuance.BondState;
 import com.jtk.corda.states.bond.issuance.TermState;
 import com.jtk.corda.states.cash.issuance.CashState;
+import net.corda.core.contracts.LinearPointer;
+import net.corda.core.contracts.LinearState;
 import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.Party;
 import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.CriteriaExpression;
+import net.corda.core.node.services.vault.FieldInfo;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+import net.corda.core.schemas.PersistentState;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
+
 public class CustomQuery {
     private final static DateTimeFormatter locateDateformat = DateTimeFormatter.ofPattern("yyyyMMdd");
 
     public static List<TermState> queryTermsPointerByCurrency(String currency, ServiceHub serviceHub) {
-        List<StateAndRef<TermState>> statesAndRef = serviceHub.getVaultService().queryBy(TermState.class).getStates();
-        return statesAndRef.stream()
-                .map(sr->sr.getState().getData().toPointer(TermState.class))
-                .map(p->p.getPointer().resolve(serviceHub).getState().getData())
-                .filter(ts-> ts.getCurrency().equals(currency) &&
-                        ts.getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .collect(Collectors.toList());
+        return queryTerms(termsByCurrencyCriteria(currency), serviceHub);
     }
 
     public static List<TermState> queryTermsPointerByCreditRating(String rating, ServiceHub serviceHub) {
-        List<StateAndRef<TermState>> statesAndRef = serviceHub.getVaultService().queryBy(TermState.class).getStates();
-        return statesAndRef.stream()
-                .map(sr->sr.getState().getData().toPointer(TermState.class))
-                .map(p->p.getPointer().resolve(serviceHub).getState().getData())
-                .filter(ts-> ts.getCreditRating().equals(rating) &&
-                        ts.getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .collect(Collectors.toList());
+        return queryTerms(termsByCreditRatingCriteria(rating), serviceHub);
     }
 
     public static List<TermState> queryTermsPointerLessThanMaturityDate(String maturityDate, ServiceHub serviceHub) {
-        List<StateAndRef<TermState>> statesAndRef = serviceHub.getVaultService().queryBy(TermState.class).getStates();
-        return statesAndRef.stream()
-                .map(sr->sr.getState().getData().toPointer(TermState.class))
-                .map(p->p.getPointer().resolve(serviceHub).getState().getData())
-                .filter(ts-> ts.getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .filter(ts-> {
-                    LocalDate termMaturityDate = LocalDate.parse(ts.getMaturityDate(), locateDateformat);
-                    LocalDate queryMaturityDate = LocalDate.parse(maturityDate, locateDateformat);
-                    return termMaturityDate.isBefore(queryMaturityDate) || termMaturityDate.isEqual(queryMaturityDate);
-                })
-                .collect(Collectors.toList());
+        return queryTerms(termsLessThanMaturityDateCriteria(maturityDate), serviceHub);
     }
     public static List<TermState> queryTermsPointerGreaterThanMaturityDate(String maturityDate, ServiceHub serviceHub) {
-        List<StateAndRef<TermState>> statesAndRef = serviceHub.getVaultService().queryBy(TermState.class).getStates();
-        return statesAndRef.stream()
-                .map(sr->sr.getState().getData().toPointer(TermState.class))
-                .map(p->p.getPointer().resolve(serviceHub).getState().getData())
-                .filter(ts-> ts.getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .filter(ts-> {
-                    LocalDate termMaturityDate = LocalDate.parse(ts.getMaturityDate(), locateDateformat);
-                    LocalDate queryMaturityDate = LocalDate.parse(maturityDate, locateDateformat);
-                    return termMaturityDate.isAfter(queryMaturityDate) || termMaturityDate.isEqual(queryMaturityDate);
-                })
-                .collect(Collectors.toList());
+        return queryTerms(termsGreaterThanMaturityDateCriteria(maturityDate), serviceHub);
     }
 
     public static StateAndRef<TermState> queryActiveTermsByTermStateLinearID(UniqueIdentifier teamStateLinearID, ServiceHub serviceHub) {
-        List<StateAndRef<TermState>> statesAndRef = serviceHub.getVaultService().queryBy(TermState.class).getStates();
-        return statesAndRef.stream()
-                .filter(sr -> sr.getState().getData().getLinearId().equals(teamStateLinearID))
-                .filter(sr -> sr.getState().getData().getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .findAny()
-                .orElse(null);
+        return firstTerm(activeTermByLinearIDCriteria(teamStateLinearID), serviceHub);
     }
 
     public static StateAndRef<TermState> queryNotActiveTermsByTermStateLinearID(UniqueIdentifier teamStateLinearID, ServiceHub serviceHub) {
-        List<StateAndRef<TermState>> statesAndRef = serviceHub.getVaultService().queryBy(TermState.class).getStates();
-        return statesAndRef.stream()
-                .filter(sr -> sr.getState().getData().getLinearId().equals(teamStateLinearID))
-                .filter(sr -> !sr.getState().getData().getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .findAny()
-                .orElse(null);
+        return firstTerm(notActiveTermByLinearIDCriteria(teamStateLinearID), serviceHub);
     }
 
     public static StateAndRef<TermState> queryNotActiveTerms(ServiceHub serviceHub) {
-        List<StateAndRef<TermState>> statesAndRef = serviceHub.getVaultService().queryBy(TermState.class).getStates();
-        return statesAndRef.stream()
-                .filter(sr -> !sr.getState().getData().getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .findAny()
-                .orElse(null);
+        return firstTerm(notActiveTermsCriteria(), serviceHub);
     }
 
 
     public static StateAndRef<TermState> queryAllTermsByTermStateLinearID(UniqueIdentifier teamStateLinearID, ServiceHub serviceHub) {
-        List<StateAndRef<TermState>> statesAndRef = serviceHub.getVaultService().queryBy(TermState.class).getStates();
-        return statesAndRef.stream()
-                .filter(sr -> sr.getState().getData().getLinearId().equals(teamStateLinearID))
-                .findAny()
-                .orElseThrow(()-> new IllegalArgumentException("TeamStateLinearID ="+teamStateLinearID.toString()+ " not found from vault"));
+        StateAndRef<TermState> termStateAndRef = firstTerm(termLinearIdCriteria(teamStateLinearID), serviceHub);
+        if (termStateAndRef == null) {
+            throw new IllegalArgumentException("TeamStateLinearID ="+teamStateLinearID.toString()+ " not found from vault");
+        }
+        return termStateAndRef;
     }
 
 
     public static List<BondState> queryBondByTermStateLinearID(UniqueIdentifier uniqueIdentifier, ServiceHub serviceHub) {
-        List<StateAndRef<BondState>> statesAndRef = serviceHub.getVaultService().queryBy(BondState.class).getStates();
-        return statesAndRef.stream()
-                .map(sr->sr.getState().getData().toPointer(BondState.class))
-                .map(p->p.getPointer().resolve(serviceHub).getState().getData())
-                .filter(bs-> bs.getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .filter(bs-> bs.getTermStateLinearID().equals(uniqueIdentifier))
-                .collect(Collectors.toList());
+        return queryBonds(bondsByTermStateLinearIDCriteria(uniqueIdentifier), serviceHub);
     }
 
     public static List<BondState> queryAllNotActiveBond(UniqueIdentifier uniqueIdentifier, ServiceHub serviceHub) {
-        List<StateAndRef<BondState>> statesAndRef = serviceHub.getVaultService().queryBy(BondState.class).getStates();
-        return statesAndRef.stream()
-                .map(sr->sr.getState().getData().toPointer(BondState.class))
-                .map(p->p.getPointer().resolve(serviceHub).getState().getData())
-                .filter(bs-> !bs.getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .filter(bs-> bs.getTermStateLinearID().equals(uniqueIdentifier))
-                .collect(Collectors.toList());
+        return queryBonds(notActiveBondsByTermStateLinearIDCriteria(uniqueIdentifier), serviceHub);
     }
 
     public static List<BondState> queryAllNotActiveBond(ServiceHub serviceHub) {
-        List<StateAndRef<BondState>> statesAndRef = serviceHub.getVaultService().queryBy(BondState.class).getStates();
-        return statesAndRef.stream()
-                .map(sr->sr.getState().getData().toPointer(BondState.class))
-                .map(p->p.getPointer().resolve(serviceHub).getState().getData())
-                .filter(ts-> !ts.getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .collect(Collectors.toList());
+        return queryBonds(notActiveBondsCriteria(), serviceHub);
     }
 
     public static StateAndRef<BondState> queryBondByLinearID(UniqueIdentifier bondStateLinearID, ServiceHub serviceHub) {
-        List<StateAndRef<BondState>> statesAndRef = serviceHub.getVaultService().queryBy(BondState.class).getStates();
-        return statesAndRef.stream()
-                .filter(sr-> sr.getState().getData().getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .filter(sr-> sr.getState().getData().getLinearId().equals(bondStateLinearID))
+        QueryCriteria criteria = activeBondsCriteria()
+                .and(bondCriteria(Builder.equal(bondField("linearId"), bondStateLinearID.getId().toString())));
+        return serviceHub.getVaultService().queryBy(BondState.class, criteria).getStates().stream()
                 .findAny()
                 .orElse(null);
     }
 
     public static Collection<BondState> queryBondsPointerGreaterThanMaturityDate(String maturityDate, ServiceHub serviceHub) {
-        List<StateAndRef<BondState>> statesAndRef = serviceHub.getVaultService().queryBy(BondState.class).getStates();
-        return statesAndRef.stream()
-                .map(sr->sr.getState().getData().toPointer(BondState.class))
-                .map(p->p.getPointer().resolve(serviceHub).getState().getData())
-                .filter(ts-> ts.getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .filter(ts-> {
-                    LocalDate bondMaturityDate = LocalDate.parse(ts.getMaturityDate(), locateDateformat);
-                    LocalDate queryMaturityDate = LocalDate.parse(maturityDate, locateDateformat);
-                    return bondMaturityDate.isAfter(queryMaturityDate);
-                })
-                .collect(Collectors.toList());
+        return queryBonds(bondsGreaterThanMaturityDateCriteria(maturityDate), serviceHub);
     }
     public static Collection<BondState> queryBondsPointerEqualMaturityDate(String maturityDate, ServiceHub serviceHub) {
-        List<StateAndRef<BondState>> statesAndRef = serviceHub.getVaultService().queryBy(BondState.class).getStates();
-        return statesAndRef.stream()
-                .map(sr->sr.getState().getData().toPointer(BondState.class))
-                .map(p->p.getPointer().resolve(serviceHub).getState().getData())
-                .filter(ts-> ts.getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .filter(ts-> {
-                    LocalDate bondMaturityDate = LocalDate.parse(ts.getMaturityDate(), locateDateformat);
-                    LocalDate queryMaturityDate = LocalDate.parse(maturityDate, locateDateformat);
-                    return bondMaturityDate.isEqual(queryMaturityDate);
-                })
-                .collect(Collectors.toList());
+        return queryBonds(bondsWithMaturityDateCriteria(maturityDate), serviceHub);
     }
     public static List<BondState> queryBondsPointerWithCouponDate(String couponDate, ServiceHub serviceHub) {
-        List<StateAndRef<BondState>> statesAndRef = serviceHub.getVaultService().queryBy(BondState.class).getStates();
-        return statesAndRef.stream()
-                .map(sr->sr.getState().getData().toPointer(BondState.class))
-                .map(p->p.getPointer().resolve(serviceHub).getState().getData())
-                .filter(ts-> ts.getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .filter(ts-> {
-                    LocalDate nextCouponDate = LocalDate.parse(ts.getNextCouponDate(), locateDateformat);
-                    LocalDate todayCouponDate = LocalDate.parse(couponDate, locateDateformat);
-                    return nextCouponDate.isEqual(todayCouponDate);
-                })
-                .collect(Collectors.toList());
+        return queryBonds(bondsWithCouponDateCriteria(couponDate), serviceHub);
+    }
+
+    /**
+     * Active bonds issued by {@code issuer} with a coupon due on {@code couponDate}, read page by page so a coupon
+     * run is not capped at the vault's default page size.
+     */
+    public static List<StateAndRef<BondState>> queryBondRefsDueForCoupon(String couponDate, Party issuer,
+                                                                         ServiceHub serviceHub) {
+        return queryBondRefs(bondsWithCouponDateCriteria(couponDate).and(bondsByIssuerCriteria(issuer)), serviceHub);
+    }
+
+    /**
+     * Active bonds issued by {@code issuer} maturing on {@code maturityDate}, read page by page.
+     */
+    public static List<StateAndRef<BondState>> queryBondRefsMaturingOn(String maturityDate, Party issuer,
+                                                                       ServiceHub serviceHub) {
+        return queryBondRefs(bondsWithMaturityDateCriteria(maturityDate).and(bondsByIssuerCriteria(issuer)), serviceHub);
+    }
+
+    /**
+     * Active bonds issued by {@code issuer} under the term {@code termStateLinearID}, read page by page.
+     */
+    public static List<StateAndRef<BondState>> queryBondRefsByTerm(UniqueIdentifier termStateLinearID, Party issuer,
+                                                                   ServiceHub serviceHub) {
+        return queryBondRefs(bondsByTermStateLinearIDCriteria(termStateLinearID).and(bondsByIssuerCriteria(issuer)),
+                serviceHub);
     }
 
+    /**
+     * Unconsumed bonds with the given linearIds, in the order of {@code linearIds}, read
+     * {@link QueryPage#MAX_PAGE_SIZE} ids per query. Ids with no unconsumed bond in this vault are left out.
+     */
+    public static List<StateAndRef<BondState>> queryBondRefsByLinearIds(List<UniqueIdentifier> linearIds,
+                                                                       ServiceHub serviceHub) {
+        List<StateAndRef<BondState>> bonds = new ArrayList<>(linearIds.size());
+        for (int from = 0; from < linearIds.size(); from += QueryPage.MAX_PAGE_SIZE) {
+            List<UniqueIdentifier> chunk = linearIds.subList(from,
+                    Math.min(from + QueryPage.MAX_PAGE_SIZE, linearIds.size()));
+            Map<UniqueIdentifier, StateAndRef<BondState>> byLinearId = serviceHub.getVaultService()
+                    .queryBy(BondState.class, linearIdsCriteria(chunk),
+                            new PageSpecification(DEFAULT_PAGE_NUM, chunk.size()))
+                    .getStates().stream()
+                    .collect(Collectors.toMap(sr -> sr.getState().getData().getLinearId(), sr -> sr));
+            for (UniqueIdentifier linearId : chunk) {
+                StateAndRef<BondState> bond = byLinearId.get(linearId);
+                if (bond != null) {
+                    bonds.add(bond);
+                }
+            }
+        }
+        return bonds;
+    }
 
     public static Collection<BondState> queryBondsPointerLessThanMaturityDate(String maturityDate, ServiceHub serviceHub) {
-        List<StateAndRef<BondState>> statesAndRef = serviceHub.getVaultService().queryBy(BondState.class).getStates();
-        return statesAndRef.stream()
-                .map(sr->sr.getState().getData().toPointer(BondState.class))
-                .map(p->p.getPointer().resolve(serviceHub).getState().getData())
-                .filter(ts-> ts.getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .filter(ts-> {
-                    LocalDate bondMaturityDate = LocalDate.parse(ts.getMaturityDate(), locateDateformat);
-                    LocalDate queryMaturityDate = LocalDate.parse(maturityDate, locateDateformat);
-                    return bondMaturityDate.isBefore(queryMaturityDate);
-                })
-                .collect(Collectors.toList());
+        return queryBonds(bondsLessThanMaturityDateCriteria(maturityDate), serviceHub);
     }
 
     public static List<BondState> queryBondsPointerByCurrency(String currency, ServiceHub serviceHub) {
-        List<StateAndRef<BondState>> statesAndRef = serviceHub.getVaultService().queryBy(BondState.class).getStates();
-        return statesAndRef.stream()
-                .map(sr->sr.getState().getData().toPointer(BondState.class))
-                .map(p->p.getPointer().resolve(serviceHub).getState().getData())
-                .filter(ts-> ts.getCurrency().equals(currency) &&
-                        ts.getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .collect(Collectors.toList());
+        return queryBonds(bondsByCurrencyCriteria(currency), serviceHub);
     }
 
     public static List<BondState> queryBondPointerByCreditRating(String rating, ServiceHub serviceHub) {
-        List<StateAndRef<BondState>> statesAndRef = serviceHub.getVaultService().queryBy(BondState.class).getStates();
-        return statesAndRef.stream()
-                .map(sr->sr.getState().getData().toPointer(BondState.class))
-                .map(p->p.getPointer().resolve(serviceHub).getState().getData())
-                .filter(ts-> ts.getCreditRating().equals(rating) &&
-                        ts.getBondStatus().equals(BondStatus.ACTIVE.name()))
-                .collect(Collectors.toList());
+        return queryBonds(bondsByCreditRatingCriteria(rating), serviceHub);
+    }
+
+    /**
+     * Returns one page of the bonds matching {@code criteria}, ordered by linearId.
+     * When {@code cursor} is set it is the linearId of the last bond already read and the page starts right after
+     * it (keyset paging), otherwise {@code pageNumber} selects the page.
+     */
+    public static QueryPage<BondState> queryBondsPage(QueryCriteria criteria, String cursor, int pageNumber,
+                                                      int pageSize, ServiceHub serviceHub) {
+        return queryPage(BondState.class, BondSchemaV1.PersistentBond.class, criteria, cursor, pageNumber,
+                pageSize, serviceHub);
+    }
+
+    /**
+     * Term equivalent of {@link #queryBondsPage(QueryCriteria, String, int, int, ServiceHub)}.
+     */
+    public static QueryPage<TermState> queryTermsPage(QueryCriteria criteria, String cursor, int pageNumber,
+                                                      int pageSize, ServiceHub serviceHub) {
+        return queryPage(TermState.class, TermSchemaV1.PersistentTerm.class, criteria, cursor, pageNumber,
+                pageSize, serviceHub);
     }
 
     public static List<CashState> queryCashStateByCurrency(String currencyCode, ServiceHub serviceHub) {
         List<StateAndRef<CashState>> statesAndRef = serviceHub.getVaultService().queryBy(CashState.class).getStates();
         return statesAndRef.stream()
-                .map(sr->sr.getState().getData().toPointer(CashState.class))
-                .map(p->p.getPointer().resolve(serviceHub).getState().getData())
+                .map(sr->sr.getState().getData())
                 .filter(cashState-> cashState.getCurrencyCode().equals(currencyCode))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Resolves a batch of linear pointers with one vault query rather than one query per pointer.
+     * Pointers whose state is not unconsumed in this vault are left out of the returned map.
+     */
+    public static <T extends LinearState> Map<UniqueIdentifier, StateAndRef<T>> resolveLinearPointers(
+            Collection<LinearPointer<T>> pointers, Class<T> type, ServiceHub serviceHub) {
+        if (pointers.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<UUID> ids = pointers.stream()
+                .map(p -> p.getPointer().getId())
+                .distinct()
+                .collect(Collectors.toList());
+        QueryCriteria criteria = new QueryCriteria.LinearStateQueryCriteria(
+                null, ids, null, Vault.StateStatus.UNCONSUMED);
+        List<StateAndRef<T>> statesAndRef = serviceHub.getVaultService()
+                .queryBy(type, criteria, new PageSpecification(DEFAULT_PAGE_NUM, ids.size()))
+                .getStates();
+        return statesAndRef.stream()
+                .collect(Collectors.toMap(sr -> sr.getState().getData().getLinearId(), sr -> sr));
+    }
+
+    /**
+     * Criteria of a query-bonds queryType (byCurrency, byRating, lessThanMaturityDate, greaterThanMaturityDate,
+     * byTermStateLinearID, notActiveBonds). Shared by the query flows and the client's direct RPC vault queries.
+     */
+    public static QueryCriteria bondQueryCriteria(String queryType, String queryValue) {
+        if ("byCurrency".equalsIgnoreCase(queryType)) {
+            return bondsByCurrencyCriteria(queryValue);
+        } else if ("byRating".equalsIgnoreCase(queryType)) {
+            return bondsByCreditRatingCriteria(queryValue);
+        } else if ("lessThanMaturityDate".equalsIgnoreCase(queryType)) {
+            return bondsLessThanMaturityDateCriteria(queryValue);
+        } else if ("greaterThanMaturityDate".equalsIgnoreCase(queryType)) {
+            return bondsGreaterThanMaturityDateCriteria(queryValue);
+        } else if ("byTermStateLinearID".equalsIgnoreCase(queryType)) {
+            return bondsByTermStateLinearIDCriteria(UniqueIdentifier.Companion.fromString(queryValue));
+        } else if ("notActiveBonds".equalsIgnoreCase(queryType)) {
+            return notActiveBondsCriteria();
+        }
+        throw new IllegalArgumentException("Unknown queryType " + queryType);
+    }
+
+    /**
+     * Term equivalent of {@link #bondQueryCriteria(String, String)} for the query-bond-terms queryTypes.
+     */
+    public static QueryCriteria termQueryCriteria(String queryType, String queryValue) {
+        if ("byCurrency".equalsIgnoreCase(queryType)) {
+            return termsByCurrencyCriteria(queryValue);
+        } else if ("byRating".equalsIgnoreCase(queryType)) {
+            return termsByCreditRatingCriteria(queryValue);
+        } else if ("lessThanMaturityDate".equalsIgnoreCase(queryType)) {
+            return termsLessThanMaturityDateCriteria(queryValue);
+        } else if ("greaterThanMaturityDate".equalsIgnoreCase(queryType)) {
+            return termsGreaterThanMaturityDateCriteria(queryValue);
+        } else if ("byTermStateLinearID".equalsIgnoreCase(queryType)) {
+            return activeTermByLinearIDCriteria(UniqueIdentifier.Companion.fromString(queryValue));
+        } else if ("notActiveBonds".equalsIgnoreCase(queryType)) {
+            return notActiveTermsCriteria();
+        }
+        throw new IllegalArgumentException("Unknown queryType " + queryType);
+    }
+
+    public static QueryCriteria termsByCurrencyCriteria(String currency) {
+        return activeTermsCriteria().and(termCriteria(Builder.equal(termField("currency"), currency)));
+    }
+
+    public static QueryCriteria termsByCreditRatingCriteria(String rating) {
+        return activeTermsCriteria().and(termCriteria(Builder.equal(termField("creditRating"), rating)));
+    }
+
+    public static QueryCriteria termsLessThanMaturityDateCriteria(String maturityDate) {
+        return activeTermsCriteria()
+                .and(termCriteria(Builder.lessThanOrEqual(termField("maturityDate"), toQueryDate(maturityDate))));
+    }
+
+    public static QueryCriteria termsGreaterThanMaturityDateCriteria(String maturityDate) {
+        return activeTermsCriteria()
+                .and(termCriteria(Builder.greaterThanOrEqual(termField("maturityDate"), toQueryDate(maturityDate))));
+    }
+
+    public static QueryCriteria activeTermByLinearIDCriteria(UniqueIdentifier linearId) {
+        return termLinearIdCriteria(linearId).and(activeTermsCriteria());
+    }
+
+    public static QueryCriteria notActiveTermByLinearIDCriteria(UniqueIdentifier linearId) {
+        return termLinearIdCriteria(linearId).and(notActiveTermsCriteria());
+    }
+
+    public static QueryCriteria activeTermsCriteria() {
+        return termCriteria(Builder.equal(termField("bondStatus"), BondStatus.ACTIVE.name()));
+    }
+
+    public static QueryCriteria notActiveTermsCriteria() {
+        return termCriteria(Builder.notEqual(termField("bondStatus"), BondStatus.ACTIVE.name()));
+    }
+
+    public static QueryCriteria bondsByTermStateLinearIDCriteria(UniqueIdentifier termStateLinearID) {
+        return activeBondsCriteria()
+                .and(bondCriteria(Builder.equal(bondField("termStateLinearID"), termStateLinearID.getId().toString())));
+    }
+
+    public static QueryCriteria notActiveBondsByTermStateLinearIDCriteria(UniqueIdentifier termStateLinearID) {
+        return notActiveBondsCriteria()
+                .and(bondCriteria(Builder.equal(bondField("termStateLinearID"), termStateLinearID.getId().toString())));
+    }
+
+    public static QueryCriteria bondsGreaterThanMaturityDateCriteria(String maturityDate) {
+        return activeBondsCriteria()
+                .and(bondCriteria(Builder.greaterThan(bondField("maturityDate"), toQueryDate(maturityDate))));
+    }
+
+    public static QueryCriteria bondsLessThanMaturityDateCriteria(String maturityDate) {
+        return activeBondsCriteria()
+                .and(bondCriteria(Builder.lessThan(bondField("maturityDate"), toQueryDate(maturityDate))));
+    }
+
+    public static QueryCriteria bondsWithMaturityDateCriteria(String maturityDate) {
+        return activeBondsCriteria()
+                .and(bondCriteria(Builder.equal(bondField("maturityDate"), toQueryDate(maturityDate))));
+    }
+
+    public static QueryCriteria bondsWithCouponDateCriteria(String couponDate) {
+        return activeBondsCriteria()
+                .and(bondCriteria(Builder.equal(bondField("nextCouponDate"), toQueryDate(couponDate))));
+    }
+
+    public static QueryCriteria bondsByCurrencyCriteria(String currency) {
+        return activeBondsCriteria().and(bondCriteria(Builder.equal(bondField("currency"), currency)));
+    }
+
+    public static QueryCriteria bondsByCreditRatingCriteria(String rating) {
+        return activeBondsCriteria().and(bondCriteria(Builder.equal(bondField("creditRating"), rating)));
+    }
+
+    public static QueryCriteria bondsByIssuerCriteria(Party issuer) {
+        return bondCriteria(Builder.equal(bondField("issuer"), issuer.getName().toString()));
+    }
+
+    public static QueryCriteria activeBondsCriteria() {
+        return bondCriteria(Builder.equal(bondField("bondStatus"), BondStatus.ACTIVE.name()));
+    }
+
+    public static QueryCriteria notActiveBondsCriteria() {
+        return bondCriteria(Builder.notEqual(bondField("bondStatus"), BondStatus.ACTIVE.name()));
+    }
+
+    private static FieldInfo termField(String fieldName) {
+        return getField(fieldName, TermSchemaV1.PersistentTerm.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static QueryCriteria termCriteria(CriteriaExpression expression) {
+        return new QueryCriteria.VaultCustomQueryCriteria(expression);
+    }
+
+    private static QueryCriteria linearIdsCriteria(List<UniqueIdentifier> linearIds) {
+        List<UUID> ids = linearIds.stream().map(UniqueIdentifier::getId).collect(Collectors.toList());
+        return new QueryCriteria.LinearStateQueryCriteria(null, ids, null, Vault.StateStatus.UNCONSUMED);
+    }
+
+    private static QueryCriteria termLinearIdCriteria(UniqueIdentifier linearId) {
+        return new QueryCriteria.LinearStateQueryCriteria(
+                null, Collections.singletonList(linearId.getId()), null, Vault.StateStatus.UNCONSUMED);
+    }
+
+    private static StateAndRef<TermState> firstTerm(QueryCriteria criteria, ServiceHub serviceHub) {
+        return serviceHub.getVaultService().queryBy(TermState.class, criteria).getStates().stream()
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static List<TermState> queryTerms(QueryCriteria criteria, ServiceHub serviceHub) {
+        List<StateAndRef<TermState>> statesAndRef = serviceHub.getVaultService().queryBy(TermState.class, criteria).getStates();
+        return statesAndRef.stream()
+                .map(sr->sr.getState().getData())
+                .collect(Collectors.toList());
+    }
+
+    private static FieldInfo bondField(String fieldName) {
+        return getField(fieldName, BondSchemaV1.PersistentBond.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static QueryCriteria bondCriteria(CriteriaExpression expression) {
+        return new QueryCriteria.VaultCustomQueryCriteria(expression);
+    }
+
+    private static List<StateAndRef<BondState>> queryBondRefs(QueryCriteria criteria, ServiceHub serviceHub) {
+        Sort sort = new Sort(Collections.singletonList(new Sort.SortColumn(
+                new SortAttribute.Custom(BondSchemaV1.PersistentBond.class, "linearId"), Sort.Direction.ASC)));
+        List<StateAndRef<BondState>> bonds = new ArrayList<>();
+        int page = DEFAULT_PAGE_NUM;
+        Vault.Page<BondState> result;
+        do {
+            result = serviceHub.getVaultService()
+                    .queryBy(BondState.class, criteria, new PageSpecification(page++, QueryPage.MAX_PAGE_SIZE), sort);
+            bonds.addAll(result.getStates());
+        } while (!result.getStates().isEmpty() && bonds.size() < result.getTotalStatesAvailable());
+        return bonds;
+    }
+
+    private static List<BondState> queryBonds(QueryCriteria criteria, ServiceHub serviceHub) {
+        List<StateAndRef<BondState>> statesAndRef = serviceHub.getVaultService().queryBy(BondState.class, criteria).getStates();
+        return statesAndRef.stream()
+                .map(sr->sr.getState().getData())
+                .collect(Collectors.toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends LinearState> QueryPage<T> queryPage(Class<T> type, Class<? extends PersistentState> entity,
+                                                                  QueryCriteria criteria, String cursor, int pageNumber,
+                                                                  int pageSize, ServiceHub serviceHub) {
+        QueryPage.checkPageRequest(pageNumber, pageSize);
+        QueryCriteria pageCriteria = criteria;
+        int page = pageNumber;
+        if (cursor != null && !cursor.isEmpty()) {
+            pageCriteria = criteria.and(new QueryCriteria.VaultCustomQueryCriteria(
+                    Builder.greaterThan(getField("linearId", entity), cursor)));
+            page = DEFAULT_PAGE_NUM;
+        }
+        Sort sort = new Sort(Collections.singletonList(
+                new Sort.SortColumn(new SortAttribute.Custom(entity, "linearId"), Sort.Direction.ASC)));
+        Vault.Page<T> result = serviceHub.getVaultService()
+                .queryBy(type, pageCriteria, new PageSpecification(page, pageSize), sort);
+        List<T> states = result.getStates().stream()
+                .map(sr -> sr.getState().getData())
+                .collect(Collectors.toList());
+
+        long read = (long) (page - 1) * pageSize + states.size();
+        String nextCursor = null;
+        if (!states.isEmpty() && read < result.getTotalStatesAvailable()) {
+            nextCursor = states.get(states.size() - 1).getLinearId().getId().toString();
+        }
+        return new QueryPage<>(states, page, pageSize, result.getTotalStatesAvailable(), nextCursor);
+    }
+
+    /**
+     * Dates are persisted as yyyyMMdd strings, which order the same way as the dates they represent,
+     * so the query value is parsed and re-formatted to reject anything that would not compare correctly.
+     */
+    private static String toQueryDate(String date) {
+        return locateDateformat.format(LocalDate.parse(date, locateDateformat));
+    }
+
 }
@@ -0,0 +1,72 @@
+package com.jtk.corda.workflows.utils;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * One page of a vault query together with the cursor for the next page.
+ * nextCursor is null once the last page has been read.
+ */
+public class QueryPage<T> {
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private final List<T> states;
+    private final int pageNumber;
+    private final int pageSize;
+    private final long totalStatesAvailable;
+    private final String nextCursor;
+
+    public QueryPage(List<T> states, int pageNumber, int pageSize, long totalStatesAvailable, String nextCursor) {
+        this.states = states;
+        this.pageNumber = pageNumber;
+        this.pageSize = pageSize;
+        this.totalStatesAvailable = totalStatesAvailable;
+        this.nextCursor = nextCursor;
+    }
+
+    public static void checkPageRequest(int pageNumber, int pageSize) {
+        if (pageNumber < 1) {
+            throw new IllegalArgumentException("pageNumber must be 1 or greater");
+        }
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("pageSize must be between 1 and " + MAX_PAGE_SIZE);
+        }
+    }
+
+    public List<T> getStates() {
+        return states;
+    }
+
+    public int getPageNumber() {
+        return pageNumber;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public long getTotalStatesAvailable() {
+        return totalStatesAvailable;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public String toJson(Function<T, String> stateToJson) {
+        final StringBuilder sb = new StringBuilder("{");
+        sb.append("\"states\":").append(states.stream().map(stateToJson).collect(Collectors.toList()));
+        sb.append(",\"pageNumber\":").append(pageNumber);
+        sb.append(",\"pageSize\":").append(pageSize);
+        sb.append(",\"totalStatesAvailable\":").append(totalStatesAvailable);
+        sb.append(",\"nextCursor\":");
+        if (nextCursor == null) {
+            sb.append("null");
+        } else {
+            sb.append("\"").append(nextCursor).append("\"");
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -1,6 +1,8 @@
 package com.jtk.corda.workflows.utils;
 
+import com.jtk.corda.workflows.services.PartyDirectoryService;
 import net.corda.core.identity.Party;
+import net.corda.core.node.ServiceHub;
 import net.corda.core.node.services.IdentityService;
 
 import java.util.ArrayList;
@@ -11,16 +13,11 @@ public class Utility {
 
     private Utility(){}
 
-    public static List<Party>getLegalIdentitiesByOU(IdentityService identityService, String organizationalUnit){
-        List<Party> parties = new ArrayList<>();
-        identityService.getAllIdentities().forEach(partyAndCertificate -> {
-            Party party = partyAndCertificate.getParty();
-            String ou = party.getName().getOrganisationUnit();
-            if(ou != null && ou.equals(organizationalUnit)){
-                parties.add(party);
-            }
-        });
-        return parties;
+    /**
+     * Looks the organisation unit up in the node's {@link PartyDirectoryService} instead of scanning every identity.
+     */
+    public static List<Party> getLegalIdentitiesByOU(ServiceHub serviceHub, String organizationalUnit){
+        return serviceHub.cordaService(PartyDirectoryService.class).getPartiesByOU(organizationalUnit);
     }
 
     public static List<Party> getLegalIdentities(IdentityService identityService,
@@ -1,29 +1,55 @@
 package com.jtk.corda.workflows;
 
+import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
 import com.jtk.corda.contants.BondStatus;
+import com.jtk.corda.states.bond.coupons.CouponPaymentState;
 import com.jtk.corda.states.bond.issuance.BondState;
+import com.jtk.corda.states.bond.issuance.TermState;
+import com.jtk.corda.workflows.bond.coupons.BatchCouponPaymentFlow;
 import com.jtk.corda.workflows.bond.coupons.CouponPaymentFlow;
+import com.jtk.corda.workflows.bond.coupons.CouponPaymentResponderFlow;
+import com.jtk.corda.workflows.bond.coupons.QueryCouponScheduleFlow;
 import com.jtk.corda.workflows.bond.coupons.RedeemCouponPaymentFlow;
+import com.jtk.corda.workflows.bond.coupons.ScheduledCouponPaymentFlow;
+import com.jtk.corda.workflows.bond.coupons.StartCouponPaymentFlow;
+import com.jtk.corda.workflows.bond.issuance.BondAllocationModeFlow;
+import com.jtk.corda.workflows.bond.issuance.BondAskFlow;
+import com.jtk.corda.workflows.bond.issuance.BulkRequestForBondFlow;
 import com.jtk.corda.workflows.bond.issuance.CreateAndIssueTermFlow;
 import com.jtk.corda.workflows.bond.issuance.InterBankBondTransferFlow;
 import com.jtk.corda.workflows.bond.issuance.QueryBondTermsFlow;
 import com.jtk.corda.workflows.bond.issuance.QueryBondToken;
 import com.jtk.corda.workflows.bond.issuance.QueryBondsFlow;
 import com.jtk.corda.workflows.bond.issuance.RequestForBondInitiatorFlow;
+import com.jtk.corda.workflows.bond.issuance.RequestForBondResponderFlow;
 import com.jtk.corda.workflows.cash.issuance.CreateCashFlow;
 import com.jtk.corda.workflows.cash.issuance.QueryCashTokenFlow;
 import com.jtk.corda.workflows.cash.issuance.TransferTokenFlow;
+import com.jtk.corda.workflows.services.BondAskService;
+import com.jtk.corda.workflows.services.CouponScheduleService;
+import com.jtk.corda.workflows.services.FlowStepTimingService;
+import com.jtk.corda.workflows.services.PartyDirectoryService;
+import com.jtk.corda.workflows.services.StepTiming;
+import com.jtk.corda.workflows.services.TermAllocationService;
 import com.jtk.corda.workflows.utils.CustomQuery;
 import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 import net.corda.core.concurrent.CordaFuture;
 import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.LinearPointer;
+import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowSession;
+import net.corda.core.flows.SendStateAndRefFlow;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.node.NetworkParameters;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.VaultService;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.testing.core.TestIdentity;
 import net.corda.testing.node.MockNetwork;
@@ -36,19 +62,37 @@ import org.json.JSONObject;
 import org.json.JSONTokener;
 import org.junit.After;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 public class FlowTests {
 
@@ -156,6 +200,19 @@ public class FlowTests {
         assertEquals("AAA",jArray.getJSONObject(0).get("creditRating"));
     }
 
+    @Test
+    public void testPartyDirectoryTracksNetworkMapByOrganisationUnit() {
+        PartyDirectoryService directory = gsNode.getServices().cordaService(PartyDirectoryService.class);
+        Set<Party> banks = new HashSet<>(directory.getPartiesByOU("Bank"));
+        assertEquals(ImmutableList.of(gsParty, hsbcParty, citiParty).stream().collect(Collectors.toSet()), banks);
+        assertEquals(ImmutableList.of(observerNode.getInfo().getLegalIdentities().get(0)), directory.getPartiesByOU("Observer"));
+        assertTrue(directory.getPartiesByOU("Unknown").isEmpty());
+
+        StartedMockNode dbsNode = network.createNode(new CordaX500Name("DBS", "Bank", "DBS", "Singapore", null, "SG"));
+        network.runNetwork();
+        assertTrue(directory.getPartiesByOU("Bank").contains(dbsNode.getInfo().getLegalIdentities().get(0)));
+    }
+
     @Test
     public void testCreateAndIssueTermShouldNotifyBankAndObserversOfNewTerm() throws ExecutionException, InterruptedException {
         CordaFuture<String> future = gsNode.startFlow(new CreateAndIssueTermFlow("RFB-GS-TEST2",5,100,
@@ -220,6 +277,40 @@ public class FlowTests {
         total = hsbcNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("GBP")).get();
         assertEquals(0, new BigDecimal("1950000.00").compareTo(total)); // because the fractionDigits is 2 for currencies
     }
+
+    @Test
+    public void testFlowStepsAreTimedPerFlowAndStep() throws Exception {
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "GBP", hsbcParty));
+        network.runNetwork();
+        CordaFuture<String> future = gsNode.startFlow(new CreateAndIssueTermFlow("RFB-GS-TEST-TIMING",3.2,1000,
+                1000,"20270806", "CB", "GBP", "AAA",2));
+        network.runNetwork();
+        String termLinearId = ((JSONObject) new JSONTokener(future.get().split(">")[1]).nextValue())
+                .getString("linearId");
+        hsbcNode.startFlow(new RequestForBondInitiatorFlow(UniqueIdentifier.Companion.fromString(termLinearId), 10));
+        network.runNetwork();
+
+        FlowStepTimingService hsbcTimings = hsbcNode.getServices().cordaService(FlowStepTimingService.class);
+        for (String step : Arrays.asList("Validating Authorized Nodes", "Fetch Term States", "Sending digital currency",
+                "Signing Transaction")) {
+            StepTiming timing = hsbcTimings.getTiming(RequestForBondInitiatorFlow.class, step);
+            assertNotNull(step, timing);
+            assertEquals(step, 1L, timing.getCount());
+            assertTrue(timing.getMaxMillis() >= timing.getP50Millis());
+        }
+        // the issuer times its side of the request, and only the flows it ran
+        FlowStepTimingService gsTimings = gsNode.getServices().cordaService(FlowStepTimingService.class);
+        assertTrue(gsTimings.getTimings().stream()
+                .anyMatch(timing -> timing.getFlow().equals(RequestForBondResponderFlow.class.getName())));
+        assertTrue(gsTimings.getTimings().stream()
+                .noneMatch(timing -> timing.getFlow().equals(RequestForBondInitiatorFlow.class.getName())));
+
+        ObjectName name = new ObjectName(FlowStepTimingService.JMX_DOMAIN + ":type=FlowStepTiming"
+                + ",node=" + ObjectName.quote("HSBC")
+                + ",flow=" + ObjectName.quote(RequestForBondInitiatorFlow.class.getName())
+                + ",step=" + ObjectName.quote("Sending digital currency"));
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Count"));
+    }
     @Test
     public void testIssueCash() throws ExecutionException, InterruptedException {
         CordaFuture<String> future = cbNode.startFlow(new CreateCashFlow("2123456789.987654","INR",79.63));
@@ -361,6 +452,30 @@ public class FlowTests {
 
     }
 
+    @Test
+    public void testMultiTransferNetsLegsIntoOneTransactionPerCurrency() throws ExecutionException, InterruptedException {
+        List<TransferTokenFlow.TransferLeg> legs = ImmutableList.of(
+                new TransferTokenFlow.TransferLeg(hsbcParty, "100", "GBP"),
+                new TransferTokenFlow.TransferLeg(citiParty, "200", "GBP"),
+                new TransferTokenFlow.TransferLeg(hsbcParty, "50.50", "GBP"),
+                new TransferTokenFlow.TransferLeg(gsParty, "10", "PHP"));
+        CordaFuture<List<SignedTransaction>> future = cbNode.startFlow(new TransferTokenFlow.MultiTransferTokenInitiator(legs));
+        network.runNetwork();
+        List<SignedTransaction> transactions = future.get();
+        assertEquals("One transaction per currency", 2, transactions.size());
+
+        // HSBC, CITI and the Central Bank change
+        List<FungibleToken> gbpOutputs = transactions.get(0).getTx().outputsOfType(FungibleToken.class);
+        assertEquals(3, gbpOutputs.size());
+
+        BigDecimal total = hsbcNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("GBP")).get();
+        assertEquals(0, new BigDecimal("150.50").compareTo(total));
+        total = citiNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("GBP")).get();
+        assertEquals(0, new BigDecimal("200.00").compareTo(total));
+        total = gsNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("PHP")).get();
+        assertEquals(0, new BigDecimal("10.00").compareTo(total));
+    }
+
     @Test
     public void testCouponPayment() throws ExecutionException, InterruptedException {
         // move 2 million to HSBC
@@ -439,6 +554,336 @@ public class FlowTests {
         assertNotEquals(nnCouponDate, bond50.getNextCouponDate());
     }
 
+    @Test
+    public void testBatchCouponPaymentSettlesEachBatchInOneTransaction() throws ExecutionException, InterruptedException {
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "THB", hsbcParty));
+        network.runNetwork();
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "THB", citiParty));
+        network.runNetwork();
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "THB", gsParty));
+        network.runNetwork();
+
+        LocalDate maturityDate = LocalDate.now().plusYears(1);
+        CordaFuture<String> future = gsNode.startFlow(new CreateAndIssueTermFlow("RFB-GS-TEST-BATCH-COUPON",3.2,1000,
+                1000, maturityDate.format(locateDateformat), "CB", "THB", "AAA",2));
+        network.runNetwork();
+        String response = future.get().split(">")[1];
+        String termLinearId = ((JSONObject) new JSONTokener(response).nextValue()).getString("linearId");
+
+        CordaFuture<String> hsbcBond = hsbcNode.startFlow(new RequestForBondInitiatorFlow(UniqueIdentifier.Companion.fromString(termLinearId), 50));
+        network.runNetwork();
+        String hsbcBondId = ((JSONObject) new JSONTokener(hsbcBond.get()).nextValue()).getString("bondIdentifier");
+        CordaFuture<String> citiBond = citiNode.startFlow(new RequestForBondInitiatorFlow(UniqueIdentifier.Companion.fromString(termLinearId), 100));
+        network.runNetwork();
+        String citiBondId = ((JSONObject) new JSONTokener(citiBond.get()).nextValue()).getString("bondIdentifier");
+        assertNotEquals(hsbcBondId, citiBondId);
+
+        BondState hsbcBondState = CustomQuery.queryBondByLinearID(UniqueIdentifier.Companion.fromString(hsbcBondId), gsNode.getServices())
+                .getState().getData();
+        BigDecimal hsbcBefore = hsbcNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("THB")).get();
+        BigDecimal citiBefore = citiNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("THB")).get();
+
+        CordaFuture<String> batchFuture = gsNode.startFlow(new BatchCouponPaymentFlow(hsbcBondState.getNextCouponDate(), 10));
+        network.runNetwork();
+        JSONObject result = (JSONObject) new JSONTokener(batchFuture.get()).nextValue();
+        log.info("Batch coupon payment: \n {}", result.toString(2));
+        assertEquals(2, result.getInt("bondsPaid"));
+        JSONArray batches = result.getJSONArray("batches");
+        assertEquals(1, batches.length());
+        assertEquals(2, batches.getJSONObject(0).getInt("bonds"));
+        assertEquals(2, batches.getJSONObject(0).getInt("holders"));
+        assertEquals("THB", batches.getJSONObject(0).getString("currency"));
+
+        // coupon = parValue * (rate / payments per year) * tokens held
+        BigDecimal hsbcAfter = hsbcNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("THB")).get();
+        assertEquals(hsbcBefore.doubleValue() + (1000 * (3.2 / 6) * 50), hsbcAfter.doubleValue(), 0.01);
+        BigDecimal citiAfter = citiNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("THB")).get();
+        assertEquals(citiBefore.doubleValue() + (1000 * (3.2 / 6) * 100), citiAfter.doubleValue(), 0.01);
+
+        for (String bondId : ImmutableList.of(hsbcBondId, citiBondId)) {
+            BondState paid = CustomQuery.queryBondByLinearID(UniqueIdentifier.Companion.fromString(bondId), observerNode.getServices())
+                    .getState().getData();
+            assertEquals(hsbcBondState.getCouponPaymentLeft() - 1, paid.getCouponPaymentLeft());
+            assertNotEquals(hsbcBondState.getNextCouponDate(), paid.getNextCouponDate());
+        }
+    }
+
+    @Test
+    public void testCouponPaymentFansOutToManyHoldersInParallel() throws ExecutionException, InterruptedException {
+        // the banks must be on the network before the term is issued so they receive the TermState
+        int holders = 8;
+        List<StartedMockNode> bankNodes = new ArrayList<>();
+        for (int i = 0; i < holders; i++) {
+            StartedMockNode bankNode = network.createNode(new CordaX500Name("Bank " + i, "Bank",
+                    "Bank " + i, "London", null, "GB"));
+            cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("100000", "GBP",
+                    bankNode.getInfo().getLegalIdentities().get(0)));
+            network.runNetwork();
+            bankNodes.add(bankNode);
+        }
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "GBP", gsParty));
+        network.runNetwork();
+        LocalDate maturityDate = LocalDate.now().plusYears(1);
+        CordaFuture<String> future = gsNode.startFlow(new CreateAndIssueTermFlow("RFB-GS-TEST-FAN-OUT",3.2,1000,
+                1000, maturityDate.format(locateDateformat), "CB", "GBP", "AAA",2));
+        network.runNetwork();
+        String response = future.get().split(">")[1];
+        String termLinearId = ((JSONObject) new JSONTokener(response).nextValue()).getString("linearId");
+
+        String bondLinearId = null;
+        for (StartedMockNode bankNode : bankNodes) {
+            CordaFuture<String> bondFuture = bankNode.startFlow(
+                    new RequestForBondInitiatorFlow(UniqueIdentifier.Companion.fromString(termLinearId), 10));
+            network.runNetwork();
+            bondLinearId = ((JSONObject) new JSONTokener(bondFuture.get()).nextValue()).getString("bondIdentifier");
+        }
+        BondState bond = CustomQuery.queryBondByLinearID(UniqueIdentifier.Companion.fromString(bondLinearId), gsNode.getServices())
+                .getState().getData();
+        assertEquals(holders, CustomQuery.queryBondRefsDueForCoupon(bond.getNextCouponDate(), gsParty, gsNode.getServices()).size());
+
+        CouponPaymentFlow couponPaymentFlow = new CouponPaymentFlow(bond.getNextCouponDate());
+        CordaFuture<String> couponFuture = gsNode.startFlow(couponPaymentFlow);
+        // every node takes one message per round: notified at once, all holders start their responder in the same
+        // round, notified one after the other the next holder only would once the previous one has answered
+        int notified = 0;
+        for (int round = 0; notified == 0 && round < 50; round++) {
+            network.runNetwork(1);
+            notified = (int) bankNodes.stream()
+                    .filter(bankNode -> !bankNode.findStateMachines(CouponPaymentResponderFlow.class).isEmpty())
+                    .count();
+        }
+        assertEquals("All holders should be notified in the same round", holders, notified);
+        network.runNetwork();
+        assertEquals(String.format("{ \"issuer\":\"%s\",\"couponDate\":\"%s\"}",
+                gsParty.getName().getCommonName(), bond.getNextCouponDate()), couponFuture.get());
+        log.info("Coupon fan-out to {} holders took {} ms", holders, couponPaymentFlow.getFanOutMillis());
+        assertTrue(CustomQuery.queryBondRefsDueForCoupon(bond.getNextCouponDate(), gsParty, gsNode.getServices()).isEmpty());
+    }
+
+    @Test
+    public void testCouponScheduleIndexesBondsByCouponDate() throws ExecutionException, InterruptedException {
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "GBP", gsParty));
+        network.runNetwork();
+        CordaFuture<String> future = gsNode.startFlow(new CreateAndIssueTermFlow("RFB-GS-TEST-SCHEDULE",3.2,1000,
+                1000, LocalDate.now().plusYears(1).format(locateDateformat), "CB", "GBP", "AAA",2));
+        network.runNetwork();
+        String response = future.get().split(">")[1];
+        String termLinearId = ((JSONObject) new JSONTokener(response).nextValue()).getString("linearId");
+        CordaFuture<String> bondFuture = hsbcNode.startFlow(
+                new RequestForBondInitiatorFlow(UniqueIdentifier.Companion.fromString(termLinearId), 10));
+        network.runNetwork();
+        UniqueIdentifier bondLinearId = UniqueIdentifier.Companion.fromString(
+                ((JSONObject) new JSONTokener(bondFuture.get()).nextValue()).getString("bondIdentifier"));
+        String couponDate = CustomQuery.queryBondByLinearID(bondLinearId, gsNode.getServices())
+                .getState().getData().getNextCouponDate();
+
+        CouponScheduleService schedule = gsNode.getServices().cordaService(CouponScheduleService.class);
+        assertTrue(schedule.isReady());
+        assertTrue(schedule.getBondsDueOn(couponDate, gsParty).contains(bondLinearId));
+        assertTrue(schedule.getBondsDueOn(couponDate, hsbcParty).isEmpty());
+
+        CordaFuture<String> dueFuture = gsNode.startFlow(new QueryCouponScheduleFlow.GetCouponsDue(0));
+        network.runNetwork();
+        JSONObject due = (JSONObject) new JSONTokener(dueFuture.get()).nextValue();
+        assertEquals(1, due.getInt("bonds"));
+        assertEquals(couponDate, due.getJSONArray("schedule").getJSONObject(0).getString("couponDate"));
+
+        gsNode.startFlow(new CouponPaymentFlow(couponDate));
+        network.runNetwork();
+        assertTrue(schedule.getBondsDueOn(couponDate, gsParty).isEmpty());
+        String nextCouponDate = CustomQuery.queryBondByLinearID(bondLinearId, gsNode.getServices())
+                .getState().getData().getNextCouponDate();
+        assertTrue(schedule.getBondsDueBetween(couponDate, nextCouponDate, gsParty).get(nextCouponDate)
+                .contains(bondLinearId));
+    }
+
+    @Test
+    public void testScheduledCouponRunPaysDueCouponsAndReschedules() throws ExecutionException, InterruptedException {
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "GBP", gsParty));
+        network.runNetwork();
+        CordaFuture<String> future = gsNode.startFlow(new CreateAndIssueTermFlow("RFB-GS-TEST-SCHEDULED",3.2,1000,
+                1000, LocalDate.now().plusYears(1).format(locateDateformat), "CB", "GBP", "AAA",2));
+        network.runNetwork();
+        String response = future.get().split(">")[1];
+        String termLinearId = ((JSONObject) new JSONTokener(response).nextValue()).getString("linearId");
+        CordaFuture<String> bondFuture = hsbcNode.startFlow(
+                new RequestForBondInitiatorFlow(UniqueIdentifier.Companion.fromString(termLinearId), 10));
+        network.runNetwork();
+        UniqueIdentifier bondLinearId = UniqueIdentifier.Companion.fromString(
+                ((JSONObject) new JSONTokener(bondFuture.get()).nextValue()).getString("bondIdentifier"));
+        BondState bond = CustomQuery.queryBondByLinearID(bondLinearId, gsNode.getServices()).getState().getData();
+
+        // a long period keeps the node's own scheduler out of the test, the run is started by hand
+        CordaFuture<Void> startFuture = gsNode.startFlow(new StartCouponPaymentFlow(3600));
+        network.runNetwork();
+        startFuture.get();
+        CordaFuture<Void> secondStart = gsNode.startFlow(new StartCouponPaymentFlow(3600));
+        network.runNetwork();
+        try {
+            secondStart.get();
+            fail("An issuer can only have one coupon schedule");
+        } catch (ExecutionException e) {
+            log.info("Second coupon schedule refused: {}", e.getCause().getMessage());
+        }
+        List<StateAndRef<CouponPaymentState>> schedules = gsNode.getServices().getVaultService()
+                .queryBy(CouponPaymentState.class).getStates();
+        assertEquals(1, schedules.size());
+        StateAndRef<CouponPaymentState> schedule = schedules.get(0);
+
+        CordaFuture<String> runFuture = gsNode.startFlow(new ScheduledCouponPaymentFlow(schedule.getRef()));
+        network.runNetwork();
+        JSONObject run = (JSONObject) new JSONTokener(runFuture.get()).nextValue();
+        assertEquals(bond.getNextCouponDate(), run.getString("lastCouponDate"));
+        BondState paidBond = CustomQuery.queryBondByLinearID(bondLinearId, gsNode.getServices()).getState().getData();
+        assertEquals(bond.getCouponPaymentLeft() - 1, paidBond.getCouponPaymentLeft());
+
+        schedules = gsNode.getServices().getVaultService().queryBy(CouponPaymentState.class).getStates();
+        assertEquals(1, schedules.size());
+        assertNotEquals(schedule.getRef(), schedules.get(0).getRef());
+        CouponPaymentState next = schedules.get(0).getState().getData();
+        assertEquals(bond.getNextCouponDate(), next.getLastCouponDate());
+        assertTrue(next.getNextActivityTime().isAfter(schedule.getState().getData().getNextActivityTime()));
+    }
+
+    @Test
+    public void testBatchRedemptionSettlesTermInOneTransactionPerCurrency() throws ExecutionException, InterruptedException {
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "GBP", gsParty));
+        network.runNetwork();
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "GBP", hsbcParty));
+        network.runNetwork();
+        CordaFuture<String> future = gsNode.startFlow(new CreateAndIssueTermFlow("RFB-GS-TEST-BATCH-REDEEM",3.2,1000,
+                1000, LocalDate.now().plusYears(1).format(locateDateformat), "CB", "GBP", "AAA",2));
+        network.runNetwork();
+        String response = future.get().split(">")[1];
+        String termLinearId = ((JSONObject) new JSONTokener(response).nextValue()).getString("linearId");
+        UniqueIdentifier termId = UniqueIdentifier.Companion.fromString(termLinearId);
+        hsbcNode.startFlow(new RequestForBondInitiatorFlow(termId, 10));
+        network.runNetwork();
+
+        BigDecimal gsBefore = gsNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("GBP")).get();
+        BigDecimal hsbcBefore = hsbcNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("GBP")).get();
+
+        CordaFuture<String> redeemFuture = gsNode.startFlow(new RedeemCouponPaymentFlow.BatchRedeemInitiator(termId));
+        network.runNetwork();
+        JSONObject redemption = (JSONObject) new JSONTokener(redeemFuture.get()).nextValue();
+        assertEquals(1, redemption.getInt("bondsRedeemed"));
+        assertEquals(1, redemption.getJSONArray("currencies").length());
+
+        // principal of the 10 tokens plus the coupon due today
+        double redeemed = 1000.0 * 10 + (1000 * (3.2 / 6)) * 10;
+        BigDecimal gsAfter = gsNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("GBP")).get();
+        BigDecimal hsbcAfter = hsbcNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("GBP")).get();
+        assertEquals(gsBefore.doubleValue() - redeemed, gsAfter.doubleValue(), 0.01);
+        assertEquals(hsbcBefore.doubleValue() + redeemed, hsbcAfter.doubleValue(), 0.01);
+
+        assertEquals(0L, hsbcNode.startFlow(new QueryBondToken.GetTokenBalance(termLinearId)).get().longValue());
+        JSONArray bonds = new JSONArray(gsNode.startFlow(
+                new QueryBondsFlow.GetInActiveBondByTermStateLinearID(termId)).get());
+        assertEquals(1, bonds.length());
+        assertEquals(BondStatus.MATURED.name(), bonds.getJSONObject(0).getString("bondStatus"));
+        JSONObject term = (JSONObject) new JSONTokener(gsNode.startFlow(
+                new QueryBondTermsFlow.GetNotActiveBondTermByTermStateLinearID(termId)).get()).nextValue();
+        assertEquals(BondStatus.MATURED.name(), term.getString("bondStatus"));
+    }
+
+    @Test
+    public void testBatchRedemptionRejectedByHolderWhenUnderpaid() throws ExecutionException, InterruptedException {
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "GBP", gsParty));
+        network.runNetwork();
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "GBP", hsbcParty));
+        network.runNetwork();
+        CordaFuture<String> future = gsNode.startFlow(new CreateAndIssueTermFlow("RFB-GS-TEST-UNDERPAID-REDEEM",3.2,
+                1000, 1000, LocalDate.now().plusYears(1).format(locateDateformat), "CB", "GBP", "AAA",2));
+        network.runNetwork();
+        String termLinearId = ((JSONObject) new JSONTokener(future.get().split(">")[1]).nextValue())
+                .getString("linearId");
+        UniqueIdentifier termId = UniqueIdentifier.Companion.fromString(termLinearId);
+        hsbcNode.startFlow(new RequestForBondInitiatorFlow(termId, 10));
+        network.runNetwork();
+        BigDecimal hsbcBefore = hsbcNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("GBP")).get();
+
+        CordaFuture<String> redeemFuture = gsNode.startFlow(new UnderpayingBatchRedeemInitiator(termId));
+        network.runNetwork();
+        try {
+            redeemFuture.get();
+            fail("Expected the holder to refuse signing an underpaid redemption");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("is owed"));
+        }
+        // nothing was redeemed or paid
+        assertEquals(10L, hsbcNode.startFlow(new QueryBondToken.GetTokenBalance(termLinearId)).get().longValue());
+        assertEquals(hsbcBefore.doubleValue(),
+                hsbcNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("GBP")).get().doubleValue(), 0.01);
+        JSONArray bonds = new JSONArray(gsNode.startFlow(new QueryBondsFlow.GetBondByTermStateLinearID(termId)).get());
+        assertEquals(1, bonds.length());
+        assertEquals(BondStatus.ACTIVE.name(), bonds.getJSONObject(0).getString("bondStatus"));
+    }
+
+    /**
+     * Batch redemption by an issuer paying half of what its holders are owed.
+     */
+    public static class UnderpayingBatchRedeemInitiator extends RedeemCouponPaymentFlow.BatchRedeemInitiator {
+        public UnderpayingBatchRedeemInitiator(UniqueIdentifier termId) {
+            super(termId);
+        }
+
+        @Override
+        protected double redemptionAmount(BondState bs, long tokens, LocalDate redemptionDate) {
+            return super.redemptionAmount(bs, tokens, redemptionDate) / 2;
+        }
+    }
+
+    @Test
+    public void testBatchCouponRejectedByHolderWhenUnderpaid() throws ExecutionException, InterruptedException {
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "GBP", gsParty));
+        network.runNetwork();
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "GBP", hsbcParty));
+        network.runNetwork();
+        CordaFuture<String> future = gsNode.startFlow(new CreateAndIssueTermFlow("RFB-GS-TEST-UNDERPAID-COUPON",3.2,
+                1000, 1000, LocalDate.now().plusYears(1).format(locateDateformat), "CB", "GBP", "AAA",2));
+        network.runNetwork();
+        String termLinearId = ((JSONObject) new JSONTokener(future.get().split(">")[1]).nextValue())
+                .getString("linearId");
+        UniqueIdentifier termId = UniqueIdentifier.Companion.fromString(termLinearId);
+        CordaFuture<String> hsbcBond = hsbcNode.startFlow(new RequestForBondInitiatorFlow(termId, 10));
+        network.runNetwork();
+        String hsbcBondId = ((JSONObject) new JSONTokener(hsbcBond.get()).nextValue()).getString("bondIdentifier");
+        BondState before = CustomQuery.queryBondByLinearID(UniqueIdentifier.Companion.fromString(hsbcBondId),
+                gsNode.getServices()).getState().getData();
+        BigDecimal hsbcBefore = hsbcNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("GBP")).get();
+
+        CordaFuture<String> couponFuture = gsNode.startFlow(
+                new UnderpayingBatchCouponPaymentFlow(before.getNextCouponDate()));
+        network.runNetwork();
+        try {
+            couponFuture.get();
+            fail("Expected the holder to refuse signing an underpaid coupon batch");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("is owed"));
+        }
+        // no coupon was paid and the bond still waits for it
+        assertEquals(hsbcBefore.doubleValue(),
+                hsbcNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("GBP")).get().doubleValue(), 0.01);
+        BondState after = CustomQuery.queryBondByLinearID(UniqueIdentifier.Companion.fromString(hsbcBondId),
+                gsNode.getServices()).getState().getData();
+        assertEquals(before.getCouponPaymentLeft(), after.getCouponPaymentLeft());
+        assertEquals(before.getNextCouponDate(), after.getNextCouponDate());
+    }
+
+    /**
+     * Batch coupon payment by an issuer paying half of the coupon its holders are owed.
+     */
+    public static class UnderpayingBatchCouponPaymentFlow extends BatchCouponPaymentFlow {
+        public UnderpayingBatchCouponPaymentFlow(String couponDate) {
+            super(couponDate);
+        }
+
+        @Override
+        protected double couponAmount(BondState bs, long tokens) {
+            return super.couponAmount(bs, tokens) / 2;
+        }
+    }
+
     @Test
     public void testTransferBondTokenAndPerformCouponPayment() throws ExecutionException, InterruptedException {
         final Integer totalBankAccount = new Integer("2000000");
@@ -531,6 +976,309 @@ public class FlowTests {
         assertEquals(totalCitiAmount.doubleValue() + (coupon2), totalWithCoupon.doubleValue(),0.01); // because the fractionDigits is 2 for currencies
     }
 
+    @Test
+    public void testDvPTransferSettlesBondsAndCashInOneTransaction() throws ExecutionException, InterruptedException {
+        final Integer totalBankAccount = new Integer("2000000");
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator(totalBankAccount.toString(), "PHP", hsbcParty));
+        network.runNetwork();
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator(totalBankAccount.toString(), "PHP", citiParty));
+        network.runNetwork();
+
+        CordaFuture<String> future = gsNode.startFlow(new CreateAndIssueTermFlow(
+                "DvP-GS-TEST-BOND",3.2, 1000,
+                1000, "20270806", "CB",
+                "PHP", "AAA",2));
+        network.runNetwork();
+        String termLinearId = ((JSONObject) new JSONTokener(future.get().split(">")[1]).nextValue())
+                .getString("linearId");
+        UniqueIdentifier termId = UniqueIdentifier.Companion.fromString(termLinearId);
+
+        hsbcNode.startFlow(new RequestForBondInitiatorFlow(termId, 50));
+        network.runNetwork();
+        hsbcNode.startFlow(new BondAskFlow.PostBondAsk(termId, 40, 50));
+        network.runNetwork();
+
+        BigDecimal hsbcBefore = hsbcNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("PHP")).get();
+        BigDecimal citiBefore = citiNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("PHP")).get();
+
+        CordaFuture<String> transferFut = citiNode.startFlow(
+                new InterBankBondTransferFlow.DvPTransferInitiator(termId, 5, 200, hsbcParty));
+        network.runNetwork();
+        JSONObject transfer = new JSONObject(transferFut.get());
+
+        assertEquals(5L, citiNode.startFlow(new QueryBondToken.GetTokenBalance(termLinearId)).get().longValue());
+        assertEquals(45L, hsbcNode.startFlow(new QueryBondToken.GetTokenBalance(termLinearId)).get().longValue());
+        assertEquals(citiBefore.doubleValue() - 200,
+                citiNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("PHP")).get().doubleValue(), 0.01);
+        assertEquals(hsbcBefore.doubleValue() + 200,
+                hsbcNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("PHP")).get().doubleValue(), 0.01);
+        assertEquals(1, new JSONArray(citiNode.startFlow(new QueryBondsFlow.GetBondByTermStateLinearID(termId)).get())
+                .length());
+
+        // bond tokens and cash moved in the one transaction, which the observer recorded as well
+        SecureHash txId = SecureHash.parse(transfer.getString("transactionId"));
+        SignedTransaction stx = citiNode.getServices().getValidatedTransactions().getTransaction(txId);
+        assertNotNull(stx);
+        Set<String> movedTokenTypes = stx.getTx().outputsOfType(FungibleToken.class).stream()
+                .map(token -> token.getTokenType().getTokenIdentifier())
+                .collect(Collectors.toSet());
+        assertEquals(2, movedTokenTypes.size());
+        assertTrue(movedTokenTypes.contains(termLinearId));
+        assertNotNull(observerNode.getServices().getValidatedTransactions().getTransaction(txId));
+
+        // a rejected transfer moves neither leg
+        transferFut = citiNode.startFlow(new InterBankBondTransferFlow.DvPTransferInitiator(termId, 50, 200, hsbcParty));
+        network.runNetwork();
+        assertEquals("Failed validation for Bond Transfer request - NotEnoughBonds",
+                new JSONObject(transferFut.get()).getString("errorMsg"));
+        assertEquals(45L, hsbcNode.startFlow(new QueryBondToken.GetTokenBalance(termLinearId)).get().longValue());
+        assertEquals(citiBefore.doubleValue() - 200,
+                citiNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("PHP")).get().doubleValue(), 0.01);
+    }
+
+    @Test
+    public void testDvPTransferBelowTheSellersAskIsRejected() throws ExecutionException, InterruptedException {
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "PHP", hsbcParty));
+        network.runNetwork();
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "PHP", citiParty));
+        network.runNetwork();
+        CordaFuture<String> future = gsNode.startFlow(new CreateAndIssueTermFlow(
+                "DvP-GS-TEST-LOWBALL",3.2, 1000,
+                1000, "20270806", "CB",
+                "PHP", "AAA",2));
+        network.runNetwork();
+        String termLinearId = ((JSONObject) new JSONTokener(future.get().split(">")[1]).nextValue())
+                .getString("linearId");
+        UniqueIdentifier termId = UniqueIdentifier.Companion.fromString(termLinearId);
+        hsbcNode.startFlow(new RequestForBondInitiatorFlow(termId, 50));
+        network.runNetwork();
+        BigDecimal citiBefore = citiNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("PHP")).get();
+
+        // nothing is sold before the holder has asked a price
+        CordaFuture<String> transferFut = citiNode.startFlow(
+                new InterBankBondTransferFlow.DvPTransferInitiator(termId, 5, 5000, hsbcParty));
+        network.runNetwork();
+        assertEquals("Failed validation for Bond Transfer request - NoAsk",
+                new JSONObject(transferFut.get()).getString("errorMsg"));
+
+        CordaFuture<String> askFut = citiNode.startFlow(new BondAskFlow.QueryBondAsk(termId, hsbcParty));
+        network.runNetwork();
+        assertEquals(0, new JSONObject(askFut.get()).getInt("units"));
+
+        // a buyer offering 1 per unit against an ask of 1000 per unit is turned away
+        hsbcNode.startFlow(new BondAskFlow.PostBondAsk(termId, 1000, 50));
+        network.runNetwork();
+        askFut = citiNode.startFlow(new BondAskFlow.QueryBondAsk(termId, hsbcParty));
+        network.runNetwork();
+        assertEquals(1000, new JSONObject(askFut.get()).getInt("unitPrice"));
+        assertEquals(50, new JSONObject(askFut.get()).getInt("units"));
+        transferFut = citiNode.startFlow(new InterBankBondTransferFlow.DvPTransferInitiator(termId, 5, 5, hsbcParty));
+        network.runNetwork();
+        assertEquals("Failed validation for Bond Transfer request - BelowAsk",
+                new JSONObject(transferFut.get()).getString("errorMsg"));
+        assertEquals(50L, hsbcNode.startFlow(new QueryBondToken.GetTokenBalance(termLinearId)).get().longValue());
+        assertEquals(0L, citiNode.startFlow(new QueryBondToken.GetTokenBalance(termLinearId)).get().longValue());
+        assertEquals(citiBefore.doubleValue(),
+                citiNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("PHP")).get().doubleValue(), 0.01);
+        assertEquals(50, hsbcNode.getServices().cordaService(BondAskService.class).ask(termId).getUnits());
+
+        // at the ask it settles and the units are taken off the ask
+        transferFut = citiNode.startFlow(new InterBankBondTransferFlow.DvPTransferInitiator(termId, 5, 5000, hsbcParty));
+        network.runNetwork();
+        assertEquals(5, new JSONObject(transferFut.get()).getInt("amount"));
+        assertEquals(45, hsbcNode.getServices().cordaService(BondAskService.class).ask(termId).getUnits());
+    }
+
+    @Test
+    public void testRetriedAllocationAwaitGetsTheSameOutcome() throws Exception {
+        TermAllocationService allocations = gsNode.getServices().cordaService(TermAllocationService.class);
+        UniqueIdentifier termId = new UniqueIdentifier();
+        long leader = allocations.request(termId, hsbcParty, 10);
+        long follower = allocations.request(termId, citiParty, 5);
+
+        CompletableFuture<TermAllocationService.Allocation> lead = allocations.outcome(leader).execute("lead-1");
+        assertTrue(lead.get().isLead());
+        assertSame(lead, allocations.outcome(leader).execute("lead-1"));
+
+        CompletableFuture<TermAllocationService.Allocation> waiting = allocations.outcome(follower).execute("wait-1");
+        assertSame(waiting, allocations.outcome(follower).execute("wait-1"));
+        assertEquals(2, allocations.takeBatch(termId).size());
+        TermAllocationService.Allocation ok = new TermAllocationService.Allocation("OK", "bond", null);
+        allocations.complete(leader, ok);
+        allocations.complete(follower, ok);
+        allocations.handOff(termId);
+
+        assertSame(ok, waiting.get());
+        assertSame(ok, allocations.outcome(leader).execute("lead-2").get());
+        // retried once the ticket is done, it still gets its allocation rather than failing
+        assertSame(ok, allocations.outcome(leader).execute("lead-2").get());
+        assertSame(ok, allocations.outcome(follower).execute("wait-1").get());
+    }
+
+    @Test
+    public void testBulkRequestForBondsAcrossIssuers() throws ExecutionException, InterruptedException {
+        final Integer totalBankAccount = new Integer("2000000");
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator(totalBankAccount.toString(), "PHP", hsbcParty));
+        network.runNetwork();
+
+        List<String> termIds = new ArrayList<>();
+        for (StartedMockNode issuer : Arrays.asList(gsNode, gsNode, citiNode)) {
+            CordaFuture<String> future = issuer.startFlow(new CreateAndIssueTermFlow(
+                    "BULK-TEST-BOND-" + termIds.size(),3.2, 1000,
+                    1000, "20270806", "CB",
+                    "PHP", "AAA",2));
+            network.runNetwork();
+            termIds.add(((JSONObject) new JSONTokener(future.get().split(">")[1]).nextValue()).getString("linearId"));
+        }
+        BigDecimal hsbcBefore = hsbcNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("PHP")).get();
+
+        // the two GS terms go over one session, and the same term twice is a single request
+        CordaFuture<String> bulkFut = hsbcNode.startFlow(new BulkRequestForBondFlow.BulkRequestForBondInitiator(
+                Arrays.asList(
+                        new BulkRequestForBondFlow.BondPurchase(termIds.get(0), 10),
+                        new BulkRequestForBondFlow.BondPurchase(termIds.get(1), 20),
+                        new BulkRequestForBondFlow.BondPurchase(termIds.get(2), 30),
+                        new BulkRequestForBondFlow.BondPurchase(termIds.get(0), 5))));
+        network.runNetwork();
+        JSONObject bulk = new JSONObject(bulkFut.get());
+
+        assertEquals(2, bulk.getInt("issuers"));
+        assertEquals(65, bulk.getInt("unitsIssued"));
+        assertEquals(1, bulk.getJSONArray("cashTransactions").length());
+        JSONArray purchased = bulk.getJSONArray("purchases");
+        assertEquals(3, purchased.length());
+        for (int i = 0; i < purchased.length(); i++) {
+            assertEquals("OK", purchased.getJSONObject(i).getString("status"));
+        }
+        assertEquals(15L, hsbcNode.startFlow(new QueryBondToken.GetTokenBalance(termIds.get(0))).get().longValue());
+        assertEquals(20L, hsbcNode.startFlow(new QueryBondToken.GetTokenBalance(termIds.get(1))).get().longValue());
+        assertEquals(30L, hsbcNode.startFlow(new QueryBondToken.GetTokenBalance(termIds.get(2))).get().longValue());
+        assertEquals(hsbcBefore.doubleValue() - 65 * 1000,
+                hsbcNode.startFlow(new QueryCashTokenFlow.GetTokenBalance("PHP")).get().doubleValue(), 0.01);
+        StateAndRef<TermState> gsTerm = CustomQuery.queryActiveTermsByTermStateLinearID(
+                UniqueIdentifier.Companion.fromString(termIds.get(0)), gsNode.getServices());
+        assertEquals(985, gsTerm.getState().getData().getUnitsAvailable());
+
+        // asking for more than a term has left fails before any issuer is contacted
+        bulkFut = hsbcNode.startFlow(new BulkRequestForBondFlow.BulkRequestForBondInitiator(
+                Collections.singletonList(new BulkRequestForBondFlow.BondPurchase(termIds.get(2), 971))));
+        network.runNetwork();
+        try {
+            bulkFut.get();
+            fail("Expected the bulk request to be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("more bonds than available"));
+        }
+    }
+
+    @Test
+    public void testCoalescedAllocationOfConcurrentBondRequests() throws ExecutionException, InterruptedException {
+        final Integer totalBankAccount = new Integer("2000000");
+        for (Party bank : Arrays.asList(hsbcParty, citiParty)) {
+            cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator(totalBankAccount.toString(), "PHP", bank));
+            network.runNetwork();
+        }
+        gsNode.startFlow(new BondAllocationModeFlow(true));
+        network.runNetwork();
+        CordaFuture<String> future = gsNode.startFlow(new CreateAndIssueTermFlow(
+                "COALESCED-TEST-BOND",3.2, 1000,
+                1000, "20270806", "CB",
+                "PHP", "AAA",2));
+        network.runNetwork();
+        String termLinearId = ((JSONObject) new JSONTokener(future.get().split(">")[1]).nextValue())
+                .getString("linearId");
+        UniqueIdentifier termId = UniqueIdentifier.Companion.fromString(termLinearId);
+
+        // both investors hold the same TermState version, only one of them could be served without coalescing
+        CordaFuture<String> hsbcFut = hsbcNode.startFlow(new RequestForBondInitiatorFlow(termId, 300));
+        CordaFuture<String> citiFut = citiNode.startFlow(new RequestForBondInitiatorFlow(termId, 200));
+        network.runNetwork();
+        assertEquals(300, new JSONObject(hsbcFut.get()).getInt("amount"));
+        assertEquals("HSBC", new JSONObject(hsbcFut.get()).getString("holder"));
+        assertEquals(200, new JSONObject(citiFut.get()).getInt("amount"));
+        assertEquals(300L, hsbcNode.startFlow(new QueryBondToken.GetTokenBalance(termLinearId)).get().longValue());
+        assertEquals(200L, citiNode.startFlow(new QueryBondToken.GetTokenBalance(termLinearId)).get().longValue());
+        TermState term = CustomQuery.queryActiveTermsByTermStateLinearID(termId, gsNode.getServices())
+                .getState().getData();
+        assertEquals(500, term.getUnitsAvailable());
+        assertEquals(500, term.getRedemptionAvailable());
+        assertTrue(term.getInvestors().containsAll(Arrays.asList(hsbcParty, citiParty)));
+
+        // more demand than units left, the later request of the queue is turned away
+        hsbcFut = hsbcNode.startFlow(new RequestForBondInitiatorFlow(termId, 400));
+        citiFut = citiNode.startFlow(new RequestForBondInitiatorFlow(termId, 400));
+        network.runNetwork();
+        int served = 0;
+        for (CordaFuture<String> request : Arrays.asList(hsbcFut, citiFut)) {
+            try {
+                assertEquals(400, new JSONObject(request.get()).getInt("amount"));
+                served++;
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getMessage().contains("Cash couldn't be transferred"));
+            }
+        }
+        assertEquals(1, served);
+        assertEquals(100, CustomQuery.queryActiveTermsByTermStateLinearID(termId, gsNode.getServices())
+                .getState().getData().getUnitsAvailable());
+    }
+
+    @Test
+    public void testCoalescedAllocationPutsUnitsBackWhenIssuanceFails() throws ExecutionException, InterruptedException {
+        cbNode.startFlow(new TransferTokenFlow.TransferTokenInitiator("2000000", "PHP", hsbcParty));
+        network.runNetwork();
+        gsNode.startFlow(new BondAllocationModeFlow(true));
+        network.runNetwork();
+        CordaFuture<String> future = gsNode.startFlow(new CreateAndIssueTermFlow(
+                "COALESCED-FAILED-TEST-BOND",3.2, 1000,
+                1000, "20270806", "CB",
+                "PHP", "AAA",2));
+        network.runNetwork();
+        String termLinearId = ((JSONObject) new JSONTokener(future.get().split(">")[1]).nextValue())
+                .getString("linearId");
+        UniqueIdentifier termId = UniqueIdentifier.Companion.fromString(termLinearId);
+
+        // the term is updated for the observer, then its BondState is refused as it is not a bank
+        CordaFuture<String> request = observerNode.startFlow(new NonBankBondRequest(termId, 300));
+        network.runNetwork();
+        assertEquals("AllocationFailed", request.get());
+        TermState term = CustomQuery.queryActiveTermsByTermStateLinearID(termId, gsNode.getServices())
+                .getState().getData();
+        assertEquals(1000, term.getUnitsAvailable());
+        assertEquals(0, term.getRedemptionAvailable());
+        assertFalse(term.getInvestors().contains(observerNode.getInfo().getLegalIdentities().get(0)));
+
+        // the units put back can still be allocated
+        CordaFuture<String> hsbcFut = hsbcNode.startFlow(new RequestForBondInitiatorFlow(termId, 1000));
+        network.runNetwork();
+        assertEquals(1000, new JSONObject(hsbcFut.get()).getInt("amount"));
+    }
+
+    /**
+     * Bond request by a party that is not a bank, which RequestForBondInitiatorFlow would refuse to send.
+     */
+    public static class NonBankBondRequest extends RequestForBondInitiatorFlow {
+        private final UniqueIdentifier termId;
+        private final int units;
+
+        public NonBankBondRequest(UniqueIdentifier termId, int units) {
+            super(termId, units);
+            this.termId = termId;
+            this.units = units;
+        }
+
+        @Suspendable
+        @Override
+        protected String doCall() throws FlowException {
+            StateAndRef<TermState> termStateAndRef = CustomQuery.queryActiveTermsByTermStateLinearID(termId,
+                    getServiceHub());
+            FlowSession session = initiateFlow(termStateAndRef.getState().getData().getIssuer());
+            subFlow(new SendStateAndRefFlow(session, ImmutableList.of(termStateAndRef)));
+            return session.sendAndReceive(RequestForBondResponderFlow.BondRequestNotification.class,
+                    new RequestForBondResponderFlow.BondRequestNotification(getOurIdentity(), units, "PENDING", ""))
+                    .unwrap(RequestForBondResponderFlow.BondRequestNotification::getStatus);
+        }
+    }
+
     @Test
     public void redeemBondEarly() throws ExecutionException, InterruptedException {
         final Integer totalBankAccount = new Integer("2000000");
@@ -608,4 +1356,93 @@ public class FlowTests {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testTermQueriesDoNotResolvePointersPerRow() throws ExecutionException, InterruptedException {
+        final int extraTerms = 5;
+        for (int i = 0; i < extraTerms; i++) {
+            gsNode.startFlow(new CreateAndIssueTermFlow("RFB-GS-TEST-N" + i, 3.2, 1000,
+                    1000, "20270806", "CB", "USD", "AAA", 2));
+            network.runNetwork();
+        }
+        // one USD term is already created in setup
+        final int expectedTerms = extraTerms + 1;
+
+        AtomicInteger vaultQueries = new AtomicInteger();
+        ServiceHub countingServices = countVaultQueries(gsNode.getServices(), vaultQueries);
+
+        List<TermState> terms = gsNode.transaction(() ->
+                CustomQuery.queryTermsPointerByCurrency("USD", countingServices));
+        log.info("queryTermsPointerByCurrency returned {} terms with {} vault queries", terms.size(), vaultQueries.get());
+        assertEquals(expectedTerms, terms.size());
+        assertEquals("Terms should be read with a single vault query", 1, vaultQueries.get());
+
+        vaultQueries.set(0);
+        List<LinearPointer<TermState>> pointers = terms.stream()
+                .map(ts -> ts.toPointer().getPointer())
+                .collect(Collectors.toList());
+        Map<UniqueIdentifier, StateAndRef<TermState>> resolved = gsNode.transaction(() ->
+                CustomQuery.resolveLinearPointers(pointers, TermState.class, countingServices));
+        log.info("resolveLinearPointers resolved {} pointers with {} vault queries", resolved.size(), vaultQueries.get());
+        assertEquals(expectedTerms, resolved.size());
+        assertEquals("Pointers should be resolved with a single vault query", 1, vaultQueries.get());
+    }
+
+    @Test
+    public void testQueryBondTermsPageWithCursor() throws ExecutionException, InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            gsNode.startFlow(new CreateAndIssueTermFlow("RFB-GS-TEST-PAGE" + i, 3.2, 1000,
+                    1000, "20270806", "CB", "USD", "AAA", 2));
+            network.runNetwork();
+        }
+        // 4 terms above plus the USD term created in setup, read 2 at a time
+        Set<String> termIds = new HashSet<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            String response = observerNode.startFlow(
+                    new QueryBondTermsFlow.GetBondTermsPage("byCurrency", "USD", 1, 2, cursor)).get();
+            JSONObject page = new JSONObject(response);
+            JSONArray states = page.getJSONArray("states");
+            assertTrue(states.length() <= 2);
+            for (int i = 0; i < states.length(); i++) {
+                assertTrue("Terms should not repeat across pages",
+                        termIds.add(states.getJSONObject(i).getString("linearId")));
+            }
+            cursor = page.isNull("nextCursor") ? null : page.getString("nextCursor");
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(5, termIds.size());
+        assertEquals(3, pages);
+    }
+
+    /**
+     * Wraps the node's ServiceHub so every vault query made through it, including the ones issued by
+     * LinearPointer.resolve, is counted.
+     */
+    private static ServiceHub countVaultQueries(ServiceHub services, AtomicInteger counter) {
+        VaultService vaultService = services.getVaultService();
+        VaultService countingVault = (VaultService) Proxy.newProxyInstance(VaultService.class.getClassLoader(),
+                new Class<?>[]{VaultService.class},
+                (proxy, method, args) -> {
+                    if (method.getName().startsWith("queryBy") || method.getName().equals("_queryBy")) {
+                        counter.incrementAndGet();
+                    }
+                    return invokeDelegate(vaultService, method, args);
+                });
+        return (ServiceHub) Proxy.newProxyInstance(ServiceHub.class.getClassLoader(),
+                new Class<?>[]{ServiceHub.class},
+                (proxy, method, args) -> method.getName().equals("getVaultService")
+                        ? countingVault
+                        : invokeDelegate(services, method, args));
+    }
+
+    private static Object invokeDelegate(Object delegate, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}